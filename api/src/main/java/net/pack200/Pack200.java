@@ -107,6 +107,27 @@ public abstract class Pack200 {
      */
     public static interface Packer {
 
+        /**
+         * if {@code true}, the codecs chosen for the bands of the first
+         * segment are remembered and tried first for similar bands of the
+         * others; the default is {@code false}.
+         */
+        static final String ANALYSIS_CACHE = "pack.analysis.cache";//$NON-NLS-1$
+
+        /**
+         * a file the remembered codec choices are read from before packing
+         * and written to afterwards, which turns on
+         * {@code pack.analysis.cache}.
+         */
+        static final String ANALYSIS_CACHE_FILE = "pack.analysis.cache.file";//$NON-NLS-1$
+
+        /**
+         * if it is {@code true}, each segment transmits its size, so that an
+         * unpacker can find where it ends without decoding it, and decode
+         * the segments concurrently; the default is {@code false}.
+         */
+        static final String ARCHIVE_SIZE = "pack.archive.size";//$NON-NLS-1$
+
         /**
          * the format of a class attribute name.
          */
@@ -178,6 +199,19 @@ public abstract class Pack200 {
          */
         static final String PASS_FILE_PFX = "pack.pass.file.";//$NON-NLS-1$
 
+        /**
+         * the length from which a band's codecs are analysed concurrently,
+         * or {@code 0} (the default) to always analyse them serially.
+         */
+        static final String PARALLEL_ANALYSIS = "pack.parallel.analysis";//$NON-NLS-1$
+
+        /**
+         * if it is {@code true}, the classes of a segment are parsed
+         * concurrently and then added to its bands in order, which gives the
+         * same result; the default is {@code false}.
+         */
+        static final String PARALLEL_PARSING = "pack.parallel.parsing";//$NON-NLS-1$
+
         /**
          * packer progress as a percentage.
          */
@@ -193,6 +227,20 @@ public abstract class Pack200 {
          */
         static final String STRIP = "strip";//$NON-NLS-1$
 
+        /**
+         * the number of threads used to pack segments concurrently, or
+         * {@code 0} for one per available processor.
+         */
+        static final String THREADS = "pack.threads";//$NON-NLS-1$
+
+        /**
+         * a wall-clock time limit for packing, in milliseconds, shared out
+         * between the segments, which are packed at {@code pack.effort} or a
+         * lower effort to keep within it; the default is {@code 0}, for no
+         * limit.
+         */
+        static final String TIME_BUDGET = "pack.time.budget";//$NON-NLS-1$
+
         /**
          * a String representation of {@code true}.
          */
@@ -203,6 +251,19 @@ public abstract class Pack200 {
          */
         static final String UNKNOWN_ATTRIBUTE = "pack.unknown.attribute";//$NON-NLS-1$
 
+        /**
+         * the name of a file to read the codecs chosen for each band of each
+         * segment by an earlier build from; they are tried first, and other
+         * families of codecs only for bands not in the file.
+         */
+        static final String USE_PROFILE = "pack.use.profile";//$NON-NLS-1$
+
+        /**
+         * the name of a file to write the codecs chosen for each band of
+         * each segment to, which may be the same as {@code pack.use.profile}.
+         */
+        static final String WRITE_PROFILE = "pack.write.profile";//$NON-NLS-1$
+
         /**
          * Returns a sorted map of the properties of this packer.
          *
@@ -274,11 +335,33 @@ public abstract class Pack200 {
          */
         static final String KEEP = "keep";//$NON-NLS-1$
 
+        /**
+         * if it is {@code true}, whole segments are decoded concurrently on
+         * the {@code unpack.threads} threads and written in order; only the
+         * segments that give their size can be sliced from the input without
+         * decoding them, so the others are decoded in turn as they are read.
+         * The default is {@code false}.
+         */
+        static final String PARALLEL_SEGMENTS = "unpack.parallel.segments";//$NON-NLS-1$
+
+        /**
+         * if it is {@code true}, each segment is read while the one before it
+         * has its class files built and the one before that is written, each
+         * on its own thread; the default is {@code false}.
+         */
+        static final String PIPELINE = "unpack.pipeline";//$NON-NLS-1$
+
         /**
          * the progress as a {@code percentage}.
          */
         static final String PROGRESS = "unpack.progress";//$NON-NLS-1$
 
+        /**
+         * the number of threads used to build the class files of a segment
+         * concurrently, or {@code 0} for one per available processor.
+         */
+        static final String THREADS = "unpack.threads";//$NON-NLS-1$
+
         /**
          * a String representation of {@code true}.
          */
@@ -137,24 +137,21 @@ class AttributeDefinitionBands extends BandSet {
             attributeDefinitionLayout[i] = def.layout.getIndex();
         }
 
-        byte[] encodedBand = encodeBandInt("attributeDefinitionHeader",
-                attributeDefinitionHeader, Codec.BYTE1);
-        out.write(encodedBand);
-        PackingUtils.log("Wrote " + encodedBand.length
+        int encodedLength = writeBandInt("attributeDefinitionHeader",
+                attributeDefinitionHeader, Codec.BYTE1, out);
+        PackingUtils.log("Wrote " + encodedLength
                 + " bytes from attributeDefinitionHeader["
                 + attributeDefinitionHeader.length + "]");
 
-        encodedBand = encodeBandInt("attributeDefinitionName",
-                attributeDefinitionName, Codec.UNSIGNED5);
-        out.write(encodedBand);
-        PackingUtils.log("Wrote " + encodedBand.length
+        encodedLength = writeBandInt("attributeDefinitionName",
+                attributeDefinitionName, Codec.UNSIGNED5, out);
+        PackingUtils.log("Wrote " + encodedLength
                 + " bytes from attributeDefinitionName["
                 + attributeDefinitionName.length + "]");
 
-        encodedBand = encodeBandInt("attributeDefinitionLayout",
-                attributeDefinitionLayout, Codec.UNSIGNED5);
-        out.write(encodedBand);
-        PackingUtils.log("Wrote " + encodedBand.length
+        encodedLength = writeBandInt("attributeDefinitionLayout",
+                attributeDefinitionLayout, Codec.UNSIGNED5, out);
+        PackingUtils.log("Wrote " + encodedLength
                 + " bytes from attributeDefinitionLayout["
                 + attributeDefinitionLayout.length + "]");
     }
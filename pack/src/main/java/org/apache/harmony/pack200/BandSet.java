@@ -18,15 +18,14 @@ package org.apache.harmony.pack200;
 
 import java.io.IOException;
 import java.io.OutputStream;
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Comparator;
-import java.util.HashMap;
-import java.util.Iterator;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Map;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
 import org.apache.harmony.unpack200.common.Pack200Exception;
 import org.apache.harmony.unpack200.codec.BHSDCodec;
+import org.apache.harmony.unpack200.codec.ByteSink;
 import org.apache.harmony.unpack200.codec.CodecEncoding;
 import org.apache.harmony.unpack200.codec.PopulationCodec;
 import org.apache.harmony.unpack200.codec.Codec;
@@ -40,12 +39,17 @@ abstract class BandSet {
     protected final SegmentHeader segmentHeader;
     final int effort;
 
+    // Bands are encoded into this before being written out, unless the
+    // stream being written to is a ByteSink
+    private ByteSink buffer;
+
     // Minimum size of band for each effort level where we consider alternative codecs
     // Note: these values have been tuned - please test carefully if changing them
     private static final int[] effortThresholds = new int[] {0, 0, 1000, 500, 100, 100, 100, 100, 100, 0};
 
-    private long[] canonicalLargest;
-    private long[] canonicalSmallest;
+    // The number of codecs whose encoded lengths are worked out by each task
+    // when the codecs for a band are analysed concurrently
+    private static final int CODECS_PER_TASK = 64;
 
     /**
      * Create a new BandSet
@@ -87,6 +91,39 @@ abstract class BandSet {
         return codec.encode(value);
     }
 
+    /**
+     * Write a band encoded with the given Codec, without considering other
+     * Codecs
+     * @param band - the band
+     * @param codec - the Codec to use
+     * @param out - the stream to write the encoded band to
+     * @return the number of bytes written
+     * @throws IOException
+     * @throws Pack200Exception
+     */
+    protected int writeScalar(int[] band, BHSDCodec codec, OutputStream out) throws IOException, Pack200Exception {
+        ByteSink sink = startWriting(out);
+        int start = sink.size();
+        codec.encode(band, sink);
+        return finishWriting(sink, start, out);
+    }
+
+    /**
+     * Write a single value encoded with the given Codec
+     * @param value - the value to encode
+     * @param codec - Codec to use
+     * @param out - the stream to write the encoded value to
+     * @return the number of bytes written
+     * @throws IOException
+     * @throws Pack200Exception
+     */
+    protected int writeScalar(int value, BHSDCodec codec, OutputStream out) throws IOException, Pack200Exception {
+        ByteSink sink = startWriting(out);
+        int start = sink.size();
+        codec.encode(value, 0, sink);
+        return finishWriting(sink, start, out);
+    }
+
     /**
      * Encode a band of integers. The default codec may be used, but other
      * Codecs are considered if effort is greater than 1.
@@ -101,15 +138,79 @@ abstract class BandSet {
      * @throws Pack200Exception
      */
     public byte[] encodeBandInt(String name, int[] ints, BHSDCodec defaultCodec) throws Pack200Exception {
-        byte[] encodedBand = null;
+        ByteSink sink = new ByteSink(ints.length + 1);
+        encodeBandInt(name, ints, defaultCodec, sink);
+        return sink.toByteArray();
+    }
+
+    /**
+     * Write a band of integers. The default codec may be used, but other
+     * Codecs are considered if effort is greater than 1.
+     *
+     * @param name
+     *            - name of the band (used for debugging)
+     * @param ints
+     *            - the band
+     * @param defaultCodec
+     *            - the default Codec
+     * @param out
+     *            - the stream to write the encoded band to
+     * @return the number of bytes written
+     * @throws IOException
+     * @throws Pack200Exception
+     */
+    protected int writeBandInt(String name, int[] ints, BHSDCodec defaultCodec, OutputStream out) throws IOException, Pack200Exception {
+        ByteSink sink = startWriting(out);
+        int start = sink.size();
+        encodeBandInt(name, ints, defaultCodec, sink);
+        return finishWriting(sink, start, out);
+    }
+
+    /*
+     * Bands are encoded straight into the stream if it is a ByteSink, and
+     * into a buffer that is reused for every band otherwise
+     */
+    private ByteSink startWriting(OutputStream out) {
+        if(out instanceof ByteSink) {
+            return (ByteSink) out;
+        }
+        if(buffer == null) {
+            buffer = new ByteSink(1024);
+        } else {
+            buffer.reset();
+        }
+        return buffer;
+    }
+
+    private int finishWriting(ByteSink sink, int start, OutputStream out) throws IOException {
+        if(sink != out) {
+            sink.writeTo(out);
+        }
+        return sink.size() - start;
+    }
+
+    /**
+     * Encode a band of integers into the given ByteSink. The default codec may
+     * be used, but other Codecs are considered if effort is greater than 1.
+     *
+     * @param name
+     *            - name of the band (used for debugging)
+     * @param ints
+     *            - the band
+     * @param defaultCodec
+     *            - the default Codec
+     * @param sink
+     *            - the ByteSink to append the encoded band to
+     * @throws Pack200Exception
+     */
+    public void encodeBandInt(String name, int[] ints, BHSDCodec defaultCodec, ByteSink sink) throws Pack200Exception {
      // Useful for debugging
 //        if(ints.length > 0) {
 //            System.out.println("encoding " + name + " " + ints.length);
 //        }
-        if(effort > 1 && (ints.length >= effortThresholds[effort])) {
+        if(effort > 1 && (ints.length >= effortThresholds[effort]) && !outOfTime(true)) {
             BandAnalysisResults results = analyseBand(name, ints, defaultCodec);
             Codec betterCodec = results.betterCodec;
-            encodedBand = results.encodedBand;
             if(betterCodec != null) {
                 if(betterCodec instanceof BHSDCodec) {
                     int[] specifierBand = CodecEncoding.getSpecifier(betterCodec, defaultCodec);
@@ -124,364 +225,439 @@ abstract class BandSet {
                     } else {
                         specifier = specifier + defaultCodec.getL();
                     }
-                    byte[] specifierEncoded = defaultCodec.encode(new int[] {specifier});
-                    byte[] band = new byte[specifierEncoded.length + encodedBand.length];
-                    System.arraycopy(specifierEncoded, 0, band, 0, specifierEncoded.length);
-                    System.arraycopy(encodedBand, 0, band, specifierEncoded.length, encodedBand.length);
-                    return band;
+                    defaultCodec.encode(specifier, 0, sink);
+                    betterCodec.encode(ints, sink);
+                    return;
                 } else if (betterCodec instanceof PopulationCodec) {
                     int[] extraSpecifierInfo = results.extraMetadata;
                     for (int i = 0; i < extraSpecifierInfo.length; i++) {
                         segmentHeader.appendBandCodingSpecifier(extraSpecifierInfo[i]);
                     }
-                    return encodedBand;
+                    defaultCodec.encode(results.specifier, 0, sink);
+                    ((PopulationCodec) betterCodec).encode(results.favoured,
+                            results.tokens, results.unfavoured, sink);
+                    return;
                 } else if (betterCodec instanceof RunCodec) {
-
+                    int[] extraSpecifierInfo = results.extraMetadata;
+                    for (int i = 0; i < extraSpecifierInfo.length; i++) {
+                        segmentHeader.appendBandCodingSpecifier(extraSpecifierInfo[i]);
+                    }
+                    defaultCodec.encode(results.specifier, 0, sink);
+                    int k = ((RunCodec) betterCodec).getK();
+                    encodeRunPart(ints, 0, k, results.aResults, defaultCodec, sink);
+                    encodeRunPart(ints, k, ints.length, results.bResults, defaultCodec, sink);
+                    return;
                 }
             }
         }
 
         // If we get here then we've decided to use the default codec.
         if(ints.length > 0) {
-            if(encodedBand == null) {
-                encodedBand = defaultCodec.encode(ints);
-            }
             int first = ints[0];
             if(defaultCodec.getB() != 1) {
                 if (defaultCodec.isSigned() && first >= -256 && first <= -1) {
                     int specifier = -1 - CodecEncoding.getSpecifierForDefaultCodec(defaultCodec);
-                    byte[] specifierEncoded = defaultCodec.encode(new int[] {specifier});
-                    byte[] band = new byte[specifierEncoded.length + encodedBand.length];
-                    System.arraycopy(specifierEncoded, 0, band, 0, specifierEncoded.length);
-                    System.arraycopy(encodedBand, 0, band, specifierEncoded.length, encodedBand.length);
-                    return band;
+                    defaultCodec.encode(specifier, 0, sink);
                 } else if (!defaultCodec.isSigned() && first >= defaultCodec.getL()
                         && first <= defaultCodec.getL() + 255) {
                     int specifier = CodecEncoding.getSpecifierForDefaultCodec(defaultCodec) + defaultCodec.getL();
-                    byte[] specifierEncoded = defaultCodec.encode(new int[] {specifier});
-                    byte[] band = new byte[specifierEncoded.length + encodedBand.length];
-                    System.arraycopy(specifierEncoded, 0, band, 0, specifierEncoded.length);
-                    System.arraycopy(encodedBand, 0, band, specifierEncoded.length, encodedBand.length);
-                    return band;
+                    defaultCodec.encode(specifier, 0, sink);
                 }
             }
-            return encodedBand;
+            defaultCodec.encode(ints, sink);
         }
-        return new byte[0];
+    }
+
+    /*
+     * Once a segment packed with a time budget has used its share of the
+     * time, its bands are encoded with the default codec (or the best codec
+     * found so far) so that it can finish
+     */
+    private boolean outOfTime(boolean record) {
+        TimeBudget.Allowance allowance = segmentHeader.getTimeAllowance();
+        if(allowance == null || !allowance.isUsedUp()) {
+            return false;
+        }
+        if(record) {
+            allowance.bandNotAnalysed();
+        }
+        return true;
+    }
+
+    /*
+     * Large bands are analysed concurrently if the segment has a parallel
+     * analysis threshold. The tasks are forked from the current thread, so
+     * they run on the pool packing the segment, or on the common pool.
+     */
+    private boolean analyseInParallel(int[] band) {
+        int threshold = segmentHeader.getParallelAnalysisThreshold();
+        return threshold > 0 && band.length >= threshold;
     }
 
     private BandAnalysisResults analyseBand(String name, int[] band,
             BHSDCodec defaultCodec) throws Pack200Exception {
 
         BandAnalysisResults results = new BandAnalysisResults();
-
-        if(canonicalLargest == null) {
-            canonicalLargest = new long[116];
-            canonicalSmallest = new long[116];
-            for (int i = 1; i < canonicalLargest.length; i++) {
-                canonicalLargest[i] = CodecEncoding.getCanonicalCodec(i).largest();
-                canonicalSmallest[i] = CodecEncoding.getCanonicalCodec(i).smallest();
-            }
+        boolean parallel = analyseInParallel(band);
+
+        BandData bandData;
+        CodecCostModel costModel;
+        if(parallel) {
+            BandDataTask bandDataTask = new BandDataTask(band);
+            bandDataTask.fork();
+            costModel = new CodecCostModel(band);
+            bandData = bandDataTask.getResult();
+        } else {
+            bandData = new BandData(band);
+            costModel = new CodecCostModel(band);
         }
-        BandData bandData = new BandData(band);
 
         // Check that there is a reasonable saving to be made
-        byte[] encoded = defaultCodec.encode(band);
-        results.encodedBand = encoded;
+        int defaultLength = (int) costModel.encodedLength(defaultCodec);
+        results.defaultLength = defaultLength;
 
         // Note: these values have been tuned - please test carefully if changing them
-        if(encoded.length <= band.length + 23 - 2*effort) { // TODO: tweak
+        if(defaultLength <= band.length + 23 - 2*effort) { // TODO: tweak
             return results;
         }
 
         // Check if we can use BYTE1 as that's a 1:1 mapping if we can
         if(!bandData.anyNegatives() && bandData.largest <= Codec.BYTE1.largest()) {
-              results.encodedBand = Codec.BYTE1.encode(band)  ;
               results.betterCodec = Codec.BYTE1;
               return results;
         }
 
+        // A band like one analysed before only tries the codecs that were
+        // chosen for bands of its name, starting with the one chosen for it
+        CodecAnalysisCache cache = segmentHeader.getAnalysisCache();
+        long fingerprint = 0;
+        int families = -1;
+        if(cache != null) {
+            fingerprint = CodecAnalysisCache.fingerprint(band.length,
+                    bandData.smallest, bandData.largest,
+                    costModel.getSmallestDelta(), costModel.getLargestDelta(),
+                    bandData.numDistinctValues(), bandData.mostFrequentCount());
+            CodecAnalysisCache.Choice choice = cache.lookup(name, fingerprint);
+            if(choice != null) {
+                families = cache.getFamilies(name);
+                if(choice.getCodec() != null) {
+                    tryCodecs(defaultCodec, costModel, results,
+                            new BHSDCodec[] {choice.getCodec()}, false);
+                }
+            }
+        }
+
+        // A band in the profile of an earlier build tries the codec chosen
+        // for it then, and only the families chosen for bands of its name
+        CodecProfile profile = segmentHeader.getCodecProfile();
+        if(profile != null && profile.isUsed()) {
+            CodecAnalysisCache.Choice choice = profile.lookup(
+                    segmentHeader.getSegmentNumber(), name);
+            if(choice != null && choice.getCodec() != null) {
+                tryCodecs(defaultCodec, costModel, results,
+                        new BHSDCodec[] {choice.getCodec()}, false);
+            }
+            int profileFamilies = profile.getFamilies(name);
+            if(profileFamilies != -1) {
+                families = families == -1 ? profileFamilies : families | profileFamilies;
+            }
+        }
+
         // Consider a population codec (but can't be nested)
-        if(effort > 3 && !name.equals("POPULATION")) {
+        boolean tryPopulationCodec = false;
+        if(effort > 3 && !name.startsWith("POPULATION") && (families & CodecAnalysisCache.POPULATION) != 0) {
             int numDistinctValues = bandData.numDistinctValues();
             float distinctValuesAsProportion = (float)numDistinctValues / (float)band.length;
 
             // Note: these values have been tuned - please test carefully if changing them
             if(numDistinctValues < 100 || distinctValuesAsProportion < 0.02 ||  (effort > 6 && distinctValuesAsProportion < 0.04)) { // TODO: tweak
-                encodeWithPopulationCodec(name, band, defaultCodec, bandData, results);
-                if(timeToStop(results)) {
-                    return results;
-                }
+                tryPopulationCodec = true;
             }
         }
 
-        List codecFamiliesToTry = new ArrayList();
+        // The population codec is tried alongside the other codecs, but
+        // against its own results, and is only used if it saves more than
+        // the best of them (as it would be if it was tried after them)
+        AnalysisTask<BandAnalysisResults> populationTask = null;
+        if(parallel && tryPopulationCodec) {
+            populationTask = new PopulationCodecTask(name, band,
+                    defaultCodec, bandData, defaultLength);
+            populationTask.fork();
+        }
 
-        // See if the deltas are mainly small increments
-        if(bandData.mainlyPositiveDeltas() && bandData.mainlySmallDeltas()) {
-            codecFamiliesToTry.add(CanonicalCodecFamilies.deltaUnsignedCodecs2);
+        // Work out the size of the band with every canonical codec, and with
+        // every other (b,h,s,d) combination at higher effort levels
+        tryCodecs(defaultCodec, costModel, results, families == -1 ? CodecCostModel
+                .getCanonicalCodecs() : CodecAnalysisCache.getCanonicalCodecs(families), parallel);
+        if(effort > 6 && !outOfTime(false)) {
+            tryCodecs(defaultCodec, costModel, results, families == -1 ? CodecCostModel
+                    .getNonCanonicalCodecs() : CodecAnalysisCache.getNonCanonicalCodecs(families), parallel);
         }
 
-        if (bandData.wellCorrelated()) { // Try delta encodings
-            if (bandData.mainlyPositiveDeltas()) {
-                codecFamiliesToTry.add(CanonicalCodecFamilies.deltaUnsignedCodecs1);
-                codecFamiliesToTry.add(CanonicalCodecFamilies.deltaUnsignedCodecs3);
-                codecFamiliesToTry.add(CanonicalCodecFamilies.deltaUnsignedCodecs4);
-                codecFamiliesToTry.add(CanonicalCodecFamilies.deltaUnsignedCodecs5);
-                codecFamiliesToTry.add(CanonicalCodecFamilies.nonDeltaUnsignedCodecs1);
-                codecFamiliesToTry.add(CanonicalCodecFamilies.nonDeltaUnsignedCodecs3);
-                codecFamiliesToTry.add(CanonicalCodecFamilies.nonDeltaUnsignedCodecs4);
-                codecFamiliesToTry.add(CanonicalCodecFamilies.nonDeltaUnsignedCodecs5);
-                codecFamiliesToTry.add(CanonicalCodecFamilies.nonDeltaUnsignedCodecs2);
-            } else {
-                codecFamiliesToTry.add(CanonicalCodecFamilies.deltaSignedCodecs1);
-                codecFamiliesToTry.add(CanonicalCodecFamilies.deltaSignedCodecs3);
-                codecFamiliesToTry.add(CanonicalCodecFamilies.deltaSignedCodecs2);
-                codecFamiliesToTry.add(CanonicalCodecFamilies.deltaSignedCodecs4);
-                codecFamiliesToTry.add(CanonicalCodecFamilies.deltaSignedCodecs5);
-                codecFamiliesToTry.add(CanonicalCodecFamilies.nonDeltaSignedCodecs1);
-                codecFamiliesToTry.add(CanonicalCodecFamilies.nonDeltaSignedCodecs2);
+        if(populationTask != null) {
+            BandAnalysisResults populationResults = populationTask.getResult();
+            results.numCodecsTried += populationResults.numCodecsTried;
+            if(populationResults.saved > results.saved) {
+                results.saved = populationResults.saved;
+                results.extraMetadata = populationResults.extraMetadata;
+                results.specifier = populationResults.specifier;
+                results.favoured = populationResults.favoured;
+                results.tokens = populationResults.tokens;
+                results.unfavoured = populationResults.unfavoured;
+                results.betterCodec = populationResults.betterCodec;
             }
-        } else {
-            if (bandData.anyNegatives()) {
-                codecFamiliesToTry.add(CanonicalCodecFamilies.nonDeltaSignedCodecs1);
-                codecFamiliesToTry.add(CanonicalCodecFamilies.nonDeltaSignedCodecs2);
-                codecFamiliesToTry.add(CanonicalCodecFamilies.deltaSignedCodecs1);
-                codecFamiliesToTry.add(CanonicalCodecFamilies.deltaSignedCodecs2);
-                codecFamiliesToTry.add(CanonicalCodecFamilies.deltaSignedCodecs3);
-                codecFamiliesToTry.add(CanonicalCodecFamilies.deltaSignedCodecs4);
-                codecFamiliesToTry.add(CanonicalCodecFamilies.deltaSignedCodecs5);
-            } else {
-                codecFamiliesToTry.add(CanonicalCodecFamilies.nonDeltaUnsignedCodecs1);
-                codecFamiliesToTry.add(CanonicalCodecFamilies.nonDeltaUnsignedCodecs3);
-                codecFamiliesToTry.add(CanonicalCodecFamilies.nonDeltaUnsignedCodecs4);
-                codecFamiliesToTry.add(CanonicalCodecFamilies.nonDeltaUnsignedCodecs5);
-                codecFamiliesToTry.add(CanonicalCodecFamilies.nonDeltaUnsignedCodecs2);
-                codecFamiliesToTry.add(CanonicalCodecFamilies.deltaUnsignedCodecs1);
-                codecFamiliesToTry.add(CanonicalCodecFamilies.deltaUnsignedCodecs3);
-                codecFamiliesToTry.add(CanonicalCodecFamilies.deltaUnsignedCodecs4);
-                codecFamiliesToTry.add(CanonicalCodecFamilies.deltaUnsignedCodecs5);
-            }
-        }
-        if(name.equalsIgnoreCase("cpint")) {
-            System.out.print("");
+        } else if(tryPopulationCodec) {
+            encodeWithPopulationCodec(name, band, defaultCodec, bandData, results);
         }
 
-        for (Iterator iterator = codecFamiliesToTry.iterator(); iterator
-                .hasNext();) {
-            BHSDCodec[] family = (BHSDCodec[]) iterator.next();
-            tryCodecs(name, band, defaultCodec, bandData, results, encoded,
-                    family);
-            if (timeToStop(results)) {
-                break;
-            }
+        // Consider splitting the band with a run codec (but not inside
+        // another run codec or a population codec)
+        // Note: these values have been tuned - please test carefully if changing them
+        if(effort > 6 && band.length >= 1000 && !name.startsWith("POPULATION") && !name.startsWith("RUN")
+                && (families & CodecAnalysisCache.RUN) != 0 && !outOfTime(false)) {
+            encodeWithRunCodec(name, band, defaultCodec, results);
         }
 
+        if(cache != null) {
+            cache.record(name, fingerprint, results.betterCodec);
+        }
+        if(profile != null) {
+            profile.record(segmentHeader.getSegmentNumber(), name,
+                    results.betterCodec, results.saved);
+        }
         return results;
     }
 
-    private boolean timeToStop(BandAnalysisResults results) {
-        // if tried more than effort number of codecs for this band then return
-        // Note: these values have been tuned - please test carefully if changing them
-        if(effort > 6) {
-            return results.numCodecsTried >= effort * 2;
+    private void tryCodecs(BHSDCodec defaultCodec, CodecCostModel costModel,
+            BandAnalysisResults results, BHSDCodec[] potentialCodecs,
+            boolean parallel) throws Pack200Exception {
+        // The lengths can be worked out concurrently, but are compared in
+        // order so that the same codec is chosen for a band either way
+        long[] lengths = null;
+        if(parallel) {
+            lengths = new long[potentialCodecs.length];
+            new CodecLengthsTask(costModel, potentialCodecs, lengths, 0,
+                    potentialCodecs.length).invoke();
         }
-        return results.numCodecsTried >= effort;
-        // May want to also check how much we've saved if performance needs improving, e.g. saved more than effort*2 %
-        // || (float)results.saved/(float)results.encodedBand.length > (float)effort * 2/100;
-    }
-
-    private void tryCodecs(String name, int[] band, BHSDCodec defaultCodec, BandData bandData,
-            BandAnalysisResults results, byte[] encoded,
-            BHSDCodec[] potentialCodecs) throws Pack200Exception {
         for (int i = 0; i < potentialCodecs.length; i++) {
             BHSDCodec potential = potentialCodecs[i];
             if(potential.equals(defaultCodec)) {
-                return; // don't try codecs with greater cardinality in the same 'family' as the default codec as there won't be any savings
-            }
-            if (potential.isDelta()) {
-                if (potential.largest() >= bandData.largestDelta
-                        && potential.smallest() <= bandData.smallestDelta
-                        && potential.largest() >= bandData.largest
-                        && potential.smallest() <= bandData.smallest) {
-                    // TODO: can represent some negative deltas with overflow
-                    byte[] encoded2 = potential.encode(band);
-                    results.numCodecsTried++;
-                    byte[] specifierEncoded = defaultCodec.encode(CodecEncoding
-                            .getSpecifier(potential, null));
-                    int saved = encoded.length - encoded2.length
-                            - specifierEncoded.length;
-                    if (saved > results.saved) {
-                        results.betterCodec = potential;
-                        results.encodedBand = encoded2;
-                        results.saved = saved;
-                    }
-                }
-            } else if (potential.largest() >= bandData.largest
-                    && potential.smallest() <= bandData.smallest) {
-                byte[] encoded2 = potential.encode(band);
-                results.numCodecsTried++;
-                byte[] specifierEncoded = defaultCodec.encode(CodecEncoding
-                        .getSpecifier(potential, null));
-                int saved = encoded.length - encoded2.length
-                        - specifierEncoded.length;
-                if (saved > results.saved) {
-                    results.betterCodec = potential;
-                    results.encodedBand = encoded2;
-                    results.saved = saved;
-                }
+                continue;
             }
-            if(timeToStop(results)) {
-                return;
+            long length = lengths != null ? lengths[i] : costModel.encodedLength(potential);
+            results.numCodecsTried++;
+            if(length < 0 || results.defaultLength - length - 1 <= results.saved) {
+                continue; // can't encode this band, or can't be any better
+            }
+            int saved = (int) (results.defaultLength - length - specifierLength(potential, defaultCodec));
+            if (saved > results.saved) {
+                results.betterCodec = potential;
+                results.saved = saved;
             }
         }
     }
 
-// This could be useful if further enhancements are done but is not currently used
-//
-//    private void encodeWithRunCodec(String name, int[] band, int index,
-//            BHSDCodec defaultCodec, BandData bandData,
-//            BandAnalysisResults results) throws Pack200Exception {
-//        int[] firstBand = new int[index];
-//        int[] secondBand = new int[band.length - index];
-//        System.arraycopy(band, 0, firstBand, 0, index);
-//        System.arraycopy(band, index, secondBand, 0, secondBand.length);
-//        BandAnalysisResults firstResults = analyseBand(name + "A", firstBand, defaultCodec);
-//        BandAnalysisResults secondResults = analyseBand(name + "B", secondBand, defaultCodec);
-//        int specifier = 117;
-//        byte[] specifierEncoded = defaultCodec.encode(new int[] {specifier});
-//        int totalLength = firstResults.encodedBand.length + secondResults.encodedBand.length + specifierEncoded.length + 4; // TODO actual
-//        if(totalLength < results.encodedBand.length) {
-//            System.out.println("using run codec");
-//            results.saved += results.encodedBand.length - totalLength;
-//            byte[] encodedBand = new byte[specifierEncoded.length + firstResults.encodedBand.length + secondResults.encodedBand.length];
-//            System.arraycopy(specifierEncoded, 0, encodedBand, 0, specifierEncoded.length);
-//            System.arraycopy(firstResults.encodedBand, 0, encodedBand, specifierEncoded.length, firstResults.encodedBand.length);
-//            System.arraycopy(secondResults.encodedBand, 0, encodedBand, specifierEncoded.length + firstResults.encodedBand.length, secondResults.encodedBand.length);
-//            results.encodedBand = encodedBand;
-//            results.betterCodec = new RunCodec(index, firstResults.betterCodec, secondResults.betterCodec);
-//        }
-//    }
+    /*
+     * Returns the number of bytes needed to specify the given codec in a band
+     * with the given default codec, including any bytes in band_headers
+     */
+    private int specifierLength(BHSDCodec codec, BHSDCodec defaultCodec) throws Pack200Exception {
+        int[] specifiers = CodecEncoding.getSpecifier(codec, null);
+        int specifier = specifiers[0];
+        if(defaultCodec.isSigned()) {
+            specifier = -1 -specifier;
+        } else {
+            specifier = specifier + defaultCodec.getL();
+        }
+        return defaultCodec.encode(specifier).length + specifiers.length - 1;
+    }
 
-    private void encodeWithPopulationCodec(String name, int[] band,
-            BHSDCodec defaultCodec, BandData bandData, BandAnalysisResults results) throws Pack200Exception {
+    private void encodeWithRunCodec(String name, int[] band, BHSDCodec defaultCodec,
+            BandAnalysisResults results) throws Pack200Exception {
         results.numCodecsTried += 3; // quite a bit more effort to try this codec
-        final Map distinctValues = bandData.distinctValues;
-	int size = distinctValues.size();
-        List favoured = new ArrayList(size);
-	boolean small = size < 256;
-        for (Iterator<Map.Entry> iterator = distinctValues.entrySet().iterator(); iterator
-                .hasNext();) {
-	    Map.Entry entry =  iterator.next();
-            Integer value = (Integer) entry.getKey();
-            Integer count = (Integer) entry.getValue();
-            if( small || count.intValue() > 2 ) favoured.add(value);
-        }
-
-        // Sort the favoured list with the most commonly occurring first
-        if(distinctValues.size() > 255) {
-            Collections.sort(favoured, new Comparator() {
-                public int compare(Object arg0, Object arg1) {
-                    return ((Integer)distinctValues.get(arg1)).compareTo((Integer)distinctValues.get(arg0));
-                }
-            });
+        RunCostModel costModel = new RunCostModel(band, defaultCodec,
+                CodecCostModel.getCanonicalCodecs());
+        int k = costModel.getK();
+        if(k == 0 || results.defaultLength - costModel.getLength() <= results.saved) {
+            return; // unlikely to be any better
         }
 
-        IntList unfavoured = new IntList();
-        Map favouredToIndex = new HashMap();
-        for (int i = 0; i < favoured.size(); i++) {
-            Integer value = (Integer) favoured.get(i);
-            favouredToIndex.put(value, Integer.valueOf(i));
+        // Analyse the two parts of the band to get the best codecs for them,
+        // which may be population codecs
+        int[] aBand = Arrays.copyOf(band, k);
+        int[] bBand = Arrays.copyOfRange(band, k, band.length);
+        AnalysisTask<BandAnalysisResults> bTask = null;
+        if(analyseInParallel(band)) {
+            bTask = new SubBandTask("RUN B " + name, bBand, defaultCodec);
+            bTask.fork();
+        }
+        BandAnalysisResults aResults = analyseBand("RUN A " + name, aBand, defaultCodec);
+        BandAnalysisResults bResults = bTask != null ? bTask.getResult()
+                : analyseBand("RUN B " + name, bBand, defaultCodec);
+        if(aResults.betterCodec == null && bResults.betterCodec == null) {
+            return; // no point splitting the band
+        }
+
+        int mantissa = RunCostModel.getMantissa(k);
+        int specifier = 117 + RunCostModel.getExponent(k) + (mantissa == 3 ? 0 : 4)
+                + (aResults.betterCodec == null ? 8 : 0) + (bResults.betterCodec == null ? 16 : 0);
+        IntList extraBandMetadata = new IntList(3);
+        if(mantissa != 3) {
+            extraBandMetadata.add(mantissa);
+        }
+        addRunPartSpecifiers(aResults, defaultCodec, extraBandMetadata);
+        addRunPartSpecifiers(bResults, defaultCodec, extraBandMetadata);
+        int[] extraMetadata = extraBandMetadata.toArray();
+        int extraMetadataLength = Codec.UNSIGNED5.encodedSize(extraMetadata);
+        if(defaultCodec.isSigned()) {
+            specifier = -1 -specifier;
+        } else {
+            specifier = specifier + defaultCodec.getL();
+        }
+        int totalBandLength = defaultCodec.encode(specifier, 0).length
+                + runPartLength(aBand, aResults, defaultCodec)
+                + runPartLength(bBand, bResults, defaultCodec);
+
+        int saved = results.defaultLength - (totalBandLength + extraMetadataLength);
+        if(saved > results.saved) {
+            results.saved = saved;
+            results.extraMetadata = extraMetadata;
+            results.specifier = specifier;
+            results.aResults = aResults;
+            results.bResults = bResults;
+            results.betterCodec = new RunCodec(k, runPartCodec(aResults,
+                    defaultCodec), runPartCodec(bResults, defaultCodec));
+        }
+    }
+
+    /*
+     * Adds the specifiers of the codec chosen for one part of a band split by
+     * a run codec to the metadata for band_headers (none if it is the
+     * default codec)
+     */
+    private void addRunPartSpecifiers(BandAnalysisResults partResults,
+            BHSDCodec defaultCodec, IntList extraBandMetadata) throws Pack200Exception {
+        Codec codec = partResults.betterCodec;
+        if(codec instanceof BHSDCodec) {
+            int[] specifiers = CodecEncoding.getSpecifier(codec, null);
+            for (int i = 0; i < specifiers.length; i++) {
+                extraBandMetadata.add(specifiers[i]);
+            }
+        } else if(codec instanceof PopulationCodec) {
+            // The specifier was worked out as the first value of a band
+            int specifier = partResults.specifier;
+            if(defaultCodec.isSigned()) {
+                specifier = -1 -specifier;
+            } else {
+                specifier = specifier - defaultCodec.getL();
+            }
+            extraBandMetadata.add(specifier);
+            int[] extraMetadata = partResults.extraMetadata;
+            for (int i = 0; i < extraMetadata.length; i++) {
+                extraBandMetadata.add(extraMetadata[i]);
+            }
+        }
+    }
+
+    private int runPartLength(int[] part, BandAnalysisResults partResults,
+            BHSDCodec defaultCodec) throws Pack200Exception {
+        Codec codec = partResults.betterCodec;
+        if(codec == null) {
+            return partResults.defaultLength;
+        } else if(codec instanceof PopulationCodec) {
+            return ((PopulationCodec) codec).encodedSize(partResults.favoured,
+                    partResults.tokens, partResults.unfavoured);
         }
+        return ((BHSDCodec) codec).encodedSize(part);
+    }
 
+    private Codec runPartCodec(BandAnalysisResults partResults, BHSDCodec defaultCodec) {
+        return partResults.betterCodec == null ? defaultCodec : partResults.betterCodec;
+    }
+
+    private void encodeRunPart(int[] ints, int from, int to,
+            BandAnalysisResults partResults, BHSDCodec defaultCodec,
+            ByteSink sink) throws Pack200Exception {
+        Codec codec = partResults.betterCodec;
+        if(codec instanceof PopulationCodec) {
+            ((PopulationCodec) codec).encode(partResults.favoured,
+                    partResults.tokens, partResults.unfavoured, sink);
+        } else {
+            runPartCodec(partResults, defaultCodec).encode(ints, from, to, sink);
+        }
+    }
+
+    private void encodeWithPopulationCodec(String name, int[] band,
+            BHSDCodec defaultCodec, BandData bandData, BandAnalysisResults results) throws Pack200Exception {
+        results.numCodecsTried += 3; // quite a bit more effort to try this codec
+        IntHistogram histogram = bandData.histogram;
+        PopulationCostModel costModel = new PopulationCostModel(histogram,
+                band.length, defaultCodec);
+        int[] favouredValues = costModel.getFavoured();
+        int k = favouredValues.length;
+
+        // The token for each distinct value of the band (0 if not favoured)
+        int[] tokenOfValue = new int[histogram.size()];
+        for (int i = 0; i < k; i++) {
+            tokenOfValue[histogram.indexOf(favouredValues[i])] = i + 1;
+        }
+        IntList unfavoured = new IntList();
         int[] tokens = new int[band.length];
         for (int i = 0; i < band.length; i++) {
-            Integer favouredIndex = (Integer)favouredToIndex.get(Integer.valueOf(band[i]));
-            if(favouredIndex == null) {
-                tokens[i] = 0;
+            int token = tokenOfValue[histogram.indexOf(band[i])];
+            if(token == 0) {
                 unfavoured.add(band[i]);
-            } else {
-                tokens[i] = favouredIndex.intValue() + 1;
             }
+            tokens[i] = token;
         }
-        favoured.add(favoured.get(favoured.size() - 1)); // repeat last value
-        int[] favouredBand = integerListToArray(favoured);
+        int[] favouredBand = Arrays.copyOf(favouredValues, k + 1);
+        favouredBand[k] = favouredValues[k - 1]; // repeat last value
         int[] unfavouredBand = unfavoured.toArray();
 
         // Analyse the three bands to get the best codec
-        BandAnalysisResults favouredResults = analyseBand("POPULATION", favouredBand, defaultCodec);
-        BandAnalysisResults unfavouredResults = analyseBand("POPULATION", unfavouredBand, defaultCodec);
-
-        int tdefL = 0;
-        int l = 0;
-        Codec tokenCodec = null;
-        byte[] tokensEncoded;
-        int k = favoured.size() - 1;
+        AnalysisTask<BandAnalysisResults> unfavouredTask = null;
+        AnalysisTask<BandAnalysisResults> tokenTask = null;
+        if(analyseInParallel(band)) {
+            unfavouredTask = new SubBandTask("POPULATION unfavoured " + name, unfavouredBand, defaultCodec);
+            unfavouredTask.fork();
+            if(k >= 256) {
+                tokenTask = new SubBandTask("POPULATION tokens " + name, tokens, defaultCodec);
+                tokenTask.fork();
+            }
+        }
+        BandAnalysisResults favouredResults = analyseBand("POPULATION favoured " + name, favouredBand, defaultCodec);
+        BandAnalysisResults unfavouredResults = unfavouredTask != null ? unfavouredTask
+                .getResult() : analyseBand("POPULATION unfavoured " + name, unfavouredBand, defaultCodec);
+
+        int tdefL;
+        Codec tokenCodec;
         if(k < 256) {
             tdefL = 1;
-            tokensEncoded = Codec.BYTE1.encode(tokens);
+            tokenCodec = Codec.BYTE1;
         } else {
-            BandAnalysisResults tokenResults = analyseBand("POPULATION", tokens, defaultCodec);
-            tokenCodec = tokenResults.betterCodec;
-            tokensEncoded = tokenResults.encodedBand;
-            if(tokenCodec == null) {
-                tokenCodec = defaultCodec;
-            }
-            l = ((BHSDCodec) tokenCodec).getL();
-            int h = ((BHSDCodec) tokenCodec).getH();
-            int s = ((BHSDCodec) tokenCodec).getS();
-            int b = ((BHSDCodec) tokenCodec).getB();
-            int d = ((BHSDCodec) tokenCodec).isDelta() ? 1 : 0;
-            if(s == 0 && d == 0) {
-                boolean canUseTDefL = true;
-                if(b > 1) {
-                    BHSDCodec oneLowerB = new BHSDCodec(b-1, h);
-                    if(oneLowerB.largest() >= k) {
-                        canUseTDefL = false;
-                    }
-                }
-                if(canUseTDefL) {
-                    switch (l) {
-                    case 4:
-                        tdefL = 1;
-                        break;
-                    case 8:
-                        tdefL = 2;
-                        break;
-                    case 16:
-                        tdefL = 3;
-                        break;
-                    case 32:
-                        tdefL = 4;
-                        break;
-                    case 64:
-                        tdefL = 5;
-                        break;
-                    case 128:
-                        tdefL = 6;
-                        break;
-                    case 192:
-                        tdefL = 7;
-                        break;
-                    case 224:
-                        tdefL = 8;
-                        break;
-                    case 240:
-                        tdefL = 9;
-                        break;
-                    case 248:
-                        tdefL = 10;
-                        break;
-                    case 252:
-                        tdefL = 11;
-                        break;
-                    }
-                }
+            // Use the token codec the favoured values were chosen for, unless
+            // the best codec for the tokens is smaller even when its
+            // specifier has to be sent as well
+            BandAnalysisResults tokenResults = tokenTask != null ? tokenTask
+                    .getResult() : analyseBand("POPULATION tokens " + name, tokens, defaultCodec);
+            BHSDCodec analysedCodec = tokenResults.betterCodec == null ? defaultCodec
+                    : (BHSDCodec) tokenResults.betterCodec;
+            int analysedTdefL = PopulationCostModel.getTdefL(analysedCodec, k);
+            int analysedLength = analysedCodec.encodedSize(tokens);
+            if(analysedTdefL == 0) {
+                analysedLength += Codec.UNSIGNED5.encodedSize(CodecEncoding
+                        .getSpecifier(analysedCodec, null));
+            }
+            tdefL = costModel.getTdefL();
+            BHSDCodec fastCodec = PopulationCostModel.getTokenCodec(k, tdefL);
+            if(fastCodec == null || analysedLength < fastCodec.encodedSize(tokens)) {
+                tdefL = analysedTdefL;
+                tokenCodec = analysedCodec;
+            } else {
+                tokenCodec = fastCodec;
             }
         }
 
-        byte[] favouredEncoded = favouredResults.encodedBand;
-        byte[] unfavouredEncoded = unfavouredResults.encodedBand;
         Codec favouredCodec = favouredResults.betterCodec;
         Codec unfavouredCodec = unfavouredResults.betterCodec;
 
@@ -506,29 +682,28 @@ abstract class BandSet {
             }
         }
         int[] extraMetadata = extraBandMetadata.toArray();
-        byte[] extraMetadataEncoded = Codec.UNSIGNED5.encode(extraMetadata);
+        int extraMetadataLength = Codec.UNSIGNED5.encodedSize(extraMetadata);
         if(defaultCodec.isSigned()) {
             specifier = -1 -specifier;
         } else {
             specifier = specifier + defaultCodec.getL();
         }
-        byte[] firstValueEncoded = defaultCodec.encode(new int[] {specifier});
-        int totalBandLength = firstValueEncoded.length + favouredEncoded.length + tokensEncoded.length + unfavouredEncoded.length;
-
-        if(totalBandLength + extraMetadataEncoded.length < results.encodedBand.length) {
-            results.saved += results.encodedBand.length - (totalBandLength + extraMetadataEncoded.length);
-            byte[] encodedBand = new byte[totalBandLength];
-            System.arraycopy(firstValueEncoded, 0, encodedBand, 0, firstValueEncoded.length);
-            System.arraycopy(favouredEncoded, 0, encodedBand, firstValueEncoded.length, favouredEncoded.length);
-            System.arraycopy(tokensEncoded, 0, encodedBand, firstValueEncoded.length + favouredEncoded.length, tokensEncoded.length);
-            System.arraycopy(unfavouredEncoded, 0, encodedBand, firstValueEncoded.length + favouredEncoded.length + tokensEncoded.length, unfavouredEncoded.length);
-            results.encodedBand = encodedBand;
+        PopulationCodec populationCodec = new PopulationCodec(
+                favouredCodec == null ? defaultCodec : favouredCodec,
+                tokenCodec,
+                unfavouredCodec == null ? defaultCodec : unfavouredCodec);
+        int totalBandLength = defaultCodec.encode(specifier, 0).length
+                + populationCodec.encodedSize(favouredValues, tokens, unfavouredBand);
+
+        int saved = results.defaultLength - (totalBandLength + extraMetadataLength);
+        if(saved > results.saved) {
+            results.saved = saved;
             results.extraMetadata = extraMetadata;
-            if(l != 0) {
-                results.betterCodec = new PopulationCodec(favouredCodec, l, unfavouredCodec);
-            } else {
-                results.betterCodec = new PopulationCodec(favouredCodec, tokenCodec, unfavouredCodec);
-            }
+            results.specifier = specifier;
+            results.favoured = favouredValues;
+            results.tokens = tokens;
+            results.unfavoured = unfavouredBand;
+            results.betterCodec = populationCodec;
         }
     }
 
@@ -551,12 +726,47 @@ abstract class BandSet {
      */
     protected byte[] encodeFlags(String name, long[] flags, BHSDCodec loCodec, BHSDCodec hiCodec,
             boolean haveHiFlags) throws Pack200Exception {
+        ByteSink sink = new ByteSink(flags.length + 1);
+        encodeFlags(name, flags, loCodec, hiCodec, haveHiFlags, sink);
+        return sink.toByteArray();
+    }
+
+    /**
+     * Write a band of longs (values are split into their high and low 32 bits
+     * and then encoded as two separate bands
+     *
+     * @param name
+     *            - name of the band (for debugging purposes)
+     * @param flags
+     *            - the band
+     * @param loCodec
+     *            - Codec for the low 32-bits band
+     * @param hiCodec
+     *            - Codec for the high 32-bits band
+     * @param haveHiFlags
+     *            - ignores the high band if true as all values would be zero
+     * @param out
+     *            - the stream to write the encoded band to
+     * @return the number of bytes written
+     * @throws IOException
+     * @throws Pack200Exception
+     */
+    protected int writeFlags(String name, long[] flags, BHSDCodec loCodec, BHSDCodec hiCodec,
+            boolean haveHiFlags, OutputStream out) throws IOException, Pack200Exception {
+        ByteSink sink = startWriting(out);
+        int start = sink.size();
+        encodeFlags(name, flags, loCodec, hiCodec, haveHiFlags, sink);
+        return finishWriting(sink, start, out);
+    }
+
+    private void encodeFlags(String name, long[] flags, BHSDCodec loCodec, BHSDCodec hiCodec,
+            boolean haveHiFlags, ByteSink sink) throws Pack200Exception {
         if(!haveHiFlags) {
             int[] loBits = new int[flags.length];
             for (int i = 0; i < flags.length; i++) {
                 loBits[i] = (int) flags[i];
             }
-            return encodeBandInt(name, loBits, loCodec);
+            encodeBandInt(name, loBits, loCodec, sink);
         } else {
 
             int[] hiBits = new int[flags.length];
@@ -566,12 +776,8 @@ abstract class BandSet {
                 hiBits[i] = (int) (l >> 32);
                 loBits[i] = (int) l;
             }
-            byte[] hi = encodeBandInt(name, hiBits, hiCodec);
-            byte[] lo = encodeBandInt(name, loBits, loCodec);
-            byte[] total = new byte[hi.length + lo.length];
-            System.arraycopy(hi, 0, total, 0, hi.length);
-            System.arraycopy(lo, 0, total, hi.length + 1, lo.length);
-            return total;
+            encodeBandInt(name, hiBits, hiCodec, sink);
+            encodeBandInt(name, loBits, loCodec, sink);
         }
     }
 
@@ -634,6 +840,11 @@ abstract class BandSet {
         return encodeFlags(name, flatten(flags), loCodec, hiCodec, haveHiFlags);
    }
 
+    protected int writeFlags(String name, long[][] flags, BHSDCodec loCodec, BHSDCodec hiCodec,
+            boolean haveHiFlags, OutputStream out) throws IOException, Pack200Exception {
+        return writeFlags(name, flatten(flags), loCodec, hiCodec, haveHiFlags, out);
+    }
+
     /*
      * Flatten a 2-dimension array into a 1-dimension array
      */
@@ -653,6 +864,148 @@ abstract class BandSet {
         return flatArray;
     }
 
+    /**
+     * Part of the analysis of a band, which can be forked to run concurrently
+     * with the rest of it. A Pack200Exception thrown by the task is thrown
+     * again when its result is asked for.
+     */
+    private abstract static class AnalysisTask<T> extends RecursiveTask<T> {
+
+        private static final long serialVersionUID = 1L;
+
+        private Pack200Exception exception;
+
+        abstract T analyse() throws Pack200Exception;
+
+        protected T compute() {
+            try {
+                return analyse();
+            } catch (Pack200Exception e) {
+                exception = e;
+                return null;
+            }
+        }
+
+        /**
+         * Waits for the task to finish and returns its result
+         */
+        T getResult() throws Pack200Exception {
+            T result = join();
+            if (exception != null) {
+                throw exception;
+            }
+            return result;
+        }
+    }
+
+    /**
+     * Works out the BandData for a band
+     */
+    private class BandDataTask extends AnalysisTask<BandData> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final int[] band;
+
+        BandDataTask(int[] band) {
+            this.band = band;
+        }
+
+        BandData analyse() {
+            return new BandData(band);
+        }
+    }
+
+    /**
+     * Analyses a band of a population codec (the unfavoured values or the
+     * tokens) or a part of a band split by a run codec
+     */
+    private class SubBandTask extends AnalysisTask<BandAnalysisResults> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final String name;
+        private final int[] band;
+        private final BHSDCodec defaultCodec;
+
+        SubBandTask(String name, int[] band, BHSDCodec defaultCodec) {
+            this.name = name;
+            this.band = band;
+            this.defaultCodec = defaultCodec;
+        }
+
+        BandAnalysisResults analyse() throws Pack200Exception {
+            return analyseBand(name, band, defaultCodec);
+        }
+    }
+
+    /**
+     * Tries a population codec for a band, against results of its own
+     */
+    private class PopulationCodecTask extends AnalysisTask<BandAnalysisResults> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final String name;
+        private final int[] band;
+        private final BHSDCodec defaultCodec;
+        private final BandData bandData;
+        private final int defaultLength;
+
+        PopulationCodecTask(String name, int[] band, BHSDCodec defaultCodec,
+                BandData bandData, int defaultLength) {
+            this.name = name;
+            this.band = band;
+            this.defaultCodec = defaultCodec;
+            this.bandData = bandData;
+            this.defaultLength = defaultLength;
+        }
+
+        BandAnalysisResults analyse() throws Pack200Exception {
+            BandAnalysisResults results = new BandAnalysisResults();
+            results.defaultLength = defaultLength;
+            encodeWithPopulationCodec(name, band, defaultCodec, bandData, results);
+            return results;
+        }
+    }
+
+    /**
+     * Works out the encoded lengths of a band for a range of codecs, splitting
+     * the range between subtasks
+     */
+    private static class CodecLengthsTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final CodecCostModel costModel;
+        private final BHSDCodec[] codecs;
+        private final long[] lengths;
+        private final int from;
+        private final int to;
+
+        CodecLengthsTask(CodecCostModel costModel, BHSDCodec[] codecs,
+                long[] lengths, int from, int to) {
+            this.costModel = costModel;
+            this.codecs = codecs;
+            this.lengths = lengths;
+            this.from = from;
+            this.to = to;
+        }
+
+        protected void compute() {
+            if (to - from > CODECS_PER_TASK) {
+                int middle = (from + to) >>> 1;
+                ForkJoinTask.invokeAll(new CodecLengthsTask(costModel, codecs,
+                        lengths, from, middle), new CodecLengthsTask(costModel,
+                        codecs, lengths, middle, to));
+                return;
+            }
+            for (int i = from; i < to; i++) {
+                lengths[i] = costModel.encodedLength(codecs[i]);
+            }
+        }
+    }
+
     /**
      * BandData represents information about a band, e.g. largest value etc
      * and is used in the heuristics that calculate whether an alternative
@@ -663,16 +1016,8 @@ abstract class BandSet {
         private final int[] band;
         private int smallest = Integer.MAX_VALUE;
         private int largest = Integer.MIN_VALUE;
-        private int smallestDelta;
-        private int largestDelta;
 
-        private int deltaIsAscending = 0;
-        private int smallDeltaCount = 0;
-
-        private double averageAbsoluteDelta = 0;
-        private double averageAbsoluteValue = 0;
-
-        private Map distinctValues;
+        private IntHistogram histogram;
 
         /**
          * Create a new instance of BandData.  The band is then analysed.
@@ -680,7 +1025,9 @@ abstract class BandSet {
          */
         public BandData(int[] band) {
             this.band = band;
-            Integer one = Integer.valueOf(1);
+            if(effort > 3) { // do calculations needed to consider population codec
+                histogram = new IntHistogram();
+            }
             for (int i = 0; i < band.length; i++) {
                 if(band[i] < smallest) {
                     smallest = band[i];
@@ -688,83 +1035,42 @@ abstract class BandSet {
                 if(band[i] > largest) {
                     largest = band[i];
                 }
-                if(i != 0) {
-                    int delta = band[i] - band[i - 1];
-                    if(delta < smallestDelta) {
-                        smallestDelta = delta;
-                    }
-                    if(delta > largestDelta) {
-                        largestDelta = delta;
-                    }
-                    if(delta >= 0) {
-                        deltaIsAscending++;
-                    }
-                    averageAbsoluteDelta += (double)Math.abs(delta)/(double)(band.length - 1);
-                    if(Math.abs(delta) < 256) {
-                        smallDeltaCount++;
-                    }
-                } else {
-                    smallestDelta = band[0];
-                    largestDelta = band[0];
-                }
-                averageAbsoluteValue += (double)Math.abs(band[i])/(double)band.length;
-                if(effort > 3) { // do calculations needed to consider population codec
-                    if(distinctValues == null) {
-                        distinctValues = new HashMap();
-                    }
-                    Integer value = Integer.valueOf(band[i]);
-                    Integer count = (Integer) distinctValues.get(value);
-                    if(count == null) {
-                        count = one;
-                    } else {
-                        count = Integer.valueOf(count.intValue() + 1);
-                    }
-                    distinctValues.put(value, count);
+                if(histogram != null) {
+                    histogram.add(band[i]);
                 }
             }
         }
 
         /**
-         * Returns true if the deltas between adjacent band elements are mainly
-         * small (heuristic)
-         */
-        public boolean mainlySmallDeltas() {
-            // Note: the value below has been tuned - please test carefully if changing it
-            return (float)smallDeltaCount/(float)band.length > 0.7F;
-        }
-
-        /**
-         * Returns true if the band is well correlated (i.e. would be suitable
-         * for a delta encoding) (heuristic)
+         * Returns true if any band elements are negative
          */
-        public boolean wellCorrelated() {
-            // Note: the value below has been tuned - please test carefully if changing it
-            return averageAbsoluteDelta * 3.1 < averageAbsoluteValue;
+        public boolean anyNegatives() {
+            return smallest < 0;
         }
 
         /**
-         * Returns true if the band deltas are mainly positive (heuristic)
+         * Returns the number of times the most frequent value occurs in the
+         * band (or 1 if the values aren't counted)
          */
-        public boolean mainlyPositiveDeltas() {
-            // Note: the value below has been tuned - please test carefully if changing it
-            return (float)deltaIsAscending/(float)band.length > 0.95F;
-        }
-
-        /**
-         * Returns true if any band elements are negative
-         */
-        public boolean anyNegatives() {
-            return smallest < 0;
+        public int mostFrequentCount() {
+            if(histogram == null) {
+                return 1;
+            }
+            int count = 0;
+            for (int i = 0; i < histogram.size(); i++) {
+                count = Math.max(count, histogram.getCount(i));
+            }
+            return count;
         }
 
         /**
          * Returns the total number of distinct values found in the band
          */
         public int numDistinctValues() {
-            if(distinctValues == null) {
+            if(histogram == null) {
                 return band.length;
             }
-            return distinctValues.size();
+            return histogram.size();
         }
 
     }
@@ -784,8 +1090,22 @@ abstract class BandSet {
         // band_headers band)
         private int[] extraMetadata;
 
-        // The results of encoding the band with betterCodec
-        private byte[] encodedBand;
+        // The first value of the band, which specifies a population codec or
+        // a run codec
+        private int specifier;
+
+        // The band split up into favoured values, tokens and unfavoured values
+        // for a population codec
+        private int[] favoured;
+        private int[] tokens;
+        private int[] unfavoured;
+
+        // The results for the two parts of a band split by a run codec
+        private BandAnalysisResults aResults;
+        private BandAnalysisResults bResults;
+
+        // The length of the band encoded with the default codec
+        private int defaultLength;
 
         // The best Codec found so far, or should be null if the default is the
         // best so far
@@ -107,128 +107,107 @@ class BcBands extends BandSet {
 
     public void pack(OutputStream out) throws IOException, Pack200Exception {
         PackingUtils.log("Writing byte code bands...");
-        byte[] encodedBand = encodeBandInt("bcCodes", bcCodes.toArray(),
-                Codec.BYTE1);
-        out.write(encodedBand);
-        PackingUtils.log("Wrote " + encodedBand.length + " bytes from bcCodes["
+        int encodedLength = writeBandInt("bcCodes", bcCodes.toArray(),
+                Codec.BYTE1, out);
+        PackingUtils.log("Wrote " + encodedLength + " bytes from bcCodes["
                 + bcCodes.size() + "]");
 
-        encodedBand = encodeBandInt("bcCaseCount", bcCaseCount.toArray(),
-                Codec.UNSIGNED5);
-        out.write(encodedBand);
-        PackingUtils.log("Wrote " + encodedBand.length
+        encodedLength = writeBandInt("bcCaseCount", bcCaseCount.toArray(),
+                Codec.UNSIGNED5, out);
+        PackingUtils.log("Wrote " + encodedLength
                 + " bytes from bcCaseCount[" + bcCaseCount.size() + "]");
 
-        encodedBand = encodeBandInt("bcCaseValue", bcCaseValue.toArray(),
-                Codec.DELTA5);
-        out.write(encodedBand);
-        PackingUtils.log("Wrote " + encodedBand.length
+        encodedLength = writeBandInt("bcCaseValue", bcCaseValue.toArray(),
+                Codec.DELTA5, out);
+        PackingUtils.log("Wrote " + encodedLength
                 + " bytes from bcCaseValue[" + bcCaseValue.size() + "]");
 
-        encodedBand = encodeBandInt("bcByte", bcByte.toArray(), Codec.BYTE1);
-        out.write(encodedBand);
-        PackingUtils.log("Wrote " + encodedBand.length + " bytes from bcByte["
+        encodedLength = writeBandInt("bcByte", bcByte.toArray(), Codec.BYTE1, out);
+        PackingUtils.log("Wrote " + encodedLength + " bytes from bcByte["
                 + bcByte.size() + "]");
 
-        encodedBand = encodeBandInt("bcShort", bcShort.toArray(), Codec.DELTA5);
-        out.write(encodedBand);
-        PackingUtils.log("Wrote " + encodedBand.length + " bytes from bcShort["
+        encodedLength = writeBandInt("bcShort", bcShort.toArray(), Codec.DELTA5, out);
+        PackingUtils.log("Wrote " + encodedLength + " bytes from bcShort["
                 + bcShort.size() + "]");
 
-        encodedBand = encodeBandInt("bcLocal", bcLocal.toArray(),
-                Codec.UNSIGNED5);
-        out.write(encodedBand);
-        PackingUtils.log("Wrote " + encodedBand.length + " bytes from bcLocal["
+        encodedLength = writeBandInt("bcLocal", bcLocal.toArray(),
+                Codec.UNSIGNED5, out);
+        PackingUtils.log("Wrote " + encodedLength + " bytes from bcLocal["
                 + bcLocal.size() + "]");
 
-        encodedBand = encodeBandInt("bcLabel", integerListToArray(bcLabel),
-                Codec.BRANCH5);
-        out.write(encodedBand);
-        PackingUtils.log("Wrote " + encodedBand.length + " bytes from bcLabel["
+        encodedLength = writeBandInt("bcLabel", integerListToArray(bcLabel),
+                Codec.BRANCH5, out);
+        PackingUtils.log("Wrote " + encodedLength + " bytes from bcLabel["
                 + bcLabel.size() + "]");
 
-        encodedBand = encodeBandInt("bcIntref", cpEntryListToArray(bcIntref),
-                Codec.DELTA5);
-        out.write(encodedBand);
-        PackingUtils.log("Wrote " + encodedBand.length
+        encodedLength = writeBandInt("bcIntref", cpEntryListToArray(bcIntref),
+                Codec.DELTA5, out);
+        PackingUtils.log("Wrote " + encodedLength
                 + " bytes from bcIntref[" + bcIntref.size() + "]");
 
-        encodedBand = encodeBandInt("bcFloatRef",
-                cpEntryListToArray(bcFloatRef), Codec.DELTA5);
-        out.write(encodedBand);
-        PackingUtils.log("Wrote " + encodedBand.length
+        encodedLength = writeBandInt("bcFloatRef",
+                cpEntryListToArray(bcFloatRef), Codec.DELTA5, out);
+        PackingUtils.log("Wrote " + encodedLength
                 + " bytes from bcFloatRef[" + bcFloatRef.size() + "]");
 
-        encodedBand = encodeBandInt("bcLongRef", cpEntryListToArray(bcLongRef),
-                Codec.DELTA5);
-        out.write(encodedBand);
-        PackingUtils.log("Wrote " + encodedBand.length
+        encodedLength = writeBandInt("bcLongRef", cpEntryListToArray(bcLongRef),
+                Codec.DELTA5, out);
+        PackingUtils.log("Wrote " + encodedLength
                 + " bytes from bcLongRef[" + bcLongRef.size() + "]");
 
-        encodedBand = encodeBandInt("bcDoubleRef",
-                cpEntryListToArray(bcDoubleRef), Codec.DELTA5);
-        out.write(encodedBand);
-        PackingUtils.log("Wrote " + encodedBand.length
+        encodedLength = writeBandInt("bcDoubleRef",
+                cpEntryListToArray(bcDoubleRef), Codec.DELTA5, out);
+        PackingUtils.log("Wrote " + encodedLength
                 + " bytes from bcDoubleRef[" + bcDoubleRef.size() + "]");
 
-        encodedBand = encodeBandInt("bcStringRef",
-                cpEntryListToArray(bcStringRef), Codec.DELTA5);
-        out.write(encodedBand);
-        PackingUtils.log("Wrote " + encodedBand.length
+        encodedLength = writeBandInt("bcStringRef",
+                cpEntryListToArray(bcStringRef), Codec.DELTA5, out);
+        PackingUtils.log("Wrote " + encodedLength
                 + " bytes from bcStringRef[" + bcStringRef.size() + "]");
 
-        encodedBand = encodeBandInt("bcClassRef",
-                cpEntryOrNullListToArray(bcClassRef), Codec.UNSIGNED5);
-        out.write(encodedBand);
-        PackingUtils.log("Wrote " + encodedBand.length
+        encodedLength = writeBandInt("bcClassRef",
+                cpEntryOrNullListToArray(bcClassRef), Codec.UNSIGNED5, out);
+        PackingUtils.log("Wrote " + encodedLength
                 + " bytes from bcClassRef[" + bcClassRef.size() + "]");
 
-        encodedBand = encodeBandInt("bcFieldRef",
-                cpEntryListToArray(bcFieldRef), Codec.DELTA5);
-        out.write(encodedBand);
-        PackingUtils.log("Wrote " + encodedBand.length
+        encodedLength = writeBandInt("bcFieldRef",
+                cpEntryListToArray(bcFieldRef), Codec.DELTA5, out);
+        PackingUtils.log("Wrote " + encodedLength
                 + " bytes from bcFieldRef[" + bcFieldRef.size() + "]");
 
-        encodedBand = encodeBandInt("bcMethodRef",
-                cpEntryListToArray(bcMethodRef), Codec.UNSIGNED5);
-        out.write(encodedBand);
-        PackingUtils.log("Wrote " + encodedBand.length
+        encodedLength = writeBandInt("bcMethodRef",
+                cpEntryListToArray(bcMethodRef), Codec.UNSIGNED5, out);
+        PackingUtils.log("Wrote " + encodedLength
                 + " bytes from bcMethodRef[" + bcMethodRef.size() + "]");
 
-        encodedBand = encodeBandInt("bcIMethodRef",
-                cpEntryListToArray(bcIMethodRef), Codec.DELTA5);
-        out.write(encodedBand);
-        PackingUtils.log("Wrote " + encodedBand.length
+        encodedLength = writeBandInt("bcIMethodRef",
+                cpEntryListToArray(bcIMethodRef), Codec.DELTA5, out);
+        PackingUtils.log("Wrote " + encodedLength
                 + " bytes from bcIMethodRef[" + bcIMethodRef.size() + "]");
 
-        encodedBand = encodeBandInt("bcThisField",
-                integerListToArray(bcThisFieldInt), Codec.UNSIGNED5);
-        out.write(encodedBand);
-        PackingUtils.log("Wrote " + encodedBand.length
+        encodedLength = writeBandInt("bcThisField",
+                integerListToArray(bcThisFieldInt), Codec.UNSIGNED5, out);
+        PackingUtils.log("Wrote " + encodedLength
                 + " bytes from bcThisField[" + bcThisField.size() + "]");
 
-//        encodedBand = encodeBandInt("bcSuperField",
-//                cpEntryListToArray(bcSuperField), Codec.UNSIGNED5);
-//        out.write(encodedBand);
-//        PackingUtils.log("Wrote " + encodedBand.length
+//        encodedLength = writeBandInt("bcSuperField",
+//                cpEntryListToArray(bcSuperField), Codec.UNSIGNED5, out);
+//        PackingUtils.log("Wrote " + encodedLength
 //                + " bytes from bcSuperField[" + bcSuperField.size() + "]");
 
-        encodedBand = encodeBandInt("bcThisMethod",
-                integerListToArray(bcThisMethodInt), Codec.UNSIGNED5);
-        out.write(encodedBand);
-        PackingUtils.log("Wrote " + encodedBand.length
+        encodedLength = writeBandInt("bcThisMethod",
+                integerListToArray(bcThisMethodInt), Codec.UNSIGNED5, out);
+        PackingUtils.log("Wrote " + encodedLength
                 + " bytes from bcThisMethod[" + bcThisMethod.size() + "]");
 
-        encodedBand = encodeBandInt("bcSuperMethod",
-                integerListToArray(bcSuperMethodInt), Codec.UNSIGNED5);
-        out.write(encodedBand);
-        PackingUtils.log("Wrote " + encodedBand.length
+        encodedLength = writeBandInt("bcSuperMethod",
+                integerListToArray(bcSuperMethodInt), Codec.UNSIGNED5, out);
+        PackingUtils.log("Wrote " + encodedLength
                 + " bytes from bcSuperMethod[" + bcSuperMethod.size() + "]");
 
-        encodedBand = encodeBandInt("bcInitRef", integerListToArray(bcInitRefInt),
-                Codec.UNSIGNED5);
-        out.write(encodedBand);
-        PackingUtils.log("Wrote " + encodedBand.length
+        encodedLength = writeBandInt("bcInitRef", integerListToArray(bcInitRefInt),
+                Codec.UNSIGNED5, out);
+        PackingUtils.log("Wrote " + encodedLength
                 + " bytes from bcInitRef[" + bcInitRef.size() + "]");
 
         // out.write(encodeBandInt(cpEntryintegerListToArray(bcEscRef),
@@ -211,7 +211,7 @@ class ClassBands extends BandSet {
         }
         major_versions[index] = major;
         class_flags[index] = flags;
-        if(!anySyntheticClasses && ((flags & (1 << 12)) != 0) && segment.getCurrentClassReader().hasSyntheticAttributes()) {
+        if(!anySyntheticClasses && ((flags & (1 << 12)) != 0) && segment.hasSyntheticAttributes()) {
             cpBands.addCPUtf8("Synthetic");
             anySyntheticClasses = true;
         }
@@ -271,7 +271,7 @@ class ClassBands extends BandSet {
             fieldConstantValueKQ.add(cpBands.getConstant(value));
             flags |= (1 << 17);
         }
-        if(!anySyntheticFields && ((flags & (1 << 12)) != 0) && segment.getCurrentClassReader().hasSyntheticAttributes()) {
+        if(!anySyntheticFields && ((flags & (1 << 12)) != 0) && segment.hasSyntheticAttributes()) {
             cpBands.addCPUtf8("Synthetic");
             anySyntheticFields = true;
         }
@@ -472,22 +472,19 @@ class ClassBands extends BandSet {
     public void pack(OutputStream out) throws IOException, Pack200Exception {
         PackingUtils.log("Writing class bands...");
 
-        byte[] encodedBand = encodeBandInt("class_this", getInts(class_this),
-                Codec.DELTA5);
-        out.write(encodedBand);
-        PackingUtils.log("Wrote " + encodedBand.length
+        int encodedLength = writeBandInt("class_this", getInts(class_this),
+                Codec.DELTA5, out);
+        PackingUtils.log("Wrote " + encodedLength
                 + " bytes from class_this[" + class_this.length + "]");
 
-        encodedBand = encodeBandInt("class_super", getInts(class_super),
-                Codec.DELTA5);
-        out.write(encodedBand);
-        PackingUtils.log("Wrote " + encodedBand.length
+        encodedLength = writeBandInt("class_super", getInts(class_super),
+                Codec.DELTA5, out);
+        PackingUtils.log("Wrote " + encodedLength
                 + " bytes from class_super[" + class_super.length + "]");
 
-        encodedBand = encodeBandInt("class_interface_count",
-                class_interface_count, Codec.DELTA5);
-        out.write(encodedBand);
-        PackingUtils.log("Wrote " + encodedBand.length
+        encodedLength = writeBandInt("class_interface_count",
+                class_interface_count, Codec.DELTA5, out);
+        PackingUtils.log("Wrote " + encodedLength
                 + " bytes from class_interface_count["
                 + class_interface_count.length + "]");
 
@@ -504,23 +501,20 @@ class ClassBands extends BandSet {
             }
         }
 
-        encodedBand = encodeBandInt("class_interface", classInterface,
-                Codec.DELTA5);
-        out.write(encodedBand);
-        PackingUtils.log("Wrote " + encodedBand.length
+        encodedLength = writeBandInt("class_interface", classInterface,
+                Codec.DELTA5, out);
+        PackingUtils.log("Wrote " + encodedLength
                 + " bytes from class_interface[" + classInterface.length + "]");
 
-        encodedBand = encodeBandInt("class_field_count", class_field_count,
-                Codec.DELTA5);
-        out.write(encodedBand);
-        PackingUtils.log("Wrote " + encodedBand.length
+        encodedLength = writeBandInt("class_field_count", class_field_count,
+                Codec.DELTA5, out);
+        PackingUtils.log("Wrote " + encodedLength
                 + " bytes from class_field_count[" + class_field_count.length
                 + "]");
 
-        encodedBand = encodeBandInt("class_method_count", class_method_count,
-                Codec.DELTA5);
-        out.write(encodedBand);
-        PackingUtils.log("Wrote " + encodedBand.length
+        encodedLength = writeBandInt("class_method_count", class_method_count,
+                Codec.DELTA5, out);
+        PackingUtils.log("Wrote " + encodedLength
                 + " bytes from class_method_count[" + class_method_count.length
                 + "]");
 
@@ -535,9 +529,8 @@ class ClassBands extends BandSet {
             }
         }
 
-        encodedBand = encodeBandInt("field_descr", fieldDescr, Codec.DELTA5);
-        out.write(encodedBand);
-        PackingUtils.log("Wrote " + encodedBand.length
+        encodedLength = writeBandInt("field_descr", fieldDescr, Codec.DELTA5, out);
+        PackingUtils.log("Wrote " + encodedLength
                 + " bytes from field_descr[" + fieldDescr.length + "]");
 
         writeFieldAttributeBands(out);
@@ -553,9 +546,8 @@ class ClassBands extends BandSet {
             }
         }
 
-        encodedBand = encodeBandInt("method_descr", methodDescr, Codec.MDELTA5);
-        out.write(encodedBand);
-        PackingUtils.log("Wrote " + encodedBand.length
+        encodedLength = writeBandInt("method_descr", methodDescr, Codec.MDELTA5, out);
+        PackingUtils.log("Wrote " + encodedLength
                 + " bytes from method_descr[" + methodDescr.length + "]");
 
         writeMethodAttributeBands(out);
@@ -573,33 +565,29 @@ class ClassBands extends BandSet {
 
     private void writeFieldAttributeBands(OutputStream out) throws IOException,
             Pack200Exception {
-        byte[] encodedBand = encodeFlags("field_flags", field_flags,
+        int encodedLength = writeFlags("field_flags", field_flags,
                 Codec.UNSIGNED5, Codec.UNSIGNED5, segmentHeader
-                        .have_field_flags_hi());
-        out.write(encodedBand);
-        PackingUtils.log("Wrote " + encodedBand.length
+                        .have_field_flags_hi(), out);
+        PackingUtils.log("Wrote " + encodedLength
                 + " bytes from field_flags[" + field_flags.length + "]");
 
         // *field_attr_count :UNSIGNED5 [COUNT(1<<16,...)]
         // *field_attr_indexes :UNSIGNED5 [SUM(*field_attr_count)]
-        encodedBand = encodeBandInt("field_attr_calls", field_attr_calls,
-                Codec.UNSIGNED5);
-        out.write(encodedBand);
-        PackingUtils.log("Wrote " + encodedBand.length
+        encodedLength = writeBandInt("field_attr_calls", field_attr_calls,
+                Codec.UNSIGNED5, out);
+        PackingUtils.log("Wrote " + encodedLength
                 + " bytes from field_attr_calls[" + field_attr_calls.length
                 + "]");
 
-        encodedBand = encodeBandInt("fieldConstantValueKQ",
-                cpEntryListToArray(fieldConstantValueKQ), Codec.UNSIGNED5);
-        out.write(encodedBand);
-        PackingUtils.log("Wrote " + encodedBand.length
+        encodedLength = writeBandInt("fieldConstantValueKQ",
+                cpEntryListToArray(fieldConstantValueKQ), Codec.UNSIGNED5, out);
+        PackingUtils.log("Wrote " + encodedLength
                 + " bytes from fieldConstantValueKQ["
                 + fieldConstantValueKQ.size() + "]");
 
-        encodedBand = encodeBandInt("fieldSignature",
-                cpEntryListToArray(fieldSignature), Codec.UNSIGNED5);
-        out.write(encodedBand);
-        PackingUtils.log("Wrote " + encodedBand.length
+        encodedLength = writeBandInt("fieldSignature",
+                cpEntryListToArray(fieldSignature), Codec.UNSIGNED5, out);
+        PackingUtils.log("Wrote " + encodedLength
                 + " bytes from fieldSignature[" + fieldSignature.size() + "]");
 
         field_RVA_bands.pack(out);
@@ -613,41 +601,36 @@ class ClassBands extends BandSet {
 
     private void writeMethodAttributeBands(OutputStream out)
             throws IOException, Pack200Exception {
-        byte[] encodedBand = encodeFlags("method_flags", method_flags,
+        int encodedLength = writeFlags("method_flags", method_flags,
                 Codec.UNSIGNED5, Codec.UNSIGNED5, segmentHeader
-                        .have_method_flags_hi());
-        out.write(encodedBand);
-        PackingUtils.log("Wrote " + encodedBand.length
+                        .have_method_flags_hi(), out);
+        PackingUtils.log("Wrote " + encodedLength
                 + " bytes from method_flags[" + method_flags.length + "]");
 
         // *method_attr_count :UNSIGNED5 [COUNT(1<<16,...)]
         // *method_attr_indexes :UNSIGNED5 [SUM(*method_attr_count)]
-        encodedBand = encodeBandInt("method_attr_calls", method_attr_calls,
-                Codec.UNSIGNED5);
-        out.write(encodedBand);
-        PackingUtils.log("Wrote " + encodedBand.length
+        encodedLength = writeBandInt("method_attr_calls", method_attr_calls,
+                Codec.UNSIGNED5, out);
+        PackingUtils.log("Wrote " + encodedLength
                 + " bytes from method_attr_calls[" + method_attr_calls.length
                 + "]");
 
-        encodedBand = encodeBandInt("methodExceptionNumber",
-                methodExceptionNumber.toArray(), Codec.UNSIGNED5);
-        out.write(encodedBand);
-        PackingUtils.log("Wrote " + encodedBand.length
+        encodedLength = writeBandInt("methodExceptionNumber",
+                methodExceptionNumber.toArray(), Codec.UNSIGNED5, out);
+        PackingUtils.log("Wrote " + encodedLength
                 + " bytes from methodExceptionNumber["
                 + methodExceptionNumber.size() + "]");
 
-        encodedBand = encodeBandInt("methodExceptionClasses",
-                cpEntryListToArray(methodExceptionClasses), Codec.UNSIGNED5);
-        out.write(encodedBand);
-        PackingUtils.log("Wrote " + encodedBand.length
+        encodedLength = writeBandInt("methodExceptionClasses",
+                cpEntryListToArray(methodExceptionClasses), Codec.UNSIGNED5, out);
+        PackingUtils.log("Wrote " + encodedLength
                 + " bytes from methodExceptionClasses["
                 + methodExceptionClasses.size() + "]");
 
-        encodedBand = encodeBandInt("methodSignature",
-                cpEntryListToArray(methodSignature), Codec.UNSIGNED5);
-        out.write(encodedBand);
+        encodedLength = writeBandInt("methodSignature",
+                cpEntryListToArray(methodSignature), Codec.UNSIGNED5, out);
         PackingUtils
-                .log("Wrote " + encodedBand.length
+                .log("Wrote " + encodedLength
                         + " bytes from methodSignature["
                         + methodSignature.size() + "]");
 
@@ -665,11 +648,10 @@ class ClassBands extends BandSet {
 
     private void writeClassAttributeBands(OutputStream out) throws IOException,
             Pack200Exception {
-        byte[] encodedBand = encodeFlags("class_flags", class_flags,
+        int encodedLength = writeFlags("class_flags", class_flags,
                 Codec.UNSIGNED5, Codec.UNSIGNED5, segmentHeader
-                        .have_class_flags_hi());
-        out.write(encodedBand);
-        PackingUtils.log("Wrote " + encodedBand.length
+                        .have_class_flags_hi(), out);
+        PackingUtils.log("Wrote " + encodedLength
                 + " bytes from class_flags[" + class_flags.length + "]");
 
         // These bands are not needed, but could be used to reduce the size of
@@ -680,94 +662,82 @@ class ClassBands extends BandSet {
         // *class_attr_count :UNSIGNED5 [COUNT(1<<16,...)]
         // *class_attr_indexes :UNSIGNED5 [SUM(*class_attr_count)]
 
-        encodedBand = encodeBandInt("class_attr_calls", class_attr_calls,
-                Codec.UNSIGNED5);
-        out.write(encodedBand);
-        PackingUtils.log("Wrote " + encodedBand.length
+        encodedLength = writeBandInt("class_attr_calls", class_attr_calls,
+                Codec.UNSIGNED5, out);
+        PackingUtils.log("Wrote " + encodedLength
                 + " bytes from class_attr_calls[" + class_attr_calls.length
                 + "]");
 
-        encodedBand = encodeBandInt("classSourceFile",
-                cpEntryOrNullListToArray(classSourceFile), Codec.UNSIGNED5);
-        out.write(encodedBand);
+        encodedLength = writeBandInt("classSourceFile",
+                cpEntryOrNullListToArray(classSourceFile), Codec.UNSIGNED5, out);
         PackingUtils
-                .log("Wrote " + encodedBand.length
+                .log("Wrote " + encodedLength
                         + " bytes from classSourceFile["
                         + classSourceFile.size() + "]");
 
-        encodedBand = encodeBandInt("class_enclosing_method_RC",
-                cpEntryListToArray(classEnclosingMethodClass), Codec.UNSIGNED5);
-        out.write(encodedBand);
-        PackingUtils.log("Wrote " + encodedBand.length
+        encodedLength = writeBandInt("class_enclosing_method_RC",
+                cpEntryListToArray(classEnclosingMethodClass), Codec.UNSIGNED5, out);
+        PackingUtils.log("Wrote " + encodedLength
                 + " bytes from class_enclosing_method_RC["
                 + classEnclosingMethodClass.size() + "]");
 
-        encodedBand = encodeBandInt("class_EnclosingMethod_RDN",
+        encodedLength = writeBandInt("class_EnclosingMethod_RDN",
                 cpEntryOrNullListToArray(classEnclosingMethodDesc),
-                Codec.UNSIGNED5);
-        out.write(encodedBand);
-        PackingUtils.log("Wrote " + encodedBand.length
+                Codec.UNSIGNED5, out);
+        PackingUtils.log("Wrote " + encodedLength
                 + " bytes from class_EnclosingMethod_RDN["
                 + classEnclosingMethodDesc.size() + "]");
 
-        encodedBand = encodeBandInt("class_Signature_RS",
-                cpEntryListToArray(classSignature), Codec.UNSIGNED5);
-        out.write(encodedBand);
-        PackingUtils.log("Wrote " + encodedBand.length
+        encodedLength = writeBandInt("class_Signature_RS",
+                cpEntryListToArray(classSignature), Codec.UNSIGNED5, out);
+        PackingUtils.log("Wrote " + encodedLength
                 + " bytes from class_Signature_RS[" + classSignature.size()
                 + "]");
 
         class_RVA_bands.pack(out);
         class_RIA_bands.pack(out);
 
-        encodedBand = encodeBandInt("class_InnerClasses_N",
-                class_InnerClasses_N, Codec.UNSIGNED5);
-        out.write(encodedBand);
-        PackingUtils.log("Wrote " + encodedBand.length
+        encodedLength = writeBandInt("class_InnerClasses_N",
+                class_InnerClasses_N, Codec.UNSIGNED5, out);
+        PackingUtils.log("Wrote " + encodedLength
                 + " bytes from class_InnerClasses_N["
                 + class_InnerClasses_N.length + "]");
 
-        encodedBand = encodeBandInt("class_InnerClasses_RC",
-                getInts(class_InnerClasses_RC), Codec.UNSIGNED5);
-        out.write(encodedBand);
-        PackingUtils.log("Wrote " + encodedBand.length
+        encodedLength = writeBandInt("class_InnerClasses_RC",
+                getInts(class_InnerClasses_RC), Codec.UNSIGNED5, out);
+        PackingUtils.log("Wrote " + encodedLength
                 + " bytes from class_InnerClasses_RC["
                 + class_InnerClasses_RC.length + "]");
 
-        encodedBand = encodeBandInt("class_InnerClasses_F",
-                class_InnerClasses_F, Codec.UNSIGNED5);
-        out.write(encodedBand);
-        PackingUtils.log("Wrote " + encodedBand.length
+        encodedLength = writeBandInt("class_InnerClasses_F",
+                class_InnerClasses_F, Codec.UNSIGNED5, out);
+        PackingUtils.log("Wrote " + encodedLength
                 + " bytes from class_InnerClasses_F["
                 + class_InnerClasses_F.length + "]");
 
-        encodedBand = encodeBandInt("class_InnerClasses_outer_RCN",
+        encodedLength = writeBandInt("class_InnerClasses_outer_RCN",
                 cpEntryOrNullListToArray(classInnerClassesOuterRCN),
-                Codec.UNSIGNED5);
-        out.write(encodedBand);
-        PackingUtils.log("Wrote " + encodedBand.length
+                Codec.UNSIGNED5, out);
+        PackingUtils.log("Wrote " + encodedLength
                 + " bytes from class_InnerClasses_outer_RCN["
                 + classInnerClassesOuterRCN.size() + "]");
 
-        encodedBand = encodeBandInt("class_InnerClasses_name_RUN",
+        encodedLength = writeBandInt("class_InnerClasses_name_RUN",
                 cpEntryOrNullListToArray(classInnerClassesNameRUN),
-                Codec.UNSIGNED5);
-        out.write(encodedBand);
-        PackingUtils.log("Wrote " + encodedBand.length
+                Codec.UNSIGNED5, out);
+        PackingUtils.log("Wrote " + encodedLength
                 + " bytes from class_InnerClasses_name_RUN["
                 + classInnerClassesNameRUN.size() + "]");
 
-        encodedBand = encodeBandInt("classFileVersionMinor",
-                classFileVersionMinor.toArray(), Codec.UNSIGNED5);
-        out.write(encodedBand);
-        PackingUtils.log("Wrote " + encodedBand.length
+        encodedLength = writeBandInt("classFileVersionMinor",
+                classFileVersionMinor.toArray(), Codec.UNSIGNED5, out);
+        PackingUtils.log("Wrote " + encodedLength
                 + " bytes from classFileVersionMinor["
                 + classFileVersionMinor.size() + "]");
 
-        encodedBand = encodeBandInt("classFileVersionMajor",
-                classFileVersionMajor.toArray(), Codec.UNSIGNED5);
-        out.write(encodedBand);
-        PackingUtils.log("Wrote " + encodedBand.length
+        encodedLength = writeBandInt("classFileVersionMajor",
+                classFileVersionMajor.toArray(), Codec.UNSIGNED5, out);
+        PackingUtils.log("Wrote " + encodedLength
                 + " bytes from classFileVersionMajor["
                 + classFileVersionMajor.size() + "]");
 
@@ -790,56 +760,48 @@ class ClassBands extends BandSet {
 
     private void writeCodeBands(OutputStream out) throws IOException,
             Pack200Exception {
-        byte[] encodedBand = encodeBandInt("codeHeaders", codeHeaders,
-                Codec.BYTE1);
-        out.write(encodedBand);
-        PackingUtils.log("Wrote " + encodedBand.length
+        int encodedLength = writeBandInt("codeHeaders", codeHeaders,
+                Codec.BYTE1, out);
+        PackingUtils.log("Wrote " + encodedLength
                 + " bytes from codeHeaders[" + codeHeaders.length + "]");
 
-        encodedBand = encodeBandInt("codeMaxStack", codeMaxStack.toArray(),
-                Codec.UNSIGNED5);
-        out.write(encodedBand);
-        PackingUtils.log("Wrote " + encodedBand.length
+        encodedLength = writeBandInt("codeMaxStack", codeMaxStack.toArray(),
+                Codec.UNSIGNED5, out);
+        PackingUtils.log("Wrote " + encodedLength
                 + " bytes from codeMaxStack[" + codeMaxStack.size() + "]");
 
-        encodedBand = encodeBandInt("codeMaxLocals", codeMaxLocals.toArray(),
-                Codec.UNSIGNED5);
-        out.write(encodedBand);
-        PackingUtils.log("Wrote " + encodedBand.length
+        encodedLength = writeBandInt("codeMaxLocals", codeMaxLocals.toArray(),
+                Codec.UNSIGNED5, out);
+        PackingUtils.log("Wrote " + encodedLength
                 + " bytes from codeMaxLocals[" + codeMaxLocals.size() + "]");
 
-        encodedBand = encodeBandInt("codeHandlerCount", codeHandlerCount
-                .toArray(), Codec.UNSIGNED5);
-        out.write(encodedBand);
-        PackingUtils.log("Wrote " + encodedBand.length
+        encodedLength = writeBandInt("codeHandlerCount", codeHandlerCount
+                .toArray(), Codec.UNSIGNED5, out);
+        PackingUtils.log("Wrote " + encodedLength
                 + " bytes from codeHandlerCount[" + codeHandlerCount.size()
                 + "]");
 
-        encodedBand = encodeBandInt("codeHandlerStartP",
-                integerListToArray(codeHandlerStartP), Codec.BCI5);
-        out.write(encodedBand);
-        PackingUtils.log("Wrote " + encodedBand.length
+        encodedLength = writeBandInt("codeHandlerStartP",
+                integerListToArray(codeHandlerStartP), Codec.BCI5, out);
+        PackingUtils.log("Wrote " + encodedLength
                 + " bytes from codeHandlerStartP[" + codeHandlerStartP.size()
                 + "]");
 
-        encodedBand = encodeBandInt("codeHandlerEndPO",
-                integerListToArray(codeHandlerEndPO), Codec.BRANCH5);
-        out.write(encodedBand);
-        PackingUtils.log("Wrote " + encodedBand.length
+        encodedLength = writeBandInt("codeHandlerEndPO",
+                integerListToArray(codeHandlerEndPO), Codec.BRANCH5, out);
+        PackingUtils.log("Wrote " + encodedLength
                 + " bytes from codeHandlerEndPO[" + codeHandlerEndPO.size()
                 + "]");
 
-        encodedBand = encodeBandInt("codeHandlerCatchPO",
-                integerListToArray(codeHandlerCatchPO), Codec.BRANCH5);
-        out.write(encodedBand);
-        PackingUtils.log("Wrote " + encodedBand.length
+        encodedLength = writeBandInt("codeHandlerCatchPO",
+                integerListToArray(codeHandlerCatchPO), Codec.BRANCH5, out);
+        PackingUtils.log("Wrote " + encodedLength
                 + " bytes from codeHandlerCatchPO[" + codeHandlerCatchPO.size()
                 + "]");
 
-        encodedBand = encodeBandInt("codeHandlerClass",
-                cpEntryOrNullListToArray(codeHandlerClass), Codec.UNSIGNED5);
-        out.write(encodedBand);
-        PackingUtils.log("Wrote " + encodedBand.length
+        encodedLength = writeBandInt("codeHandlerClass",
+                cpEntryOrNullListToArray(codeHandlerClass), Codec.UNSIGNED5, out);
+        PackingUtils.log("Wrote " + encodedLength
                 + " bytes from codeHandlerClass[" + codeHandlerClass.size()
                 + "]");
 
@@ -848,129 +810,112 @@ class ClassBands extends BandSet {
 
     private void writeCodeAttributeBands(OutputStream out) throws IOException,
             Pack200Exception {
-        byte[] encodedBand = encodeFlags("codeFlags",
+        int encodedLength = writeFlags("codeFlags",
                 longListToArray(codeFlags), Codec.UNSIGNED5, Codec.UNSIGNED5,
-                segmentHeader.have_code_flags_hi());
-        out.write(encodedBand);
-        PackingUtils.log("Wrote " + encodedBand.length
+                segmentHeader.have_code_flags_hi(), out);
+        PackingUtils.log("Wrote " + encodedLength
                 + " bytes from codeFlags[" + codeFlags.size() + "]");
 
         // *code_attr_count :UNSIGNED5 [COUNT(1<<16,...)]
         // *code_attr_indexes :UNSIGNED5 [SUM(*code_attr_count)]
-        encodedBand = encodeBandInt("code_attr_calls", code_attr_calls,
-                Codec.UNSIGNED5);
-        out.write(encodedBand);
+        encodedLength = writeBandInt("code_attr_calls", code_attr_calls,
+                Codec.UNSIGNED5, out);
         PackingUtils
-                .log("Wrote " + encodedBand.length
+                .log("Wrote " + encodedLength
                         + " bytes from code_attr_calls["
                         + code_attr_calls.length + "]");
 
-        encodedBand = encodeBandInt("code_LineNumberTable_N",
-                codeLineNumberTableN.toArray(), Codec.UNSIGNED5);
-        out.write(encodedBand);
-        PackingUtils.log("Wrote " + encodedBand.length
+        encodedLength = writeBandInt("code_LineNumberTable_N",
+                codeLineNumberTableN.toArray(), Codec.UNSIGNED5, out);
+        PackingUtils.log("Wrote " + encodedLength
                 + " bytes from code_LineNumberTable_N["
                 + codeLineNumberTableN.size() + "]");
 
-        encodedBand = encodeBandInt("code_LineNumberTable_bci_P",
-                integerListToArray(codeLineNumberTableBciP), Codec.BCI5);
-        out.write(encodedBand);
-        PackingUtils.log("Wrote " + encodedBand.length
+        encodedLength = writeBandInt("code_LineNumberTable_bci_P",
+                integerListToArray(codeLineNumberTableBciP), Codec.BCI5, out);
+        PackingUtils.log("Wrote " + encodedLength
                 + " bytes from code_LineNumberTable_bci_P["
                 + codeLineNumberTableBciP.size() + "]");
 
-        encodedBand = encodeBandInt("code_LineNumberTable_line",
-                codeLineNumberTableLine.toArray(), Codec.UNSIGNED5);
-        out.write(encodedBand);
-        PackingUtils.log("Wrote " + encodedBand.length
+        encodedLength = writeBandInt("code_LineNumberTable_line",
+                codeLineNumberTableLine.toArray(), Codec.UNSIGNED5, out);
+        PackingUtils.log("Wrote " + encodedLength
                 + " bytes from code_LineNumberTable_line["
                 + codeLineNumberTableLine.size() + "]");
 
-        encodedBand = encodeBandInt("code_LocalVariableTable_N",
-                codeLocalVariableTableN.toArray(), Codec.UNSIGNED5);
-        out.write(encodedBand);
-        PackingUtils.log("Wrote " + encodedBand.length
+        encodedLength = writeBandInt("code_LocalVariableTable_N",
+                codeLocalVariableTableN.toArray(), Codec.UNSIGNED5, out);
+        PackingUtils.log("Wrote " + encodedLength
                 + " bytes from code_LocalVariableTable_N["
                 + codeLocalVariableTableN.size() + "]");
 
-        encodedBand = encodeBandInt("code_LocalVariableTable_bci_P",
-                integerListToArray(codeLocalVariableTableBciP), Codec.BCI5);
-        out.write(encodedBand);
-        PackingUtils.log("Wrote " + encodedBand.length
+        encodedLength = writeBandInt("code_LocalVariableTable_bci_P",
+                integerListToArray(codeLocalVariableTableBciP), Codec.BCI5, out);
+        PackingUtils.log("Wrote " + encodedLength
                 + " bytes from code_LocalVariableTable_bci_P["
                 + codeLocalVariableTableBciP.size() + "]");
 
-        encodedBand = encodeBandInt("code_LocalVariableTable_span_O",
-                integerListToArray(codeLocalVariableTableSpanO), Codec.BRANCH5);
-        out.write(encodedBand);
-        PackingUtils.log("Wrote " + encodedBand.length
+        encodedLength = writeBandInt("code_LocalVariableTable_span_O",
+                integerListToArray(codeLocalVariableTableSpanO), Codec.BRANCH5, out);
+        PackingUtils.log("Wrote " + encodedLength
                 + " bytes from code_LocalVariableTable_span_O["
                 + codeLocalVariableTableSpanO.size() + "]");
 
-        encodedBand = encodeBandInt("code_LocalVariableTable_name_RU",
+        encodedLength = writeBandInt("code_LocalVariableTable_name_RU",
                 cpEntryListToArray(codeLocalVariableTableNameRU),
-                Codec.UNSIGNED5);
-        out.write(encodedBand);
-        PackingUtils.log("Wrote " + encodedBand.length
+                Codec.UNSIGNED5, out);
+        PackingUtils.log("Wrote " + encodedLength
                 + " bytes from code_LocalVariableTable_name_RU["
                 + codeLocalVariableTableNameRU.size() + "]");
 
-        encodedBand = encodeBandInt("code_LocalVariableTable_type_RS",
+        encodedLength = writeBandInt("code_LocalVariableTable_type_RS",
                 cpEntryListToArray(codeLocalVariableTableTypeRS),
-                Codec.UNSIGNED5);
-        out.write(encodedBand);
-        PackingUtils.log("Wrote " + encodedBand.length
+                Codec.UNSIGNED5, out);
+        PackingUtils.log("Wrote " + encodedLength
                 + " bytes from code_LocalVariableTable_type_RS["
                 + codeLocalVariableTableTypeRS.size() + "]");
 
-        encodedBand = encodeBandInt("code_LocalVariableTable_slot",
-                codeLocalVariableTableSlot.toArray(), Codec.UNSIGNED5);
-        out.write(encodedBand);
-        PackingUtils.log("Wrote " + encodedBand.length
+        encodedLength = writeBandInt("code_LocalVariableTable_slot",
+                codeLocalVariableTableSlot.toArray(), Codec.UNSIGNED5, out);
+        PackingUtils.log("Wrote " + encodedLength
                 + " bytes from code_LocalVariableTable_slot["
                 + codeLocalVariableTableSlot.size() + "]");
 
-        encodedBand = encodeBandInt("code_LocalVariableTypeTable_N",
-                codeLocalVariableTypeTableN.toArray(), Codec.UNSIGNED5);
-        out.write(encodedBand);
-        PackingUtils.log("Wrote " + encodedBand.length
+        encodedLength = writeBandInt("code_LocalVariableTypeTable_N",
+                codeLocalVariableTypeTableN.toArray(), Codec.UNSIGNED5, out);
+        PackingUtils.log("Wrote " + encodedLength
                 + " bytes from code_LocalVariableTypeTable_N["
                 + codeLocalVariableTypeTableN.size() + "]");
 
-        encodedBand = encodeBandInt("code_LocalVariableTypeTable_bci_P",
-                integerListToArray(codeLocalVariableTypeTableBciP), Codec.BCI5);
-        out.write(encodedBand);
-        PackingUtils.log("Wrote " + encodedBand.length
+        encodedLength = writeBandInt("code_LocalVariableTypeTable_bci_P",
+                integerListToArray(codeLocalVariableTypeTableBciP), Codec.BCI5, out);
+        PackingUtils.log("Wrote " + encodedLength
                 + " bytes from code_LocalVariableTypeTable_bci_P["
                 + codeLocalVariableTypeTableBciP.size() + "]");
 
-        encodedBand = encodeBandInt("code_LocalVariableTypeTable_span_O",
-                integerListToArray(codeLocalVariableTypeTableSpanO), Codec.BRANCH5);
-        out.write(encodedBand);
-        PackingUtils.log("Wrote " + encodedBand.length
+        encodedLength = writeBandInt("code_LocalVariableTypeTable_span_O",
+                integerListToArray(codeLocalVariableTypeTableSpanO), Codec.BRANCH5, out);
+        PackingUtils.log("Wrote " + encodedLength
                 + " bytes from code_LocalVariableTypeTable_span_O["
                 + codeLocalVariableTypeTableSpanO.size() + "]");
 
-        encodedBand = encodeBandInt("code_LocalVariableTypeTable_name_RU",
+        encodedLength = writeBandInt("code_LocalVariableTypeTable_name_RU",
                 cpEntryListToArray(codeLocalVariableTypeTableNameRU),
-                Codec.UNSIGNED5);
-        out.write(encodedBand);
-        PackingUtils.log("Wrote " + encodedBand.length
+                Codec.UNSIGNED5, out);
+        PackingUtils.log("Wrote " + encodedLength
                 + " bytes from code_LocalVariableTypeTable_name_RU["
                 + codeLocalVariableTypeTableNameRU.size() + "]");
 
-        encodedBand = encodeBandInt("code_LocalVariableTypeTable_type_RS",
+        encodedLength = writeBandInt("code_LocalVariableTypeTable_type_RS",
                 cpEntryListToArray(codeLocalVariableTypeTableTypeRS),
-                Codec.UNSIGNED5);
-        out.write(encodedBand);
-        PackingUtils.log("Wrote " + encodedBand.length
+                Codec.UNSIGNED5, out);
+        PackingUtils.log("Wrote " + encodedLength
                 + " bytes from code_LocalVariableTypeTable_type_RS["
                 + codeLocalVariableTypeTableTypeRS.size() + "]");
 
-        encodedBand = encodeBandInt("code_LocalVariableTypeTable_slot",
-                codeLocalVariableTypeTableSlot.toArray(), Codec.UNSIGNED5);
-        out.write(encodedBand);
-        PackingUtils.log("Wrote " + encodedBand.length
+        encodedLength = writeBandInt("code_LocalVariableTypeTable_slot",
+                codeLocalVariableTypeTableSlot.toArray(), Codec.UNSIGNED5, out);
+        PackingUtils.log("Wrote " + encodedLength
                 + " bytes from code_LocalVariableTypeTable_slot["
                 + codeLocalVariableTypeTableSlot.size() + "]");
 
@@ -1001,7 +946,7 @@ class ClassBands extends BandSet {
         }
         tempMethodFlags.add(Long.valueOf(flags));
         numMethodArgs = countArgs(desc);
-        if(!anySyntheticMethods && ((flags & (1 << 12)) != 0) && segment.getCurrentClassReader().hasSyntheticAttributes()) {
+        if(!anySyntheticMethods && ((flags & (1 << 12)) != 0) && segment.hasSyntheticAttributes()) {
             cpBands.addCPUtf8("Synthetic");
             anySyntheticMethods = true;
         }
@@ -1032,7 +977,7 @@ class ClassBands extends BandSet {
             if(latestCodeFlag == (1 << 2) && latestLocalVariableTableN == 0) {
                 codeLocalVariableTableN.remove(codeLocalVariableTableN.size() - 1);
                 codeFlags.remove(codeFlags.size() - 1);
-                codeFlags.add(Integer.valueOf(0));
+                codeFlags.add(Long.valueOf(0));
             }
         }
     }
@@ -0,0 +1,643 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.harmony.pack200;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.objectweb.asm.AnnotationVisitor;
+import org.objectweb.asm.Attribute;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.FieldVisitor;
+import org.objectweb.asm.Handle;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+
+/**
+ * ClassRecord parses a class file into a record of what ASM found in it, so
+ * that classes can be parsed concurrently and then added to the bands of a
+ * segment one at a time, in order.
+ *
+ * Only the visits that Segment handles are recorded, and they are replayed
+ * in the order ASM made them, with the same Labels (whose offsets are
+ * already resolved) and attributes. What Segment would have asked the
+ * Pack200ClassReader at the time of a visit is recorded with it. If parsing
+ * the class fails, the visits made before the failure are replayed and then
+ * the exception is thrown, just as if the class had been parsed straight
+ * into the segment.
+ */
+class ClassRecord extends ClassVisitor {
+
+    private static final int OPCODE = Opcodes.ASM7;
+
+    // Class visits
+    private static final int VISIT = 0;
+    private static final int SOURCE = 1;
+    private static final int OUTER_CLASS = 2;
+    private static final int CLASS_ANNOTATION = 3;
+    private static final int CLASS_ATTRIBUTE = 4;
+    private static final int INNER_CLASS = 5;
+    private static final int FIELD = 6;
+    private static final int METHOD = 7;
+    private static final int END = 8;
+
+    // Field visits
+    private static final int FIELD_ANNOTATION = 10;
+    private static final int FIELD_ATTRIBUTE = 11;
+    private static final int FIELD_END = 12;
+
+    // Method visits
+    private static final int METHOD_ANNOTATION = 20;
+    private static final int ANNOTATION_DEFAULT = 21;
+    private static final int PARAMETER_ANNOTATION = 22;
+    private static final int METHOD_ATTRIBUTE = 23;
+    private static final int CODE = 24;
+    private static final int LABEL = 25;
+    private static final int LINE_NUMBER = 26;
+    private static final int LOCAL_VARIABLE = 27;
+    private static final int MAXS = 28;
+    private static final int TRY_CATCH = 29;
+    private static final int METHOD_END = 30;
+    private static final int FIELD_INSN = 31;
+    private static final int IINC_INSN = 32;
+    private static final int INSN = 33;
+    private static final int INT_INSN = 34;
+    private static final int JUMP_INSN = 35;
+    private static final int LDC_INSN = 36;
+    private static final int LOOKUP_SWITCH_INSN = 37;
+    private static final int METHOD_INSN = 38;
+    private static final int MULTI_ANEW_ARRAY_INSN = 39;
+    private static final int TABLE_SWITCH_INSN = 40;
+    private static final int TYPE_INSN = 41;
+    private static final int VAR_INSN = 42;
+    private static final int INVOKE_DYNAMIC_INSN = 43;
+
+    // Annotation visits, which apply to the annotation visitor returned by
+    // the innermost visit that hasn't ended
+    private static final int VALUE = 50;
+    private static final int NESTED_ANNOTATION = 51;
+    private static final int ARRAY = 52;
+    private static final int ENUM = 53;
+    private static final int ANNOTATION_END = 54;
+
+    private final Pack200ClassReader classReader;
+
+    // The kind of each visit, and its arguments in order
+    private int[] kinds = new int[64];
+    private int size;
+    private final List<Object> arguments = new ArrayList<Object>();
+
+    private Throwable failure;
+
+    private final FieldVisitor fieldRecorder = new FieldVisitor(OPCODE) {
+
+        @Override
+        public AnnotationVisitor visitAnnotation(String desc, boolean visible) {
+            add(FIELD_ANNOTATION, desc, Boolean.valueOf(visible));
+            return annotationRecorder;
+        }
+
+        @Override
+        public void visitAttribute(Attribute attribute) {
+            add(FIELD_ATTRIBUTE, attribute);
+        }
+
+        @Override
+        public void visitEnd() {
+            add(FIELD_END);
+        }
+    };
+
+    private final MethodVisitor methodRecorder = new MethodVisitor(OPCODE) {
+
+        @Override
+        public AnnotationVisitor visitAnnotation(String desc, boolean visible) {
+            add(METHOD_ANNOTATION, desc, Boolean.valueOf(visible));
+            return annotationRecorder;
+        }
+
+        @Override
+        public AnnotationVisitor visitAnnotationDefault() {
+            add(ANNOTATION_DEFAULT);
+            return annotationRecorder;
+        }
+
+        @Override
+        public AnnotationVisitor visitParameterAnnotation(int parameter,
+                String desc, boolean visible) {
+            add(PARAMETER_ANNOTATION, Integer.valueOf(parameter), desc,
+                    Boolean.valueOf(visible));
+            return annotationRecorder;
+        }
+
+        @Override
+        public void visitAttribute(Attribute attribute) {
+            add(METHOD_ATTRIBUTE, attribute);
+        }
+
+        @Override
+        public void visitCode() {
+            add(CODE);
+        }
+
+        @Override
+        public void visitLabel(Label label) {
+            add(LABEL, label);
+        }
+
+        @Override
+        public void visitLineNumber(int line, Label start) {
+            add(LINE_NUMBER, Integer.valueOf(line), start);
+        }
+
+        @Override
+        public void visitLocalVariable(String name, String desc,
+                String signature, Label start, Label end, int index) {
+            add(LOCAL_VARIABLE, name, desc, signature, start, end, Integer
+                    .valueOf(index));
+        }
+
+        @Override
+        public void visitMaxs(int maxStack, int maxLocals) {
+            add(MAXS, Integer.valueOf(maxStack), Integer.valueOf(maxLocals));
+        }
+
+        @Override
+        public void visitTryCatchBlock(Label start, Label end, Label handler,
+                String type) {
+            add(TRY_CATCH, start, end, handler, type);
+        }
+
+        @Override
+        public void visitEnd() {
+            add(METHOD_END);
+        }
+
+        @Override
+        public void visitFieldInsn(int opcode, String owner, String name,
+                String desc) {
+            add(FIELD_INSN, Integer.valueOf(opcode), owner, name, desc);
+        }
+
+        @Override
+        public void visitIincInsn(int var, int increment) {
+            add(IINC_INSN, Integer.valueOf(var), Integer.valueOf(increment));
+        }
+
+        @Override
+        public void visitInsn(int opcode) {
+            add(INSN, Integer.valueOf(opcode));
+        }
+
+        @Override
+        public void visitIntInsn(int opcode, int operand) {
+            add(INT_INSN, Integer.valueOf(opcode), Integer.valueOf(operand));
+        }
+
+        @Override
+        public void visitJumpInsn(int opcode, Label label) {
+            add(JUMP_INSN, Integer.valueOf(opcode), label);
+        }
+
+        @Override
+        public void visitLdcInsn(Object cst) {
+            add(LDC_INSN, cst, Boolean.valueOf(classReader
+                    .lastConstantHadWideIndex()));
+        }
+
+        @Override
+        public void visitLookupSwitchInsn(Label dflt, int[] keys,
+                Label[] labels) {
+            add(LOOKUP_SWITCH_INSN, dflt, keys, labels);
+        }
+
+        @Override
+        public void visitMethodInsn(int opcode, String owner, String name,
+                String desc, boolean isInterface) {
+            add(METHOD_INSN, Integer.valueOf(opcode), owner, name, desc,
+                    Boolean.valueOf(isInterface));
+        }
+
+        @Override
+        public void visitMultiANewArrayInsn(String desc, int dimensions) {
+            add(MULTI_ANEW_ARRAY_INSN, desc, Integer.valueOf(dimensions));
+        }
+
+        @Override
+        public void visitTableSwitchInsn(int min, int max, Label dflt,
+                Label... labels) {
+            add(TABLE_SWITCH_INSN, Integer.valueOf(min), Integer.valueOf(max),
+                    dflt, labels);
+        }
+
+        @Override
+        public void visitTypeInsn(int opcode, String type) {
+            add(TYPE_INSN, Integer.valueOf(opcode), type);
+        }
+
+        @Override
+        public void visitVarInsn(int opcode, int var) {
+            add(VAR_INSN, Integer.valueOf(opcode), Integer.valueOf(var));
+        }
+
+        @Override
+        public void visitInvokeDynamicInsn(String name, String desc,
+                Handle bsm, Object... bsmArgs) {
+            add(INVOKE_DYNAMIC_INSN, name, desc, bsm, bsmArgs);
+        }
+    };
+
+    private final AnnotationVisitor annotationRecorder = new AnnotationVisitor(OPCODE) {
+
+        @Override
+        public void visit(String name, Object value) {
+            add(VALUE, name, value);
+        }
+
+        @Override
+        public AnnotationVisitor visitAnnotation(String name, String desc) {
+            add(NESTED_ANNOTATION, name, desc);
+            return this;
+        }
+
+        @Override
+        public AnnotationVisitor visitArray(String name) {
+            add(ARRAY, name);
+            return this;
+        }
+
+        @Override
+        public void visitEnum(String name, String desc, String value) {
+            add(ENUM, name, desc, value);
+        }
+
+        @Override
+        public void visitEnd() {
+            add(ANNOTATION_END);
+        }
+    };
+
+    public ClassRecord(Pack200ClassReader classReader) {
+        super(OPCODE);
+        this.classReader = classReader;
+    }
+
+    public Pack200ClassReader getClassReader() {
+        return classReader;
+    }
+
+    /**
+     * Parses the class, recording what is found in it
+     *
+     * @param attributes - the prototypes of the non-standard attributes
+     * @param flags - the flags to pass to ClassReader.accept()
+     */
+    public void parse(Attribute[] attributes, int flags) {
+        try {
+            classReader.accept(this, attributes, flags);
+        } catch (RuntimeException e) {
+            failure = e;
+        } catch (Error e) {
+            failure = e;
+        }
+    }
+
+    private void add(int kind, Object... args) {
+        if (size == kinds.length) {
+            int[] newKinds = new int[size * 2];
+            System.arraycopy(kinds, 0, newKinds, 0, size);
+            kinds = newKinds;
+        }
+        kinds[size++] = kind;
+        for (int i = 0; i < args.length; i++) {
+            arguments.add(args[i]);
+        }
+    }
+
+    @Override
+    public void visit(int version, int access, String name, String signature,
+            String superName, String[] interfaces) {
+        add(VISIT, Integer.valueOf(version), Integer.valueOf(access), name,
+                signature, superName, interfaces, Boolean.valueOf(classReader
+                        .hasSyntheticAttributes()));
+    }
+
+    @Override
+    public void visitSource(String source, String debug) {
+        add(SOURCE, source, debug);
+    }
+
+    @Override
+    public void visitOuterClass(String owner, String name, String desc) {
+        add(OUTER_CLASS, owner, name, desc);
+    }
+
+    @Override
+    public AnnotationVisitor visitAnnotation(String desc, boolean visible) {
+        add(CLASS_ANNOTATION, desc, Boolean.valueOf(visible));
+        return annotationRecorder;
+    }
+
+    @Override
+    public void visitAttribute(Attribute attribute) {
+        add(CLASS_ATTRIBUTE, attribute);
+    }
+
+    @Override
+    public void visitInnerClass(String name, String outerName,
+            String innerName, int flags) {
+        add(INNER_CLASS, name, outerName, innerName, Integer.valueOf(flags));
+    }
+
+    @Override
+    public FieldVisitor visitField(int flags, String name, String desc,
+            String signature, Object value) {
+        add(FIELD, Integer.valueOf(flags), name, desc, signature, value,
+                Boolean.valueOf(classReader.hasSyntheticAttributes()));
+        return fieldRecorder;
+    }
+
+    @Override
+    public MethodVisitor visitMethod(int flags, String name, String desc,
+            String signature, String[] exceptions) {
+        add(METHOD, Integer.valueOf(flags), name, desc, signature, exceptions,
+                Boolean.valueOf(classReader.hasSyntheticAttributes()));
+        return methodRecorder;
+    }
+
+    @Override
+    public void visitEnd() {
+        add(END);
+    }
+
+    /**
+     * Replays the visits recorded for the class into a segment, and then
+     * throws whatever parsing the class threw
+     *
+     * @param segment - the segment to add the class to
+     */
+    public void replay(Segment segment) {
+        FieldVisitor fv = null;
+        MethodVisitor mv = null;
+        // The annotation visitors of the annotations and arrays that haven't
+        // ended yet, innermost last
+        List<AnnotationVisitor> annotations = new ArrayList<AnnotationVisitor>();
+        int arg = 0;
+        for (int i = 0; i < size; i++) {
+            AnnotationVisitor av = annotations.isEmpty() ? null : annotations
+                    .get(annotations.size() - 1);
+            switch (kinds[i]) {
+            case VISIT:
+                segment.setSyntheticAttributes(bool(arguments.get(arg + 6)));
+                segment.visit(integer(arguments.get(arg)), integer(arguments
+                        .get(arg + 1)), (String) arguments.get(arg + 2),
+                        (String) arguments.get(arg + 3), (String) arguments
+                                .get(arg + 4), (String[]) arguments
+                                .get(arg + 5));
+                arg += 7;
+                break;
+            case SOURCE:
+                segment.visitSource((String) arguments.get(arg),
+                        (String) arguments.get(arg + 1));
+                arg += 2;
+                break;
+            case OUTER_CLASS:
+                segment.visitOuterClass((String) arguments.get(arg),
+                        (String) arguments.get(arg + 1), (String) arguments
+                                .get(arg + 2));
+                arg += 3;
+                break;
+            case CLASS_ANNOTATION:
+                annotations.add(segment.visitAnnotation((String) arguments
+                        .get(arg), bool(arguments.get(arg + 1))));
+                arg += 2;
+                break;
+            case CLASS_ATTRIBUTE:
+                segment.visitAttribute((Attribute) arguments.get(arg++));
+                break;
+            case INNER_CLASS:
+                segment.visitInnerClass((String) arguments.get(arg),
+                        (String) arguments.get(arg + 1), (String) arguments
+                                .get(arg + 2), integer(arguments.get(arg + 3)));
+                arg += 4;
+                break;
+            case FIELD:
+                segment.setSyntheticAttributes(bool(arguments.get(arg + 5)));
+                fv = segment.visitField(integer(arguments.get(arg)),
+                        (String) arguments.get(arg + 1), (String) arguments
+                                .get(arg + 2), (String) arguments.get(arg + 3),
+                        arguments.get(arg + 4));
+                arg += 6;
+                break;
+            case METHOD:
+                segment.setSyntheticAttributes(bool(arguments.get(arg + 5)));
+                mv = segment.visitMethod(integer(arguments.get(arg)),
+                        (String) arguments.get(arg + 1), (String) arguments
+                                .get(arg + 2), (String) arguments.get(arg + 3),
+                        (String[]) arguments.get(arg + 4));
+                arg += 6;
+                break;
+            case END:
+                segment.visitEnd();
+                break;
+
+            case FIELD_ANNOTATION:
+                annotations.add(fv.visitAnnotation((String) arguments.get(arg),
+                        bool(arguments.get(arg + 1))));
+                arg += 2;
+                break;
+            case FIELD_ATTRIBUTE:
+                fv.visitAttribute((Attribute) arguments.get(arg++));
+                break;
+            case FIELD_END:
+                fv.visitEnd();
+                break;
+
+            case METHOD_ANNOTATION:
+                annotations.add(mv.visitAnnotation((String) arguments.get(arg),
+                        bool(arguments.get(arg + 1))));
+                arg += 2;
+                break;
+            case ANNOTATION_DEFAULT:
+                annotations.add(mv.visitAnnotationDefault());
+                break;
+            case PARAMETER_ANNOTATION:
+                annotations.add(mv.visitParameterAnnotation(integer(arguments
+                        .get(arg)), (String) arguments.get(arg + 1),
+                        bool(arguments.get(arg + 2))));
+                arg += 3;
+                break;
+            case METHOD_ATTRIBUTE:
+                mv.visitAttribute((Attribute) arguments.get(arg++));
+                break;
+            case CODE:
+                mv.visitCode();
+                break;
+            case LABEL:
+                mv.visitLabel((Label) arguments.get(arg++));
+                break;
+            case LINE_NUMBER:
+                mv.visitLineNumber(integer(arguments.get(arg)),
+                        (Label) arguments.get(arg + 1));
+                arg += 2;
+                break;
+            case LOCAL_VARIABLE:
+                mv.visitLocalVariable((String) arguments.get(arg),
+                        (String) arguments.get(arg + 1), (String) arguments
+                                .get(arg + 2), (Label) arguments.get(arg + 3),
+                        (Label) arguments.get(arg + 4), integer(arguments
+                                .get(arg + 5)));
+                arg += 6;
+                break;
+            case MAXS:
+                mv.visitMaxs(integer(arguments.get(arg)), integer(arguments
+                        .get(arg + 1)));
+                arg += 2;
+                break;
+            case TRY_CATCH:
+                mv.visitTryCatchBlock((Label) arguments.get(arg),
+                        (Label) arguments.get(arg + 1), (Label) arguments
+                                .get(arg + 2), (String) arguments.get(arg + 3));
+                arg += 4;
+                break;
+            case METHOD_END:
+                mv.visitEnd();
+                break;
+            case FIELD_INSN:
+                mv.visitFieldInsn(integer(arguments.get(arg)),
+                        (String) arguments.get(arg + 1), (String) arguments
+                                .get(arg + 2), (String) arguments.get(arg + 3));
+                arg += 4;
+                break;
+            case IINC_INSN:
+                mv.visitIincInsn(integer(arguments.get(arg)), integer(arguments
+                        .get(arg + 1)));
+                arg += 2;
+                break;
+            case INSN:
+                mv.visitInsn(integer(arguments.get(arg++)));
+                break;
+            case INT_INSN:
+                mv.visitIntInsn(integer(arguments.get(arg)), integer(arguments
+                        .get(arg + 1)));
+                arg += 2;
+                break;
+            case JUMP_INSN:
+                mv.visitJumpInsn(integer(arguments.get(arg)), (Label) arguments
+                        .get(arg + 1));
+                arg += 2;
+                break;
+            case LDC_INSN:
+                segment.setLastConstantHadWideIndex(bool(arguments
+                        .get(arg + 1)));
+                mv.visitLdcInsn(arguments.get(arg));
+                arg += 2;
+                break;
+            case LOOKUP_SWITCH_INSN:
+                mv.visitLookupSwitchInsn((Label) arguments.get(arg),
+                        (int[]) arguments.get(arg + 1), (Label[]) arguments
+                                .get(arg + 2));
+                arg += 3;
+                break;
+            case METHOD_INSN:
+                mv.visitMethodInsn(integer(arguments.get(arg)),
+                        (String) arguments.get(arg + 1), (String) arguments
+                                .get(arg + 2), (String) arguments.get(arg + 3),
+                        bool(arguments.get(arg + 4)));
+                arg += 5;
+                break;
+            case MULTI_ANEW_ARRAY_INSN:
+                mv.visitMultiANewArrayInsn((String) arguments.get(arg),
+                        integer(arguments.get(arg + 1)));
+                arg += 2;
+                break;
+            case TABLE_SWITCH_INSN:
+                mv.visitTableSwitchInsn(integer(arguments.get(arg)),
+                        integer(arguments.get(arg + 1)), (Label) arguments
+                                .get(arg + 2), (Label[]) arguments.get(arg + 3));
+                arg += 4;
+                break;
+            case TYPE_INSN:
+                mv.visitTypeInsn(integer(arguments.get(arg)),
+                        (String) arguments.get(arg + 1));
+                arg += 2;
+                break;
+            case VAR_INSN:
+                mv.visitVarInsn(integer(arguments.get(arg)), integer(arguments
+                        .get(arg + 1)));
+                arg += 2;
+                break;
+            case INVOKE_DYNAMIC_INSN:
+                mv.visitInvokeDynamicInsn((String) arguments.get(arg),
+                        (String) arguments.get(arg + 1), (Handle) arguments
+                                .get(arg + 2), (Object[]) arguments
+                                .get(arg + 3));
+                arg += 4;
+                break;
+
+            // ASM doesn't visit the contents of an annotation whose visitor
+            // is null, so neither does the replay
+            case VALUE:
+                if (av != null) {
+                    av.visit((String) arguments.get(arg), arguments
+                            .get(arg + 1));
+                }
+                arg += 2;
+                break;
+            case NESTED_ANNOTATION:
+                annotations.add(av == null ? null : av.visitAnnotation(
+                        (String) arguments.get(arg), (String) arguments
+                                .get(arg + 1)));
+                arg += 2;
+                break;
+            case ARRAY:
+                annotations.add(av == null ? null : av
+                        .visitArray((String) arguments.get(arg)));
+                arg++;
+                break;
+            case ENUM:
+                if (av != null) {
+                    av.visitEnum((String) arguments.get(arg),
+                            (String) arguments.get(arg + 1), (String) arguments
+                                    .get(arg + 2));
+                }
+                arg += 3;
+                break;
+            case ANNOTATION_END:
+                annotations.remove(annotations.size() - 1);
+                if (av != null) {
+                    av.visitEnd();
+                }
+                break;
+            }
+        }
+        if (failure instanceof RuntimeException) {
+            throw (RuntimeException) failure;
+        } else if (failure instanceof Error) {
+            throw (Error) failure;
+        }
+    }
+
+    private static int integer(Object value) {
+        return ((Integer) value).intValue();
+    }
+
+    private static boolean bool(Object value) {
+        return ((Boolean) value).booleanValue();
+    }
+}
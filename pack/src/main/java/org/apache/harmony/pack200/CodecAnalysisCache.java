@@ -0,0 +1,453 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.harmony.pack200;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.harmony.unpack200.codec.BHSDCodec;
+import org.apache.harmony.unpack200.codec.Codec;
+import org.apache.harmony.unpack200.codec.PopulationCodec;
+import org.apache.harmony.unpack200.codec.RunCodec;
+import org.apache.harmony.unpack200.common.Pack200Exception;
+
+/**
+ * CodecAnalysisCache remembers which codecs were chosen for the bands of one
+ * segment, so that the bands of the segments after it can be analysed in
+ * less time.
+ *
+ * Each band is summarised by a fingerprint of its length, range, deltas and
+ * distinct values, and a band with the same name and fingerprint as one
+ * already analysed is assumed to suit the same codec. That codec is tried
+ * first, and then only the families of codecs (BHSD codecs with the same B, S
+ * and D, population codecs and run codecs) that have been chosen for a band
+ * of that name before.
+ *
+ * The first segment is analysed in full to fill the cache, which is then only
+ * read, so the codecs chosen for a segment do not depend on which of the
+ * other segments are packed first. A cache read from a file is used from the
+ * first segment on. Everything chosen while packing is kept so that it can be
+ * written to the file again afterwards.
+ */
+class CodecAnalysisCache {
+
+    private static final String HEADER = "pack200-codec-analysis-cache 1";
+
+    // The family of a population codec and of a run codec. Each (B, S, D) of
+    // a BHSD codec has one of the lower bits.
+    static final int POPULATION = 1 << 30;
+    static final int RUN = 1 << 31;
+
+    // What was read from a file, and what has been chosen while packing
+    private final Map<String, Choice> loadedChoices = new HashMap<String, Choice>();
+    private final Map<String, Integer> loadedFamilies = new HashMap<String, Integer>();
+    private final Map<String, Choice> choices = new HashMap<String, Choice>();
+    private final Map<String, Integer> families = new HashMap<String, Integer>();
+
+    // What is looked up, which doesn't change once the cache is in use
+    private Map<String, Choice> visibleChoices;
+    private Map<String, Integer> visibleFamilies;
+
+    // The BHSD codecs in each combination of families that has been asked for
+    private static final Map<Integer, BHSDCodec[]> canonicalCodecs = new ConcurrentHashMap<Integer, BHSDCodec[]>();
+    private static final Map<Integer, BHSDCodec[]> nonCanonicalCodecs = new ConcurrentHashMap<Integer, BHSDCodec[]>();
+
+    private final AtomicInteger hits = new AtomicInteger();
+    private final AtomicInteger misses = new AtomicInteger();
+
+    /**
+     * Returns true until the cache has been filled by the first segment
+     */
+    public synchronized boolean isFilling() {
+        return visibleChoices == null;
+    }
+
+    /**
+     * Start using what has been chosen so far for the bands of the
+     * segments still to be packed
+     */
+    public synchronized void finishFilling() {
+        if (visibleChoices == null) {
+            visibleChoices = new HashMap<String, Choice>(loadedChoices);
+            visibleChoices.putAll(choices);
+            visibleFamilies = new HashMap<String, Integer>(loadedFamilies);
+            for (Iterator<Map.Entry<String, Integer>> iterator = families
+                    .entrySet().iterator(); iterator.hasNext();) {
+                Map.Entry<String, Integer> entry = iterator.next();
+                addFamilies(visibleFamilies, entry.getKey(), entry.getValue()
+                        .intValue());
+            }
+        }
+    }
+
+    /**
+     * Returns the fingerprint of a band, which has a few bits for each of
+     * the statistics given
+     *
+     * @param length - the number of values in the band
+     * @param smallest - the smallest value
+     * @param largest - the largest value
+     * @param smallestDelta - the smallest difference between consecutive values
+     * @param largestDelta - the largest difference between consecutive values
+     * @param distinct - the number of distinct values
+     * @param mostFrequent - the number of times the most frequent value occurs
+     * @return the fingerprint
+     */
+    public static long fingerprint(int length, int smallest, int largest,
+            int smallestDelta, int largestDelta, int distinct, int mostFrequent) {
+        long fingerprint = magnitude(length);
+        fingerprint = fingerprint << 7 | signedMagnitude(smallest);
+        fingerprint = fingerprint << 7 | signedMagnitude(largest);
+        fingerprint = fingerprint << 7 | signedMagnitude(smallestDelta);
+        fingerprint = fingerprint << 7 | signedMagnitude(largestDelta);
+        fingerprint = fingerprint << 6 | magnitude(distinct);
+        // the share of the band taken by the most frequent value, in eighths
+        fingerprint = fingerprint << 4 | (long) mostFrequent * 8 / Math.max(1, length);
+        return fingerprint;
+    }
+
+    // The number of bits needed for a value, from 0 to 32
+    private static int magnitude(int value) {
+        return 32 - Integer.numberOfLeadingZeros(value);
+    }
+
+    // From 0 for the most negative values to 65 for the most positive
+    private static int signedMagnitude(int value) {
+        return value < 0 ? 32 - magnitude(~value) : 33 + magnitude(value);
+    }
+
+    private static String key(String name, long fingerprint) {
+        return name + '\t' + Long.toHexString(fingerprint);
+    }
+
+    /**
+     * Looks up the codec chosen for a band with the same name and
+     * fingerprint as the given band
+     *
+     * @param name - the name of the band
+     * @param fingerprint - the fingerprint of the band
+     * @return what was chosen, or null if the cache is still being filled or
+     *         no such band has been analysed
+     */
+    public Choice lookup(String name, long fingerprint) {
+        Map<String, Choice> visible;
+        synchronized (this) {
+            visible = visibleChoices;
+        }
+        Choice choice = visible == null ? null : visible.get(key(name,
+                fingerprint));
+        if (choice == null) {
+            misses.incrementAndGet();
+        } else {
+            hits.incrementAndGet();
+        }
+        return choice;
+    }
+
+    /**
+     * Returns the families of the codecs chosen for bands of the given name,
+     * once the cache has been filled
+     *
+     * @param name - the name of the band
+     * @return the families, as a mask of POPULATION, RUN and the families
+     *         of BHSD codecs
+     */
+    public int getFamilies(String name) {
+        Map<String, Integer> visible;
+        synchronized (this) {
+            visible = visibleFamilies;
+        }
+        Integer mask = visible == null ? null : visible.get(name);
+        return mask == null ? 0 : mask.intValue();
+    }
+
+    /**
+     * Records the codec chosen for a band
+     *
+     * @param name - the name of the band
+     * @param fingerprint - the fingerprint of the band
+     * @param codec - the codec chosen, or null for the default codec
+     */
+    public void record(String name, long fingerprint, Codec codec) {
+        Choice choice = Choice.of(codec);
+        String key = key(name, fingerprint);
+        synchronized (this) {
+            // The same band can be analysed concurrently with another band
+            // with the same key, so the choice kept can't depend on which is
+            // recorded first
+            Choice previous = choices.get(key);
+            if (previous == null || choice.compareTo(previous) < 0) {
+                choices.put(key, choice);
+            }
+            addFamilies(families, name, choice.family);
+        }
+    }
+
+    private static void addFamilies(Map<String, Integer> families,
+            String name, int mask) {
+        Integer previous = families.get(name);
+        families.put(name, Integer.valueOf(previous == null ? mask : previous
+                .intValue() | mask));
+    }
+
+    /**
+     * Returns the family of a codec, or 0 for the default codec
+     */
+    static int family(Codec codec) {
+        if (codec instanceof BHSDCodec) {
+            BHSDCodec bhsd = (BHSDCodec) codec;
+            return 1 << (((bhsd.getB() - 1) * 3 + bhsd.getS()) * 2 + (bhsd
+                    .isDelta() ? 1 : 0));
+        } else if (codec instanceof PopulationCodec) {
+            return POPULATION;
+        } else if (codec instanceof RunCodec) {
+            return RUN;
+        }
+        return 0;
+    }
+
+    /**
+     * Returns the canonical codecs in the given families
+     *
+     * @param mask - the families
+     * @return the canonical BHSD codecs in them
+     */
+    public static BHSDCodec[] getCanonicalCodecs(int mask) {
+        return inFamilies(CodecCostModel.getCanonicalCodecs(), mask,
+                canonicalCodecs);
+    }
+
+    /**
+     * Returns the non-canonical codecs in the given families
+     *
+     * @param mask - the families
+     * @return the non-canonical BHSD codecs in them
+     */
+    public static BHSDCodec[] getNonCanonicalCodecs(int mask) {
+        return inFamilies(CodecCostModel.getNonCanonicalCodecs(), mask,
+                nonCanonicalCodecs);
+    }
+
+    private static BHSDCodec[] inFamilies(BHSDCodec[] all, int mask,
+            Map<Integer, BHSDCodec[]> found) {
+        Integer key = Integer.valueOf(mask);
+        BHSDCodec[] codecs = found.get(key);
+        if (codecs == null) {
+            List<BHSDCodec> codecList = new ArrayList<BHSDCodec>();
+            for (int i = 0; i < all.length; i++) {
+                if ((family(all[i]) & mask) != 0) {
+                    codecList.add(all[i]);
+                }
+            }
+            codecs = codecList.toArray(new BHSDCodec[codecList.size()]);
+            found.put(key, codecs);
+        }
+        return codecs;
+    }
+
+    public int getHits() {
+        return hits.get();
+    }
+
+    public int getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * Reads a cache written by <code>write</code>. A file that doesn't exist
+     * is taken to be an empty cache.
+     *
+     * @param file - the file to read
+     * @throws IOException
+     * @throws Pack200Exception
+     *             if the file is not a codec analysis cache
+     */
+    public void read(File file) throws IOException, Pack200Exception {
+        if (!file.exists()) {
+            return;
+        }
+        BufferedReader reader = new BufferedReader(new InputStreamReader(
+                new FileInputStream(file), "UTF-8"));
+        try {
+            if (!HEADER.equals(reader.readLine())) {
+                throw new Pack200Exception(file
+                        + " is not a codec analysis cache");
+            }
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] fields = line.split("\t", -1);
+                if (fields.length == 4 && fields[0].equals("band")) {
+                    // name, fingerprint, choice
+                    Choice choice = Choice.parse(fields[3]);
+                    if (choice == null) {
+                        throw new Pack200Exception("Bad codec analysis cache entry: "
+                                + line);
+                    }
+                    loadedChoices.put(fields[1] + '\t' + fields[2], choice);
+                } else if (fields.length == 3 && fields[0].equals("family")) {
+                    addFamilies(loadedFamilies, fields[1], (int) Long
+                            .parseLong(fields[2], 16));
+                } else {
+                    throw new Pack200Exception("Bad codec analysis cache entry: "
+                            + line);
+                }
+            }
+        } catch (IllegalArgumentException e) {
+            throw new Pack200Exception("Bad codec analysis cache " + file, e);
+        } finally {
+            reader.close();
+        }
+        if (!loadedChoices.isEmpty()) {
+            finishFilling();
+        }
+    }
+
+    /**
+     * Writes what was read from a file, updated with everything chosen
+     * since, in a form that <code>read</code> can read back
+     *
+     * @param file - the file to write
+     * @throws IOException
+     */
+    public synchronized void write(File file) throws IOException {
+        Map<String, Choice> allChoices = new TreeMap<String, Choice>(loadedChoices);
+        allChoices.putAll(choices);
+        Map<String, Integer> allFamilies = new TreeMap<String, Integer>(loadedFamilies);
+        for (Iterator<Map.Entry<String, Integer>> iterator = families
+                .entrySet().iterator(); iterator.hasNext();) {
+            Map.Entry<String, Integer> entry = iterator.next();
+            addFamilies(allFamilies, entry.getKey(), entry.getValue().intValue());
+        }
+        PrintWriter writer = new PrintWriter(new OutputStreamWriter(
+                new FileOutputStream(file), "UTF-8"));
+        try {
+            writer.print(HEADER + '\n');
+            for (Iterator<Map.Entry<String, Choice>> iterator = allChoices
+                    .entrySet().iterator(); iterator.hasNext();) {
+                Map.Entry<String, Choice> entry = iterator.next();
+                writer.print("band\t" + entry.getKey() + '\t' + entry.getValue()
+                        + '\n');
+            }
+            for (Iterator<Map.Entry<String, Integer>> iterator = allFamilies
+                    .entrySet().iterator(); iterator.hasNext();) {
+                Map.Entry<String, Integer> entry = iterator.next();
+                writer.print("family\t" + entry.getKey() + '\t'
+                        + Integer.toHexString(entry.getValue().intValue()) + '\n');
+            }
+        } finally {
+            writer.close();
+        }
+        if (writer.checkError()) {
+            throw new IOException("Failed to write " + file);
+        }
+    }
+
+    /**
+     * The codec chosen for a band: a BHSD codec, or the family of a
+     * population or run codec, or neither for the default codec
+     */
+    static class Choice implements Comparable<Choice> {
+
+        private final BHSDCodec codec;
+        private final int family;
+
+        Choice(BHSDCodec codec, int family) {
+            this.codec = codec;
+            this.family = family;
+        }
+
+        /**
+         * Returns the choice of the given codec
+         *
+         * @param codec - the codec chosen, or null for the default codec
+         */
+        static Choice of(Codec codec) {
+            return new Choice(codec instanceof BHSDCodec ? (BHSDCodec) codec
+                    : null, family(codec));
+        }
+
+        /**
+         * @return the BHSD codec chosen, or null
+         */
+        public BHSDCodec getCodec() {
+            return codec;
+        }
+
+        /**
+         * @return the family of the codec chosen, or 0 for the default codec
+         */
+        public int getFamily() {
+            return family;
+        }
+
+        public int compareTo(Choice other) {
+            if (family != other.family) {
+                return family < other.family ? -1 : 1;
+            }
+            if (codec == null) {
+                return other.codec == null ? 0 : -1;
+            } else if (other.codec == null) {
+                return 1;
+            }
+            return toString().compareTo(other.toString());
+        }
+
+        public String toString() {
+            if (codec != null) {
+                return codec.getB() + "," + codec.getH() + "," + codec.getS()
+                        + "," + (codec.isDelta() ? 1 : 0);
+            } else if (family == POPULATION) {
+                return "population";
+            } else if (family == RUN) {
+                return "run";
+            }
+            return "default";
+        }
+
+        static Choice parse(String string) {
+            if (string.equals("population")) {
+                return new Choice(null, POPULATION);
+            } else if (string.equals("run")) {
+                return new Choice(null, RUN);
+            } else if (string.equals("default")) {
+                return new Choice(null, 0);
+            }
+            String[] bhsd = string.split(",");
+            if (bhsd.length != 4) {
+                return null;
+            }
+            BHSDCodec codec = new BHSDCodec(Integer.parseInt(bhsd[0]), Integer
+                    .parseInt(bhsd[1]), Integer.parseInt(bhsd[2]), Integer
+                    .parseInt(bhsd[3]));
+            return new Choice(codec, family(codec));
+        }
+    }
+}
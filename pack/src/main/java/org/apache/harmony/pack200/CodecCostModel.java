@@ -0,0 +1,326 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.harmony.pack200;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.harmony.unpack200.codec.BHSDCodec;
+import org.apache.harmony.unpack200.codec.CodecEncoding;
+
+/**
+ * CodecCostModel works out the exact number of bytes a band would take up if
+ * it was encoded with a given BHSD codec, without encoding it.
+ *
+ * A BHSD codec encodes a value in n bytes if its unsigned form z is less than
+ * a threshold that only depends on n, B and H, and z only depends on the value
+ * and S (for delta codecs, on the difference from the previous value). So the
+ * values and the deltas of the band are each sorted once into a histogram,
+ * and the number of values needing more than n bytes can then be counted for
+ * any codec with a couple of binary searches. Each of them is only sorted
+ * when a codec first needs it, so a band that is only tried with delta codecs
+ * (or without them) is only sorted once.
+ */
+class CodecCostModel {
+
+    private static final long TWO_POW_32 = 1L << 32;
+
+    private static final BHSDCodec[] CANONICAL_CODECS = new BHSDCodec[115];
+
+    static {
+        for (int i = 0; i < CANONICAL_CODECS.length; i++) {
+            CANONICAL_CODECS[i] = CodecEncoding.getCanonicalCodec(i + 1);
+        }
+    }
+
+    private final int length;
+
+    private final Histogram values;
+
+    private final Histogram deltas;
+
+    /**
+     * Create a new CodecCostModel for the given band
+     *
+     * @param band - the band of integers
+     */
+    public CodecCostModel(int[] band) {
+        this(band, 0, band.length);
+    }
+
+    /**
+     * Create a new CodecCostModel for the values of a band from
+     * <code>from</code> (inclusive) to <code>to</code> (exclusive). The delta
+     * of the first of them is taken from the value before it, so that the
+     * lengths of consecutive parts of a band add up to the length of the band.
+     *
+     * @param band - the band of integers
+     * @param from - the index of the first value
+     * @param to - the index after the last value
+     */
+    public CodecCostModel(int[] band, int from, int to) {
+        length = to - from;
+        values = new Histogram(Arrays.copyOfRange(band, from, to));
+        int[] deltaBand = new int[length];
+        int last = from > 0 ? band[from - 1] : 0;
+        for (int i = from; i < to; i++) {
+            // int arithmetic wraps in the same way as the delta codecs
+            deltaBand[i - from] = band[i] - last;
+            last = band[i];
+        }
+        deltas = new Histogram(deltaBand);
+    }
+
+    /**
+     * @return the smallest difference between consecutive values of the band
+     */
+    public int getSmallestDelta() {
+        return deltas.smallest;
+    }
+
+    /**
+     * @return the largest difference between consecutive values of the band
+     */
+    public int getLargestDelta() {
+        return deltas.largest;
+    }
+
+    /**
+     * Returns the number of bytes that the band would be encoded as by the
+     * given codec, or -1 if the codec cannot encode the band.
+     *
+     * @param codec - the codec
+     * @return the length of the encoded band in bytes, or -1
+     */
+    public long encodedLength(BHSDCodec codec) {
+        if (length == 0) {
+            return 0;
+        }
+        if (values.smallest < codec.smallest()
+                || values.largest > codec.largest()) {
+            return -1;
+        }
+        Histogram histogram = codec.isDelta() ? deltas : values;
+        int s = codec.getS();
+        long cardinality = codec.cardinality();
+        long negativeOffset = cardinality < TWO_POW_32 ? cardinality
+                : TWO_POW_32;
+
+        // Check that every value maps to a z that can be encoded
+        if (histogram.largest >= 0 && unsigned(histogram.largest, s) >= cardinality) {
+            return -1;
+        }
+        if (histogram.smallest < 0) {
+            if (s == 0) {
+                if (histogram.smallest + negativeOffset < 0) {
+                    return -1;
+                }
+                // Each negative delta leaves the running total used by the
+                // decoder cardinality too large, and it has to stay in an int
+                if (codec.isDelta() && cardinality < TWO_POW_32
+                        && values.largest + cardinality
+                                * histogram.count(Integer.MIN_VALUE, -1) > Integer.MAX_VALUE) {
+                    return -1;
+                }
+            } else if (unsigned(histogram.smallest, s) >= cardinality) {
+                return -1;
+            }
+        }
+
+        int b = codec.getB();
+        long h = codec.getH();
+        long l = codec.getL();
+        long encodedLength = (long) length * b;
+        long threshold = 0;
+        long power = 1;
+        for (int n = 1; n < b; n++) {
+            // values with z < threshold are encoded in n bytes or less
+            threshold += l * power;
+            power *= h;
+            if (threshold == 0) {
+                continue;
+            }
+            int count;
+            if (s == 0) {
+                count = histogram.count(0, threshold - 1)
+                        + histogram.count(Integer.MIN_VALUE, Math.min(-1,
+                                threshold - negativeOffset - 1));
+            } else if (s == 1) {
+                count = histogram.count(0, (threshold - 1) / 2)
+                        + histogram.count(-(threshold / 2), -1);
+            } else {
+                count = histogram.count(0, (3 * threshold - 1) / 4)
+                        + histogram.count(-(threshold / 4), -1);
+            }
+            encodedLength -= count;
+        }
+        return encodedLength;
+    }
+
+    /*
+     * Map a value to its unsigned form for a signed codec with the given S
+     * value (or returns the value for S=0)
+     */
+    private static long unsigned(long value, int s) {
+        if (s == 0) {
+            return value;
+        } else if (value < 0) {
+            return (-value << s) - 1;
+        } else if (s == 1) {
+            return value << 1;
+        } else {
+            return value + value / 3;
+        }
+    }
+
+    /**
+     * Returns the canonical codecs (specifiers 1 to 115)
+     *
+     * @return the canonical BHSD codecs
+     */
+    public static BHSDCodec[] getCanonicalCodecs() {
+        return CANONICAL_CODECS;
+    }
+
+    /**
+     * Returns all the BHSD codecs that can only be specified with the escape
+     * specifier (116), i.e. all those that are not canonical codecs.
+     *
+     * @return the non-canonical BHSD codecs
+     */
+    public static BHSDCodec[] getNonCanonicalCodecs() {
+        return NonCanonicalCodecs.codecs;
+    }
+
+    private static class NonCanonicalCodecs {
+
+        private static final BHSDCodec[] codecs;
+
+        static {
+            List<BHSDCodec> codecList = new ArrayList<BHSDCodec>();
+            for (int b = 1; b <= 5; b++) {
+                for (int h = 1; h <= 256; h++) {
+                    if ((b == 1 && h != 256) || (b == 5 && h == 256)) {
+                        continue;
+                    }
+                    for (int s = 0; s <= 2; s++) {
+                        for (int d = 0; d <= 1; d++) {
+                            BHSDCodec codec = new BHSDCodec(b, h, s, d);
+                            if (CodecEncoding.getSpecifier(codec, null).length > 1) {
+                                codecList.add(codec);
+                            }
+                        }
+                    }
+                }
+            }
+            codecs = codecList.toArray(new BHSDCodec[codecList.size()]);
+        }
+    }
+
+    /**
+     * Histogram of the values in a band, held as the sorted distinct values and
+     * the number of values less than or equal to each of them. The values are
+     * sorted the first time they are counted, which can be from more than
+     * one thread.
+     */
+    private static class Histogram {
+
+        private int[] band;
+        private volatile int[] distinctValues;
+        private int[] cumulativeCounts;
+        private final int size;
+        private final int smallest;
+        private final int largest;
+
+        Histogram(int[] band) {
+            this.band = band;
+            size = band.length;
+            int smallest = band.length > 0 ? band[0] : 0;
+            int largest = smallest;
+            for (int i = 1; i < band.length; i++) {
+                if (band[i] < smallest) {
+                    smallest = band[i];
+                } else if (band[i] > largest) {
+                    largest = band[i];
+                }
+            }
+            this.smallest = smallest;
+            this.largest = largest;
+        }
+
+        private synchronized void sort() {
+            if (distinctValues != null) {
+                return;
+            }
+            Arrays.sort(band);
+            int distinct = 0;
+            for (int i = 0; i < band.length; i++) {
+                if (i == 0 || band[i] != band[i - 1]) {
+                    distinct++;
+                }
+            }
+            int[] values = new int[distinct];
+            cumulativeCounts = new int[distinct];
+            int index = -1;
+            for (int i = 0; i < band.length; i++) {
+                if (i == 0 || band[i] != band[i - 1]) {
+                    index++;
+                    values[index] = band[i];
+                }
+                cumulativeCounts[index] = i + 1;
+            }
+            band = null;
+            distinctValues = values;
+        }
+
+        /**
+         * Returns the number of values in the range [from, to]
+         */
+        int count(long from, long to) {
+            if (from > to) {
+                return 0;
+            }
+            return countLessThanOrEqual(to) - countLessThanOrEqual(from - 1);
+        }
+
+        private int countLessThanOrEqual(long value) {
+            if (value < smallest) {
+                return 0;
+            } else if (value >= largest) {
+                return size;
+            }
+            int[] values = distinctValues;
+            if (values == null) {
+                sort();
+                values = distinctValues;
+            }
+            // find the last distinct value <= value
+            int low = 0;
+            int high = values.length - 1;
+            while (low < high) {
+                int mid = (low + high + 1) >>> 1;
+                if (values[mid] <= value) {
+                    low = mid;
+                } else {
+                    high = mid - 1;
+                }
+            }
+            return cumulativeCounts[low];
+        }
+    }
+}
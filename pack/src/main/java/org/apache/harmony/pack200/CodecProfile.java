@@ -0,0 +1,216 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.harmony.pack200;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.harmony.unpack200.codec.Codec;
+import org.apache.harmony.unpack200.common.Pack200Exception;
+
+/**
+ * CodecProfile records which codec was chosen for each band of each segment
+ * of an archive, and how many bytes it saved, so that a later build of the
+ * same archive can skip most of the search for them.
+ *
+ * A band of a profiled segment tries the codec chosen for it in the profile
+ * first, and then only the families of codecs that were chosen for a band
+ * of that name in any segment. A band that isn't in the profile, or whose
+ * name was never seen, tries every codec as usual. Codecs that can't encode
+ * a band's values are never chosen whatever the profile says, as their
+ * lengths are worked out by the CodecCostModel, which checks the range of
+ * the band first.
+ *
+ * A profile is a text file with a version line and then one line for each
+ * band: the segment number, the band name, the codec chosen (as in
+ * CodecAnalysisCache) and the number of bytes saved, separated by tabs.
+ */
+class CodecProfile {
+
+    private static final String HEADER = "pack200-codec-profile 1";
+
+    // What was read from a file, by segment and band name, and the families
+    // chosen by band name
+    private final Map<String, CodecAnalysisCache.Choice> used = new HashMap<String, CodecAnalysisCache.Choice>();
+    private final Map<String, Integer> usedFamilies = new HashMap<String, Integer>();
+
+    // What has been chosen while packing, with the number of bytes saved,
+    // by segment and band name
+    private final Map<Integer, Map<String, String>> recorded = new TreeMap<Integer, Map<String, String>>();
+
+    private final AtomicInteger hits = new AtomicInteger();
+    private final AtomicInteger misses = new AtomicInteger();
+
+    private static String key(int segment, String name) {
+        return Integer.toString(segment) + '\t' + name;
+    }
+
+    /**
+     * Returns true if a profile has been read
+     */
+    public boolean isUsed() {
+        return !used.isEmpty();
+    }
+
+    /**
+     * Looks up the codec chosen for a band in the profile that was read
+     *
+     * @param segment - the number of the segment, from 0
+     * @param name - the name of the band
+     * @return what was chosen, or null if the band isn't in the profile
+     */
+    public CodecAnalysisCache.Choice lookup(int segment, String name) {
+        CodecAnalysisCache.Choice choice = used.get(key(segment, name));
+        if (choice == null) {
+            misses.incrementAndGet();
+        } else {
+            hits.incrementAndGet();
+        }
+        return choice;
+    }
+
+    /**
+     * Returns the families of the codecs chosen for bands of the given name
+     * in the profile that was read
+     *
+     * @param name - the name of the band
+     * @return the families, as a mask of CodecAnalysisCache.POPULATION,
+     *         CodecAnalysisCache.RUN and the families of BHSD codecs, or -1
+     *         if no band of that name is in the profile
+     */
+    public int getFamilies(String name) {
+        Integer mask = usedFamilies.get(name);
+        return mask == null ? -1 : mask.intValue();
+    }
+
+    /**
+     * Records the codec chosen for a band
+     *
+     * @param segment - the number of the segment, from 0
+     * @param name - the name of the band
+     * @param codec - the codec chosen, or null for the default codec
+     * @param saved - the number of bytes saved by using it
+     */
+    public void record(int segment, String name, Codec codec, int saved) {
+        String value = CodecAnalysisCache.Choice.of(codec).toString() + '\t'
+                + saved;
+        synchronized (recorded) {
+            Map<String, String> bands = recorded.get(Integer.valueOf(segment));
+            if (bands == null) {
+                bands = new TreeMap<String, String>();
+                recorded.put(Integer.valueOf(segment), bands);
+            }
+            bands.put(name, value);
+        }
+    }
+
+    public int getHits() {
+        return hits.get();
+    }
+
+    public int getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * Reads a profile written by <code>write</code>. A file that doesn't
+     * exist is taken to be an empty profile, so that the same file can be
+     * used and written by every build.
+     *
+     * @param file - the file to read
+     * @throws IOException
+     * @throws Pack200Exception
+     *             if the file is not a codec profile
+     */
+    public void read(File file) throws IOException, Pack200Exception {
+        if (!file.exists()) {
+            return;
+        }
+        BufferedReader reader = new BufferedReader(new InputStreamReader(
+                new FileInputStream(file), "UTF-8"));
+        try {
+            if (!HEADER.equals(reader.readLine())) {
+                throw new Pack200Exception(file + " is not a codec profile");
+            }
+            String line;
+            while ((line = reader.readLine()) != null) {
+                // segment, name, choice, saved
+                String[] fields = line.split("\t", -1);
+                CodecAnalysisCache.Choice choice = fields.length == 4 ? CodecAnalysisCache.Choice
+                        .parse(fields[2])
+                        : null;
+                if (choice == null) {
+                    throw new Pack200Exception("Bad codec profile entry: "
+                            + line);
+                }
+                // the number of bytes saved is for whoever reads the file
+                Integer.parseInt(fields[3]);
+                used.put(key(Integer.parseInt(fields[0]), fields[1]), choice);
+                Integer previous = usedFamilies.get(fields[1]);
+                usedFamilies.put(fields[1], Integer.valueOf(choice.getFamily()
+                        | (previous == null ? 0 : previous.intValue())));
+            }
+        } catch (IllegalArgumentException e) {
+            throw new Pack200Exception("Bad codec profile " + file, e);
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * Writes what has been chosen while packing, in segment and band name
+     * order
+     *
+     * @param file - the file to write
+     * @throws IOException
+     */
+    public void write(File file) throws IOException {
+        PrintWriter writer = new PrintWriter(new OutputStreamWriter(
+                new FileOutputStream(file), "UTF-8"));
+        try {
+            writer.print(HEADER + '\n');
+            synchronized (recorded) {
+                for (Iterator<Map.Entry<Integer, Map<String, String>>> segments = recorded
+                        .entrySet().iterator(); segments.hasNext();) {
+                    Map.Entry<Integer, Map<String, String>> segment = segments.next();
+                    for (Iterator<Map.Entry<String, String>> bands = segment
+                            .getValue().entrySet().iterator(); bands.hasNext();) {
+                        Map.Entry<String, String> band = bands.next();
+                        writer.print(segment.getKey() + "\t" + band.getKey()
+                                + '\t' + band.getValue() + '\n');
+                    }
+                }
+            }
+        } finally {
+            writer.close();
+        }
+        if (writer.checkError()) {
+            throw new IOException("Failed to write " + file);
+        }
+    }
+}
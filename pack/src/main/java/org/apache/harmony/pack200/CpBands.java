@@ -19,13 +19,15 @@ package org.apache.harmony.pack200;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.TreeSet;
 import org.objectweb.asm.Handle;
 import org.apache.harmony.unpack200.common.Pack200Exception;
 import org.apache.harmony.unpack200.codec.Codec;
@@ -33,38 +35,43 @@ import org.objectweb.asm.Type;
 
 /**
  * Pack200 Constant Pool Bands
+ *
+ * Entries are looked up by the symbols of their strings (see
+ * {@link SymbolTable}) as classes are read, and are only sorted into the
+ * order of the bands once all the classes of the segment have been read.
  */
 class CpBands extends BandSet {
 
     // Don't need to include default attribute names in the constant pool bands
     private final Set defaultAttributeNames = new HashSet();
 
-    private final Set cp_Utf8 = new TreeSet();
-    private final Set cp_Int = new TreeSet();
-    private final Set cp_Float = new TreeSet();
-    private final Set cp_Long = new TreeSet();
-    private final Set cp_Double = new TreeSet();
-    private final Set cp_String = new TreeSet();
-    private final Set cp_Class = new TreeSet();
-    private final Set cp_Signature = new TreeSet();
-    private final Set cp_Descr = new TreeSet();
-    private final Set cp_Field = new TreeSet();
-    private final Set cp_Method = new TreeSet();
-    private final Set cp_Imethod = new TreeSet();
-    private final Set cp_MethodHandle = new TreeSet();
-    private final Set cp_MethodType = new TreeSet();
-    private final Set cp_BootstrapMethod = new TreeSet();
-    private final Set cp_InvokeDynamic = new TreeSet();
-    private final Set cp_Module = new TreeSet();
-    private final Set cp_Package = new TreeSet();
-
-    private final Map<String, CPUTF8> stringsToCpUtf8 = new HashMap<String, CPUTF8>();
-    private final Map stringsToCpNameAndType = new HashMap();
-    private final Map stringsToCpClass = new HashMap();
-    private final Map stringsToCpSignature = new HashMap();
-    private final Map stringsToCpMethod = new HashMap();
-    private final Map stringsToCpField = new HashMap();
-    private final Map stringsToCpIMethod = new HashMap();
+    // in the order they were added until finaliseBands() sorts them
+    private final List cp_Utf8 = new ArrayList();
+    private final List cp_Int = new ArrayList();
+    private final List cp_Float = new ArrayList();
+    private final List cp_Long = new ArrayList();
+    private final List cp_Double = new ArrayList();
+    private final List cp_String = new ArrayList();
+    private final List cp_Class = new ArrayList();
+    private final List cp_Signature = new ArrayList();
+    private final List cp_Descr = new ArrayList();
+    private final List cp_Field = new ArrayList();
+    private final List cp_Method = new ArrayList();
+    private final List cp_Imethod = new ArrayList();
+
+    private final SymbolTable symbols = new SymbolTable();
+
+    // the entries for each symbol's string, or null where there is none
+    private CPUTF8[] cpUtf8BySymbol = new CPUTF8[1024];
+    private CPClass[] cpClassBySymbol = new CPClass[1024];
+    private CPSignature[] cpSignatureBySymbol = new CPSignature[1024];
+
+    // keyed by the symbols of the name and type, with 0 for the third
+    private final SymbolTupleMap cpNameAndTypes = new SymbolTupleMap();
+    // keyed by the symbols of the class, name and descriptor
+    private final SymbolTupleMap cpFields = new SymbolTupleMap();
+    private final SymbolTupleMap cpMethods = new SymbolTupleMap();
+    private final SymbolTupleMap cpIMethods = new SymbolTupleMap();
 
     private final Map objectsToCPConstant = new HashMap();
 
@@ -122,93 +129,75 @@ class CpBands extends BandSet {
     private void writeCpUtf8(OutputStream out) throws IOException,
 	    Pack200Exception {
 	PackingUtils.log("Writing " + cp_Utf8.size() + " UTF8 entries...");
-	int[] cpUtf8Prefix = new int[cp_Utf8.size() - 2];
-	int[] cpUtf8Suffix = new int[cp_Utf8.size() - 1];
-	List chars = new ArrayList();
-	List bigSuffix = new ArrayList();
+	// the first entry is always "", which is not written, and the second
+	// has no prefix
+	int count = cp_Utf8.size();
+	int[] cpUtf8Prefix = new int[Math.max(count - 2, 0)];
+	int[] cpUtf8Suffix = new int[Math.max(count - 1, 0)];
+	IntList chars = new IntList();
+	IntList bigSuffix = new IntList();
 	List bigChars = new ArrayList();
-	Object[] cpUtf8Array = cp_Utf8.toArray();
-	String first = ((CPUTF8) cpUtf8Array[1]).getUnderlyingString();
-	cpUtf8Suffix[0] = first.length();
-	addCharacters(chars, first.toCharArray());
-	for (int i = 2; i < cpUtf8Array.length; i++) {
-	    char[] previous = ((CPUTF8) cpUtf8Array[i - 1])
-		    .getUnderlyingString().toCharArray();
-	    String currentStr = ((CPUTF8) cpUtf8Array[i]).getUnderlyingString();
-	    char[] current = currentStr.toCharArray();
+	String previous = "";
+	for (int i = 1; i < count; i++) {
+	    String current = ((CPUTF8) cp_Utf8.get(i)).getUnderlyingString();
 	    int prefix = 0;
-	    for (int j = 0; j < previous.length; j++) {
-		if (previous[j] == current[j]) {
-		    prefix++;
-		} else {
-		    break;
-		}
+	    int limit = Math.min(previous.length(), current.length());
+	    while (prefix < limit
+		    && previous.charAt(prefix) == current.charAt(prefix)) {
+		prefix++;
 	    }
-	    cpUtf8Prefix[i - 2] = prefix;
-	    currentStr = currentStr.substring(prefix);
-	    char[] suffix = currentStr.toCharArray();
-	    if (suffix.length > 1000) { // big suffix (1000 is arbitrary - can we
-		// do better?)
+	    int suffix = current.length() - prefix;
+	    if (i > 1) {
+		cpUtf8Prefix[i - 2] = prefix;
+	    }
+	    if (suffix > 1000 && i > 1) { // big suffix (1000 is arbitrary - can
+		// we do better?)
 		cpUtf8Suffix[i - 1] = 0;
-		bigSuffix.add(Integer.valueOf(suffix.length));
-		addCharacters(bigChars, suffix);
+		bigSuffix.add(suffix);
+		int[] big = new int[suffix];
+		for (int j = 0; j < suffix; j++) {
+		    big[j] = current.charAt(prefix + j);
+		}
+		bigChars.add(big);
 	    } else {
-		cpUtf8Suffix[i - 1] = suffix.length;
-		addCharacters(chars, suffix);
-	    }
-	}
-	int[] cpUtf8Chars = new int[chars.size()];
-	int[] cpUtf8BigSuffix = new int[bigSuffix.size()];
-	int[][] cpUtf8BigChars = new int[bigSuffix.size()][];
-	for (int i = 0; i < cpUtf8Chars.length; i++) {
-	    cpUtf8Chars[i] = ((Character) chars.get(i)).charValue();
-	}
-	for (int i = 0; i < cpUtf8BigSuffix.length; i++) {
-	    int numBigChars = ((Integer) bigSuffix.get(i)).intValue();
-	    cpUtf8BigSuffix[i] = numBigChars;
-	    cpUtf8BigChars[i] = new int[numBigChars];
-	    for (int j = 0; j < numBigChars; j++) {
-		cpUtf8BigChars[i][j] = ((Character) bigChars.remove(0)).charValue();
+		cpUtf8Suffix[i - 1] = suffix;
+		for (int j = prefix; j < current.length(); j++) {
+		    chars.add(current.charAt(j));
+		}
 	    }
+	    previous = current;
 	}
+	int[] cpUtf8Chars = chars.toArray();
+	int[] cpUtf8BigSuffix = bigSuffix.toArray();
+	int[][] cpUtf8BigChars = (int[][]) bigChars.toArray(new int[bigChars
+		.size()][]);
 
-	byte[] encodedBand = encodeBandInt("cpUtf8Prefix", cpUtf8Prefix, Codec.DELTA5);
-	out.write(encodedBand);
-	PackingUtils.log("Wrote " + encodedBand.length
+	int encodedLength = writeBandInt("cpUtf8Prefix", cpUtf8Prefix, Codec.DELTA5, out);
+	PackingUtils.log("Wrote " + encodedLength
 		+ " bytes from cpUtf8Prefix[" + cpUtf8Prefix.length + "]");
 
-	encodedBand = encodeBandInt("cpUtf8Suffix", cpUtf8Suffix, Codec.UNSIGNED5);
-	out.write(encodedBand);
-	PackingUtils.log("Wrote " + encodedBand.length
+	encodedLength = writeBandInt("cpUtf8Suffix", cpUtf8Suffix, Codec.UNSIGNED5, out);
+	PackingUtils.log("Wrote " + encodedLength
 		+ " bytes from cpUtf8Suffix[" + cpUtf8Suffix.length + "]");
 
-	encodedBand = encodeBandInt("cpUtf8Chars", cpUtf8Chars, Codec.CHAR3);
-	out.write(encodedBand);
-	PackingUtils.log("Wrote " + encodedBand.length
+	encodedLength = writeBandInt("cpUtf8Chars", cpUtf8Chars, Codec.CHAR3, out);
+	PackingUtils.log("Wrote " + encodedLength
 		+ " bytes from cpUtf8Chars[" + cpUtf8Chars.length + "]");
 
-	encodedBand = encodeBandInt("cpUtf8BigSuffix", cpUtf8BigSuffix,
-		Codec.DELTA5);
-	out.write(encodedBand);
-	PackingUtils.log("Wrote " + encodedBand.length
+	encodedLength = writeBandInt("cpUtf8BigSuffix", cpUtf8BigSuffix,
+		Codec.DELTA5, out);
+	PackingUtils.log("Wrote " + encodedLength
 		+ " bytes from cpUtf8BigSuffix[" + cpUtf8BigSuffix.length + "]");
 
 	for (int i = 0; i < cpUtf8BigChars.length; i++) {
-	    encodedBand = encodeBandInt("cpUtf8BigChars " + i,
-		    cpUtf8BigChars[i], Codec.DELTA5);
-	    out.write(encodedBand);
-	    PackingUtils.log("Wrote " + encodedBand.length
+	    encodedLength = writeBandInt("cpUtf8BigChars " + i,
+		    cpUtf8BigChars[i], Codec.DELTA5, out);
+	    PackingUtils.log("Wrote " + encodedLength
 		    + " bytes from cpUtf8BigChars" + i + "["
 		    + cpUtf8BigChars[i].length + "]");
 	}
     }
 
-    private void addCharacters(List chars, char[] charArray) {
-	for (int i = 0; i < charArray.length; i++) {
-	    chars.add(Character.valueOf(charArray[i]));
-	}
-    }
-
     private void writeCpInt(OutputStream out) throws IOException,
 	    Pack200Exception {
 	PackingUtils.log("Writing " + cp_Int.size() + " Integer entries...");
@@ -219,9 +208,8 @@ class CpBands extends BandSet {
 	    cpInt[i] = integer.getInt();
 	    i++;
 	}
-	byte[] encodedBand = encodeBandInt("cp_Int", cpInt, Codec.UDELTA5);
-	out.write(encodedBand);
-	PackingUtils.log("Wrote " + encodedBand.length
+	int encodedLength = writeBandInt("cp_Int", cpInt, Codec.UDELTA5, out);
+	PackingUtils.log("Wrote " + encodedLength
 		+ " bytes from cp_Int[" + cpInt.length + "]");
     }
 
@@ -235,9 +223,8 @@ class CpBands extends BandSet {
 	    cpFloat[i] = Float.floatToIntBits(fl.getFloat());
 	    i++;
 	}
-	byte[] encodedBand = encodeBandInt("cp_Float", cpFloat, Codec.UDELTA5);
-	out.write(encodedBand);
-	PackingUtils.log("Wrote " + encodedBand.length
+	int encodedLength = writeBandInt("cp_Float", cpFloat, Codec.UDELTA5, out);
+	PackingUtils.log("Wrote " + encodedLength
 		+ " bytes from cp_Float[" + cpFloat.length + "]");
     }
 
@@ -254,14 +241,12 @@ class CpBands extends BandSet {
 	    loBits[i] = (int) l;
 	    i++;
 	}
-	byte[] encodedBand = encodeBandInt("cp_Long_hi", highBits, Codec.UDELTA5);
-	out.write(encodedBand);
-	PackingUtils.log("Wrote " + encodedBand.length
+	int encodedLength = writeBandInt("cp_Long_hi", highBits, Codec.UDELTA5, out);
+	PackingUtils.log("Wrote " + encodedLength
 		+ " bytes from cp_Long_hi[" + highBits.length + "]");
 
-	encodedBand = encodeBandInt("cp_Long_lo", loBits, Codec.DELTA5);
-	out.write(encodedBand);
-	PackingUtils.log("Wrote " + encodedBand.length
+	encodedLength = writeBandInt("cp_Long_lo", loBits, Codec.DELTA5, out);
+	PackingUtils.log("Wrote " + encodedLength
 		+ " bytes from cp_Long_lo[" + loBits.length + "]");
     }
 
@@ -278,14 +263,12 @@ class CpBands extends BandSet {
 	    loBits[i] = (int) l;
 	    i++;
 	}
-	byte[] encodedBand = encodeBandInt("cp_Double_hi", highBits, Codec.UDELTA5);
-	out.write(encodedBand);
-	PackingUtils.log("Wrote " + encodedBand.length
+	int encodedLength = writeBandInt("cp_Double_hi", highBits, Codec.UDELTA5, out);
+	PackingUtils.log("Wrote " + encodedLength
 		+ " bytes from cp_Double_hi[" + highBits.length + "]");
 
-	encodedBand = encodeBandInt("cp_Double_lo", loBits, Codec.DELTA5);
-	out.write(encodedBand);
-	PackingUtils.log("Wrote " + encodedBand.length
+	encodedLength = writeBandInt("cp_Double_lo", loBits, Codec.DELTA5, out);
+	PackingUtils.log("Wrote " + encodedLength
 		+ " bytes from cp_Double_lo[" + loBits.length + "]");
     }
 
@@ -299,9 +282,8 @@ class CpBands extends BandSet {
 	    cpString[i] = cpStr.getIndexInCpUtf8();
 	    i++;
 	}
-	byte[] encodedBand = encodeBandInt("cpString", cpString, Codec.UDELTA5);
-	out.write(encodedBand);
-	PackingUtils.log("Wrote " + encodedBand.length
+	int encodedLength = writeBandInt("cpString", cpString, Codec.UDELTA5, out);
+	PackingUtils.log("Wrote " + encodedLength
 		+ " bytes from cpString[" + cpString.length + "]");
     }
 
@@ -315,9 +297,8 @@ class CpBands extends BandSet {
 	    cpClass[i] = cpCl.getIndexInCpUtf8();
 	    i++;
 	}
-	byte[] encodedBand = encodeBandInt("cpClass", cpClass, Codec.UDELTA5);
-	out.write(encodedBand);
-	PackingUtils.log("Wrote " + encodedBand.length
+	int encodedLength = writeBandInt("cpClass", cpClass, Codec.UDELTA5, out);
+	PackingUtils.log("Wrote " + encodedLength
 		+ " bytes from cpClass[" + cpClass.length + "]");
     }
 
@@ -338,16 +319,14 @@ class CpBands extends BandSet {
 	    cpSignatureClasses[j] = ((CPClass) classes.get(j)).getIndex();
 	}
 
-	byte[] encodedBand = encodeBandInt("cpSignatureForm", cpSignatureForm,
-		Codec.DELTA5);
-	out.write(encodedBand);
-	PackingUtils.log("Wrote " + encodedBand.length
+	int encodedLength = writeBandInt("cpSignatureForm", cpSignatureForm,
+		Codec.DELTA5, out);
+	PackingUtils.log("Wrote " + encodedLength
 		+ " bytes from cpSignatureForm[" + cpSignatureForm.length + "]");
 
-	encodedBand = encodeBandInt("cpSignatureClasses", cpSignatureClasses,
-		Codec.UDELTA5);
-	out.write(encodedBand);
-	PackingUtils.log("Wrote " + encodedBand.length
+	encodedLength = writeBandInt("cpSignatureClasses", cpSignatureClasses,
+		Codec.UDELTA5, out);
+	PackingUtils.log("Wrote " + encodedLength
 		+ " bytes from cpSignatureClasses[" + cpSignatureClasses.length + "]");
     }
     
@@ -365,19 +344,17 @@ class CpBands extends BandSet {
 	    i++;
 	}
 
-	byte[] encodedBand = encodeBandInt("cp_Descr_Name", cpDescrName,
-		Codec.DELTA5);
-	out.write(encodedBand);
-	PackingUtils.log("Wrote " + encodedBand.length
+	int encodedLength = writeBandInt("cp_Descr_Name", cpDescrName,
+		Codec.DELTA5, out);
+	PackingUtils.log("Wrote " + encodedLength
 		+ " bytes from cp_Descr_Name[" + cpDescrName.length + "]");
 
-	encodedBand = encodeBandInt("cp_Descr_Type", cpDescrType, Codec.UDELTA5);
-	out.write(encodedBand);
-	PackingUtils.log("Wrote " + encodedBand.length
+	encodedLength = writeBandInt("cp_Descr_Type", cpDescrType, Codec.UDELTA5, out);
+	PackingUtils.log("Wrote " + encodedLength
 		+ " bytes from cp_Descr_Type[" + cpDescrType.length + "]");
     }
 
-    private void writeCpMethodOrField(Set cp, OutputStream out, String name)
+    private void writeCpMethodOrField(List cp, OutputStream out, String name)
 	    throws IOException, Pack200Exception {
 	PackingUtils.log("Writing " + cp.size()
 		+ " Method and Field entries...");
@@ -390,16 +367,14 @@ class CpBands extends BandSet {
 	    cp_methodOrField_desc[i] = mOrF.getDescIndex();
 	    i++;
 	}
-	byte[] encodedBand = encodeBandInt(name + "_class",
-		cp_methodOrField_class, Codec.DELTA5);
-	out.write(encodedBand);
-	PackingUtils.log("Wrote " + encodedBand.length + " bytes from "
+	int encodedLength = writeBandInt(name + "_class",
+		cp_methodOrField_class, Codec.DELTA5, out);
+	PackingUtils.log("Wrote " + encodedLength + " bytes from "
 		+ name + "_class[" + cp_methodOrField_class.length + "]");
 
-	encodedBand = encodeBandInt(name + "_desc", cp_methodOrField_desc,
-		Codec.UDELTA5);
-	out.write(encodedBand);
-	PackingUtils.log("Wrote " + encodedBand.length + " bytes from "
+	encodedLength = writeBandInt(name + "_desc", cp_methodOrField_desc,
+		Codec.UDELTA5, out);
+	PackingUtils.log("Wrote " + encodedLength + " bytes from "
 		+ name + "_desc[" + cp_methodOrField_desc.length + "]");
     }
 
@@ -438,67 +413,145 @@ class CpBands extends BandSet {
 	}
     }
 
+    /*
+     * Sorts the entries of each band into the order they are written in, and
+     * numbers them. The bands are sorted in the order of their compareTo
+     * methods, but signatures, descriptors, fields and methods are compared
+     * by the indices of the entries they refer to once those are sorted,
+     * which gives the same order without comparing their Strings again.
+     */
     private void addIndices() {
-	Set[] sets = new Set[]{cp_Utf8, cp_Int, cp_Float, cp_Long, cp_Double,
-	    cp_String, cp_Class, cp_Signature, cp_Descr, cp_Field,
-	    cp_Method, cp_Imethod};
-	for (int i = 0; i < sets.length; i++) {
-	    int j = 0;
-	    for (Iterator iterator = sets[i].iterator(); iterator.hasNext();) {
-		ConstantPoolEntry entry = (ConstantPoolEntry) iterator.next();
-		entry.setIndex(j);
-		j++;
+	for (int i = 0; i < symbols.size(); i++) {
+	    if (cpUtf8BySymbol[i] != null) {
+		cp_Utf8.add(cpUtf8BySymbol[i]);
 	    }
-	}
-	Map classNameToIndex = new HashMap();
-	for (Iterator iterator = cp_Field.iterator(); iterator.hasNext();) {
-	    CPMethodOrField mOrF = (CPMethodOrField) iterator.next();
-	    CPClass className = mOrF.getClassName();
-	    Integer index = (Integer) classNameToIndex.get(className);
-	    if (index == null) {
-		classNameToIndex.put(className, Integer.valueOf(1));
-		mOrF.setIndexInClass(0);
-	    } else {
-		int theIndex = index.intValue();
-		mOrF.setIndexInClass(theIndex);
-		classNameToIndex.put(className, Integer.valueOf(theIndex + 1));
+	    if (cpClassBySymbol[i] != null) {
+		cp_Class.add(cpClassBySymbol[i]);
 	    }
 	}
-	classNameToIndex.clear();
-	Map classNameToConstructorIndex = new HashMap();
-	for (Iterator iterator = cp_Method.iterator(); iterator.hasNext();) {
-	    CPMethodOrField mOrF = (CPMethodOrField) iterator.next();
-	    CPClass className = mOrF.getClassName();
-	    Integer index = (Integer) classNameToIndex.get(className);
-	    if (index == null) {
-		classNameToIndex.put(className, Integer.valueOf(1));
-		mOrF.setIndexInClass(0);
-	    } else {
-		int theIndex = index.intValue();
-		mOrF.setIndexInClass(theIndex);
-		classNameToIndex.put(className, Integer.valueOf(theIndex + 1));
+	sortAndIndex(cp_Utf8, null);
+	sortAndIndex(cp_Int, null);
+	sortAndIndex(cp_Float, null);
+	sortAndIndex(cp_Long, null);
+	sortAndIndex(cp_Double, null);
+	sortAndIndex(cp_String, null);
+	sortAndIndex(cp_Class, null);
+	sortAndIndex(cp_Signature, SIGNATURE_ORDER);
+	sortAndIndex(cp_Descr, DESCR_ORDER);
+	sortAndIndex(cp_Field, MEMBER_ORDER);
+	sortAndIndex(cp_Method, MEMBER_ORDER);
+	sortAndIndex(cp_Imethod, MEMBER_ORDER);
+
+	// fields and methods are sorted by class first, so those of each class
+	// are together
+	CPClass className = null;
+	int index = 0;
+	for (int i = 0; i < cp_Field.size(); i++) {
+	    CPMethodOrField mOrF = (CPMethodOrField) cp_Field.get(i);
+	    if (mOrF.getClassName() != className) {
+		className = mOrF.getClassName();
+		index = 0;
+	    }
+	    mOrF.setIndexInClass(index++);
+	}
+	className = null;
+	int constructorIndex = 0;
+	for (int i = 0; i < cp_Method.size(); i++) {
+	    CPMethodOrField mOrF = (CPMethodOrField) cp_Method.get(i);
+	    if (mOrF.getClassName() != className) {
+		className = mOrF.getClassName();
+		index = 0;
+		constructorIndex = 0;
 	    }
+	    mOrF.setIndexInClass(index++);
 	    if (mOrF.getDesc().getName().equals("<init>")) {
-		Integer constructorIndex = (Integer) classNameToConstructorIndex.get(className);
-		if (constructorIndex == null) {
-		    classNameToConstructorIndex.put(className, Integer.valueOf(1));
-		    mOrF.setIndexInClassForConstructor(0);
-		} else {
-		    int theIndex = constructorIndex.intValue();
-		    mOrF.setIndexInClassForConstructor(theIndex);
-		    classNameToConstructorIndex.put(className, Integer.valueOf(theIndex + 1));
+		mOrF.setIndexInClassForConstructor(constructorIndex++);
+	    }
+	}
+    }
+
+    private void sortAndIndex(List entries, Comparator order) {
+	Collections.sort(entries, order);
+	for (int i = 0; i < entries.size(); i++) {
+	    ((ConstantPoolEntry) entries.get(i)).setIndex(i);
+	}
+    }
+
+    // CPSignature.compareTo, with the classes compared by index
+    private static final Comparator SIGNATURE_ORDER = new Comparator() {
+	public int compare(Object o1, Object o2) {
+	    CPSignature s1 = (CPSignature) o1;
+	    CPSignature s2 = (CPSignature) o2;
+	    if (s1 == s2) {
+		return 0;
+	    }
+	    boolean bracket1 = s1.getSignatureForm().getUnderlyingString()
+		    .startsWith("(");
+	    boolean bracket2 = s2.getSignatureForm().getUnderlyingString()
+		    .startsWith("(");
+	    if (bracket1 != bracket2) {
+		return bracket1 ? 1 : -1;
+	    }
+	    List classes1 = s1.getClasses();
+	    List classes2 = s2.getClasses();
+	    if (classes1.size() != classes2.size()) {
+		return classes1.size() - classes2.size();
+	    }
+	    for (int i = classes1.size() - 1; i >= 0; i--) {
+		int index1 = ((CPClass) classes1.get(i)).getIndex();
+		int index2 = ((CPClass) classes2.get(i)).getIndex();
+		if (index1 != index2) {
+		    return index1 < index2 ? -1 : 1;
 		}
 	    }
+	    return s1.getUnderlyingString().compareTo(s2.getUnderlyingString());
+	}
+    };
+
+    // CPNameAndType.compareTo, with the signatures compared by index
+    private static final Comparator DESCR_ORDER = new Comparator() {
+	public int compare(Object o1, Object o2) {
+	    CPNameAndType n1 = (CPNameAndType) o1;
+	    CPNameAndType n2 = (CPNameAndType) o2;
+	    if (n1.getTypeIndex() != n2.getTypeIndex()) {
+		return n1.getTypeIndex() < n2.getTypeIndex() ? -1 : 1;
+	    }
+	    return n1.getName().compareTo(n2.getName());
+	}
+    };
+
+    // CPMethodOrField.compareTo, with the classes and descriptors compared by
+    // index
+    private static final Comparator MEMBER_ORDER = new Comparator() {
+	public int compare(Object o1, Object o2) {
+	    CPMethodOrField m1 = (CPMethodOrField) o1;
+	    CPMethodOrField m2 = (CPMethodOrField) o2;
+	    if (m1.getClassIndex() != m2.getClassIndex()) {
+		return m1.getClassIndex() < m2.getClassIndex() ? -1 : 1;
+	    }
+	    if (m1.getDescIndex() != m2.getDescIndex()) {
+		return m1.getDescIndex() < m2.getDescIndex() ? -1 : 1;
+	    }
+	    return 0;
 	}
+    };
+
+    private int symbol(String string) {
+	int symbol = symbols.symbol(string);
+	if (symbol == cpUtf8BySymbol.length) {
+	    int length = symbol * 2;
+	    cpUtf8BySymbol = Arrays.copyOf(cpUtf8BySymbol, length);
+	    cpClassBySymbol = Arrays.copyOf(cpClassBySymbol, length);
+	    cpSignatureBySymbol = Arrays.copyOf(cpSignatureBySymbol, length);
+	}
+	return symbol;
     }
 
     private void removeCpUtf8(String string) {
-	CPUTF8 utf8 = (CPUTF8) stringsToCpUtf8.get(string);
-	if (utf8 != null) {
-	    if (stringsToCpClass.get(string) == null) { // don't remove if strings are also in cpclass
-		stringsToCpUtf8.remove(string);
-		cp_Utf8.remove(utf8);
-	    }
+	int symbol = symbols.find(string);
+	// don't remove if strings are also in cpclass
+	if (symbol != -1 && cpClassBySymbol[symbol] == null) {
+	    cpUtf8BySymbol[symbol] = null;
 	}
     }
 
@@ -510,11 +563,11 @@ class CpBands extends BandSet {
 	if (utf8 == null) {
 	    return null;
 	}
-	CPUTF8 cpUtf8 = (CPUTF8) stringsToCpUtf8.get(utf8);
+	int symbol = symbol(utf8);
+	CPUTF8 cpUtf8 = cpUtf8BySymbol[symbol];
 	if (cpUtf8 == null) {
 	    cpUtf8 = new CPUTF8(utf8);
-	    cp_Utf8.add(cpUtf8);
-	    stringsToCpUtf8.put(utf8, cpUtf8);
+	    cpUtf8BySymbol[symbol] = cpUtf8;
 	}
 	return cpUtf8;
     }
@@ -523,7 +576,8 @@ class CpBands extends BandSet {
 	if (signature == null) {
 	    return null;
 	}
-	CPSignature cpS = (CPSignature) stringsToCpSignature.get(signature);
+	int symbol = symbol(signature);
+	CPSignature cpS = cpSignatureBySymbol[symbol];
 	if (cpS == null) {
 	    List cpClasses = new ArrayList();
 	    CPUTF8 signatureUTF8;
@@ -554,14 +608,7 @@ class CpBands extends BandSet {
 		    String className = (String) iterator2.next();
 		    CPClass cpClass = null;
 		    if (className != null) {
-			className = className.replace('.', '/');
-			cpClass = (CPClass) stringsToCpClass.get(className);
-			if (cpClass == null) {
-			    CPUTF8 cpUtf8 = getCPUtf8(className);
-			    cpClass = new CPClass(cpUtf8);
-			    cp_Class.add(cpClass);
-			    stringsToCpClass.put(className, cpClass);
-			}
+			cpClass = cpClass(className.replace('.', '/'));
 		    }
 		    cpClasses.add(cpClass);
 		}
@@ -572,7 +619,7 @@ class CpBands extends BandSet {
 	    }
 	    cpS = new CPSignature(signature, signatureUTF8, cpClasses);
 	    cp_Signature.add(cpS);
-	    stringsToCpSignature.put(signature, cpS);
+	    cpSignatureBySymbol[symbol] = cpS;
 	}
 	return cpS;
     }
@@ -581,46 +628,52 @@ class CpBands extends BandSet {
 	if (className == null) {
 	    return null;
 	}
-	className = className.replace('.', '/');
-	CPClass cpClass = (CPClass) stringsToCpClass.get(className);
-	if (cpClass == null) {
-	    CPUTF8 cpUtf8 = getCPUtf8(className);
-	    cpClass = new CPClass(cpUtf8);
-	    cp_Class.add(cpClass);
-	    stringsToCpClass.put(className, cpClass);
-	}
+	CPClass cpClass = cpClass(className.replace('.', '/'));
 	if (cpClass.isInnerClass()) {
 	    segment.getClassBands().currentClassReferencesInnerClass(cpClass);
 	}
 	return cpClass;
     }
 
+    private CPClass cpClass(String className) {
+	int symbol = symbol(className);
+	CPClass cpClass = cpClassBySymbol[symbol];
+	if (cpClass == null) {
+	    cpClass = new CPClass(getCPUtf8(className));
+	    cpClassBySymbol[symbol] = cpClass;
+	}
+	return cpClass;
+    }
+
     public void addCPClass(String className) {
 	getCPClass(className);
     }
 
     public CPNameAndType getCPNameAndType(String name, String signature) {
-	String descr = name + ":" + signature;
-	CPNameAndType nameAndType = (CPNameAndType) stringsToCpNameAndType
-		.get(descr);
+	int nameSymbol = symbol(name);
+	int typeSymbol = symbol(signature);
+	CPNameAndType nameAndType = (CPNameAndType) cpNameAndTypes.get(
+		nameSymbol, typeSymbol, 0);
 	if (nameAndType == null) {
 	    nameAndType = new CPNameAndType(getCPUtf8(name),
 		    getCPSignature(signature));
-	    stringsToCpNameAndType.put(descr, nameAndType);
+	    cpNameAndTypes.put(nameSymbol, typeSymbol, 0, nameAndType);
 	    cp_Descr.add(nameAndType);
 	}
 	return nameAndType;
     }
 
     public CPMethodOrField getCPField(CPClass cpClass, String name, String desc) {
-	String key = cpClass.toString() + ":" + name + ":" + desc;
-	CPMethodOrField cpF = (CPMethodOrField) stringsToCpField
-		.get(key);
+	int classSymbol = symbol(cpClass.toString());
+	int nameSymbol = symbol(name);
+	int descSymbol = symbol(desc);
+	CPMethodOrField cpF = (CPMethodOrField) cpFields.get(classSymbol,
+		nameSymbol, descSymbol);
 	if (cpF == null) {
 	    CPNameAndType nAndT = getCPNameAndType(name, desc);
 	    cpF = new CPMethodOrField(cpClass, nAndT);
 	    cp_Field.add(cpF);
-	    stringsToCpField.put(key, cpF);
+	    cpFields.put(classSymbol, nameSymbol, descSymbol, cpF);
 	}
 	return cpF;
     }
@@ -673,28 +726,32 @@ class CpBands extends BandSet {
     }
 
     public CPMethodOrField getCPMethod(CPClass cpClass, String name, String desc) {
-	String key = cpClass.toString() + ":" + name + ":" + desc;
-	CPMethodOrField cpM = (CPMethodOrField) stringsToCpMethod
-		.get(key);
+	int classSymbol = symbol(cpClass.toString());
+	int nameSymbol = symbol(name);
+	int descSymbol = symbol(desc);
+	CPMethodOrField cpM = (CPMethodOrField) cpMethods.get(classSymbol,
+		nameSymbol, descSymbol);
 	if (cpM == null) {
 	    CPNameAndType nAndT = getCPNameAndType(name, desc);
 	    cpM = new CPMethodOrField(cpClass, nAndT);
 	    cp_Method.add(cpM);
-	    stringsToCpMethod.put(key, cpM);
+	    cpMethods.put(classSymbol, nameSymbol, descSymbol, cpM);
 	}
 	return cpM;
     }
 
     public CPMethodOrField getCPIMethod(CPClass cpClass, String name,
 	    String desc) {
-	String key = cpClass.toString() + ":" + name + ":" + desc;
-	CPMethodOrField cpIM = (CPMethodOrField) stringsToCpIMethod
-		.get(key);
+	int classSymbol = symbol(cpClass.toString());
+	int nameSymbol = symbol(name);
+	int descSymbol = symbol(desc);
+	CPMethodOrField cpIM = (CPMethodOrField) cpIMethods.get(classSymbol,
+		nameSymbol, descSymbol);
 	if (cpIM == null) {
 	    CPNameAndType nAndT = getCPNameAndType(name, desc);
 	    cpIM = new CPMethodOrField(cpClass, nAndT);
 	    cp_Imethod.add(cpIM);
-	    stringsToCpIMethod.put(key, cpIM);
+	    cpIMethods.put(classSymbol, nameSymbol, descSymbol, cpIM);
 	}
 	return cpIM;
     }
@@ -712,8 +769,8 @@ class CpBands extends BandSet {
     }
 
     public boolean existsCpClass(String className) {
-	CPClass cpClass = (CPClass) stringsToCpClass.get(className);
-	return cpClass != null;
+	int symbol = symbols.find(className);
+	return symbol != -1 && cpClassBySymbol[symbol] != null;
     }
 
 }
@@ -132,37 +132,32 @@ class FileBands extends BandSet {
 
     public void pack(OutputStream out) throws IOException, Pack200Exception {
         PackingUtils.log("Writing file bands...");
-        byte[] encodedBand = encodeBandInt("file_name", file_name,
-                Codec.UNSIGNED5);
-        out.write(encodedBand);
-        PackingUtils.log("Wrote " + encodedBand.length
+        int encodedLength = writeBandInt("file_name", file_name,
+                Codec.UNSIGNED5, out);
+        PackingUtils.log("Wrote " + encodedLength
                 + " bytes from file_name[" + file_name.length + "]");
 
-        encodedBand = encodeFlags("file_size", file_size, Codec.UNSIGNED5,
-                Codec.UNSIGNED5, segmentHeader.have_file_size_hi());
-        out.write(encodedBand);
-        PackingUtils.log("Wrote " + encodedBand.length
+        encodedLength = writeFlags("file_size", file_size, Codec.UNSIGNED5,
+                Codec.UNSIGNED5, segmentHeader.have_file_size_hi(), out);
+        PackingUtils.log("Wrote " + encodedLength
                 + " bytes from file_size[" + file_size.length + "]");
 
         if (segmentHeader.have_file_modtime()) {
-            encodedBand = encodeBandInt("file_modtime", file_modtime,
-                    Codec.DELTA5);
-            out.write(encodedBand);
-            PackingUtils.log("Wrote " + encodedBand.length
+            encodedLength = writeBandInt("file_modtime", file_modtime,
+                    Codec.DELTA5, out);
+            PackingUtils.log("Wrote " + encodedLength
                     + " bytes from file_modtime[" + file_modtime.length + "]");
         }
         if (segmentHeader.have_file_options()) {
-            encodedBand = encodeBandInt("file_options", file_options,
-                    Codec.UNSIGNED5);
-            out.write(encodedBand);
-            PackingUtils.log("Wrote " + encodedBand.length
+            encodedLength = writeBandInt("file_options", file_options,
+                    Codec.UNSIGNED5, out);
+            PackingUtils.log("Wrote " + encodedLength
                     + " bytes from file_options[" + file_options.length + "]");
         }
 
-        encodedBand = encodeBandInt("file_bits", flatten(file_bits),
-                Codec.BYTE1);
-        out.write(encodedBand);
-        PackingUtils.log("Wrote " + encodedBand.length
+        encodedLength = writeBandInt("file_bits", flatten(file_bits),
+                Codec.BYTE1, out);
+        PackingUtils.log("Wrote " + encodedLength
                 + " bytes from file_bits[" + file_bits.length + "]");
     }
 
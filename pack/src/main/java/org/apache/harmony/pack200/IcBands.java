@@ -73,26 +73,22 @@ class IcBands extends BandSet {
                 index2++;
             }
         }
-        byte[] encodedBand = encodeBandInt("ic_this_class", ic_this_class,
-                Codec.UDELTA5);
-        out.write(encodedBand);
-        PackingUtils.log("Wrote " + encodedBand.length
+        int encodedLength = writeBandInt("ic_this_class", ic_this_class,
+                Codec.UDELTA5, out);
+        PackingUtils.log("Wrote " + encodedLength
                 + " bytes from ic_this_class[" + ic_this_class.length + "]");
 
-        encodedBand = encodeBandInt("ic_flags", ic_flags, Codec.UNSIGNED5);
-        out.write(encodedBand);
-        PackingUtils.log("Wrote " + encodedBand.length
+        encodedLength = writeBandInt("ic_flags", ic_flags, Codec.UNSIGNED5, out);
+        PackingUtils.log("Wrote " + encodedLength
                 + " bytes from ic_flags[" + ic_flags.length + "]");
 
-        encodedBand = encodeBandInt("ic_outer_class", ic_outer_class,
-                Codec.DELTA5);
-        out.write(encodedBand);
-        PackingUtils.log("Wrote " + encodedBand.length
+        encodedLength = writeBandInt("ic_outer_class", ic_outer_class,
+                Codec.DELTA5, out);
+        PackingUtils.log("Wrote " + encodedLength
                 + " bytes from ic_outer_class[" + ic_outer_class.length + "]");
 
-        encodedBand = encodeBandInt("ic_name", ic_name, Codec.DELTA5);
-        out.write(encodedBand);
-        PackingUtils.log("Wrote " + encodedBand.length
+        encodedLength = writeBandInt("ic_name", ic_name, Codec.DELTA5, out);
+        PackingUtils.log("Wrote " + encodedLength
                 + " bytes from ic_name[" + ic_name.length + "]");
     }
 
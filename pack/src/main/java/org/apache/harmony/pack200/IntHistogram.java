@@ -0,0 +1,126 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.harmony.pack200;
+
+/**
+ * IntHistogram counts how many times each distinct value occurs in a band of
+ * ints. The distinct values are numbered from 0 in the order they are first
+ * added, and are found by open addressing over int arrays, so counting a band
+ * creates no Integer objects.
+ */
+class IntHistogram {
+
+    // the distinct values and their counts, in the order they were added
+    private int[] values;
+    private int[] counts;
+    private int size;
+
+    // open addressing, holding the index of each value plus one (0 for an
+    // empty slot)
+    private int[] slots;
+
+    public IntHistogram() {
+        this(16);
+    }
+
+    /**
+     * @param capacity
+     *            the number of distinct values expected, which must be a
+     *            power of two
+     */
+    public IntHistogram(int capacity) {
+        values = new int[capacity];
+        counts = new int[capacity];
+        slots = new int[capacity * 2];
+    }
+
+    /**
+     * Counts one more occurrence of a value.
+     *
+     * @return the index of the value
+     */
+    public int add(int value) {
+        int mask = slots.length - 1;
+        int i = SymbolTable.mix(value) & mask;
+        int slot;
+        while ((slot = slots[i]) != 0) {
+            if (values[slot - 1] == value) {
+                counts[slot - 1]++;
+                return slot - 1;
+            }
+            i = (i + 1) & mask;
+        }
+        if (size == values.length) {
+            int[] newValues = new int[size * 2];
+            int[] newCounts = new int[size * 2];
+            System.arraycopy(values, 0, newValues, 0, size);
+            System.arraycopy(counts, 0, newCounts, 0, size);
+            values = newValues;
+            counts = newCounts;
+        }
+        values[size] = value;
+        counts[size] = 1;
+        slots[i] = ++size;
+        if (size * 2 > slots.length) {
+            rehash();
+        }
+        return size - 1;
+    }
+
+    /**
+     * @return the index of a value, or -1 if it has not been added
+     */
+    public int indexOf(int value) {
+        int mask = slots.length - 1;
+        int i = SymbolTable.mix(value) & mask;
+        int slot;
+        while ((slot = slots[i]) != 0) {
+            if (values[slot - 1] == value) {
+                return slot - 1;
+            }
+            i = (i + 1) & mask;
+        }
+        return -1;
+    }
+
+    /**
+     * @return the number of distinct values
+     */
+    public int size() {
+        return size;
+    }
+
+    public int getValue(int index) {
+        return values[index];
+    }
+
+    public int getCount(int index) {
+        return counts[index];
+    }
+
+    private void rehash() {
+        slots = new int[slots.length * 2];
+        int mask = slots.length - 1;
+        for (int j = 0; j < size; j++) {
+            int i = SymbolTable.mix(values[j]) & mask;
+            while (slots[i] != 0) {
+                i = (i + 1) & mask;
+            }
+            slots[i] = j + 1;
+        }
+    }
+}
@@ -89,6 +89,36 @@ public class Main {
                 options.setEffort(Integer.parseInt(value));
             } else if (args[i].startsWith("--effort=")) {
                 options.setEffort(Integer.parseInt(args[i].substring(9)));
+            } else if (args[i].startsWith("-T")) {
+                value = args[i].substring(2);
+                if (value.length() == 0) {
+                    if (i + 1 < args.length) {
+                        value = args[++i];
+                    } else {
+                        printErrorMessage("Bad argument: -T ?");
+                        printUsage();
+                        return;
+                    }
+                }
+                options.setThreads(Integer.parseInt(value));
+            } else if (args[i].startsWith("--threads=")) {
+                options.setThreads(Integer.parseInt(args[i].substring(10)));
+            } else if (args[i].startsWith("--parallel-analysis=")) {
+                options.setParallelAnalysisThreshold(Integer.parseInt(args[i].substring(20)));
+            } else if ("--parallel-parsing".equals(args[i])) {
+                options.setParallelParsing(true);
+            } else if ("--archive-size".equals(args[i])) {
+                options.setArchiveSize(true);
+            } else if ("--analysis-cache".equals(args[i])) {
+                options.setAnalysisCache(true);
+            } else if (args[i].startsWith("--analysis-cache-file=")) {
+                options.setAnalysisCacheFile(args[i].substring(22));
+            } else if (args[i].startsWith("--time-budget=")) {
+                options.setTimeBudget(Long.parseLong(args[i].substring(14)));
+            } else if (args[i].startsWith("--use-profile=")) {
+                options.setUseProfile(args[i].substring(14));
+            } else if (args[i].startsWith("--write-profile=")) {
+                options.setWriteProfile(args[i].substring(16));
             } else if (args[i].startsWith("-H")) {
                 value = args[i].substring(2);
                 if (value.length() == 0) {
@@ -294,6 +324,24 @@ public class Main {
                 options.setModificationTime(propretyName);
             } else if ("segment.limit".equals(propretyName)) {
                 options.setSegmentLimit(Integer.parseInt(propretyValue));
+            } else if ("threads".equals(propretyName)) {
+                options.setThreads(Integer.parseInt(propretyValue));
+            } else if ("parallel.analysis".equals(propretyName)) {
+                options.setParallelAnalysisThreshold(Integer.parseInt(propretyValue));
+            } else if ("parallel.parsing".equals(propretyName)) {
+                options.setParallelParsing(Boolean.valueOf(propretyValue).booleanValue());
+            } else if ("archive.size".equals(propretyName)) {
+                options.setArchiveSize(Boolean.valueOf(propretyValue).booleanValue());
+            } else if ("analysis.cache".equals(propretyName)) {
+                options.setAnalysisCache(Boolean.valueOf(propretyValue).booleanValue());
+            } else if ("analysis.cache.file".equals(propretyName)) {
+                options.setAnalysisCacheFile(propretyValue);
+            } else if ("time.budget".equals(propretyName)) {
+                options.setTimeBudget(Long.parseLong(propretyValue));
+            } else if ("use.profile".equals(propretyName)) {
+                options.setUseProfile(propretyValue);
+            } else if ("write.profile".equals(propretyName)) {
+                options.setWriteProfile(propretyValue);
             } else if ("unknown.attribute".equals(propretyName)) {
                 options.setUnknownAttributeAction(propretyValue);
             }
@@ -392,6 +440,15 @@ public class Main {
         System.out.println("  --keep-file-order               (default) preserve input file ordering");
         System.out.println("  -S{N}, --segment-limit={N}      output segment limit (default N=1Mb)");
         System.out.println("  -E{N}, --effort={N}             packing effort (default N=5)");
+        System.out.println("  -T{N}, --threads={N}            pack segments with N threads, 0 for all CPUs (default N=1)");
+        System.out.println("  --parallel-analysis={N}         analyse codecs for bands of N or more values concurrently (default N=0, off)");
+        System.out.println("  --parallel-parsing              parse the classes of each segment concurrently");
+        System.out.println("  --archive-size                  transmit the size of each segment, so it can be unpacked concurrently");
+        System.out.println("  --analysis-cache                reuse the codecs chosen for the first segment's bands in the others");
+        System.out.println("  --analysis-cache-file={F}       read the codecs chosen from file F if it exists, and write them to it");
+        System.out.println("  --time-budget={MS}              pack in about MS milliseconds, at the -E effort or lower (default 0, none)");
+        System.out.println("  --use-profile={F}               try the codecs chosen by an earlier build, read from file F, first");
+        System.out.println("  --write-profile={F}             write the codecs chosen for each band of each segment to file F");
         System.out.println("  -H{h}, --deflate-hint={h}       transmit deflate hint: true, false, or keep (default)");
         System.out.println("  -m{V}, --modification-time={V}  transmit modtimes: latest or keep (default)");
         System.out.println("  -P{F}, --pass-file={F}          transmit the given input element(s) uncompressed");
@@ -429,10 +429,9 @@ class NewAttributeBands extends BandSet {
 
         public void pack(OutputStream out) throws IOException, Pack200Exception {
             PackingUtils.log("Writing new attribute bands...");
-            byte[] encodedBand = encodeBandInt(tag, integerListToArray(band),
-                    defaultCodec);
-            out.write(encodedBand);
-            PackingUtils.log("Wrote " + encodedBand.length + " bytes from "
+            int encodedLength = writeBandInt(tag, integerListToArray(band),
+                    defaultCodec, out);
+            PackingUtils.log("Wrote " + encodedLength + " bytes from "
                     + tag + "[" + band.size() + "]");
         }
 
@@ -692,9 +691,8 @@ class NewAttributeBands extends BandSet {
             } else {
                 ints = cpEntryListToArray(band);
             }
-            byte[] encodedBand = encodeBandInt(tag, ints, Codec.UNSIGNED5);
-            out.write(encodedBand);
-            PackingUtils.log("Wrote " + encodedBand.length + " bytes from "
+            int encodedLength = writeBandInt(tag, ints, Codec.UNSIGNED5, out);
+            PackingUtils.log("Wrote " + encodedLength + " bytes from "
                     + tag + "[" + ints.length + "]");
         }
 
@@ -17,15 +17,26 @@
 package org.apache.harmony.pack200;
 
 import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Enumeration;
 import java.util.Iterator;
+import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 import java.util.jar.JarEntry;
 import java.util.jar.JarFile;
 import java.util.jar.JarInputStream;
 import java.util.zip.GZIPOutputStream;
+import org.apache.harmony.pack200.PackingUtils.PackingFileReader;
 import org.objectweb.asm.ClassReader;
 import org.apache.harmony.unpack200.common.Pack200Exception;
 
@@ -42,6 +53,9 @@ public class Pack200Archive {
     private JarFile jarFile;
     private long currentSegmentSize;
     private final PackingOptions options;
+    private CodecAnalysisCache analysisCache;
+    private TimeBudget timeBudget;
+    private CodecProfile codecProfile;
 
     /**
      * Creates an Archive with streams for the input and output.
@@ -113,49 +127,149 @@ public class Pack200Archive {
 
     private void doNormalPack() throws IOException, Pack200Exception {
         PackingUtils.log("Start to perform a normal packing");
-        List packingFileList;
-        if (jarInputStream != null) {
-            packingFileList = PackingUtils.getPackingFileListFromJar(
-                    jarInputStream, options.isKeepFileOrder());
-        } else {
-            packingFileList = PackingUtils.getPackingFileListFromJar(jarFile,
-                    options.isKeepFileOrder());
+        int threads = options.getThreads();
+        if (threads == 0) {
+            threads = Runtime.getRuntime().availableProcessors();
+        }
+        if (options.getTimeBudget() > 0) {
+            timeBudget = new TimeBudget(options.getTimeBudget(), threads,
+                    options.getEffort());
+        }
+        if (options.getUseProfile() != null
+                || options.getWriteProfile() != null) {
+            codecProfile = new CodecProfile();
+            if (options.getUseProfile() != null) {
+                codecProfile.read(new File(options.getUseProfile()));
+            }
         }
 
-        List segmentUnitList = splitIntoSegments(packingFileList);
-        int previousByteAmount = 0;
-        int packedByteAmount = 0;
+        if (options.isAnalysisCache()) {
+            analysisCache = new CodecAnalysisCache();
+            if (options.getAnalysisCacheFile() != null) {
+                analysisCache.read(new File(options.getAnalysisCacheFile()));
+            }
+        }
 
-        int segmentSize = segmentUnitList.size();
-        SegmentUnit segmentUnit;
-        for (int index = 0; index < segmentSize; index++) {
-            segmentUnit = (SegmentUnit) segmentUnitList.get(index);
-            new Segment().pack(segmentUnit, outputStream, options);
-            previousByteAmount += segmentUnit.getByteAmount();
-            packedByteAmount += segmentUnit.getPackedByteAmount();
+        SegmentWriter segmentWriter = new SegmentWriter(threads);
+        int fileCount;
+        try {
+            PackingFileReader packingFileReader = openPackingFiles(
+                    segmentWriter.getPool(), threads * 4);
+            try {
+                fileCount = splitIntoSegments(packingFileReader, segmentWriter);
+            } finally {
+                packingFileReader.close();
+            }
+            segmentWriter.flush();
+        } finally {
+            segmentWriter.close();
         }
 
-        PackingUtils.log("Total: Packed " + previousByteAmount
-                + " input bytes of " + packingFileList.size() + " files into "
-                + packedByteAmount + " bytes in " + segmentSize + " segments");
+        PackingUtils.log("Total: Packed " + segmentWriter.getByteAmount()
+                + " input bytes of " + fileCount + " files into "
+                + segmentWriter.getPackedByteAmount() + " bytes in "
+                + segmentWriter.getSegmentCount() + " segments");
+
+        if (analysisCache != null) {
+            PackingUtils.log("Codec analysis cache: " + analysisCache.getHits()
+                    + " hits, " + analysisCache.getMisses() + " misses");
+            if (options.getAnalysisCacheFile() != null) {
+                analysisCache.write(new File(options.getAnalysisCacheFile()));
+            }
+        }
+        if (codecProfile != null) {
+            if (options.getUseProfile() != null) {
+                PackingUtils.log("Codec profile: " + codecProfile.getHits()
+                        + " bands found, " + codecProfile.getMisses()
+                        + " not found");
+            }
+            if (options.getWriteProfile() != null) {
+                codecProfile.write(new File(options.getWriteProfile()));
+            }
+        }
+        if (timeBudget != null) {
+            PackingUtils.log("Time budget of " + options.getTimeBudget()
+                    + "ms: segments packed at efforts "
+                    + Arrays.toString(timeBudget.getEfforts()));
+        }
 
         outputStream.close();
     }
 
-    private List splitIntoSegments(List packingFileList) throws IOException,
-            Pack200Exception {
-        List segmentUnitList = new ArrayList();
+    /**
+     * Opens the files to pack. The entries of a JarFile are inflated on the
+     * pool, if there is one, while the segments before them are packed, or
+     * before the files are sorted.
+     *
+     * @param pool - the pool to inflate the entries on, or null
+     * @param window - the most entries to inflate at once
+     * @return a reader for the files, in the order they are to be packed
+     * @throws IOException
+     */
+    private PackingFileReader openPackingFiles(ExecutorService pool,
+            int window) throws IOException {
+        PackingFileReader packingFileReader;
+        if (options.isKeepFileOrder()) {
+            // Read the entries as they are packed so that only the segments
+            // currently being packed are held in memory
+            if (jarInputStream != null) {
+                packingFileReader = new PackingFileReader(jarInputStream);
+            } else {
+                packingFileReader = new PackingFileReader(jarFile, pool,
+                        window);
+            }
+        } else {
+            // The files have to be sorted so all of them are read first
+            List<PackingFile> packingFileList;
+            if (jarInputStream != null) {
+                packingFileList = PackingUtils.getPackingFileListFromJar(
+                        jarInputStream, false);
+            } else {
+                packingFileList = PackingUtils.getPackingFileListFromJar(
+                        jarFile, false, pool, window);
+            }
+            packingFileReader = new PackingFileReader(packingFileList);
+            if (timeBudget != null) {
+                long totalBytes = 0;
+                for (Iterator iterator = packingFileList.iterator(); iterator.hasNext();) {
+                    totalBytes += ((PackingFile) iterator.next()).contents.length;
+                }
+                timeBudget.setTotalBytes(totalBytes);
+            }
+        }
+        if (timeBudget != null && jarFile != null && options.isKeepFileOrder()) {
+            long totalBytes = 0;
+            for (Enumeration<JarEntry> entries = jarFile.entries(); entries.hasMoreElements();) {
+                totalBytes += Math.max(0, entries.nextElement().getSize());
+            }
+            timeBudget.setTotalBytes(totalBytes);
+        }
+        return packingFileReader;
+    }
+
+    /**
+     * Reads the packing files, splits them into segments and passes each
+     * segment to the SegmentWriter as soon as it is complete.
+     *
+     * @param packingFileReader - the source of the files to pack
+     * @param segmentWriter - packs and writes out the segments
+     * @return the number of files read
+     * @throws IOException
+     * @throws Pack200Exception
+     */
+    private int splitIntoSegments(PackingFileReader packingFileReader,
+            SegmentWriter segmentWriter) throws IOException, Pack200Exception {
         List classes = new ArrayList();
         List files = new ArrayList();
         long segmentLimit = options.getSegmentLimit();
 
-        int size = packingFileList.size();
+        int fileCount = 0;
         PackingFile packingFile;
-        for (int index = 0; index < size; index++) {
-            packingFile = (PackingFile) packingFileList.get(index);
+        while ((packingFile = packingFileReader.next()) != null) {
+            fileCount++;
             if (!addJarEntry(packingFile, classes, files)) {
                 // not added because segment has reached maximum size
-                segmentUnitList.add(new SegmentUnit(classes, files));
+                segmentWriter.write(new SegmentUnit(classes, files));
                 classes = new ArrayList();
                 files = new ArrayList();
                 currentSegmentSize = 0;
@@ -165,15 +279,190 @@ public class Pack200Archive {
                 currentSegmentSize = 0;
             } else if (segmentLimit == 0 && estimateSize(packingFile) > 0) {
                 // create a new segment for each class unless size is 0
-                segmentUnitList.add(new SegmentUnit(classes, files));
+                segmentWriter.write(new SegmentUnit(classes, files));
                 classes = new ArrayList();
                 files = new ArrayList();
             }
         }
-        if (classes.size() > 0 && files.size() > 0) {
-            segmentUnitList.add(new SegmentUnit(classes, files));
+        if (classes.size() > 0 || files.size() > 0) {
+            segmentWriter.write(new SegmentUnit(classes, files));
+        }
+        return fileCount;
+    }
+
+    /**
+     * Packs segments and writes them to the output stream in the order they
+     * are given. With more than one thread the segments are packed
+     * concurrently on a ForkJoinPool, each into its own buffer, and the
+     * buffers are written out in the original segment order so the output is
+     * identical to packing serially. At most twice as many segments as there
+     * are threads are held in memory at once. If there is a codec analysis
+     * cache, the first segment is packed on its own to fill it. With a time
+     * budget, each segment's share of the time starts when it does.
+     */
+    private class SegmentWriter {
+
+        private final ForkJoinPool pool;
+        private final int window;
+        private final LinkedList<SegmentUnit> pendingUnits = new LinkedList<SegmentUnit>();
+        private final LinkedList<Future<ByteArrayOutputStream>> pendingSegments = new LinkedList<Future<ByteArrayOutputStream>>();
+        private int segmentCount;
+        private long byteAmount;
+        private long packedByteAmount;
+
+        SegmentWriter(int threads) {
+            if (threads > 1) {
+                PackingUtils.log("Packing segments with " + threads + " threads");
+                pool = new ForkJoinPool(threads);
+            } else {
+                pool = null;
+            }
+            window = threads * 2;
+        }
+
+        void write(SegmentUnit segmentUnit) throws IOException, Pack200Exception {
+            int segment = segmentCount + pendingSegments.size();
+            segmentUnit.setNumber(segment);
+            if (pool == null || (analysisCache != null && analysisCache.isFilling())) {
+                packSegment(segmentUnit, segment, outputStream);
+                written(segmentUnit);
+                if (analysisCache != null) {
+                    analysisCache.finishFilling();
+                }
+                return;
+            }
+            if (pendingSegments.size() >= window) {
+                writeNext();
+            }
+            pendingSegments.add(pool.submit(new SegmentPacker(segmentUnit, segment)));
+            pendingUnits.add(segmentUnit);
+        }
+
+        /**
+         * @return the pool the segments are packed on, or null
+         */
+        ExecutorService getPool() {
+            return pool;
+        }
+
+        void flush() throws IOException, Pack200Exception {
+            while (!pendingSegments.isEmpty()) {
+                writeNext();
+            }
+        }
+
+        void close() {
+            if (pool != null) {
+                pool.shutdownNow();
+            }
+        }
+
+        private void writeNext() throws IOException, Pack200Exception {
+            Future<ByteArrayOutputStream> packedSegment = pendingSegments.removeFirst();
+            SegmentUnit segmentUnit = pendingUnits.removeFirst();
+            ByteArrayOutputStream bytes;
+            try {
+                bytes = packedSegment.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new Pack200Exception("Interrupted while packing segment "
+                        + segmentCount, e);
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof IOException) {
+                    throw (IOException) cause;
+                } else if (cause instanceof Pack200Exception) {
+                    throw (Pack200Exception) cause;
+                } else if (cause instanceof RuntimeException) {
+                    throw (RuntimeException) cause;
+                } else if (cause instanceof Error) {
+                    throw (Error) cause;
+                }
+                throw new Pack200Exception("Error packing segment "
+                        + segmentCount, (Exception) cause);
+            }
+            bytes.writeTo(outputStream);
+            written(segmentUnit);
+        }
+
+        private void written(SegmentUnit segmentUnit) {
+            segmentCount++;
+            byteAmount += segmentUnit.getByteAmount();
+            packedByteAmount += segmentUnit.getPackedByteAmount();
+        }
+
+        int getSegmentCount() {
+            return segmentCount;
+        }
+
+        long getByteAmount() {
+            return byteAmount;
+        }
+
+        long getPackedByteAmount() {
+            return packedByteAmount;
+        }
+    }
+
+    /**
+     * Packs a single segment into an in-memory buffer.
+     */
+    private class SegmentPacker implements Callable<ByteArrayOutputStream> {
+
+        private final SegmentUnit segmentUnit;
+        private final int segment;
+
+        SegmentPacker(SegmentUnit segmentUnit, int segment) {
+            this.segmentUnit = segmentUnit;
+            this.segment = segment;
+        }
+
+        public ByteArrayOutputStream call() throws IOException, Pack200Exception {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            packSegment(segmentUnit, segment, bytes);
+            return bytes;
         }
-        return segmentUnitList;
+    }
+
+    /*
+     * Packs a segment, within its share of the time budget if there is one
+     */
+    private void packSegment(SegmentUnit segmentUnit, int segment,
+            OutputStream out) throws IOException, Pack200Exception {
+        TimeBudget.Allowance allowance = null;
+        if (timeBudget != null) {
+            allowance = timeBudget.allowance(segment, segmentUnit
+                    .getByteAmount());
+        }
+        new Segment().pack(segmentUnit, out, options, analysisCache,
+                allowance, codecProfile);
+        if (allowance != null) {
+            timeBudget.finished(allowance);
+        }
+    }
+
+    /**
+     * @return the codec analysis cache used by the last call to
+     *         <code>pack()</code>, or null
+     */
+    CodecAnalysisCache getAnalysisCache() {
+        return analysisCache;
+    }
+
+    /**
+     * @return the time budget used by the last call to <code>pack()</code>,
+     *         or null
+     */
+    TimeBudget getTimeBudget() {
+        return timeBudget;
+    }
+
+    /**
+     * @return the codec profile used by the last call to <code>pack()</code>,
+     *         or null
+     */
+    CodecProfile getCodecProfile() {
+        return codecProfile;
     }
 
     private boolean addJarEntry(PackingFile packingFile, List<ClassReader> javaClasses,
@@ -231,6 +520,8 @@ public class Pack200Archive {
 
         private int packedByteAmount = 0;
 
+        private int number;
+
         public SegmentUnit(List<ClassReader> classes, List<PackingFile> files) {
             classList = classes;
             fileList = files;
@@ -269,6 +560,17 @@ public class Pack200Archive {
             return byteAmount;
         }
 
+        /**
+         * @return the number of the segment in the archive, from 0
+         */
+        public int getNumber() {
+            return number;
+        }
+
+        public void setNumber(int number) {
+            this.number = number;
+        }
+
         public int getPackedByteAmount() {
             return packedByteAmount;
         }
@@ -71,7 +71,13 @@ public class Pack200PackerAdapter extends Pack200Adapter implements Packer {
             Object newValue) {
         super.firePropertyChange(propertyName, oldValue, newValue);
         if(newValue != null && !newValue.equals(oldValue)) {
-            if (propertyName.startsWith(CLASS_ATTRIBUTE_PFX)) {
+            if (propertyName.equals(ANALYSIS_CACHE)) {
+                options.setAnalysisCache(Boolean.parseBoolean((String)newValue));
+            } else if (propertyName.equals(ANALYSIS_CACHE_FILE)) {
+                options.setAnalysisCacheFile((String)newValue);
+            } else if (propertyName.equals(ARCHIVE_SIZE)) {
+                options.setArchiveSize(Boolean.parseBoolean((String)newValue));
+            } else if (propertyName.startsWith(CLASS_ATTRIBUTE_PFX)) {
                 String attributeName = propertyName.substring(CLASS_ATTRIBUTE_PFX.length());
                 options.addClassAttributeAction(attributeName, (String)newValue);
             } else if (propertyName.startsWith(CODE_ATTRIBUTE_PFX)) {
@@ -91,6 +97,10 @@ public class Pack200PackerAdapter extends Pack200Adapter implements Packer {
                 options.addMethodAttributeAction(attributeName, (String)newValue);
             } else if (propertyName.equals(MODIFICATION_TIME)) {
                 options.setModificationTime((String)newValue);
+            } else if (propertyName.equals(PARALLEL_ANALYSIS)) {
+                options.setParallelAnalysisThreshold(Integer.parseInt((String)newValue));
+            } else if (propertyName.equals(PARALLEL_PARSING)) {
+                options.setParallelParsing(Boolean.parseBoolean((String)newValue));
             } else if (propertyName.startsWith(PASS_FILE_PFX)) {
                 if(oldValue != null && !oldValue.equals("")) {
                     options.removePassFile((String)oldValue);
@@ -98,8 +108,16 @@ public class Pack200PackerAdapter extends Pack200Adapter implements Packer {
                 options.addPassFile((String) newValue);
             } else if (propertyName.equals(SEGMENT_LIMIT)) {
                 options.setSegmentLimit(Long.parseLong((String)newValue));
+            } else if (propertyName.equals(THREADS)) {
+                options.setThreads(Integer.parseInt((String)newValue));
+            } else if (propertyName.equals(TIME_BUDGET)) {
+                options.setTimeBudget(Long.parseLong((String)newValue));
             } else if (propertyName.equals(UNKNOWN_ATTRIBUTE)) {
                 options.setUnknownAttributeAction((String)newValue);
+            } else if (propertyName.equals(USE_PROFILE)) {
+                options.setUseProfile((String)newValue);
+            } else if (propertyName.equals(WRITE_PROFILE)) {
+                options.setWriteProfile((String)newValue);
             }
         }
     }
@@ -40,6 +40,15 @@ public class PackingOptions {
     private boolean keepFileOrder = true;
     private long segmentLimit = 1000000L;
     private int effort = 5;
+    private int threads = 1;
+    private int parallelAnalysisThreshold = 0;
+    private boolean parallelParsing = false;
+    private boolean archiveSize = false;
+    private boolean analysisCache = false;
+    private String analysisCacheFile;
+    private long timeBudget = 0;
+    private String useProfile;
+    private String writeProfile;
     private String deflateHint = KEEP;
     private String modificationTime = KEEP;
     private List<String> passFiles;
@@ -109,6 +118,154 @@ public class PackingOptions {
         this.effort = effort;
     }
 
+    public int getThreads() {
+        return threads;
+    }
+
+    /**
+     * Set the number of worker threads used to pack segments concurrently
+     * (equivalent to -T command line option). The packed output is the same
+     * whatever the number of threads; 1 (the default) packs serially and 0
+     * uses one thread per available processor.
+     * @param threads
+     */
+    public void setThreads(int threads) {
+        if (threads < 0) {
+            throw new IllegalArgumentException("Bad argument: -T " + threads
+                    + " ? number of threads should be 0 or more");
+        }
+        this.threads = threads;
+    }
+
+    public int getParallelAnalysisThreshold() {
+        return parallelAnalysisThreshold;
+    }
+
+    /**
+     * Set the length from which the codecs for a band are analysed
+     * concurrently, which only applies at efforts above 1 (equivalent to
+     * --parallel-analysis command line option). The codecs chosen are the same
+     * either way; 0 (the default) always analyses bands serially.
+     * @param threshold - the number of values in a band
+     */
+    public void setParallelAnalysisThreshold(int threshold) {
+        if (threshold < 0) {
+            throw new IllegalArgumentException("Bad argument: --parallel-analysis="
+                    + threshold + " ? threshold should be 0 or more");
+        }
+        this.parallelAnalysisThreshold = threshold;
+    }
+
+    public boolean isParallelParsing() {
+        return parallelParsing;
+    }
+
+    /**
+     * Set whether the classes of a segment are parsed concurrently
+     * (equivalent to --parallel-parsing command line option). They are still
+     * added to the bands in order, so the archive is the same either way.
+     * @param parallelParsing
+     */
+    public void setParallelParsing(boolean parallelParsing) {
+        this.parallelParsing = parallelParsing;
+    }
+
+    public boolean isArchiveSize() {
+        return archiveSize;
+    }
+
+    /**
+     * Set whether each segment transmits its size, even if it has no files
+     * (equivalent to --archive-size command line option), so that an
+     * unpacker can find where each segment ends and decode the segments
+     * concurrently.
+     * @param archiveSize
+     */
+    public void setArchiveSize(boolean archiveSize) {
+        this.archiveSize = archiveSize;
+    }
+
+    public boolean isAnalysisCache() {
+        return analysisCache || analysisCacheFile != null;
+    }
+
+    /**
+     * Set whether the codecs chosen for the bands of the first segment are
+     * remembered, so that similar bands of the other segments only try those
+     * codecs (equivalent to --analysis-cache command line option). This
+     * packs large archives at high effort more quickly, but may choose
+     * codecs that are not quite the best.
+     * @param analysisCache
+     */
+    public void setAnalysisCache(boolean analysisCache) {
+        this.analysisCache = analysisCache;
+    }
+
+    public String getAnalysisCacheFile() {
+        return analysisCacheFile;
+    }
+
+    /**
+     * Set a file to read the remembered codec choices from before packing,
+     * if it exists, and to write them to afterwards (equivalent to
+     * --analysis-cache-file command line option). Setting a file turns on the
+     * analysis cache.
+     * @param analysisCacheFile - the name of the file, or null for none
+     */
+    public void setAnalysisCacheFile(String analysisCacheFile) {
+        this.analysisCacheFile = analysisCacheFile;
+    }
+
+    public long getTimeBudget() {
+        return timeBudget;
+    }
+
+    /**
+     * Set a wall-clock time limit for packing (equivalent to --time-budget
+     * command line option). The segments share it out in proportion to
+     * their size, and are packed at the highest effort up to the one set
+     * that keeps them within their share; 0 (the default) packs every
+     * segment at the effort set however long it takes.
+     * @param timeBudget - the time limit in milliseconds
+     */
+    public void setTimeBudget(long timeBudget) {
+        if (timeBudget < 0) {
+            throw new IllegalArgumentException("Bad argument: --time-budget="
+                    + timeBudget + " ? time budget should be 0 or more");
+        }
+        this.timeBudget = timeBudget;
+    }
+
+    public String getUseProfile() {
+        return useProfile;
+    }
+
+    /**
+     * Set a file to read the codecs chosen for each band of each segment in
+     * an earlier build from (equivalent to --use-profile command line
+     * option). They are tried first, and codecs of other families are only
+     * tried for bands that aren't in the profile. A file that doesn't exist
+     * yet is an empty profile.
+     * @param useProfile - the name of the file, or null for none
+     */
+    public void setUseProfile(String useProfile) {
+        this.useProfile = useProfile;
+    }
+
+    public String getWriteProfile() {
+        return writeProfile;
+    }
+
+    /**
+     * Set a file to write the codecs chosen for each band of each segment to
+     * (equivalent to --write-profile command line option), which can be the
+     * same file as the one given to <code>setUseProfile</code>.
+     * @param writeProfile - the name of the file, or null for none
+     */
+    public void setWriteProfile(String writeProfile) {
+        this.writeProfile = writeProfile;
+    }
+
     public String getDeflateHint() {
         return deflateHint;
     }
@@ -144,7 +301,7 @@ public class PackingOptions {
         this.modificationTime = modificationTime;
     }
 
-    public boolean isPassFile(String passFileName) {
+    public synchronized boolean isPassFile(String passFileName) {
         if (passFiles != null) {
             for (Iterator iterator = passFiles.iterator(); iterator.hasNext();) {
                 String pass = (String) iterator.next();
@@ -172,7 +329,7 @@ public class PackingOptions {
      * @param passFileName
      *            the file name
      */
-    public void addPassFile(String passFileName) {
+    public synchronized void addPassFile(String passFileName) {
         if(passFiles == null) {
             passFiles = new ArrayList<String>();
         }
@@ -185,7 +342,7 @@ public class PackingOptions {
         passFiles.add(passFileName);
     }
 
-    public void removePassFile(String passFileName) {
+    public synchronized void removePassFile(String passFileName) {
         passFiles.remove(passFileName);
     }
 
@@ -18,15 +18,25 @@ package org.apache.harmony.pack200;
 
 import java.io.BufferedInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.Enumeration;
 import java.util.Iterator;
+import java.util.LinkedList;
 import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 import java.util.jar.JarEntry;
 import java.util.jar.JarFile;
 import java.util.jar.JarInputStream;
@@ -38,8 +48,12 @@ import java.util.logging.LogManager;
 import java.util.logging.LogRecord;
 import java.util.logging.Logger;
 import java.util.logging.SimpleFormatter;
+import java.util.zip.ZipException;
 
 import org.apache.harmony.pack200.Pack200Archive.PackingFile;
+import org.apache.harmony.unpack200.ParallelJarWriter;
+import org.apache.harmony.unpack200.RawJarEntry;
+import org.apache.harmony.unpack200.RawJarReader;
 
 class PackingUtils {
 
@@ -89,7 +103,8 @@ class PackingUtils {
 
     /**
      * When effort is 0, the packer copies through the original jar input stream
-     * without compression
+     * without compression. A JarInputStream only gives the inflated contents
+     * of each entry, so they are deflated again.
      * 
      * @param jarInputStream
      *            the jar input stream
@@ -121,7 +136,9 @@ class PackingUtils {
 
     /**
      * When effort is 0, the packer copys through the original jar file without
-     * compression
+     * compression. The entries are read from the file in the order they are
+     * stored, and their data is copied as it is, without inflating and
+     * deflating it again.
      * 
      * @param jarFile
      *            the input jar file
@@ -131,6 +148,42 @@ class PackingUtils {
      */
     public static void copyThroughJar(JarFile jarFile, OutputStream outputStream)
             throws IOException {
+        RawJarReader reader;
+        RawJarEntry rawEntry;
+        try {
+            reader = new RawJarReader(new BufferedInputStream(
+                    new FileInputStream(jarFile.getName())));
+        } catch (FileNotFoundException e) {
+            // the file has gone (e.g. it was opened with OPEN_DELETE)
+            recompressThroughJar(jarFile, outputStream);
+            return;
+        }
+        try {
+            rawEntry = reader.getNextEntry();
+        } catch (ZipException e) {
+            // the entries do not start the file (e.g. a self-extracting jar),
+            // so they can only be found from the central directory
+            reader.close();
+            recompressThroughJar(jarFile, outputStream);
+            return;
+        }
+        ParallelJarWriter jarWriter = new ParallelJarWriter(outputStream);
+        jarWriter.setComment("PACK200");
+        try {
+            while (rawEntry != null) {
+                jarWriter.copy(rawEntry);
+                log("Packed " + rawEntry.getName());
+                rawEntry = reader.getNextEntry();
+            }
+        } finally {
+            reader.close();
+        }
+        jarFile.close();
+        jarWriter.close();
+    }
+
+    private static void recompressThroughJar(JarFile jarFile,
+            OutputStream outputStream) throws IOException {
         JarOutputStream jarOutputStream = new JarOutputStream(outputStream);
         jarOutputStream.setComment("PACK200");
         byte[] bytes = new byte[16384];
@@ -152,51 +205,54 @@ class PackingUtils {
         jarOutputStream.close();
     }
 
-    public static List getPackingFileListFromJar(JarInputStream jarInputStream,
+    public static List<PackingFile> getPackingFileListFromJar(
+            JarInputStream jarInputStream,
             boolean keepFileOrder) throws IOException {
-        List packingFileList = new ArrayList();
-
-        // add manifest file
-        Manifest manifest = jarInputStream.getManifest();
-        if (manifest != null) {
-            ByteArrayOutputStream baos = new ByteArrayOutputStream();
-            manifest.write(baos);
-            packingFileList.add(new PackingFile(JarFile.MANIFEST_NAME, baos
-                    .toByteArray(), 0));
-        }
-
-        // add rest of entries in the jar
-        JarEntry jarEntry;
-        byte[] bytes;
-        while ((jarEntry = jarInputStream.getNextJarEntry()) != null) {
-            bytes = readJarEntry(jarEntry, new BufferedInputStream(
-                    jarInputStream));
-            packingFileList.add(new PackingFile(bytes, jarEntry));
-        }
+        return getPackingFileList(new PackingFileReader(jarInputStream),
+                keepFileOrder);
+    }
 
-        // check whether it need reorder packing file list
-        if (!keepFileOrder) {
-            reorderPackingFiles(packingFileList);
-        }
-        return packingFileList;
+    public static List<PackingFile> getPackingFileListFromJar(
+            JarFile jarFile, boolean keepFileOrder) throws IOException {
+        return getPackingFileList(new PackingFileReader(jarFile),
+                keepFileOrder);
     }
 
-    public static List getPackingFileListFromJar(JarFile jarFile,
-            boolean keepFileOrder) throws IOException {
-        List packingFileList = new ArrayList();
-        Enumeration jarEntries;
+    /**
+     * Reads the files of a jar, inflating up to <code>window</code> of them
+     * at once on the given pool. The list is the same as the one read on the
+     * calling thread.
+     *
+     * @param jarFile
+     *            the jar to read
+     * @param keepFileOrder
+     *            false to sort the files by name, and leave out directories
+     * @param pool
+     *            the pool to inflate the entries on, or null to inflate them
+     *            on the calling thread
+     * @param window
+     *            the most entries that may be being inflated at once
+     * @return the list of PackingFiles
+     * @throws IOException
+     */
+    public static List<PackingFile> getPackingFileListFromJar(
+            JarFile jarFile, boolean keepFileOrder, ExecutorService pool,
+            int window)
+            throws IOException {
+        PackingFileReader reader = new PackingFileReader(jarFile, pool, window);
         try {
-            jarEntries = jarFile.entries();
-        } catch (IllegalStateException e){
-            throw new IOException("Unable to read jar entries", e);
+            return getPackingFileList(reader, keepFileOrder);
+        } finally {
+            reader.close();
         }
-        JarEntry jarEntry;
-        byte[] bytes;
-        while (jarEntries.hasMoreElements()) {
-            jarEntry = (JarEntry) jarEntries.nextElement();
-            bytes = readJarEntry(jarEntry, new BufferedInputStream(jarFile
-                    .getInputStream(jarEntry)));
-            packingFileList.add(new PackingFile(bytes, jarEntry));
+    }
+
+    private static List<PackingFile> getPackingFileList(
+            PackingFileReader reader, boolean keepFileOrder) throws IOException {
+        List<PackingFile> packingFileList = new ArrayList<PackingFile>();
+        PackingFile packingFile;
+        while ((packingFile = reader.next()) != null) {
+            packingFileList.add(packingFile);
         }
 
         // check whether it need reorder packing file list
@@ -208,20 +264,223 @@ class PackingUtils {
 
     private static byte[] readJarEntry(JarEntry jarEntry,
             InputStream inputStream) throws IOException {
+        return readJarEntry(jarEntry, inputStream, null);
+    }
+
+    /*
+     * The buffer, if there is one, is only used for entries whose size is
+     * not known in advance; otherwise the contents are read straight into an
+     * array of the right size
+     */
+    private static byte[] readJarEntry(JarEntry jarEntry,
+            InputStream inputStream, byte[] buffer) throws IOException {
         long size = jarEntry.getSize();
         if (size > Integer.MAX_VALUE) {
             // TODO: Should probably allow this
             throw new RuntimeException("Large Class!");
-        } else if (size < 0) {
-            size = 0;
+        }
+        if (size < 0) {
+            // size is not known until the entry has been read (e.g. entries
+            // written with a data descriptor)
+            ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            if (buffer == null) {
+                buffer = new byte[16384];
+            }
+            int bytesRead;
+            while ((bytesRead = inputStream.read(buffer)) != -1) {
+                baos.write(buffer, 0, bytesRead);
+            }
+            return baos.toByteArray();
         }
         byte[] bytes = new byte[(int) size];
-        if (inputStream.read(bytes) != size) {
-            throw new RuntimeException("Error reading from stream");
+        int offset = 0;
+        while (offset < size) {
+            int bytesRead = inputStream.read(bytes, offset, (int) size - offset);
+            if (bytesRead == -1) {
+                throw new RuntimeException("Error reading from stream");
+            }
+            offset += bytesRead;
         }
         return bytes;
     }
 
+    /**
+     * Reads the entries of a jar one at a time, so that the whole jar does not
+     * have to be held in memory while it is packed. The manifest is returned
+     * first when reading from a JarInputStream. A reader can also be created
+     * for a list of files that have already been read.
+     *
+     * A reader for a JarFile can be given a pool to inflate the entries on.
+     * ZipFile can read several entries at once, so up to <code>window</code>
+     * entries after the one being returned are inflated concurrently, each
+     * straight into an array of its size, and they are returned in the order
+     * of the jar. Signed jars are always read on the calling thread, as their
+     * entries are verified as they are read.
+     */
+    static class PackingFileReader {
+
+        private final JarInputStream jarInputStream;
+        private final JarFile jarFile;
+        private final Iterator<PackingFile> packingFiles;
+        private Enumeration<JarEntry> jarEntries;
+        private boolean readManifest;
+
+        private ExecutorService pool;
+        private int window;
+        private final LinkedList<Future<PackingFile>> pending = new LinkedList<Future<PackingFile>>();
+        // buffers for entries whose size isn't known, shared by the tasks
+        private final ConcurrentLinkedQueue<byte[]> buffers = new ConcurrentLinkedQueue<byte[]>();
+
+        public PackingFileReader(JarInputStream jarInputStream) {
+            this.jarInputStream = jarInputStream;
+            this.jarFile = null;
+            this.packingFiles = null;
+        }
+
+        public PackingFileReader(List<PackingFile> packingFileList) {
+            this.jarInputStream = null;
+            this.jarFile = null;
+            this.packingFiles = packingFileList.iterator();
+        }
+
+        public PackingFileReader(JarFile jarFile) throws IOException {
+            this.jarInputStream = null;
+            this.jarFile = jarFile;
+            this.packingFiles = null;
+            try {
+                jarEntries = jarFile.entries();
+            } catch (IllegalStateException e){
+                throw new IOException("Unable to read jar entries", e);
+            }
+        }
+
+        public PackingFileReader(JarFile jarFile, ExecutorService pool,
+                int window) throws IOException {
+            this(jarFile);
+            if (pool != null && !isSigned(jarFile)) {
+                this.pool = pool;
+                this.window = Math.max(window, 1);
+            }
+        }
+
+        private static boolean isSigned(JarFile jarFile) {
+            for (Enumeration<JarEntry> entries = jarFile.entries(); entries
+                    .hasMoreElements();) {
+                String name = entries.nextElement().getName().toUpperCase(
+                        Locale.ENGLISH);
+                if (name.startsWith("META-INF/")
+                        && (name.endsWith(".SF") || name.endsWith(".RSA")
+                                || name.endsWith(".DSA") || name.endsWith(".EC"))) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * Returns the next file in the jar, or null if there are no more.
+         *
+         * @return the next PackingFile
+         * @throws IOException
+         */
+        public PackingFile next() throws IOException {
+            if (packingFiles != null) {
+                return packingFiles.hasNext() ? packingFiles.next() : null;
+            }
+            if (jarInputStream != null) {
+                if (!readManifest) {
+                    // add manifest file
+                    readManifest = true;
+                    Manifest manifest = jarInputStream.getManifest();
+                    if (manifest != null) {
+                        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+                        manifest.write(baos);
+                        return new PackingFile(JarFile.MANIFEST_NAME, baos
+                                .toByteArray(), 0);
+                    }
+                }
+                JarEntry jarEntry = jarInputStream.getNextJarEntry();
+                if (jarEntry == null) {
+                    return null;
+                }
+                byte[] bytes = readJarEntry(jarEntry, new BufferedInputStream(
+                        jarInputStream));
+                return new PackingFile(bytes, jarEntry);
+            }
+            if (pool != null) {
+                return nextInflated();
+            }
+            if (!jarEntries.hasMoreElements()) {
+                return null;
+            }
+            JarEntry jarEntry = jarEntries.nextElement();
+            InputStream inputStream = jarFile.getInputStream(jarEntry);
+            try {
+                byte[] bytes = readJarEntry(jarEntry, new BufferedInputStream(
+                        inputStream));
+                return new PackingFile(bytes, jarEntry);
+            } finally {
+                inputStream.close();
+            }
+        }
+
+        private PackingFile nextInflated() throws IOException {
+            while (pending.size() < window && jarEntries.hasMoreElements()) {
+                final JarEntry jarEntry = jarEntries.nextElement();
+                pending.add(pool.submit(new Callable<PackingFile>() {
+                    public PackingFile call() throws IOException {
+                        return inflate(jarEntry);
+                    }
+                }));
+            }
+            if (pending.isEmpty()) {
+                return null;
+            }
+            try {
+                return pending.removeFirst().get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while reading "
+                        + jarFile.getName());
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof IOException) {
+                    throw (IOException) cause;
+                } else if (cause instanceof RuntimeException) {
+                    throw (RuntimeException) cause;
+                } else if (cause instanceof Error) {
+                    throw (Error) cause;
+                }
+                throw new IOException("Error reading " + jarFile.getName(),
+                        cause);
+            }
+        }
+
+        private PackingFile inflate(JarEntry jarEntry) throws IOException {
+            byte[] buffer = buffers.poll();
+            if (buffer == null) {
+                buffer = new byte[16384];
+            }
+            InputStream inputStream = jarFile.getInputStream(jarEntry);
+            try {
+                return new PackingFile(readJarEntry(jarEntry, inputStream,
+                        buffer), jarEntry);
+            } finally {
+                inputStream.close();
+                buffers.add(buffer);
+            }
+        }
+
+        /**
+         * Stops inflating any entries that haven't been returned yet
+         */
+        public void close() {
+            while (!pending.isEmpty()) {
+                pending.removeFirst().cancel(false);
+            }
+        }
+    }
+
     private static void reorderPackingFiles(List packingFileList) {
         Iterator iterator = packingFileList.iterator();
         PackingFile packingFile;
@@ -0,0 +1,246 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.harmony.pack200;
+
+import java.util.Arrays;
+
+import org.apache.harmony.unpack200.codec.BHSDCodec;
+import org.apache.harmony.unpack200.codec.Codec;
+import org.apache.harmony.unpack200.common.Pack200Exception;
+
+/**
+ * PopulationCostModel chooses the favoured values of a population codec for
+ * a band from the frequencies of its values.
+ *
+ * A population codec writes each favoured value once, a token for every value
+ * of the band (its index in the favoured values, or 0) and the values that are
+ * not favoured. With fewer than 256 favoured values the tokens are BYTE1, so
+ * the values saving the most bytes are favoured. With more, the tokens can use
+ * one of the tdef_L codecs that need no specifier, where a token takes more
+ * bytes the further down the favoured values it is. So the values are ranked
+ * by frequency, and the number favoured and the L value are chosen together
+ * to give the smallest band. The sizes of the favoured and unfavoured values
+ * are estimated with the band's default codec.
+ */
+class PopulationCostModel {
+
+    /**
+     * The L value of the token codec for each tdef_L, from 1
+     */
+    static final int[] TDEF_L = new int[] { 0, 4, 8, 16, 32, 64, 128, 192,
+            224, 240, 248, 252 };
+
+    private final int[] favoured;
+    private final int tdefL;
+
+    /**
+     * Choose the favoured values for a band
+     *
+     * @param histogram - the distinct values of the band and their counts
+     * @param bandLength - the number of values in the band
+     * @param defaultCodec - the default codec for the band
+     * @throws Pack200Exception
+     */
+    public PopulationCostModel(IntHistogram histogram, int bandLength,
+            BHSDCodec defaultCodec) throws Pack200Exception {
+        int distinct = histogram.size();
+        long[] sizes = new long[distinct];
+        long unfavouredSize = 0;
+        for (int i = 0; i < distinct; i++) {
+            sizes[i] = defaultCodec.encodedSize(histogram.getValue(i), 0);
+            unfavouredSize += sizes[i] * histogram.getCount(i);
+        }
+
+        // Fewer than 256 favoured values, with one byte for each token.
+        // Favouring a value saves its size for all but one of its occurrences
+        long[] keys = new long[distinct];
+        for (int i = 0; i < distinct; i++) {
+            long saving = sizes[i] * (histogram.getCount(i) - 1);
+            keys[i] = -saving << 32 | i;
+        }
+        Arrays.sort(keys);
+        int k = 0;
+        long smallSize = bandLength + unfavouredSize;
+        while (k < distinct && k < 255) {
+            smallSize += keys[k] >> 32;
+            k++;
+        }
+        int[] indices = new int[k];
+        for (int i = 0; i < k; i++) {
+            indices[i] = (int) keys[i];
+        }
+        // the values are sent in order, which suits a delta codec best
+        int[] smallFavoured = values(histogram, indices);
+        Arrays.sort(smallFavoured);
+        smallSize += defaultCodec.encodedSize(
+                smallFavoured[smallFavoured.length - 1], 0);
+
+        // 257 or more favoured values (256 is avoided as its tokens would be
+        // BYTE1 for some decoders), ranked by frequency
+        long bestSize = Long.MAX_VALUE;
+        int bestK = 0;
+        int bestTdefL = 0;
+        if (distinct > 256) {
+            for (int i = 0; i < distinct; i++) {
+                keys[i] = (long) -histogram.getCount(i) << 32 | i;
+            }
+            Arrays.sort(keys);
+            for (int t = 1; t < TDEF_L.length; t++) {
+                int l = TDEF_L[t];
+                int h = 256 - l;
+                long[] thresholds = new long[4];
+                long[] largest = new long[5];
+                long threshold = 0;
+                long power = 1;
+                for (int n = 0; n < thresholds.length; n++) {
+                    threshold += l * power;
+                    power *= h;
+                    thresholds[n] = threshold;
+                }
+                for (int b = 2; b <= 4; b++) {
+                    largest[b] = new BHSDCodec(b, h).largest();
+                }
+                // countsBySize[n] is the number of tokens of favoured values
+                // that need n + 1 bytes without a limit on B
+                long[] countsBySize = new long[5];
+                long favouredSize = 0;
+                long favouredCount = 0;
+                long remainingSize = unfavouredSize;
+                for (int r = 1; r <= distinct; r++) {
+                    int index = (int) keys[r - 1];
+                    int count = histogram.getCount(index);
+                    int n = 0;
+                    while (n < thresholds.length && r >= thresholds[n]) {
+                        n++;
+                    }
+                    countsBySize[n] += count;
+                    favouredSize += sizes[index];
+                    favouredCount += count;
+                    remainingSize -= sizes[index] * count;
+                    if (r < 257) {
+                        continue;
+                    }
+                    int b = tokenB(largest, r);
+                    if (b == 0) {
+                        continue;
+                    }
+                    long size = bandLength - favouredCount + favouredSize
+                            + sizes[index] + remainingSize;
+                    for (int i = 0; i < countsBySize.length; i++) {
+                        size += countsBySize[i] * Math.min(i + 1, b);
+                    }
+                    if (size < bestSize) {
+                        bestSize = size;
+                        bestK = r;
+                        bestTdefL = t;
+                    }
+                }
+            }
+        }
+
+        if (bestK > 0 && bestSize < smallSize) {
+            favoured = new int[bestK];
+            for (int i = 0; i < bestK; i++) {
+                favoured[i] = histogram.getValue((int) keys[i]);
+            }
+            tdefL = bestTdefL;
+        } else {
+            favoured = smallFavoured;
+            tdefL = 1;
+        }
+    }
+
+    /*
+     * Returns B for the tdef_L token codec of k favoured values, or 0 if
+     * there isn't one. Decoders take the smallest B that can encode k - 1,
+     * and that has to be able to encode the token k as well.
+     */
+    private static int tokenB(long[] largest, int k) {
+        for (int b = 2; b <= 4; b++) {
+            if (largest[b] >= k - 1) {
+                return largest[b] >= k ? b : 0;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Returns the token codec a decoder would use for the given number of
+     * favoured values and tdef_L, or null if there isn't one
+     *
+     * @param k - the number of favoured values
+     * @param tdefL - from 1 to 11
+     * @return the token codec, or null
+     */
+    public static BHSDCodec getTokenCodec(int k, int tdefL) {
+        if (k < 256) {
+            return Codec.BYTE1;
+        } else if (k == 256) {
+            return null;
+        }
+        int h = 256 - TDEF_L[tdefL];
+        long[] largest = new long[5];
+        for (int b = 2; b <= 4; b++) {
+            largest[b] = new BHSDCodec(b, h).largest();
+        }
+        int b = tokenB(largest, k);
+        return b == 0 ? null : new BHSDCodec(b, h);
+    }
+
+    /**
+     * Returns the tdef_L that specifies the given token codec for k favoured
+     * values, or 0 if it has to be specified separately
+     *
+     * @param codec - the token codec
+     * @param k - the number of favoured values
+     * @return the tdef_L, from 1 to 11, or 0
+     */
+    public static int getTdefL(BHSDCodec codec, int k) {
+        if (codec.isSigned() || codec.isDelta()) {
+            return 0;
+        }
+        for (int t = 1; t < TDEF_L.length; t++) {
+            if (TDEF_L[t] == codec.getL()) {
+                return codec.equals(getTokenCodec(k, t)) ? t : 0;
+            }
+        }
+        return 0;
+    }
+
+    private static int[] values(IntHistogram histogram, int[] indices) {
+        int[] values = new int[indices.length];
+        for (int i = 0; i < indices.length; i++) {
+            values[i] = histogram.getValue(indices[i]);
+        }
+        return values;
+    }
+
+    /**
+     * @return the favoured values, in the order they should be sent
+     */
+    public int[] getFavoured() {
+        return favoured;
+    }
+
+    /**
+     * @return the tdef_L of the token codec the favoured values were chosen
+     *         for (1 for BYTE1 tokens)
+     */
+    public int getTdefL() {
+        return tdefL;
+    }
+}
@@ -0,0 +1,231 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.harmony.pack200;
+
+import java.util.Arrays;
+
+import org.apache.harmony.unpack200.codec.BHSDCodec;
+import org.apache.harmony.unpack200.codec.CodecEncoding;
+import org.apache.harmony.unpack200.common.Pack200Exception;
+
+/**
+ * RunCostModel chooses where to split a band in two for a run codec, which
+ * encodes the first K values of the band with one codec and the rest with
+ * another.
+ *
+ * The band is divided into parts at K values that a run codec can specify,
+ * and a CodecCostModel is built for each part. The length of the values
+ * before or after any of the boundaries with a BHSD codec is then the sum of
+ * the lengths of the parts, so every split can be estimated for every codec
+ * without encoding the band again. A delta codec starts again from zero after
+ * the split, which only changes the length of the first value after it.
+ */
+class RunCostModel {
+
+    // The number of parts the band is divided into
+    private static final int PARTS = 32;
+
+    // The largest K that a run codec can specify
+    static final int MAX_K = 1 << 20;
+
+    private int k;
+    private long length = Long.MAX_VALUE;
+
+    /**
+     * Estimate the best split of a band
+     *
+     * @param band - the band of integers
+     * @param defaultCodec - the default codec for the band
+     * @param codecs - the codecs to consider for each side of the split
+     * @throws Pack200Exception
+     */
+    public RunCostModel(int[] band, BHSDCodec defaultCodec, BHSDCodec[] codecs)
+            throws Pack200Exception {
+        int[] boundaries = boundaries(band.length);
+        int parts = boundaries.length - 1;
+        if (parts < 2) {
+            return;
+        }
+        CodecCostModel[] costModels = new CodecCostModel[parts];
+        for (int p = 0; p < parts; p++) {
+            costModels[p] = new CodecCostModel(band, boundaries[p],
+                    boundaries[p + 1]);
+        }
+
+        // The smallest lengths of the values before and after each boundary,
+        // with any codec and with any codec except the default (only one
+        // side of the split can use the default codec without specifying it)
+        long[] first = filled(parts);
+        long[] firstSpecified = filled(parts);
+        long[] second = filled(parts);
+        long[] secondSpecified = filled(parts);
+        long[] lengths = new long[parts];
+        for (int c = 0; c <= codecs.length; c++) {
+            BHSDCodec codec = c < codecs.length ? codecs[c] : defaultCodec;
+            boolean isDefault = codec.equals(defaultCodec);
+            if (isDefault && c < codecs.length) {
+                continue;
+            }
+            int specifierLength = isDefault ? 0 : CodecEncoding.getSpecifier(
+                    codec, null).length;
+            for (int p = 0; p < parts; p++) {
+                lengths[p] = costModels[p].encodedLength(codec);
+            }
+            long total = 0;
+            for (int j = 1; j < parts && lengths[j - 1] >= 0; j++) {
+                total += lengths[j - 1];
+                long size = total + specifierLength;
+                first[j] = Math.min(first[j], size);
+                if (!isDefault) {
+                    firstSpecified[j] = Math.min(firstSpecified[j], size);
+                }
+            }
+            total = 0;
+            for (int j = parts - 1; j > 0 && lengths[j] >= 0; j--) {
+                total += lengths[j];
+                int split = boundaries[j];
+                long size = total + specifierLength;
+                if (codec.isDelta()) {
+                    size += codec.encodedSize(band[split], 0)
+                            - codec.encodedSize(band[split], band[split - 1]);
+                }
+                second[j] = Math.min(second[j], size);
+                if (!isDefault) {
+                    secondSpecified[j] = Math.min(secondSpecified[j], size);
+                }
+            }
+        }
+
+        for (int j = 1; j < parts; j++) {
+            long size = Math.min(sum(first[j], secondSpecified[j]), sum(
+                    firstSpecified[j], second[j]));
+            if (size == Long.MAX_VALUE) {
+                continue;
+            }
+            int split = boundaries[j];
+            size += specifierLength(split, defaultCodec);
+            if (size < length) {
+                length = size;
+                k = split;
+            }
+        }
+    }
+
+    /*
+     * Returns the boundaries of the parts of a band of the given length,
+     * starting with 0 and ending with the length. The others are values of K
+     * that a run codec can specify.
+     */
+    private static int[] boundaries(int bandLength) {
+        IntList boundaries = new IntList(PARTS + 1);
+        boundaries.add(0);
+        for (int p = 1; p < PARTS; p++) {
+            int boundary = representable((int) ((long) bandLength * p / PARTS));
+            if (boundary > boundaries.get(boundaries.size() - 1)
+                    && boundary < bandLength) {
+                boundaries.add(boundary);
+            }
+        }
+        boundaries.add(bandLength);
+        return boundaries.toArray();
+    }
+
+    /**
+     * Returns the largest K that a run codec can specify that is no more than
+     * the given value
+     *
+     * @param k - the number of values before the split
+     * @return k rounded down to a value that can be specified (0 if k is 0)
+     */
+    static int representable(int k) {
+        if (k <= 256) {
+            return k;
+        } else if (k <= 4096) {
+            return k & ~0xF;
+        } else if (k <= 65536) {
+            return k & ~0xFF;
+        } else {
+            return Math.min(k, MAX_K) & ~0xFFF;
+        }
+    }
+
+    /*
+     * Returns the number of bytes needed to specify a run codec that splits
+     * a band at k, without its codecs
+     */
+    private static int specifierLength(int k, BHSDCodec defaultCodec)
+            throws Pack200Exception {
+        int specifier = 117;
+        int escape = defaultCodec.isSigned() ? -1 - specifier : specifier
+                + defaultCodec.getL();
+        return defaultCodec.encodedSize(escape, 0) + (getMantissa(k) == 3 ? 0 : 1);
+    }
+
+    /**
+     * Returns KX, where K is (KB + 1) * 16 ^ KX
+     *
+     * @param k - a value of K that a run codec can specify
+     * @return KX, from 0 to 3
+     */
+    static int getExponent(int k) {
+        if (k <= 256) {
+            return 0;
+        } else if (k <= 4096) {
+            return 1;
+        } else if (k <= 65536) {
+            return 2;
+        }
+        return 3;
+    }
+
+    /**
+     * Returns KB, where K is (KB + 1) * 16 ^ KX
+     *
+     * @param k - a value of K that a run codec can specify
+     * @return KB, from 0 to 255
+     */
+    static int getMantissa(int k) {
+        return (k >> (4 * getExponent(k))) - 1;
+    }
+
+    private static long[] filled(int length) {
+        long[] array = new long[length];
+        Arrays.fill(array, Long.MAX_VALUE);
+        return array;
+    }
+
+    private static long sum(long a, long b) {
+        return a == Long.MAX_VALUE || b == Long.MAX_VALUE ? Long.MAX_VALUE : a
+                + b;
+    }
+
+    /**
+     * @return the number of values before the best split, or 0 if the band
+     *         is too short to split
+     */
+    public int getK() {
+        return k;
+    }
+
+    /**
+     * @return the estimated length of the band split at K, including the
+     *         specifiers of the run codec and its codecs
+     */
+    public long getLength() {
+        return length;
+    }
+}
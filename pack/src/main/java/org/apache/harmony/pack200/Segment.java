@@ -16,15 +16,18 @@
  */
 package org.apache.harmony.pack200;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
 
 import org.apache.harmony.pack200.Pack200Archive.PackingFile;
 import org.apache.harmony.pack200.Pack200Archive.SegmentUnit;
+import org.apache.harmony.unpack200.codec.ByteSink;
 import org.objectweb.asm.AnnotationVisitor;
 import org.objectweb.asm.Attribute;
 import org.objectweb.asm.ClassReader;
@@ -54,6 +57,9 @@ class Segment extends ClassVisitor {
     private final SegmentFieldVisitor fieldVisitor = new SegmentFieldVisitor();
     private final SegmentMethodVisitor methodVisitor = new SegmentMethodVisitor();
     private Pack200ClassReader currentClassReader;
+    private boolean replaying;
+    private boolean recordedWideIndex;
+    private boolean recordedSyntheticAttributes;
     private PackingOptions options;
     private boolean stripDebug;
     private Attribute[] nonStandardAttributePrototypes;
@@ -71,14 +77,24 @@ class Segment extends ClassVisitor {
      *            the OutputStream to write the packed Segment to
      * @param options
      *            packing options
+     * @param analysisCache
+     *            the codecs chosen for the bands of other segments, or null
+     * @param timeAllowance
+     *            the effort and deadline for the segment, or null to pack it
+     *            at the effort in the options however long it takes
+     * @param codecProfile
+     *            the codecs chosen for the bands of each segment in another
+     *            build, and for this one, or null
      * @throws IOException
      * @throws Pack200Exception
      */
-    void pack(SegmentUnit segmentUnit, OutputStream out, PackingOptions options)
-            throws IOException, Pack200Exception {
+    void pack(SegmentUnit segmentUnit, OutputStream out, PackingOptions options,
+            CodecAnalysisCache analysisCache, TimeBudget.Allowance timeAllowance,
+            CodecProfile codecProfile) throws IOException, Pack200Exception {
         this.options = options;
         this.stripDebug = options.isStripDebug();
-        int effort = options.getEffort();
+        int effort = timeAllowance != null ? timeAllowance.getEffort() : options
+                .getEffort();
         nonStandardAttributePrototypes = options.getUnknownAttributePrototypes();
 
         PackingUtils.log("Start to pack a new segment with "
@@ -89,10 +105,17 @@ class Segment extends ClassVisitor {
         segmentHeader = new SegmentHeader();
         segmentHeader.setFile_count(segmentUnit.fileListSize());
         segmentHeader.setHave_all_code_flags(!stripDebug);
+        segmentHeader.setHave_archive_size(options.isArchiveSize());
         if (!options.isKeepDeflateHint()) {
             segmentHeader.setDeflate_hint("true".equals(options
                     .getDeflateHint()));
         }
+        segmentHeader.setParallelAnalysisThreshold(options
+                .getParallelAnalysisThreshold());
+        segmentHeader.setAnalysisCache(analysisCache);
+        segmentHeader.setTimeAllowance(timeAllowance);
+        segmentHeader.setSegmentNumber(segmentUnit.getNumber());
+        segmentHeader.setCodecProfile(codecProfile);
 
         PackingUtils.log("Setup constant pool bands for the segment");
         cpBands = new CpBands(this, effort);
@@ -124,10 +147,14 @@ class Segment extends ClassVisitor {
         // Using a temporary stream because we have to pack the other bands
         // before segmentHeader because the band_headers band is only created
         // when the other bands are packed, but comes before them in the packed
-        // file.
-        ByteArrayOutputStream bandsOutputStream = new ByteArrayOutputStream();
+        // file. The bands are encoded straight into it as it is a ByteSink.
+        ByteSink bandsOutputStream = new ByteSink(Math.max(1024,
+                segmentUnit.getByteAmount() / 4));
 
         PackingUtils.log("Packing...");
+        if (timeAllowance != null) {
+            timeAllowance.startEncoding();
+        }
         int finalNumberOfClasses = classBands.numClassesProcessed();
         segmentHeader.setClass_count(finalNumberOfClasses);
         cpBands.pack(bandsOutputStream);
@@ -139,7 +166,8 @@ class Segment extends ClassVisitor {
         }
         fileBands.pack(bandsOutputStream);
 
-        ByteArrayOutputStream headerOutputStream = new ByteArrayOutputStream();
+        ByteSink headerOutputStream = new ByteSink();
+        segmentHeader.setBands_size(bandsOutputStream.size());
         segmentHeader.pack(headerOutputStream);
 
         headerOutputStream.writeTo(out);
@@ -157,39 +185,119 @@ class Segment extends ClassVisitor {
 
     private void processClasses(SegmentUnit segmentUnit, Attribute[] attributes) throws Pack200Exception {
         segmentHeader.setClass_count(segmentUnit.classListSize());
+        int flags = 0;
+        if(stripDebug) {
+            flags |= ClassReader.SKIP_DEBUG;
+        }
+        if(options.isParallelParsing() && segmentUnit.classListSize() > 1) {
+            processClassesInParallel(segmentUnit, attributes, flags);
+            return;
+        }
         for (Iterator iterator = segmentUnit.getClassList().iterator(); iterator.hasNext();) {
             Pack200ClassReader classReader = (Pack200ClassReader) iterator
                     .next();
             currentClassReader = classReader;
-            int flags = 0;
-            if(stripDebug) {
-                flags |= ClassReader.SKIP_DEBUG;
-            }
             try {
                 classReader.accept(this, attributes, flags);
             } catch (PassException e) {
-                // Pass this class through as-is rather than packing it
-                // TODO: probably need to deal with any inner classes
-                classBands.removeCurrentClass();
-                String name = classReader.getFileName();
-                options.addPassFile(name);
-                cpBands.addCPUtf8(name);
-                boolean found = false;
-                for (Iterator iterator2 = segmentUnit.getFileList().iterator(); iterator2
-                        .hasNext();) {
-                    PackingFile file = (PackingFile) iterator2.next();
-                    if(file.getName().equals(name)) {
-                        found = true;
-                        file.setContents(classReader.b);
-                        break;
-                    }
+                passClass(segmentUnit, classReader, e);
+            }
+        }
+    }
+
+    /*
+     * The classes are parsed concurrently into ClassRecords, a few ahead of
+     * the one being added to the bands, and then added to the bands in order
+     * so that the bands are the same as if they had been parsed serially.
+     * The tasks are forked from the current thread, so they run on the pool
+     * packing the segment, or on the common pool.
+     */
+    private void processClassesInParallel(SegmentUnit segmentUnit,
+            Attribute[] attributes, int flags) throws Pack200Exception {
+        ForkJoinPool pool = ForkJoinTask.getPool();
+        int window = 4 * (pool != null ? pool.getParallelism()
+                : ForkJoinPool.getCommonPoolParallelism());
+        List classList = segmentUnit.getClassList();
+        ClassRecord[] records = new ClassRecord[classList.size()];
+        ForkJoinTask<?>[] tasks = new ForkJoinTask<?>[records.length];
+        int next = 0;
+        try {
+            for (int i = 0; i < records.length; i++) {
+                for (; next < records.length && next < i + window; next++) {
+                    records[next] = new ClassRecord(
+                            (Pack200ClassReader) classList.get(next));
+                    tasks[next] = new ParseTask(records[next], attributes,
+                            flags).fork();
+                }
+                tasks[i].join();
+                tasks[i] = null;
+                ClassRecord record = records[i];
+                // let the record go once its class is in the bands
+                records[i] = null;
+                currentClassReader = record.getClassReader();
+                replaying = true;
+                try {
+                    record.replay(this);
+                } catch (PassException e) {
+                    passClass(segmentUnit, currentClassReader, e);
+                } finally {
+                    replaying = false;
                 }
-                if(!found) {
-                    throw new Pack200Exception("Error passing file " + name, e);
+            }
+        } finally {
+            for (int i = 0; i < tasks.length; i++) {
+                if(tasks[i] != null) {
+                    tasks[i].cancel(false);
                 }
             }
         }
     }
+
+    /*
+     * Parses a class into its ClassRecord
+     */
+    private static class ParseTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final ClassRecord record;
+        private final Attribute[] attributes;
+        private final int flags;
+
+        ParseTask(ClassRecord record, Attribute[] attributes, int flags) {
+            this.record = record;
+            this.attributes = attributes;
+            this.flags = flags;
+        }
+
+        protected void compute() {
+            record.parse(attributes, flags);
+        }
+    }
+
+    private void passClass(SegmentUnit segmentUnit,
+            Pack200ClassReader classReader, PassException e)
+            throws Pack200Exception {
+        // Pass this class through as-is rather than packing it
+        // TODO: probably need to deal with any inner classes
+        classBands.removeCurrentClass();
+        String name = classReader.getFileName();
+        options.addPassFile(name);
+        cpBands.addCPUtf8(name);
+        boolean found = false;
+        for (Iterator iterator2 = segmentUnit.getFileList().iterator(); iterator2
+                .hasNext();) {
+            PackingFile file = (PackingFile) iterator2.next();
+            if(file.getName().equals(name)) {
+                found = true;
+                file.setContents(classReader.b);
+                break;
+            }
+        }
+        if(!found) {
+            throw new Pack200Exception("Error passing file " + name, e);
+        }
+    }
     
     @Override
     public void visit(int version, int access, String name, String signature,
@@ -442,7 +550,7 @@ class Segment extends ClassVisitor {
 
 	@Override
         public void visitTableSwitchInsn(int min, int max, Label dflt,
-                Label[] labels) {
+                Label... labels) {
             bcBands.visitTableSwitchInsn(min, max, dflt, labels);
         }
 
@@ -754,9 +862,32 @@ class Segment extends ClassVisitor {
 
 
     public boolean lastConstantHadWideIndex() {
+        if (replaying) {
+            return recordedWideIndex;
+        }
         return currentClassReader.lastConstantHadWideIndex();
     }
 
+    /**
+     * Returns true if the class reader had found any Synthetic attributes
+     * when the current class, field or method was visited
+     */
+    public boolean hasSyntheticAttributes() {
+        if (replaying) {
+            return recordedSyntheticAttributes;
+        }
+        return currentClassReader.hasSyntheticAttributes();
+    }
+
+    // what the class reader would have said during a ClassRecord's replay
+    void setLastConstantHadWideIndex(boolean wideIndex) {
+        recordedWideIndex = wideIndex;
+    }
+
+    void setSyntheticAttributes(boolean syntheticAttributes) {
+        recordedSyntheticAttributes = syntheticAttributes;
+    }
+
     public CpBands getCpBands() {
         return cpBands;
     }
@@ -20,6 +20,7 @@ import java.io.IOException;
 import java.io.OutputStream;
 import org.apache.harmony.unpack200.common.Pack200Exception;
 import org.apache.harmony.unpack200.codec.BHSDCodec;
+import org.apache.harmony.unpack200.codec.ByteSink;
 import org.apache.harmony.unpack200.codec.Codec;
 
 /**
@@ -67,6 +68,10 @@ class SegmentHeader extends BandSet {
     private boolean have_cp_extra_counts;
     private int archive_size_hi;
     private int archive_size_lo;
+    // archive_size is 0 unless it is to be transmitted, when it counts the
+    // rest of the header after it and the bands_size bytes of bands
+    private boolean have_archive_size;
+    private long bands_size;
     private int archive_next_count;
     private int archive_modtime;
     private int file_count;
@@ -84,22 +89,52 @@ class SegmentHeader extends BandSet {
     private int class_count;
     private final Counter majverCounter = new Counter();
 
+    // Not transmitted: bands of this length or more have their codecs
+    // analysed concurrently (0 for never)
+    private int parallelAnalysisThreshold;
+
+    // Not transmitted: the codecs chosen for the bands of other segments, or
+    // null if they aren't remembered
+    private CodecAnalysisCache analysisCache;
+
+    // Not transmitted: the deadline for packing the segment, or null if
+    // there is no time budget
+    private TimeBudget.Allowance timeAllowance;
+
+    // Not transmitted: the number of the segment in the archive, and the
+    // codecs chosen for its bands in a profiled build, or null
+    private int segmentNumber;
+    private CodecProfile codecProfile;
+
     /**
      * Encode and write the SegmentHeader bands to the OutputStream
      */
     public void pack(OutputStream out) throws IOException, Pack200Exception {
-        out.write(encodeScalar(magic, Codec.BYTE1));
-        out.write(encodeScalar(archive_minver, Codec.UNSIGNED5));
-        out.write(encodeScalar(archive_majver, Codec.UNSIGNED5));
+        writeScalar(magic, Codec.BYTE1, out);
+        writeScalar(archive_minver, Codec.UNSIGNED5, out);
+        writeScalar(archive_majver, Codec.UNSIGNED5, out);
         calculateArchiveOptions();
-        out.write(encodeScalar(archive_options, Codec.UNSIGNED5));
-        writeArchiveFileCounts(out);
-        writeArchiveSpecialCounts(out);
-        writeCpCounts(out);
-        writeClassCounts(out);
+        writeScalar(archive_options, Codec.UNSIGNED5, out);
+        // the rest of the header is written first, so that archive_size can
+        // count it
+        ByteSink rest = new ByteSink();
+        writeArchiveFileCounts(rest);
+        writeArchiveSpecialCounts(rest);
+        writeCpCounts(rest);
+        writeClassCounts(rest);
         if (band_headers.size()> 0) {
-            out.write(encodeScalar(band_headers.toArray(), BHSDCodec.BYTE1));
+            writeScalar(band_headers.toArray(), BHSDCodec.BYTE1, rest);
         }
+        if ((archive_options & (1 << 4)) > 0) { // have_file_headers
+            if (have_archive_size) {
+                long archive_size = rest.size() + bands_size;
+                archive_size_hi = (int) (archive_size >>> 32);
+                archive_size_lo = (int) archive_size;
+            }
+            writeScalar(archive_size_hi, Codec.UNSIGNED5, out);
+            writeScalar(archive_size_lo, Codec.UNSIGNED5, out);
+        }
+        rest.writeTo(out);
     }
 
     private void calculateArchiveOptions() {
@@ -118,7 +153,7 @@ class SegmentHeader extends BandSet {
 	{ //have_cp_extra_counts
 	    archive_options |= (1 << 3);
 	}
-        if (file_count > 0) { // have_file_headers
+        if (file_count > 0 || have_archive_size) { // have_file_headers
             archive_options |= (1 << 4);
         }
         if (deflate_hint) {
@@ -207,6 +242,22 @@ class SegmentHeader extends BandSet {
         return archive_modtime;
     }
 
+    /**
+     * Sets whether archive_size is transmitted, so that an unpacker can find
+     * the end of the segment without decoding its bands.
+     */
+    public void setHave_archive_size(boolean have_archive_size) {
+        this.have_archive_size = have_archive_size;
+    }
+
+    /**
+     * Sets the number of bytes of bands that follow the header, which are
+     * counted in archive_size.
+     */
+    public void setBands_size(long bands_size) {
+        this.bands_size = bands_size;
+    }
+
     public void setFile_count(int file_count) {
         this.file_count = file_count;
     }
@@ -215,6 +266,46 @@ class SegmentHeader extends BandSet {
         this.deflate_hint = deflate_hint;
     }
 
+    public int getParallelAnalysisThreshold() {
+        return parallelAnalysisThreshold;
+    }
+
+    public void setParallelAnalysisThreshold(int parallelAnalysisThreshold) {
+        this.parallelAnalysisThreshold = parallelAnalysisThreshold;
+    }
+
+    public CodecAnalysisCache getAnalysisCache() {
+        return analysisCache;
+    }
+
+    public void setAnalysisCache(CodecAnalysisCache analysisCache) {
+        this.analysisCache = analysisCache;
+    }
+
+    public TimeBudget.Allowance getTimeAllowance() {
+        return timeAllowance;
+    }
+
+    public void setTimeAllowance(TimeBudget.Allowance timeAllowance) {
+        this.timeAllowance = timeAllowance;
+    }
+
+    public int getSegmentNumber() {
+        return segmentNumber;
+    }
+
+    public void setSegmentNumber(int segmentNumber) {
+        this.segmentNumber = segmentNumber;
+    }
+
+    public CodecProfile getCodecProfile() {
+        return codecProfile;
+    }
+
+    public void setCodecProfile(CodecProfile codecProfile) {
+        this.codecProfile = codecProfile;
+    }
+
     public void setHave_class_flags_hi(boolean have_class_flags_hi) {
         this.have_class_flags_hi = have_class_flags_hi;
     }
@@ -257,25 +348,25 @@ class SegmentHeader extends BandSet {
 
     private void writeCpCounts(OutputStream out) throws IOException,
             Pack200Exception {
-        out.write(encodeScalar(cp_Utf8_count, Codec.UNSIGNED5));
+        writeScalar(cp_Utf8_count, Codec.UNSIGNED5, out);
         if ((archive_options & (1 << 1)) != 0) { // have_cp_numbers
-            out.write(encodeScalar(cp_Int_count, Codec.UNSIGNED5));
-            out.write(encodeScalar(cp_Float_count, Codec.UNSIGNED5));
-            out.write(encodeScalar(cp_Long_count, Codec.UNSIGNED5));
-            out.write(encodeScalar(cp_Double_count, Codec.UNSIGNED5));
+            writeScalar(cp_Int_count, Codec.UNSIGNED5, out);
+            writeScalar(cp_Float_count, Codec.UNSIGNED5, out);
+            writeScalar(cp_Long_count, Codec.UNSIGNED5, out);
+            writeScalar(cp_Double_count, Codec.UNSIGNED5, out);
         }
-        out.write(encodeScalar(cp_String_count, Codec.UNSIGNED5));
-        out.write(encodeScalar(cp_Class_count, Codec.UNSIGNED5));
-        out.write(encodeScalar(cp_Signature_count, Codec.UNSIGNED5));
-        out.write(encodeScalar(cp_Descr_count, Codec.UNSIGNED5));
-        out.write(encodeScalar(cp_Field_count, Codec.UNSIGNED5));
-        out.write(encodeScalar(cp_Method_count, Codec.UNSIGNED5));
-        out.write(encodeScalar(cp_Imethod_count, Codec.UNSIGNED5));
+        writeScalar(cp_String_count, Codec.UNSIGNED5, out);
+        writeScalar(cp_Class_count, Codec.UNSIGNED5, out);
+        writeScalar(cp_Signature_count, Codec.UNSIGNED5, out);
+        writeScalar(cp_Descr_count, Codec.UNSIGNED5, out);
+        writeScalar(cp_Field_count, Codec.UNSIGNED5, out);
+        writeScalar(cp_Method_count, Codec.UNSIGNED5, out);
+        writeScalar(cp_Imethod_count, Codec.UNSIGNED5, out);
 	if ((archive_options & (1 << 3)) != 0 ) {
-	    out.write(encodeScalar(cp_MethodHandle_count, Codec.UNSIGNED5));
-            out.write(encodeScalar(cp_MethodType_count, Codec.UNSIGNED5));
-            out.write(encodeScalar(cp_BootstrapMethod_count, Codec.UNSIGNED5));
-            out.write(encodeScalar(cp_InvokeDynamic_count, Codec.UNSIGNED5));
+	    writeScalar(cp_MethodHandle_count, Codec.UNSIGNED5, out);
+            writeScalar(cp_MethodType_count, Codec.UNSIGNED5, out);
+            writeScalar(cp_BootstrapMethod_count, Codec.UNSIGNED5, out);
+            writeScalar(cp_InvokeDynamic_count, Codec.UNSIGNED5, out);
 	}
     }
 
@@ -283,29 +374,27 @@ class SegmentHeader extends BandSet {
             Pack200Exception {
         int default_class_minver = 0;
         int default_class_majver = majverCounter.getMostCommon();
-        out.write(encodeScalar(ic_count, Codec.UNSIGNED5));
-        out.write(encodeScalar(default_class_minver, Codec.UNSIGNED5));
-        out.write(encodeScalar(default_class_majver, Codec.UNSIGNED5));
-        out.write(encodeScalar(class_count, Codec.UNSIGNED5));
+        writeScalar(ic_count, Codec.UNSIGNED5, out);
+        writeScalar(default_class_minver, Codec.UNSIGNED5, out);
+        writeScalar(default_class_majver, Codec.UNSIGNED5, out);
+        writeScalar(class_count, Codec.UNSIGNED5, out);
     }
 
     private void writeArchiveSpecialCounts(OutputStream out)
             throws IOException, Pack200Exception {
         if ((archive_options & 1) > 0) { // have_special_formats
-            out.write(encodeScalar(band_headers.size(), Codec.UNSIGNED5));
-            out.write(encodeScalar(attribute_definition_count,
-                    Codec.UNSIGNED5));
+            writeScalar(band_headers.size(), Codec.UNSIGNED5, out);
+            writeScalar(attribute_definition_count,
+                    Codec.UNSIGNED5, out);
         }
     }
 
     private void writeArchiveFileCounts(OutputStream out) throws IOException,
             Pack200Exception {
         if ((archive_options & (1 << 4)) > 0) { // have_file_headers
-            out.write(encodeScalar(archive_size_hi, Codec.UNSIGNED5));
-            out.write(encodeScalar(archive_size_lo, Codec.UNSIGNED5));
-            out.write(encodeScalar(archive_next_count, Codec.UNSIGNED5));
-            out.write(encodeScalar(archive_modtime, Codec.UNSIGNED5));
-            out.write(encodeScalar(file_count, Codec.UNSIGNED5));
+            writeScalar(archive_next_count, Codec.UNSIGNED5, out);
+            writeScalar(archive_modtime, Codec.UNSIGNED5, out);
+            writeScalar(file_count, Codec.UNSIGNED5, out);
         }
     }
 
@@ -0,0 +1,114 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.harmony.pack200;
+
+/**
+ * SymbolTable interns the strings a segment's constant pool is built from.
+ * Each distinct string is given an int symbol, numbered from 0 in the order
+ * the strings are first seen, so that constant pool entries can be kept in
+ * arrays indexed by symbol and looked up by tuples of symbols (see
+ * {@link SymbolTupleMap}) rather than by Strings built for each lookup.
+ */
+class SymbolTable {
+
+    // open addressing, with the symbol of keys[i] in symbols[i]
+    private String[] keys;
+    private int[] symbols;
+    private int size;
+
+    public SymbolTable() {
+        this(1024);
+    }
+
+    /**
+     * @param capacity
+     *            the number of strings expected, which must be a power of two
+     */
+    public SymbolTable(int capacity) {
+        keys = new String[capacity * 2];
+        symbols = new int[capacity * 2];
+    }
+
+    /**
+     * Returns the symbol of a string, giving it the next symbol if it has
+     * not been seen before.
+     */
+    public int symbol(String string) {
+        int mask = keys.length - 1;
+        int i = mix(string.hashCode()) & mask;
+        String key;
+        while ((key = keys[i]) != null) {
+            if (key.equals(string)) {
+                return symbols[i];
+            }
+            i = (i + 1) & mask;
+        }
+        keys[i] = string;
+        symbols[i] = size;
+        if (++size * 2 > keys.length) {
+            grow();
+        }
+        return size - 1;
+    }
+
+    /**
+     * Returns the symbol of a string, or -1 if it has not been seen before.
+     */
+    public int find(String string) {
+        int mask = keys.length - 1;
+        int i = mix(string.hashCode()) & mask;
+        String key;
+        while ((key = keys[i]) != null) {
+            if (key.equals(string)) {
+                return symbols[i];
+            }
+            i = (i + 1) & mask;
+        }
+        return -1;
+    }
+
+    /**
+     * @return the number of symbols, which is one more than the last symbol
+     *         given
+     */
+    public int size() {
+        return size;
+    }
+
+    private void grow() {
+        String[] oldKeys = keys;
+        int[] oldSymbols = symbols;
+        keys = new String[oldKeys.length * 2];
+        symbols = new int[oldKeys.length * 2];
+        int mask = keys.length - 1;
+        for (int j = 0; j < oldKeys.length; j++) {
+            if (oldKeys[j] != null) {
+                int i = mix(oldKeys[j].hashCode()) & mask;
+                while (keys[i] != null) {
+                    i = (i + 1) & mask;
+                }
+                keys[i] = oldKeys[j];
+                symbols[i] = oldSymbols[j];
+            }
+        }
+    }
+
+    static int mix(int hash) {
+        hash *= 0x9E3779B9;
+        return hash ^ (hash >>> 16);
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.harmony.pack200;
+
+/**
+ * SymbolTupleMap maps tuples of three int symbols (see {@link SymbolTable}),
+ * such as the owner, name and descriptor of a method, to constant pool
+ * entries. It uses open addressing over int arrays, so a lookup creates no
+ * key objects.
+ */
+class SymbolTupleMap {
+
+    // the three symbols of the key in slot i are at keys[3 * i] onwards
+    private int[] keys;
+    private Object[] values;
+    private int size;
+
+    public SymbolTupleMap() {
+        this(256);
+    }
+
+    /**
+     * @param capacity
+     *            the number of entries expected, which must be a power of two
+     */
+    public SymbolTupleMap(int capacity) {
+        keys = new int[capacity * 6];
+        values = new Object[capacity * 2];
+    }
+
+    /**
+     * @return the entry for the given symbols, or null if there is none
+     */
+    public Object get(int a, int b, int c) {
+        int mask = values.length - 1;
+        int i = hash(a, b, c) & mask;
+        Object value;
+        while ((value = values[i]) != null) {
+            int k = i * 3;
+            if (keys[k] == a && keys[k + 1] == b && keys[k + 2] == c) {
+                return value;
+            }
+            i = (i + 1) & mask;
+        }
+        return null;
+    }
+
+    /**
+     * Adds an entry for symbols that do not have one yet.
+     */
+    public void put(int a, int b, int c, Object value) {
+        insert(a, b, c, value);
+        if (++size * 2 > values.length) {
+            grow();
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    private void insert(int a, int b, int c, Object value) {
+        int mask = values.length - 1;
+        int i = hash(a, b, c) & mask;
+        while (values[i] != null) {
+            i = (i + 1) & mask;
+        }
+        int k = i * 3;
+        keys[k] = a;
+        keys[k + 1] = b;
+        keys[k + 2] = c;
+        values[i] = value;
+    }
+
+    private void grow() {
+        int[] oldKeys = keys;
+        Object[] oldValues = values;
+        keys = new int[oldKeys.length * 2];
+        values = new Object[oldValues.length * 2];
+        for (int i = 0; i < oldValues.length; i++) {
+            if (oldValues[i] != null) {
+                int k = i * 3;
+                insert(oldKeys[k], oldKeys[k + 1], oldKeys[k + 2],
+                        oldValues[i]);
+            }
+        }
+    }
+
+    private static int hash(int a, int b, int c) {
+        return SymbolTable.mix((a * 31 + b) * 31 + c);
+    }
+}
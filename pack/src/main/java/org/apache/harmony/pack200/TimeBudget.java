@@ -0,0 +1,237 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.harmony.pack200;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * TimeBudget shares out a wall-clock time limit for packing an archive
+ * between its segments.
+ *
+ * Reading the classes of a segment, building its bands and encoding them
+ * with their default codecs takes much the same time at any effort, so that
+ * time is measured and kept back for the segments still to come. Once a
+ * segment's bands are built, it is allowed a share of what is left over for
+ * choosing their codecs in proportion to its share of the input bytes still
+ * to be encoded (multiplied by the number of segments packed at once). A
+ * segment that runs out of time encodes the rest of its bands with their
+ * default codecs, so it still finishes soon after its deadline.
+ *
+ * Each segment is packed at an effort chosen from how the segments before
+ * it went: the effort goes down after a segment runs out of time (further
+ * the more it ran over) and up again after one takes less than half of its
+ * share (further the less it took), but never above the effort the packer
+ * was given.
+ */
+class TimeBudget {
+
+    private static final long NANOS_PER_MILLI = 1000000L;
+
+    private final long deadline;
+    private final int concurrency;
+    private final int maxEffort;
+
+    private long totalBytes;
+    private long encodingBytes;
+    private int effort;
+
+    // The time taken to build the bands of the last segment, and the least
+    // time taken to encode the bands of any segment, per input byte
+    private double buildingRate;
+    private double encodingRate = Double.MAX_VALUE;
+
+    // The effort each segment was packed at, by segment number
+    private final Map<Integer, Integer> efforts = new TreeMap<Integer, Integer>();
+
+    /**
+     * Create a new TimeBudget, starting now
+     *
+     * @param budget - the time allowed for packing, in milliseconds
+     * @param concurrency - the number of segments packed at once
+     * @param maxEffort - the highest effort to pack segments at
+     */
+    public TimeBudget(long budget, int concurrency, int maxEffort) {
+        this.deadline = now() + budget * NANOS_PER_MILLI;
+        this.concurrency = Math.max(1, concurrency);
+        this.maxEffort = maxEffort;
+        this.effort = maxEffort;
+    }
+
+    /**
+     * Returns the current time in nanoseconds
+     */
+    long now() {
+        return System.nanoTime();
+    }
+
+    /**
+     * Set the number of input bytes to be packed. Until it is set, or if
+     * they aren't known in advance, each segment may take all the time that
+     * is left.
+     *
+     * @param totalBytes - the number of input bytes
+     */
+    public synchronized void setTotalBytes(long totalBytes) {
+        this.totalBytes = totalBytes;
+    }
+
+    /**
+     * Works out the effort for a segment that is about to be packed
+     *
+     * @param segment - the number of the segment, from 0
+     * @param bytes - the number of input bytes in the segment
+     * @return the segment's allowance
+     */
+    public synchronized Allowance allowance(int segment, long bytes) {
+        return new Allowance(segment, bytes, effort, now());
+    }
+
+    /*
+     * Works out the deadline for a segment whose bands have been built
+     */
+    private synchronized long encodingDeadline(Allowance allowance, long start) {
+        buildingRate = (double) (start - allowance.start)
+                / Math.max(1, allowance.bytes);
+        long remainingBytes = totalBytes - encodingBytes;
+        encodingBytes += allowance.bytes;
+
+        // keep back the time to encode the bands of this segment, and to
+        // build and encode the bands of the segments after it
+        double encoding = encodingRate == Double.MAX_VALUE ? 0 : encodingRate;
+        long laterBytes = Math.max(0, remainingBytes - allowance.bytes);
+        long encodingTime = (long) (encoding * allowance.bytes);
+        long available = deadline - start - encodingTime
+                - (long) ((buildingRate + encoding) * laterBytes / concurrency);
+        long share = Math.max(0, available);
+        if (laterBytes > 0) {
+            share = Math.min(share, (long) ((double) share * concurrency
+                    * allowance.bytes / remainingBytes));
+        }
+        return start + encodingTime + share;
+    }
+
+    /**
+     * Records how long a segment took, and works out the effort for the
+     * segments after it
+     *
+     * @param allowance - the segment's allowance
+     */
+    public synchronized void finished(Allowance allowance) {
+        long end = now();
+        efforts.put(Integer.valueOf(allowance.segment), Integer
+                .valueOf(allowance.effort));
+        if (allowance.deadline == Long.MAX_VALUE) {
+            return; // the bands were never encoded
+        }
+        long elapsed = end - allowance.encodingStart;
+        long share = allowance.deadline - allowance.encodingStart;
+        encodingRate = Math.min(encodingRate, (double) elapsed
+                / Math.max(1, allowance.bytes));
+        if (allowance.getBandsNotAnalysed() > 0 || elapsed > share) {
+            // one effort lower for each time the share was doubled
+            int lower = 1;
+            for (long allowed = share * 2; allowed < elapsed && lower < maxEffort; allowed *= 2) {
+                lower++;
+            }
+            effort = Math.max(1, Math.min(effort, allowance.effort - lower));
+        } else if (elapsed < share / 2 && allowance.effort == effort) {
+            // and one higher for each time it could have been halved
+            int higher = 1;
+            for (long allowed = share / 4; elapsed < allowed && higher < maxEffort; allowed /= 2) {
+                higher++;
+            }
+            effort = Math.min(maxEffort, effort + higher);
+        }
+        PackingUtils.log("Packed segment " + allowance.segment + " at effort "
+                + allowance.effort + ", encoding its bands in " + elapsed
+                / NANOS_PER_MILLI + "ms of the " + share / NANOS_PER_MILLI
+                + "ms allowed"
+                + (allowance.getBandsNotAnalysed() > 0 ? ", with "
+                        + allowance.getBandsNotAnalysed()
+                        + " bands not analysed after its deadline" : ""));
+    }
+
+    /**
+     * Returns the effort each finished segment was packed at, in segment
+     * order
+     */
+    public synchronized int[] getEfforts() {
+        int[] result = new int[efforts.size()];
+        int i = 0;
+        for (Iterator<Integer> iterator = efforts.values().iterator(); iterator
+                .hasNext();) {
+            result[i++] = iterator.next().intValue();
+        }
+        return result;
+    }
+
+    /**
+     * The effort and deadline for packing one segment
+     */
+    class Allowance {
+
+        private final int segment;
+        private final long bytes;
+        private final int effort;
+        private final long start;
+        private volatile long encodingStart;
+        private volatile long deadline = Long.MAX_VALUE;
+        private final AtomicInteger bandsNotAnalysed = new AtomicInteger();
+
+        Allowance(int segment, long bytes, int effort, long start) {
+            this.segment = segment;
+            this.bytes = bytes;
+            this.effort = effort;
+            this.start = start;
+        }
+
+        public int getEffort() {
+            return effort;
+        }
+
+        /**
+         * Starts the clock for encoding the segment's bands, once they have
+         * been built
+         */
+        public void startEncoding() {
+            encodingStart = now();
+            deadline = encodingDeadline(this, encodingStart);
+        }
+
+        /**
+         * Returns true once the segment's share of the time has been used
+         */
+        public boolean isUsedUp() {
+            return deadline != Long.MAX_VALUE && now() - deadline > 0;
+        }
+
+        /**
+         * Records that a band was encoded with its default codec because the
+         * segment had run out of time
+         */
+        public void bandNotAnalysed() {
+            bandsNotAnalysed.incrementAndGet();
+        }
+
+        public int getBandsNotAnalysed() {
+            return bandsNotAnalysed.get();
+        }
+    }
+}
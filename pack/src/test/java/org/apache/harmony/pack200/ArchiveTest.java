@@ -17,20 +17,27 @@
 package org.apache.harmony.pack200;
 
 import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
+import java.io.FileReader;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.OutputStream;
 import java.net.URISyntaxException;
 import java.util.Enumeration;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
 import java.util.jar.JarEntry;
 import java.util.jar.JarFile;
 import java.util.jar.JarInputStream;
 import java.util.jar.JarOutputStream;
+import java.util.zip.CRC32;
 import net.pack200.Pack200;
 
 
@@ -38,6 +45,7 @@ import org.apache.harmony.pack200.Pack200Archive;
 import org.apache.harmony.unpack200.common.Pack200Exception;
 import org.apache.harmony.pack200.PackingOptions;
 import org.apache.harmony.unpack200.Segment;
+import org.apache.harmony.unpack200.UnPack200Archive;
 import org.junit.Test;
 import static org.junit.Assert.*;
 
@@ -361,6 +369,393 @@ public class ArchiveTest {
 		}
     }
 
+    @Test
+    public void testParallelPackMatchesSerial() throws URISyntaxException, IOException, Pack200Exception {
+        String[] jars = new String[] {"/org/apache/harmony/pack200/tests/jndi.jar",
+                "/org/apache/harmony/pack200/tests/jars/ant.jar"};
+        for (int i = 0; i < jars.length; i++) {
+            File inputFile = new File(Pack200Archive.class.getResource(jars[i]).toURI());
+            byte[] serial = packWithThreads(inputFile, 1);
+            byte[] parallel = packWithThreads(inputFile, 4);
+            assertArrayEquals("Parallel packing differs for " + jars[i], serial, parallel);
+            parallel = packWithThreads(inputFile, 0);
+            assertArrayEquals("Parallel packing differs for " + jars[i], serial, parallel);
+        }
+    }
+
+    @Test
+    public void testParallelAnalysisMatchesSerial() throws URISyntaxException, IOException, Pack200Exception {
+        String[] jars = new String[] {"/org/apache/harmony/pack200/tests/jndi.jar",
+                "/org/apache/harmony/pack200/tests/jars/ant.jar"};
+        // effort 7 and above also try the non-canonical codecs
+        int[] efforts = new int[] {5, 9};
+        for (int i = 0; i < jars.length; i++) {
+            File inputFile = new File(Pack200Archive.class.getResource(jars[i]).toURI());
+            for (int j = 0; j < efforts.length; j++) {
+                PackingOptions options = new PackingOptions();
+                options.setEffort(efforts[j]);
+                byte[] serial = pack(inputFile, options);
+                options.setParallelAnalysisThreshold(1);
+                byte[] parallel = pack(inputFile, options);
+                assertArrayEquals("Parallel analysis differs for " + jars[i]
+                        + " at effort " + efforts[j], serial, parallel);
+                options.setThreads(4);
+                parallel = pack(inputFile, options);
+                assertArrayEquals("Parallel analysis differs for " + jars[i]
+                        + " at effort " + efforts[j], serial, parallel);
+            }
+        }
+    }
+
+    @Test
+    public void testParallelParsingMatchesSerial() throws URISyntaxException, IOException, Pack200Exception {
+        // including classes passed through because of unknown attributes
+        String[] jars = new String[] {"/org/apache/harmony/pack200/tests/jndi.jar",
+                "/org/apache/harmony/pack200/tests/annotations.jar",
+                "/org/apache/harmony/pack200/tests/jndiWithUnknownAttributes.jar",
+                "/org/apache/harmony/pack200/tests/jars/ant.jar"};
+        for (int i = 0; i < jars.length; i++) {
+            File inputFile = new File(Pack200Archive.class.getResource(jars[i]).toURI());
+            for (int j = 0; j < 2; j++) {
+                // packing adds the classes it passes to the options, so
+                // each pack has its own
+                PackingOptions options = new PackingOptions();
+                options.setStripDebug(j == 1);
+                byte[] serial = pack(inputFile, options);
+                options = new PackingOptions();
+                options.setStripDebug(j == 1);
+                options.setParallelParsing(true);
+                byte[] parallel = pack(inputFile, options);
+                assertArrayEquals("Parallel parsing differs for " + jars[i], serial, parallel);
+                options = new PackingOptions();
+                options.setStripDebug(j == 1);
+                options.setParallelParsing(true);
+                options.setThreads(4);
+                parallel = pack(inputFile, options);
+                assertArrayEquals("Parallel parsing differs for " + jars[i], serial, parallel);
+            }
+        }
+    }
+
+    @Test
+    public void testArchiveSize() throws URISyntaxException, IOException, Pack200Exception {
+        String[] jars = new String[] {"/org/apache/harmony/pack200/tests/jndi.jar",
+                "/org/apache/harmony/pack200/tests/jars/ant.jar"};
+        for (int i = 0; i < jars.length; i++) {
+            File inputFile = new File(Pack200Archive.class.getResource(jars[i]).toURI());
+            byte[] withoutSize = pack(inputFile, new PackingOptions());
+            byte[] expected = unpack(withoutSize, false);
+            // segments without their size are decoded as they are read
+            assertArrayEquals("Parallel segments differ for " + jars[i],
+                    expected, unpack(withoutSize, true));
+            PackingOptions options = new PackingOptions();
+            options.setArchiveSize(true);
+            byte[] packed = pack(inputFile, options);
+            assertArrayEquals("Archive size changed the files of " + jars[i],
+                    expected, unpack(packed, false));
+
+            // each segment can be sliced from the archive and decoded in
+            // parallel
+            File logFile = File.createTempFile("archiveSize", ".log");
+            logFile.deleteOnExit();
+            UnPack200Archive archive = new UnPack200Archive(
+                    new ByteArrayInputStream(packed), new ByteArrayOutputStream());
+            archive.setLogFile(logFile.getPath());
+            archive.setVerbose(true);
+            archive.setParallelSegments(true);
+            archive.unpack();
+            BufferedReader reader = new BufferedReader(new FileReader(logFile));
+            try {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    assertFalse(line, line.startsWith("No archive_size"));
+                }
+            } finally {
+                reader.close();
+            }
+            assertArrayEquals("Parallel segments differ for " + jars[i],
+                    expected, unpack(packed, true));
+        }
+    }
+
+    @Test
+    public void testParallelIngestionMatchesSerial() throws URISyntaxException, IOException {
+        File inputFile = new File(Pack200Archive.class.getResource(
+                "/org/apache/harmony/pack200/tests/jars/ant.jar").toURI());
+        JarFile jarFile = new JarFile(inputFile);
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            for (int keepFileOrder = 0; keepFileOrder < 2; keepFileOrder++) {
+                List serial = PackingUtils.getPackingFileListFromJar(
+                        jarFile, keepFileOrder == 1);
+                List parallel = PackingUtils.getPackingFileListFromJar(
+                        jarFile, keepFileOrder == 1, pool, 3);
+                assertEquals(serial.size(), parallel.size());
+                for (int i = 0; i < serial.size(); i++) {
+                    Pack200Archive.PackingFile expected = (Pack200Archive.PackingFile) serial.get(i);
+                    Pack200Archive.PackingFile actual = (Pack200Archive.PackingFile) parallel.get(i);
+                    assertEquals(expected.getName(), actual.getName());
+                    assertArrayEquals(expected.getContents(), actual.getContents());
+                }
+            }
+        } finally {
+            pool.shutdown();
+            jarFile.close();
+        }
+    }
+
+    @Test
+    public void testAnalysisCacheMatchesSerial() throws URISyntaxException, IOException, Pack200Exception {
+        File inputFile = new File(Pack200Archive.class.getResource(
+                "/org/apache/harmony/pack200/tests/jars/ant.jar").toURI());
+        PackingOptions options = new PackingOptions();
+        options.setEffort(9);
+        options.setAnalysisCache(true);
+        byte[] serial = pack(inputFile, options);
+        options.setThreads(4);
+        options.setParallelAnalysisThreshold(1);
+        byte[] parallel = pack(inputFile, options);
+        assertArrayEquals("Analysis cache differs in parallel", serial, parallel);
+
+        // the segments after the first use what the first chose
+        JarFile jarFile = new JarFile(inputFile);
+        options.setThreads(1);
+        Pack200Archive archive = new Pack200Archive(jarFile,
+                new ByteArrayOutputStream(), options);
+        archive.pack();
+        jarFile.close();
+        assertTrue(archive.getAnalysisCache().getHits() > 0);
+
+        // and it still unpacks
+        JarOutputStream unpacked = new JarOutputStream(new ByteArrayOutputStream());
+        new UnPack200Archive(new ByteArrayInputStream(serial), unpacked).unpack();
+        unpacked.close();
+    }
+
+    @Test
+    public void testTimeBudget() throws URISyntaxException, IOException, Pack200Exception {
+        File inputFile = new File(Pack200Archive.class.getResource(
+                "/org/apache/harmony/pack200/tests/jars/ant.jar").toURI());
+        PackingOptions options = new PackingOptions();
+        options.setGzip(false);
+        options.setSegmentLimit(50000);
+        options.setEffort(9);
+        options.setTimeBudget(1);
+        JarFile jarFile = new JarFile(inputFile);
+        ByteArrayOutputStream packed = new ByteArrayOutputStream();
+        Pack200Archive archive = new Pack200Archive(jarFile, packed, options);
+        archive.pack();
+        jarFile.close();
+
+        // out of time after the first segment, so the rest are packed at the
+        // lowest effort
+        int[] efforts = archive.getTimeBudget().getEfforts();
+        assertTrue(efforts.length > 1);
+        assertEquals(9, efforts[0]);
+        assertEquals(1, efforts[efforts.length - 1]);
+
+        JarOutputStream unpacked = new JarOutputStream(new ByteArrayOutputStream());
+        new UnPack200Archive(new ByteArrayInputStream(packed.toByteArray()),
+                unpacked).unpack();
+        unpacked.close();
+    }
+
+    @Test
+    public void testCodecProfile() throws URISyntaxException, IOException, Pack200Exception {
+        File inputFile = new File(Pack200Archive.class.getResource(
+                "/org/apache/harmony/pack200/tests/jars/ant.jar").toURI());
+        File profile = File.createTempFile("profile", ".txt");
+        profile.deleteOnExit();
+        profile.delete();
+        PackingOptions options = new PackingOptions();
+        options.setEffort(9);
+        options.setWriteProfile(profile.getPath());
+        byte[] written = pack(inputFile, options);
+        assertTrue(profile.exists());
+
+        // a build using the profile chooses the same codecs
+        options = new PackingOptions();
+        options.setEffort(9);
+        options.setUseProfile(profile.getPath());
+        options.setGzip(false);
+        options.setSegmentLimit(50000);
+        JarFile jarFile = new JarFile(inputFile);
+        ByteArrayOutputStream packed = new ByteArrayOutputStream();
+        Pack200Archive archive = new Pack200Archive(jarFile, packed, options);
+        archive.pack();
+        jarFile.close();
+        assertTrue(archive.getCodecProfile().getHits() > 0);
+        assertArrayEquals("Packed with the profile differs", written,
+                packed.toByteArray());
+
+        JarOutputStream unpacked = new JarOutputStream(new ByteArrayOutputStream());
+        new UnPack200Archive(new ByteArrayInputStream(packed.toByteArray()),
+                unpacked).unpack();
+        unpacked.close();
+    }
+
+    @Test
+    public void testResourcesOnlySegment() throws IOException, Pack200Exception {
+        // too big for one segment, so the last segment has only resources
+        String[] names = new String[] { "a.txt", "b.txt", "c.txt" };
+        File inputFile = File.createTempFile("resources", ".jar");
+        inputFile.deleteOnExit();
+        JarOutputStream jar = new JarOutputStream(new FileOutputStream(inputFile));
+        for (int i = 0; i < names.length; i++) {
+            jar.putNextEntry(new JarEntry(names[i]));
+            jar.write(resource(i));
+        }
+        jar.close();
+
+        for (int parallel = 0; parallel < 2; parallel++) {
+            JarInputStream unpacked = new JarInputStream(
+                    new ByteArrayInputStream(unpack(pack(inputFile,
+                            new PackingOptions()), parallel == 1)));
+            for (int i = 0; i < names.length; i++) {
+                JarEntry entry = unpacked.getNextJarEntry();
+                assertNotNull(names[i], entry);
+                assertEquals(names[i], entry.getName());
+                ByteArrayOutputStream contents = new ByteArrayOutputStream();
+                byte[] buffer = new byte[8192];
+                int n;
+                while ((n = unpacked.read(buffer)) != -1) {
+                    contents.write(buffer, 0, n);
+                }
+                assertArrayEquals(names[i], resource(i), contents.toByteArray());
+            }
+            assertNull(unpacked.getNextJarEntry());
+            unpacked.close();
+        }
+    }
+
+    private byte[] resource(int index) {
+        byte[] bytes = new byte[30000];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) (i * (index + 1) % 127);
+        }
+        return bytes;
+    }
+
+    @Test
+    public void testLargeResources() throws IOException, Pack200Exception {
+        // resources large enough to be copied to the jar in chunks, stored
+        // and deflated, either side of a small one
+        String[] names = new String[] { "lib/native.so", "small.txt",
+                "model.bin" };
+        byte[][] contents = new byte[names.length][];
+        Random random = new Random(25);
+        contents[0] = new byte[3 << 20];
+        random.nextBytes(contents[0]);
+        contents[1] = "small".getBytes("UTF-8");
+        contents[2] = new byte[(2 << 20) + 7];
+        for (int i = 0; i < contents[2].length; i++) {
+            contents[2][i] = (byte) (i % 251 < 100 ? i : random.nextInt(4));
+        }
+        File inputFile = File.createTempFile("largeResources", ".jar");
+        inputFile.deleteOnExit();
+        JarOutputStream jar = new JarOutputStream(new FileOutputStream(inputFile));
+        for (int i = 0; i < names.length; i++) {
+            JarEntry entry = new JarEntry(names[i]);
+            if (i == 0) {
+                CRC32 crc = new CRC32();
+                crc.update(contents[i]);
+                entry.setMethod(JarEntry.STORED);
+                entry.setSize(contents[i].length);
+                entry.setCrc(crc.getValue());
+            }
+            jar.putNextEntry(entry);
+            jar.write(contents[i]);
+        }
+        jar.close();
+
+        PackingOptions options = new PackingOptions();
+        options.setArchiveSize(true);
+        byte[] packed = pack(inputFile, options);
+        File packFile = File.createTempFile("largeResources", ".pack");
+        packFile.deleteOnExit();
+        FileOutputStream packOut = new FileOutputStream(packFile);
+        packOut.write(packed);
+        packOut.close();
+
+        // streamed from the archive, read ahead, and sliced from a mapping
+        assertLargeResources(names, contents, unpack(packed, false));
+        assertLargeResources(names, contents, unpack(packed, true));
+        ByteArrayOutputStream unpacked = new ByteArrayOutputStream();
+        new UnPack200Archive(new ByteArrayInputStream(packed),
+                new JarOutputStream(unpacked)).unpack();
+        assertLargeResources(names, contents, unpacked.toByteArray());
+        for (int parallel = 0; parallel < 2; parallel++) {
+            File outputFile = File.createTempFile("largeResources", ".jar");
+            outputFile.deleteOnExit();
+            UnPack200Archive archive = new UnPack200Archive(packFile.getPath(),
+                    outputFile.getPath());
+            archive.setThreads(2);
+            archive.setParallelSegments(parallel == 1);
+            archive.unpack();
+            JarFile jarFile = new JarFile(outputFile);
+            for (int i = 0; i < names.length; i++) {
+                JarEntry entry = jarFile.getJarEntry(names[i]);
+                assertEquals(contents[i].length, entry.getSize());
+                assertArrayEquals(names[i], contents[i], readAll(jarFile
+                        .getInputStream(entry)));
+            }
+            jarFile.close();
+            outputFile.delete();
+        }
+    }
+
+    private void assertLargeResources(String[] names, byte[][] contents,
+            byte[] unpacked) throws IOException {
+        JarInputStream jar = new JarInputStream(new ByteArrayInputStream(unpacked));
+        for (int i = 0; i < names.length; i++) {
+            JarEntry entry = jar.getNextJarEntry();
+            assertEquals(names[i], entry.getName());
+            assertEquals(i == 0 ? JarEntry.STORED : JarEntry.DEFLATED, entry
+                    .getMethod());
+            assertArrayEquals(names[i], contents[i], readAll(jar));
+        }
+        assertNull(jar.getNextJarEntry());
+        jar.close();
+    }
+
+    private byte[] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int n;
+        while ((n = in.read(buffer)) != -1) {
+            bytes.write(buffer, 0, n);
+        }
+        return bytes.toByteArray();
+    }
+
+    private byte[] packWithThreads(File inputFile, int threads) throws IOException, Pack200Exception {
+        PackingOptions options = new PackingOptions();
+        options.setThreads(threads);
+        return pack(inputFile, options);
+    }
+
+    private byte[] pack(File inputFile, PackingOptions options) throws IOException, Pack200Exception {
+        options.setGzip(false);
+        options.setSegmentLimit(50000);
+        JarFile jarFile = new JarFile(inputFile);
+        ByteArrayOutputStream packed = new ByteArrayOutputStream();
+        new Pack200Archive(jarFile, packed, options).pack();
+        jarFile.close();
+        return packed.toByteArray();
+    }
+
+    private byte[] unpack(byte[] packed, boolean parallelSegments) throws IOException, Pack200Exception {
+        ByteArrayOutputStream unpacked = new ByteArrayOutputStream();
+        UnPack200Archive archive = new UnPack200Archive(
+                new ByteArrayInputStream(packed), unpacked);
+        if (parallelSegments) {
+            archive.setThreads(4);
+            archive.setParallelSegments(true);
+        }
+        archive.unpack();
+        return unpacked.toByteArray();
+    }
+
     private void compareJarEntries(JarFile jarFile, JarFile jarFile2)
             throws IOException {
         Enumeration entries = jarFile.entries();
@@ -18,11 +18,16 @@ package org.apache.harmony.pack200;
 
 import java.io.ByteArrayInputStream;
 import java.io.EOFException;
+import java.io.FilterInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Random;
 
 import junit.framework.TestCase;
 
 import org.apache.harmony.unpack200.codec.BHSDCodec;
+import org.apache.harmony.unpack200.codec.ByteSink;
 import org.apache.harmony.unpack200.codec.Codec;
 import org.apache.harmony.unpack200.codec.CodecEncoding;
 import org.apache.harmony.unpack200.common.Pack200Exception;
@@ -79,4 +84,130 @@ public class BHSDCodecTest extends TestCase {
         }
     }
 
-}
\ No newline at end of file
+    public void testEncodeIntoByteSink() throws IOException, Pack200Exception {
+        int[] values = new int[] { 0, 1, 2, 255, 256, 191, -1, -300, 64000,
+                3, 17, -100000, 100000, Integer.MAX_VALUE, Integer.MIN_VALUE };
+        ByteSink sink = new ByteSink(0);
+        for (int i = 1; i < 116; i++) {
+            BHSDCodec codec = (BHSDCodec) CodecEncoding.getCodec(i, null, null);
+            int[] band = new int[values.length];
+            int n = 0;
+            for (int j = 0; j < values.length; j++) {
+                if (codec.encodes(values[j])) {
+                    band[n++] = values[j];
+                }
+            }
+            int[] encodable = new int[n];
+            System.arraycopy(band, 0, encodable, 0, n);
+
+            sink.reset();
+            sink.write(42);
+            codec.encode(encodable, sink);
+            byte[] encoded = sink.toByteArray();
+            assertEquals(42, encoded[0]);
+            assertEquals("Wrong size for " + codec, encoded.length - 1,
+                    codec.encodedSize(encodable));
+
+            // the same as encoding the values one at a time
+            int index = 1;
+            for (int j = 0; j < n; j++) {
+                byte[] value = codec.encode(encodable[j], j > 0 ? encodable[j - 1] : 0);
+                for (int k = 0; k < value.length; k++) {
+                    assertEquals(value[k], encoded[index++]);
+                }
+            }
+            assertEquals(encoded.length, index);
+
+            if (new CodecCostModel(encodable).encodedLength(codec) == -1) {
+                continue; // some of the deltas are out of range
+            }
+            int[] decoded = codec.decodeInts(n, new ByteArrayInputStream(
+                    encoded, 1, encoded.length - 1));
+            for (int j = 0; j < n; j++) {
+                assertEquals("Wrong value decoded with " + codec, encodable[j], decoded[j]);
+            }
+        }
+    }
+
+    public void testBulkDecode() throws IOException, Pack200Exception {
+        Random random = new Random(5);
+        for (int i = 1; i < 116; i++) {
+            BHSDCodec codec = (BHSDCodec) CodecEncoding.getCodec(i, null, null);
+            // long enough to be decoded from a stream in several windows
+            int[] band = new int[5000];
+            int n = 0;
+            while (n < band.length) {
+                int value = random.nextInt(1 << random.nextInt(31));
+                if (random.nextBoolean()) {
+                    value = -value;
+                }
+                if (codec.encodes(value)) {
+                    band[n++] = value;
+                }
+            }
+            if (new CodecCostModel(band).encodedLength(codec) == -1) {
+                continue; // some of the deltas are out of range
+            }
+            byte[] encoded = codec.encode(band);
+            byte[] withTrailer = new byte[encoded.length + 1];
+            System.arraycopy(encoded, 0, withTrailer, 0, encoded.length);
+            withTrailer[encoded.length] = 42;
+
+            // bulk decoding from a stream that supports mark
+            InputStream in = new ByteArrayInputStream(withTrailer);
+            assertEquals(band, codec.decodeInts(band.length, in), codec);
+            assertEquals(42, in.read());
+
+            // one value at a time from a stream that doesn't
+            in = new FilterInputStream(new ByteArrayInputStream(withTrailer)) {
+                public boolean markSupported() {
+                    return false;
+                }
+            };
+            assertEquals(band, codec.decodeInts(band.length, in), codec);
+            assertEquals(42, in.read());
+
+            // from heap and direct buffers, stopping at a value that is cut off
+            ByteBuffer direct = ByteBuffer.allocateDirect(withTrailer.length);
+            direct.put(withTrailer);
+            ByteBuffer[] buffers = new ByteBuffer[] {
+                    ByteBuffer.wrap(withTrailer), direct };
+            for (int j = 0; j < buffers.length; j++) {
+                ByteBuffer buffer = buffers[j];
+                int[] decoded = new int[band.length];
+                int cut = encoded.length / 2;
+                buffer.position(0);
+                buffer.limit(cut);
+                int count = codec.decodeInts(buffer, decoded, 0, band.length, 0);
+                assertTrue(count < band.length);
+                assertTrue(buffer.position() <= cut);
+                buffer.limit(withTrailer.length);
+                int rest = codec.decodeInts(buffer, decoded, count,
+                        band.length - count, count > 0 ? decoded[count - 1] : 0);
+                assertEquals(band.length, count + rest);
+                assertEquals(encoded.length, buffer.position());
+                assertEquals(band, decoded, codec);
+            }
+        }
+    }
+
+    public void testBulkDecodeEOF() throws IOException, Pack200Exception {
+        byte[] encoded = Codec.UNSIGNED5.encode(new int[] { 1, 1000, 100000 });
+        try {
+            Codec.UNSIGNED5.decodeInts(3, new ByteArrayInputStream(encoded, 0,
+                    encoded.length - 1));
+            fail("Should have run out of bytes");
+        } catch (EOFException e) {
+            // pass
+        }
+    }
+
+    private void assertEquals(int[] expected, int[] actual, Codec codec) {
+        assertEquals(expected.length, actual.length);
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals("Wrong value decoded with " + codec + " at " + i,
+                    expected[i], actual[i]);
+        }
+    }
+
+}
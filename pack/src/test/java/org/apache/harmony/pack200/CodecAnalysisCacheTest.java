@@ -0,0 +1,143 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.harmony.pack200;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import junit.framework.TestCase;
+
+import org.apache.harmony.unpack200.codec.BHSDCodec;
+import org.apache.harmony.unpack200.codec.Codec;
+import org.apache.harmony.unpack200.codec.PopulationCodec;
+import org.apache.harmony.unpack200.common.Pack200Exception;
+
+public class CodecAnalysisCacheTest extends TestCase {
+
+    public void testFingerprint() {
+        long fingerprint = CodecAnalysisCache.fingerprint(1000, 0, 500, -20,
+                30, 100, 10);
+        // close enough
+        assertEquals(fingerprint, CodecAnalysisCache.fingerprint(1010, 0, 480,
+                -25, 31, 110, 11));
+        // longer, larger, negative or with a common value
+        assertFalse(fingerprint == CodecAnalysisCache.fingerprint(5000, 0, 500,
+                -20, 30, 100, 50));
+        assertFalse(fingerprint == CodecAnalysisCache.fingerprint(1000, 0,
+                5000, -20, 30, 100, 10));
+        assertFalse(fingerprint == CodecAnalysisCache.fingerprint(1000, -1,
+                500, -20, 30, 100, 10));
+        assertFalse(fingerprint == CodecAnalysisCache.fingerprint(1000, 0, 500,
+                -20, 30, 100, 600));
+    }
+
+    public void testFilling() {
+        CodecAnalysisCache cache = new CodecAnalysisCache();
+        assertTrue(cache.isFilling());
+        cache.record("band", 1, Codec.DELTA5);
+        // nothing is used until the first segment has been packed
+        assertNull(cache.lookup("band", 1));
+        assertEquals(0, cache.getFamilies("band"));
+
+        cache.finishFilling();
+        assertFalse(cache.isFilling());
+        assertEquals(Codec.DELTA5, cache.lookup("band", 1).getCodec());
+        assertNull(cache.lookup("band", 2));
+        assertNull(cache.lookup("other", 1));
+        assertEquals(1, cache.getHits());
+        assertEquals(3, cache.getMisses());
+
+        // and what is recorded after that is only kept for writing
+        cache.record("band", 2, Codec.UNSIGNED5);
+        assertNull(cache.lookup("band", 2));
+        assertEquals(CodecAnalysisCache.family(Codec.DELTA5), cache
+                .getFamilies("band"));
+    }
+
+    public void testRecordingOrder() {
+        // whichever is recorded first, the same choice is kept
+        CodecAnalysisCache cache = new CodecAnalysisCache();
+        cache.record("band", 1, Codec.DELTA5);
+        cache.record("band", 1, Codec.UNSIGNED5);
+        cache.finishFilling();
+        CodecAnalysisCache cache2 = new CodecAnalysisCache();
+        cache2.record("band", 1, Codec.UNSIGNED5);
+        cache2.record("band", 1, Codec.DELTA5);
+        cache2.finishFilling();
+        assertEquals(cache.lookup("band", 1).getCodec(), cache2.lookup("band",
+                1).getCodec());
+        assertEquals(CodecAnalysisCache.family(Codec.DELTA5)
+                | CodecAnalysisCache.family(Codec.UNSIGNED5), cache
+                .getFamilies("band"));
+    }
+
+    public void testFamilies() {
+        int mask = CodecAnalysisCache.family(Codec.DELTA5)
+                | CodecAnalysisCache.POPULATION;
+        BHSDCodec[] codecs = CodecAnalysisCache.getCanonicalCodecs(mask);
+        assertTrue(codecs.length > 1);
+        for (int i = 0; i < codecs.length; i++) {
+            assertEquals(5, codecs[i].getB());
+            assertEquals(1, codecs[i].getS());
+            assertTrue(codecs[i].isDelta());
+        }
+        assertEquals(0, CodecAnalysisCache.getCanonicalCodecs(CodecAnalysisCache.RUN).length);
+        assertEquals(CodecAnalysisCache.POPULATION, CodecAnalysisCache
+                .family(new PopulationCodec(Codec.UNSIGNED5, Codec.BYTE1,
+                        Codec.UNSIGNED5)));
+        assertEquals(0, CodecAnalysisCache.family(null));
+    }
+
+    public void testReadWrite() throws IOException, Pack200Exception {
+        File file = File.createTempFile("codecs", ".txt");
+        file.deleteOnExit();
+        CodecAnalysisCache cache = new CodecAnalysisCache();
+        cache.record("cp_Int", 5, new BHSDCodec(3, 128, 1, 1));
+        cache.record("cp_Int", 6, new PopulationCodec(Codec.UNSIGNED5,
+                Codec.BYTE1, Codec.UNSIGNED5));
+        cache.record("bc_short", 7, null);
+        cache.write(file);
+
+        // a cache read from a file is used straight away
+        CodecAnalysisCache read = new CodecAnalysisCache();
+        read.read(file);
+        assertFalse(read.isFilling());
+        assertEquals(new BHSDCodec(3, 128, 1, 1), read.lookup("cp_Int", 5)
+                .getCodec());
+        assertNull(read.lookup("cp_Int", 6).getCodec());
+        assertNull(read.lookup("bc_short", 7).getCodec());
+        assertEquals(CodecAnalysisCache.family(new BHSDCodec(3, 128, 1, 1))
+                | CodecAnalysisCache.POPULATION, read.getFamilies("cp_Int"));
+
+        // a file that doesn't exist yet is empty
+        CodecAnalysisCache empty = new CodecAnalysisCache();
+        file.delete();
+        empty.read(file);
+        assertTrue(empty.isFilling());
+
+        FileOutputStream out = new FileOutputStream(file);
+        out.write("not a cache\n".getBytes("UTF-8"));
+        out.close();
+        try {
+            new CodecAnalysisCache().read(file);
+            fail("Should throw Pack200Exception for a file that isn't a cache");
+        } catch (Pack200Exception e) {
+            // pass
+        }
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.harmony.pack200;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+import org.apache.harmony.unpack200.codec.BHSDCodec;
+import org.apache.harmony.unpack200.common.Pack200Exception;
+
+public class CodecCostModelTest extends TestCase {
+
+    private final Random random = new Random(200);
+
+    public void testCanonicalCodecs() throws IOException, Pack200Exception {
+        BHSDCodec[] codecs = CodecCostModel.getCanonicalCodecs();
+        assertEquals(115, codecs.length);
+        int[][] bands = createBands();
+        for (int i = 0; i < bands.length; i++) {
+            for (int j = 0; j < codecs.length; j++) {
+                checkEncodedLength(bands[i], codecs[j]);
+            }
+        }
+    }
+
+    public void testNonCanonicalCodecs() throws IOException, Pack200Exception {
+        BHSDCodec[] codecs = CodecCostModel.getNonCanonicalCodecs();
+        // every valid (b,h,s,d) combination apart from the canonical codecs
+        assertEquals((1 + 256 * 3 + 255) * 6 - 115, codecs.length);
+        int[][] bands = createBands();
+        for (int i = 0; i < bands.length; i++) {
+            for (int j = 0; j < codecs.length; j += 7) {
+                checkEncodedLength(bands[i], codecs[j]);
+            }
+        }
+    }
+
+    public void testEmptyBand() {
+        assertEquals(0, new CodecCostModel(new int[0])
+                .encodedLength(CodecCostModel.getCanonicalCodecs()[0]));
+    }
+
+    public void testUnencodable() {
+        CodecCostModel costModel = new CodecCostModel(new int[] { 1, -1, 300 });
+        // BYTE1 can't encode negative values or values > 255
+        assertEquals(-1, costModel.encodedLength(new BHSDCodec(1, 256)));
+        assertEquals(-1, costModel.encodedLength(new BHSDCodec(2, 16)));
+        assertEquals(4, costModel.encodedLength(new BHSDCodec(5, 64, 1)));
+    }
+
+    private int[][] createBands() {
+        int[][] bands = new int[7][];
+        bands[0] = new int[] { 0, 1, 2, 3, 255, 256, 191, 192 };
+        bands[1] = new int[500];
+        for (int i = 0; i < bands[1].length; i++) {
+            bands[1][i] = random.nextInt(1000);
+        }
+        bands[2] = new int[500];
+        for (int i = 0; i < bands[2].length; i++) {
+            bands[2][i] = random.nextInt(2000) - 1000;
+        }
+        bands[3] = new int[500];
+        for (int i = 1; i < bands[3].length; i++) {
+            bands[3][i] = bands[3][i - 1] + random.nextInt(20);
+        }
+        bands[4] = new int[500];
+        for (int i = 0; i < bands[4].length; i++) {
+            bands[4][i] = random.nextInt();
+        }
+        bands[5] = new int[] { Integer.MIN_VALUE, Integer.MAX_VALUE, -1, 0,
+                Integer.MAX_VALUE, Integer.MIN_VALUE };
+        bands[6] = new int[500];
+        for (int i = 0; i < bands[6].length; i++) {
+            bands[6][i] = random.nextInt(1 << random.nextInt(31));
+        }
+        return bands;
+    }
+
+    /*
+     * The predicted length should be the same as the actual encoded length
+     * for every codec that the model says can encode the band, and the band
+     * should decode to the same values
+     */
+    private void checkEncodedLength(int[] band, BHSDCodec codec)
+            throws IOException, Pack200Exception {
+        long length = new CodecCostModel(band).encodedLength(codec);
+        if (length == -1) {
+            return;
+        }
+        byte[] encoded = codec.encode(band);
+        assertEquals("Wrong length for " + codec, encoded.length, length);
+        int[] decoded = codec.decodeInts(band.length, new ByteArrayInputStream(
+                encoded));
+        for (int i = 0; i < band.length; i++) {
+            assertEquals("Wrong value decoded with " + codec, band[i],
+                    decoded[i]);
+        }
+    }
+}
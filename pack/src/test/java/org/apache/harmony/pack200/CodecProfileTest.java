@@ -0,0 +1,93 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.harmony.pack200;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import junit.framework.TestCase;
+
+import org.apache.harmony.unpack200.codec.BHSDCodec;
+import org.apache.harmony.unpack200.codec.Codec;
+import org.apache.harmony.unpack200.codec.PopulationCodec;
+import org.apache.harmony.unpack200.common.Pack200Exception;
+
+public class CodecProfileTest extends TestCase {
+
+    public void testReadWrite() throws IOException, Pack200Exception {
+        File file = File.createTempFile("profile", ".txt");
+        file.deleteOnExit();
+        CodecProfile profile = new CodecProfile();
+        assertFalse(profile.isUsed());
+        profile.record(1, "cp_Int", new BHSDCodec(3, 128, 1, 1), 40);
+        profile.record(0, "cp_Int", new PopulationCodec(Codec.UNSIGNED5,
+                Codec.BYTE1, Codec.UNSIGNED5), 25);
+        profile.record(0, "bc_short", null, 0);
+        profile.write(file);
+
+        CodecProfile read = new CodecProfile();
+        read.read(file);
+        assertTrue(read.isUsed());
+        assertEquals(new BHSDCodec(3, 128, 1, 1), read.lookup(1, "cp_Int")
+                .getCodec());
+        assertNull(read.lookup(0, "cp_Int").getCodec());
+        assertNull(read.lookup(0, "bc_short").getCodec());
+        assertNull(read.lookup(2, "cp_Int"));
+        assertEquals(3, read.getHits());
+        assertEquals(1, read.getMisses());
+
+        // families are kept by band name, whatever the segment
+        assertEquals(CodecAnalysisCache.family(new BHSDCodec(3, 128, 1, 1))
+                | CodecAnalysisCache.POPULATION, read.getFamilies("cp_Int"));
+        assertEquals(0, read.getFamilies("bc_short"));
+        assertEquals(-1, read.getFamilies("bc_byte"));
+    }
+
+    public void testMissingFile() throws IOException, Pack200Exception {
+        File file = File.createTempFile("profile", ".txt");
+        file.delete();
+        CodecProfile profile = new CodecProfile();
+        profile.read(file);
+        assertFalse(profile.isUsed());
+    }
+
+    public void testBadFile() throws IOException {
+        File file = File.createTempFile("profile", ".txt");
+        file.deleteOnExit();
+        FileOutputStream out = new FileOutputStream(file);
+        out.write("not a profile\n".getBytes("UTF-8"));
+        out.close();
+        try {
+            new CodecProfile().read(file);
+            fail("Should throw Pack200Exception for a file that isn't a profile");
+        } catch (Pack200Exception e) {
+            // pass
+        }
+
+        out = new FileOutputStream(file);
+        out.write("pack200-codec-profile 1\n0\tcp_Int\t5,4,0,1\tmany\n"
+                .getBytes("UTF-8"));
+        out.close();
+        try {
+            new CodecProfile().read(file);
+            fail("Should throw Pack200Exception for a bad entry");
+        } catch (Pack200Exception e) {
+            // pass
+        }
+    }
+}
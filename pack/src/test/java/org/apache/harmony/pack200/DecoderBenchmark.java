@@ -0,0 +1,101 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.harmony.pack200;
+
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import org.apache.harmony.unpack200.Benchmark;
+import org.apache.harmony.unpack200.codec.BHSDCodec;
+import org.apache.harmony.unpack200.codec.Codec;
+
+/**
+ * Compares the ways of decoding a band with a BHSDCodec (see
+ * {@link Benchmark}):
+ *
+ * <pre>
+ * java org.apache.harmony.pack200.DecoderBenchmark [iterations] [band-length]
+ * </pre>
+ *
+ * <ul>
+ * <li>perValue is <code>Codec.decodeInts(int, InputStream)</code> with a
+ * stream that doesn't support mark, so each value is read with
+ * <code>decode(InputStream, long)</code>, which is how bands used to be
+ * decoded</li>
+ * <li>stream is <code>Codec.decodeInts(int, InputStream)</code> with a
+ * ByteArrayInputStream, which decodes windows of bytes in bulk</li>
+ * <li>buffer decodes straight from a ByteBuffer into a reused array</li>
+ * </ul>
+ */
+public class DecoderBenchmark extends Benchmark {
+
+    private static final BHSDCodec[] CODECS = new BHSDCodec[] { Codec.BYTE1,
+            Codec.CHAR3, Codec.UNSIGNED5, Codec.DELTA5 };
+
+    public static void main(String[] args) throws Exception {
+        run(new DecoderBenchmark(), args, 200);
+    }
+
+    protected void run() throws Exception {
+        final int length = intArg(1, 100000);
+        Random random = new Random(1);
+        int[] band = new int[length];
+        for (int i = 0; i < band.length; i++) {
+            band[i] = random.nextInt(1 << random.nextInt(8));
+        }
+        final int[] decoded = new int[length];
+        for (int c = 0; c < CODECS.length; c++) {
+            final BHSDCodec codec = CODECS[c];
+            final byte[] encoded = codec.encode(band);
+            final ByteBuffer buffer = ByteBuffer.wrap(encoded);
+            String label = codec + " " + length + " values ";
+            time(label + "perValue", new Operation() {
+                public Object run() throws Exception {
+                    return codec.decodeInts(length, new NoMarkInputStream(
+                            encoded));
+                }
+            }, band);
+            time(label + "stream", new Operation() {
+                public Object run() throws Exception {
+                    return codec.decodeInts(length, new ByteArrayInputStream(
+                            encoded));
+                }
+            }, band);
+            time(label + "buffer", new Operation() {
+                public Object run() throws Exception {
+                    ((Buffer) buffer).clear();
+                    codec.decodeInts(buffer, decoded, 0, length, 0);
+                    return decoded;
+                }
+            }, band);
+        }
+    }
+
+    private static class NoMarkInputStream extends FilterInputStream {
+
+        NoMarkInputStream(byte[] bytes) {
+            super(new ByteArrayInputStream(bytes));
+        }
+
+        public boolean markSupported() {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.harmony.pack200;
+
+import java.util.Random;
+
+import org.apache.harmony.unpack200.Benchmark;
+import org.apache.harmony.unpack200.codec.BHSDCodec;
+import org.apache.harmony.unpack200.codec.ByteSink;
+import org.apache.harmony.unpack200.codec.Codec;
+
+/**
+ * Compares the ways of encoding a band with a BHSDCodec (see
+ * {@link Benchmark}):
+ *
+ * <pre>
+ * java org.apache.harmony.pack200.EncoderBenchmark [iterations] [band-length]
+ * </pre>
+ *
+ * <ul>
+ * <li>perValue encodes each value into its own array and then joins them
+ * together, which is how bands used to be encoded</li>
+ * <li>toArray is <code>Codec.encode(int[])</code></li>
+ * <li>sink encodes into a ByteSink that is reused for every band</li>
+ * <li>size only works out the encoded length</li>
+ * </ul>
+ */
+public class EncoderBenchmark extends Benchmark {
+
+    private static final BHSDCodec[] CODECS = new BHSDCodec[] { Codec.BYTE1,
+            Codec.CHAR3, Codec.UNSIGNED5, Codec.DELTA5, Codec.MDELTA5 };
+
+    public static void main(String[] args) throws Exception {
+        run(new EncoderBenchmark(), args, 200);
+    }
+
+    protected void run() throws Exception {
+        int length = intArg(1, 100000);
+        Random random = new Random(1);
+        final int[] band = new int[length];
+        for (int i = 0; i < band.length; i++) {
+            band[i] = random.nextInt(1 << random.nextInt(8));
+        }
+        final ByteSink sink = new ByteSink();
+        for (int c = 0; c < CODECS.length; c++) {
+            final BHSDCodec codec = CODECS[c];
+            String label = codec + " " + length + " values ";
+            byte[] expected = codec.encode(band);
+            Integer size = Integer.valueOf(expected.length);
+            time(label + "perValue", new Operation() {
+                public Object run() throws Exception {
+                    return encodePerValue(codec, band);
+                }
+            }, expected);
+            time(label + "toArray", new Operation() {
+                public Object run() throws Exception {
+                    return codec.encode(band);
+                }
+            }, expected);
+            time(label + "sink", new Operation() {
+                public Object run() throws Exception {
+                    sink.reset();
+                    codec.encode(band, sink);
+                    return Integer.valueOf(sink.size());
+                }
+            }, size);
+            time(label + "size", new Operation() {
+                public Object run() throws Exception {
+                    return Integer.valueOf(codec.encodedSize(band));
+                }
+            }, size);
+        }
+    }
+
+    private static byte[] encodePerValue(Codec codec, int[] ints)
+            throws Exception {
+        int total = 0;
+        byte[][] bytes = new byte[ints.length][];
+        for (int i = 0; i < ints.length; i++) {
+            bytes[i] = codec.encode(ints[i], i > 0 ? ints[i - 1] : 0);
+            total += bytes[i].length;
+        }
+        byte[] encoded = new byte[total];
+        int index = 0;
+        for (int i = 0; i < bytes.length; i++) {
+            System.arraycopy(bytes[i], 0, encoded, index, bytes[i].length);
+            index += bytes[i].length;
+        }
+        return encoded;
+    }
+}
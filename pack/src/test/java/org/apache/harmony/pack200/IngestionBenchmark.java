@@ -0,0 +1,145 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.harmony.pack200;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.jar.JarOutputStream;
+
+import org.apache.harmony.pack200.Pack200Archive.PackingFile;
+import org.apache.harmony.unpack200.Benchmark;
+
+/**
+ * Throughput benchmark for reading the files of a jar with different numbers
+ * of threads inflating its entries, which must all read the same files (see
+ * {@link Benchmark}):
+ *
+ * <pre>
+ * java org.apache.harmony.pack200.IngestionBenchmark [iterations] [entry-size] [threads...]
+ * </pre>
+ *
+ * The jars read are generated with 1000, 10000 and 100000 entries of about
+ * <code>entry-size</code> bytes, or are those in <code>benchmark.jars</code>.
+ */
+public class IngestionBenchmark extends Benchmark {
+
+    private static final int[] DEFAULT_ENTRIES = new int[] { 1000, 10000,
+            100000 };
+
+    public static void main(String[] args) throws Exception {
+        run(new IngestionBenchmark(), args, 5);
+    }
+
+    protected void run() throws Exception {
+        int entrySize = intArg(1, 2000);
+        int[] threads = threads(2);
+        File[] jars = files("benchmark.jars", null);
+        if (jars == null) {
+            jars = new File[DEFAULT_ENTRIES.length];
+            for (int i = 0; i < DEFAULT_ENTRIES.length; i++) {
+                jars[i] = generateJar(DEFAULT_ENTRIES[i], entrySize);
+            }
+        }
+
+        for (int i = 0; i < jars.length; i++) {
+            final File jar = jars[i];
+            List expected = null;
+            for (int t = 0; t < threads.length; t++) {
+                final ForkJoinPool pool = threads[t] > 1 ? new ForkJoinPool(
+                        threads[t]) : null;
+                final int window = threads[t] * 4;
+                try {
+                    List files = (List) time(jar.getName() + " threads="
+                            + threads[t], jar.length(), new Operation() {
+                        public Object run() throws Exception {
+                            return read(jar, pool, window);
+                        }
+                    }, null);
+                    if (expected == null) {
+                        expected = files;
+                    } else {
+                        check(expected, files, jar);
+                    }
+                } finally {
+                    if (pool != null) {
+                        pool.shutdown();
+                    }
+                }
+            }
+        }
+    }
+
+    private static List read(File jar, ForkJoinPool pool, int window)
+            throws Exception {
+        JarFile jarFile = new JarFile(jar);
+        try {
+            return PackingUtils.getPackingFileListFromJar(jarFile, true, pool,
+                    window);
+        } finally {
+            jarFile.close();
+        }
+    }
+
+    private static void check(List expected, List files, File jar) {
+        if (expected.size() != files.size()) {
+            throw new IllegalStateException("Different files read from "
+                    + jar);
+        }
+        for (int i = 0; i < expected.size(); i++) {
+            PackingFile file = (PackingFile) files.get(i);
+            PackingFile expectedFile = (PackingFile) expected.get(i);
+            if (!file.getName().equals(expectedFile.getName())
+                    || !Arrays.equals(file.getContents(), expectedFile
+                            .getContents())) {
+                throw new IllegalStateException("Different contents read for "
+                        + file.getName() + " from " + jar);
+            }
+        }
+    }
+
+    /*
+     * Entries of text-like data that deflate to about a third of their size
+     */
+    private static File generateJar(int entries, int entrySize)
+            throws Exception {
+        File file = File.createTempFile("ingestion" + entries, ".jar");
+        file.deleteOnExit();
+        Random random = new Random(entries);
+        byte[] contents = new byte[entrySize];
+        JarOutputStream out = new JarOutputStream(new FileOutputStream(file));
+        try {
+            for (int i = 0; i < entries; i++) {
+                for (int j = 0; j < contents.length; j++) {
+                    contents[j] = (byte) ('a' + random.nextInt(8));
+                }
+                out.putNextEntry(new JarEntry("dir" + i / 1000 + "/file" + i
+                        + ".txt"));
+                out.write(contents);
+                out.closeEntry();
+            }
+        } finally {
+            out.close();
+        }
+        return file;
+    }
+}
@@ -180,6 +180,84 @@ public class PackingOptionsTest extends TestCase {
         }
     }
 
+    public void testThreads() {
+        PackingOptions options = new PackingOptions();
+        assertEquals(1, options.getThreads());
+        options.setThreads(8);
+        assertEquals(8, options.getThreads());
+        options.setThreads(0);
+        assertEquals(0, options.getThreads());
+        try {
+            options.setThreads(-1);
+            fail("Should throw IllegalArgumentException for negative threads");
+        } catch (IllegalArgumentException iae) {
+            // pass
+        }
+    }
+
+    public void testParallelAnalysisThreshold() {
+        PackingOptions options = new PackingOptions();
+        assertEquals(0, options.getParallelAnalysisThreshold());
+        options.setParallelAnalysisThreshold(100000);
+        assertEquals(100000, options.getParallelAnalysisThreshold());
+        try {
+            options.setParallelAnalysisThreshold(-1);
+            fail("Should throw IllegalArgumentException for negative threshold");
+        } catch (IllegalArgumentException iae) {
+            // pass
+        }
+    }
+
+    public void testParallelParsing() {
+        PackingOptions options = new PackingOptions();
+        assertFalse(options.isParallelParsing());
+        options.setParallelParsing(true);
+        assertTrue(options.isParallelParsing());
+    }
+
+    public void testArchiveSize() {
+        PackingOptions options = new PackingOptions();
+        assertFalse(options.isArchiveSize());
+        options.setArchiveSize(true);
+        assertTrue(options.isArchiveSize());
+    }
+
+    public void testAnalysisCache() {
+        PackingOptions options = new PackingOptions();
+        assertFalse(options.isAnalysisCache());
+        assertNull(options.getAnalysisCacheFile());
+        options.setAnalysisCache(true);
+        assertTrue(options.isAnalysisCache());
+        options.setAnalysisCache(false);
+        // a cache file turns the cache on
+        options.setAnalysisCacheFile("codecs.txt");
+        assertTrue(options.isAnalysisCache());
+        assertEquals("codecs.txt", options.getAnalysisCacheFile());
+    }
+
+    public void testTimeBudget() {
+        PackingOptions options = new PackingOptions();
+        assertEquals(0, options.getTimeBudget());
+        options.setTimeBudget(30000);
+        assertEquals(30000, options.getTimeBudget());
+        try {
+            options.setTimeBudget(-1);
+            fail("Should throw IllegalArgumentException for a negative time budget");
+        } catch (IllegalArgumentException iae) {
+            // pass
+        }
+    }
+
+    public void testCodecProfile() {
+        PackingOptions options = new PackingOptions();
+        assertNull(options.getUseProfile());
+        assertNull(options.getWriteProfile());
+        options.setUseProfile("codecs.txt");
+        options.setWriteProfile("codecs.txt");
+        assertEquals("codecs.txt", options.getUseProfile());
+        assertEquals("codecs.txt", options.getWriteProfile());
+    }
+
     public void testModificationTime() throws Exception {
         // Test default first
         PackingOptions options = new PackingOptions();
@@ -0,0 +1,76 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.harmony.pack200;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.util.jar.JarFile;
+
+import org.apache.harmony.unpack200.Benchmark;
+
+/**
+ * Throughput benchmark for packing segments with different numbers of
+ * threads, which must all give the same archive (see {@link Benchmark}):
+ *
+ * <pre>
+ * java org.apache.harmony.pack200.ParallelPackBenchmark [iterations] [segment-limit] [threads...]
+ * </pre>
+ *
+ * The jars packed are the ant.jar and jndi.jar test resources, or those in
+ * <code>benchmark.jars</code>.
+ */
+public class ParallelPackBenchmark extends Benchmark {
+
+    public static void main(String[] args) throws Exception {
+        run(new ParallelPackBenchmark(), args, 10);
+    }
+
+    protected void run() throws Exception {
+        final long segmentLimit = intArg(1, 100000);
+        int[] threads = threads(2);
+        File[] jars = files("benchmark.jars", new String[] {
+                "/org/apache/harmony/pack200/tests/jars/ant.jar",
+                "/org/apache/harmony/pack200/tests/jndi.jar" });
+        for (int i = 0; i < jars.length; i++) {
+            final File jar = jars[i];
+            Object expected = null;
+            for (int t = 0; t < threads.length; t++) {
+                final int n = threads[t];
+                expected = time(jar.getName() + " threads=" + n
+                        + " segment.limit=" + segmentLimit, jar.length(),
+                        new Operation() {
+                            public Object run() throws Exception {
+                                return pack(jar, segmentLimit, n);
+                            }
+                        }, expected);
+            }
+        }
+    }
+
+    private static byte[] pack(File jar, long segmentLimit, int threads)
+            throws Exception {
+        PackingOptions options = new PackingOptions();
+        options.setGzip(false);
+        options.setSegmentLimit(segmentLimit);
+        options.setThreads(threads);
+        JarFile jarFile = new JarFile(jar);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new Pack200Archive(jarFile, out, options).pack();
+        jarFile.close();
+        return out.toByteArray();
+    }
+}
@@ -23,6 +23,7 @@ import java.io.InputStream;
 import junit.framework.TestCase;
 
 import org.apache.harmony.unpack200.codec.BHSDCodec;
+import org.apache.harmony.unpack200.codec.ByteSink;
 import org.apache.harmony.unpack200.codec.Codec;
 import org.apache.harmony.unpack200.common.Pack200Exception;
 import org.apache.harmony.unpack200.codec.PopulationCodec;
@@ -80,4 +81,37 @@ public class PopulationCodecTest extends TestCase {
         }
     }
 
+    public void testEncode() throws IOException, Pack200Exception {
+        int[] band = new int[] { 5, -4, 6, 5, 300, 7, 5, 5, -4, 1000 };
+        int[] favoured = new int[] { 5, -4, 6 };
+        int[] tokens = new int[] { 1, 2, 3, 1, 0, 0, 1, 1, 2, 0 };
+        int[] unfavoured = new int[] { 300, 7, 1000 };
+        checkEncode(new PopulationCodec(Codec.SIGNED5, Codec.BYTE1,
+                Codec.UDELTA5), band, favoured, tokens, unfavoured);
+        // token codec derived from L
+        checkEncode(new PopulationCodec(Codec.DELTA5, 4, Codec.UNSIGNED5),
+                band, favoured, tokens, unfavoured);
+    }
+
+    private void checkEncode(PopulationCodec codec, int[] band,
+            int[] favoured, int[] tokens, int[] unfavoured)
+            throws IOException, Pack200Exception {
+        ByteSink sink = new ByteSink(1);
+        codec.encode(favoured, tokens, unfavoured, sink);
+        byte[] encoded = codec.encode(favoured, tokens, unfavoured);
+        assertEquals(encoded.length, sink.size());
+        assertEquals(encoded.length, codec.encodedSize(favoured, tokens,
+                unfavoured));
+        byte[] sinkBytes = sink.toByteArray();
+        for (int i = 0; i < encoded.length; i++) {
+            assertEquals(encoded[i], sinkBytes[i]);
+        }
+        InputStream in = new ByteArrayInputStream(encoded);
+        int[] decoded = codec.decodeInts(band.length, in);
+        for (int i = 0; i < band.length; i++) {
+            assertEquals(band[i], decoded[i]);
+        }
+        assertEquals(0, in.available());
+    }
+
 }
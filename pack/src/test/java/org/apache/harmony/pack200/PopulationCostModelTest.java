@@ -0,0 +1,143 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.harmony.pack200;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+import org.apache.harmony.unpack200.codec.BHSDCodec;
+import org.apache.harmony.unpack200.codec.Codec;
+import org.apache.harmony.unpack200.codec.PopulationCodec;
+import org.apache.harmony.unpack200.common.Pack200Exception;
+
+public class PopulationCostModelTest extends TestCase {
+
+    private final Random random = new Random(200);
+
+    public void testFewDistinctValues() throws IOException, Pack200Exception {
+        int[] band = new int[1000];
+        for (int i = 0; i < band.length; i++) {
+            band[i] = 1000 - random.nextInt(10) * 100;
+        }
+        PopulationCostModel costModel = new PopulationCostModel(
+                histogram(band), band.length, Codec.UNSIGNED5);
+        // all favoured, in order, with BYTE1 tokens
+        assertEquals(1, costModel.getTdefL());
+        int[] favoured = costModel.getFavoured();
+        assertEquals(10, favoured.length);
+        for (int i = 0; i < favoured.length; i++) {
+            assertEquals(100 + i * 100, favoured[i]);
+        }
+        checkRoundTrip(band, costModel);
+    }
+
+    public void testManyDistinctValues() throws IOException, Pack200Exception {
+        // a few thousand common values and a lot that only occur once
+        int[] band = new int[100000];
+        for (int i = 0; i < band.length; i++) {
+            band[i] = i % 4 == 0 ? 1000000 + i : (int) Math.abs(random
+                    .nextGaussian() * 1000);
+        }
+        IntHistogram histogram = histogram(band);
+        PopulationCostModel costModel = new PopulationCostModel(histogram,
+                band.length, Codec.UNSIGNED5);
+        int[] favoured = costModel.getFavoured();
+        assertTrue(favoured.length > 256);
+        assertTrue(favoured.length < histogram.size());
+        assertNotNull(PopulationCostModel.getTokenCodec(favoured.length,
+                costModel.getTdefL()));
+        // most frequent first
+        for (int i = 1; i < favoured.length; i++) {
+            assertTrue(histogram.getCount(histogram.indexOf(favoured[i - 1])) >= histogram
+                    .getCount(histogram.indexOf(favoured[i])));
+        }
+        checkRoundTrip(band, costModel);
+    }
+
+    public void testTokenCodec() {
+        assertEquals(Codec.BYTE1, PopulationCostModel.getTokenCodec(255, 5));
+        // a decoder uses BYTE1 when the last token is 256
+        assertNull(PopulationCostModel.getTokenCodec(256, 5));
+        for (int t = 1; t < PopulationCostModel.TDEF_L.length; t++) {
+            int h = 256 - PopulationCostModel.TDEF_L[t];
+            for (int b = 2; b <= 4; b++) {
+                long largest = new BHSDCodec(b, h).largest();
+                if (largest < 257 || largest > Integer.MAX_VALUE) {
+                    continue;
+                }
+                int k = (int) largest;
+                assertEquals(new BHSDCodec(b, h), PopulationCostModel
+                        .getTokenCodec(k, t));
+                assertEquals(t, PopulationCostModel.getTdefL(new BHSDCodec(
+                        b, h), k));
+                // tokens up to k + 1 need a larger B than a decoder would
+                // take for k
+                if (b < 4) {
+                    assertNull(PopulationCostModel.getTokenCodec(k + 1, t));
+                    assertEquals(0, PopulationCostModel.getTdefL(
+                            new BHSDCodec(b + 1, h), k + 1));
+                }
+            }
+        }
+        assertEquals(0, PopulationCostModel.getTdefL(Codec.UDELTA5, 1000));
+        assertEquals(0, PopulationCostModel.getTdefL(Codec.UNSIGNED5, 1000));
+    }
+
+    private IntHistogram histogram(int[] band) {
+        IntHistogram histogram = new IntHistogram();
+        for (int i = 0; i < band.length; i++) {
+            histogram.add(band[i]);
+        }
+        return histogram;
+    }
+
+    /*
+     * Encode the band with the chosen favoured values and token codec, and
+     * check that it decodes with the token codec worked out from tdef_L
+     */
+    private void checkRoundTrip(int[] band, PopulationCostModel costModel)
+            throws IOException, Pack200Exception {
+        int[] favoured = costModel.getFavoured();
+        int[] tokens = new int[band.length];
+        IntList unfavoured = new IntList();
+        for (int i = 0; i < band.length; i++) {
+            for (int j = 0; j < favoured.length; j++) {
+                if (favoured[j] == band[i]) {
+                    tokens[i] = j + 1;
+                    break;
+                }
+            }
+            if (tokens[i] == 0) {
+                unfavoured.add(band[i]);
+            }
+        }
+        int l = PopulationCostModel.TDEF_L[costModel.getTdefL()];
+        BHSDCodec tokenCodec = PopulationCostModel.getTokenCodec(
+                favoured.length, costModel.getTdefL());
+        byte[] encoded = new PopulationCodec(Codec.UNSIGNED5, tokenCodec,
+                Codec.UNSIGNED5).encode(favoured, tokens, unfavoured.toArray());
+        int[] decoded = new PopulationCodec(Codec.UNSIGNED5, l,
+                Codec.UNSIGNED5).decodeInts(band.length,
+                new ByteArrayInputStream(encoded));
+        for (int i = 0; i < band.length; i++) {
+            assertEquals(band[i], decoded[i]);
+        }
+    }
+}
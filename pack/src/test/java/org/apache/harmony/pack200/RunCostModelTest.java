@@ -0,0 +1,140 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.harmony.pack200;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+import org.apache.harmony.unpack200.codec.BHSDCodec;
+import org.apache.harmony.unpack200.codec.Codec;
+import org.apache.harmony.unpack200.codec.CodecEncoding;
+import org.apache.harmony.unpack200.codec.PopulationCodec;
+import org.apache.harmony.unpack200.codec.RunCodec;
+import org.apache.harmony.unpack200.common.Pack200Exception;
+
+public class RunCostModelTest extends TestCase {
+
+    private final Random random = new Random(200);
+
+    public void testRepresentable() {
+        for (int k = 1; k <= RunCostModel.MAX_K + 5000; k += 7) {
+            int representable = RunCostModel.representable(k);
+            assertTrue(representable <= k);
+            // the same K as a decoder works out from KB and KX
+            int kx = RunCostModel.getExponent(representable);
+            int kb = RunCostModel.getMantissa(representable);
+            assertTrue(kb >= 0 && kb <= 255);
+            assertEquals(representable, (kb + 1) << (4 * kx));
+        }
+        assertEquals(256, RunCostModel.representable(256));
+        assertEquals(256, RunCostModel.representable(271));
+        assertEquals(4096, RunCostModel.representable(4097));
+        assertEquals(RunCostModel.MAX_K, RunCostModel
+                .representable(Integer.MAX_VALUE));
+    }
+
+    public void testSplit() throws Pack200Exception {
+        int[] band = regimeChange();
+        RunCostModel costModel = new RunCostModel(band, Codec.UNSIGNED5,
+                CodecCostModel.getCanonicalCodecs());
+        int k = costModel.getK();
+        assertTrue(k > 2000 && k <= 3000);
+        assertTrue(costModel.getLength() < Codec.UNSIGNED5.encodedSize(band));
+    }
+
+    public void testShortBand() throws Pack200Exception {
+        RunCostModel costModel = new RunCostModel(new int[] { 1 },
+                Codec.UNSIGNED5, CodecCostModel.getCanonicalCodecs());
+        assertEquals(0, costModel.getK());
+    }
+
+    public void testBandRoundTrip() throws IOException, Pack200Exception {
+        checkRoundTrip(regimeChange(), Codec.UNSIGNED5, false);
+        checkRoundTrip(regimeChange(), Codec.DELTA5, false);
+
+        // few distinct values after the split, for a nested population codec
+        int[] band = new int[20000];
+        for (int i = 0; i < band.length; i++) {
+            band[i] = i < 5000 ? random.nextInt(1 << 20)
+                    : 1000 * random.nextInt(20);
+        }
+        checkRoundTrip(band, Codec.UNSIGNED5, true);
+    }
+
+    /*
+     * Small deltas followed by large values
+     */
+    private int[] regimeChange() {
+        int[] band = new int[10000];
+        int last = 0;
+        for (int i = 0; i < band.length; i++) {
+            if (i < 2500) {
+                last += random.nextInt(10);
+                band[i] = last;
+            } else {
+                band[i] = random.nextInt(1 << 24);
+            }
+        }
+        return band;
+    }
+
+    /*
+     * Encode the band at effort 9 and decode it in the same way as a band of
+     * a segment
+     */
+    private void checkRoundTrip(int[] band, BHSDCodec defaultCodec,
+            boolean population) throws IOException, Pack200Exception {
+        final IntList bandHeaders = new IntList();
+        SegmentHeader segmentHeader = new SegmentHeader() {
+            public void appendBandCodingSpecifier(int specifier) {
+                bandHeaders.add(specifier);
+            }
+        };
+        BandSet bandSet = new BandSet(9, segmentHeader) {
+            public void pack(OutputStream out) {
+            }
+        };
+        byte[] encoded = bandSet.encodeBandInt("test", band, defaultCodec);
+        assertTrue(encoded.length < defaultCodec.encodedSize(band));
+
+        InputStream in = new ByteArrayInputStream(encoded);
+        int first = defaultCodec.decode(in, 0);
+        int specifier = defaultCodec.isSigned() ? -1 - first : first
+                - defaultCodec.getL();
+        byte[] headers = new byte[bandHeaders.size()];
+        for (int i = 0; i < headers.length; i++) {
+            headers[i] = (byte) bandHeaders.get(i);
+        }
+        InputStream headersIn = new ByteArrayInputStream(headers);
+        Codec codec = CodecEncoding.getCodec(specifier, headersIn,
+                defaultCodec);
+        assertTrue(codec instanceof RunCodec);
+        assertEquals(-1, headersIn.read());
+        assertEquals(population,
+                ((RunCodec) codec).getBCodec() instanceof PopulationCodec);
+        int[] decoded = codec.decodeInts(band.length, in);
+        assertEquals(-1, in.read());
+        for (int i = 0; i < band.length; i++) {
+            assertEquals(band[i], decoded[i]);
+        }
+    }
+}
@@ -0,0 +1,107 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.harmony.pack200;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.Random;
+import java.util.jar.JarEntry;
+import java.util.jar.JarInputStream;
+import java.util.jar.JarOutputStream;
+
+import org.apache.harmony.unpack200.Benchmark;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+
+/**
+ * Benchmark for packing classes with large string constants, such as the
+ * generated resource tables of some applications (see {@link Benchmark}):
+ *
+ * <pre>
+ * java org.apache.harmony.pack200.StringConstantBenchmark [iterations] [classes] [strings-per-class] [string-length]
+ * </pre>
+ *
+ * The jar is generated with ASM, and packed as one segment. The defaults are
+ * 100 classes, each with 10 strings of 60000 characters.
+ */
+public class StringConstantBenchmark extends Benchmark {
+
+    public static void main(String[] args) throws Exception {
+        run(new StringConstantBenchmark(), args, 5);
+    }
+
+    protected void run() throws Exception {
+        int classes = intArg(1, 100);
+        int strings = intArg(2, 10);
+        int length = intArg(3, 60000);
+
+        final byte[] jar = generate(classes, strings, length);
+        long chars = (long) classes * strings * length;
+        time("classes=" + classes + " strings=" + strings + " length="
+                + length, chars, new Operation() {
+            public Object run() throws Exception {
+                return pack(jar);
+            }
+        }, null);
+    }
+
+    private static byte[] pack(byte[] jar) throws Exception {
+        PackingOptions options = new PackingOptions();
+        options.setGzip(false);
+        options.setSegmentLimit(-1);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new Pack200Archive(new JarInputStream(new ByteArrayInputStream(jar)),
+                out, options).pack();
+        return out.toByteArray();
+    }
+
+    private static byte[] generate(int classes, int strings, int length)
+            throws Exception {
+        Random random = new Random(1);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        JarOutputStream jar = new JarOutputStream(bytes);
+        char[] chars = new char[length];
+        for (int c = 0; c < classes; c++) {
+            String name = "resources/Table" + c;
+            ClassWriter writer = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+            writer.visit(Opcodes.V1_6, Opcodes.ACC_PUBLIC, name, null,
+                    "java/lang/Object", null);
+            MethodVisitor method = writer.visitMethod(Opcodes.ACC_PUBLIC
+                    | Opcodes.ACC_STATIC, "table", "(I)Ljava/lang/String;",
+                    null, null);
+            method.visitCode();
+            for (int s = 0; s < strings; s++) {
+                // printable ASCII, so that the UTF8 fits the class file
+                for (int i = 0; i < length; i++) {
+                    chars[i] = (char) (' ' + random.nextInt(95));
+                }
+                method.visitLdcInsn(new String(chars));
+                method.visitInsn(Opcodes.POP);
+            }
+            method.visitInsn(Opcodes.ACONST_NULL);
+            method.visitInsn(Opcodes.ARETURN);
+            method.visitMaxs(0, 0);
+            method.visitEnd();
+            writer.visitEnd();
+            jar.putNextEntry(new JarEntry(name + ".class"));
+            jar.write(writer.toByteArray());
+        }
+        jar.close();
+        return bytes.toByteArray();
+    }
+}
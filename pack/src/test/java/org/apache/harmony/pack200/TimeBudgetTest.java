@@ -0,0 +1,141 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.harmony.pack200;
+
+import junit.framework.TestCase;
+
+public class TimeBudgetTest extends TestCase {
+
+    private static final long MILLIS = 1000000L;
+
+    /*
+     * A budget with a clock that only moves when it is told to
+     */
+    private static class TestBudget extends TimeBudget {
+
+        long time;
+
+        TestBudget(long budget, int concurrency, int maxEffort) {
+            super(budget, concurrency, maxEffort);
+        }
+
+        long now() {
+            return time;
+        }
+    }
+
+    public void testShare() {
+        TestBudget budget = new TestBudget(1000, 1, 9);
+        budget.setTotalBytes(1000);
+        TimeBudget.Allowance allowance = budget.allowance(0, 500);
+        assertEquals(9, allowance.getEffort());
+        budget.time = 100 * MILLIS;
+        assertFalse(allowance.isUsedUp());
+        allowance.startEncoding();
+        // 100ms is kept back to build the other half, and this half gets
+        // half of the 800ms left after that
+        budget.time = 499 * MILLIS;
+        assertFalse(allowance.isUsedUp());
+        budget.time = 501 * MILLIS;
+        assertTrue(allowance.isUsedUp());
+    }
+
+    public void testConcurrentShare() {
+        TestBudget budget = new TestBudget(1000, 2, 9);
+        budget.setTotalBytes(1000);
+        TimeBudget.Allowance allowance = budget.allowance(0, 500);
+        budget.time = 100 * MILLIS;
+        allowance.startEncoding();
+        // the other half is built at the same time, so only half of the time
+        // to build it is kept back, and this half may take the rest
+        budget.time = 949 * MILLIS;
+        assertFalse(allowance.isUsedUp());
+        budget.time = 951 * MILLIS;
+        assertTrue(allowance.isUsedUp());
+    }
+
+    public void testUnknownSize() {
+        // without the total, a segment may take all the time left
+        TestBudget budget = new TestBudget(1000, 1, 9);
+        TimeBudget.Allowance allowance = budget.allowance(0, 500);
+        budget.time = 100 * MILLIS;
+        allowance.startEncoding();
+        budget.time = 999 * MILLIS;
+        assertFalse(allowance.isUsedUp());
+    }
+
+    public void testEffort() {
+        TestBudget budget = new TestBudget(1000, 1, 9);
+        budget.setTotalBytes(4000);
+        TimeBudget.Allowance allowance = budget.allowance(0, 1000);
+        budget.time = 100 * MILLIS;
+        allowance.startEncoding();
+        // 300ms kept back for the rest, and a quarter of the 600ms left
+        budget.time = 249 * MILLIS;
+        assertFalse(allowance.isUsedUp());
+        budget.time = 1100 * MILLIS;
+        assertTrue(allowance.isUsedUp());
+        allowance.bandNotAnalysed();
+        budget.finished(allowance);
+
+        // more than four times the share is three efforts lower
+        allowance = budget.allowance(1, 1000);
+        assertEquals(6, allowance.getEffort());
+        budget.time = 1200 * MILLIS;
+        allowance.startEncoding();
+        // past the deadline, there is only time to encode the bands with
+        // their default codecs, which took at least 1000ms before
+        budget.time = 2199 * MILLIS;
+        assertFalse(allowance.isUsedUp());
+        budget.time = 2300 * MILLIS;
+        assertTrue(allowance.isUsedUp());
+        budget.finished(allowance);
+        assertEquals(5, budget.allowance(2, 1000).getEffort());
+
+        int[] efforts = budget.getEfforts();
+        assertEquals(2, efforts.length);
+        assertEquals(9, efforts[0]);
+        assertEquals(6, efforts[1]);
+    }
+
+    public void testEffortRises() {
+        TestBudget budget = new TestBudget(100000, 1, 7);
+        budget.setTotalBytes(3000);
+        TimeBudget.Allowance allowance = budget.allowance(0, 1000);
+        budget.time = 1000 * MILLIS;
+        allowance.startEncoding();
+        budget.time = 3000 * MILLIS;
+        budget.finished(allowance);
+        assertEquals(7, budget.allowance(1, 1000).getEffort());
+
+        budget = new TestBudget(10000, 1, 7);
+        budget.setTotalBytes(3000);
+        allowance = budget.allowance(0, 1000);
+        budget.time = 1000 * MILLIS;
+        allowance.startEncoding();
+        budget.time = 9000 * MILLIS;
+        budget.finished(allowance);
+        allowance = budget.allowance(1, 1000);
+        assertTrue(allowance.getEffort() < 7);
+        int effort = allowance.getEffort();
+        budget.time = 9001 * MILLIS;
+        allowance.startEncoding();
+        budget.finished(allowance);
+        // encoding the bands took no time at all
+        assertTrue(budget.allowance(2, 1000).getEffort() > effort);
+    }
+}
@@ -0,0 +1,158 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+/*
+ * @test
+ * @summary check that the packer's heap usage is bounded by the segment size
+ *          rather than the size of the jar
+ * @modules java.management
+ * @compile -XDignore.symbol.file Utils.java PackerMemoryTest.java
+ * @run main/othervm/timeout=1200 -Xmx160m PackerMemoryTest
+ */
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.Map;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.jar.JarInputStream;
+import java.util.jar.JarOutputStream;
+import net.pack200.Pack200;
+
+public class PackerMemoryTest {
+
+    // uncompressed size of the synthetic jar
+    static final long JAR_SIZE = 320L * 1024 * 1024;
+    static final int ENTRY_SIZE = 256 * 1024;
+    // the packer may keep at most this much live data, whatever the size of
+    // the jar (the default segment limit is 1Mb, but the bands built for a
+    // segment are several times larger than its contents)
+    static final long HEAP_LIMIT = 64L * 1024 * 1024;
+
+    // a highly compressible entry, so the jar itself is small on disk
+    private static void createJar(File jarFile) throws IOException {
+        byte[] contents = new byte[ENTRY_SIZE];
+        JarOutputStream jos = null;
+        try {
+            jos = new JarOutputStream(new FileOutputStream(jarFile));
+            int count = (int) (JAR_SIZE / ENTRY_SIZE);
+            for (int i = 0; i < count; i++) {
+                for (int j = 0; j < contents.length; j++) {
+                    contents[j] = (byte) ('a' + (i + j / 64) % 26);
+                }
+                jos.putNextEntry(new JarEntry("data/" + i + ".txt"));
+                jos.write(contents);
+                jos.closeEntry();
+            }
+        } finally {
+            Utils.close(jos);
+        }
+    }
+
+    private static Pack200.Packer createPacker() {
+        Pack200.Packer packer = Pack200.newPacker();
+        Map<String, String> p = packer.properties();
+        p.put(packer.KEEP_FILE_ORDER, packer.TRUE);
+        return packer;
+    }
+
+    /**
+     * Polls the heap usage measured after each garbage collection, which is
+     * the amount of live data, and records the highest value seen.
+     */
+    static class HeapSampler extends Thread {
+        private volatile boolean done;
+        private volatile long peak;
+
+        HeapSampler() {
+            setDaemon(true);
+        }
+
+        public void run() {
+            while (!done) {
+                long used = 0;
+                for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+                    if (pool.getType() == MemoryType.HEAP
+                            && pool.getCollectionUsage() != null) {
+                        used += pool.getCollectionUsage().getUsed();
+                    }
+                }
+                peak = Math.max(peak, used);
+                try {
+                    Thread.sleep(5);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        }
+
+        long finish() throws InterruptedException {
+            done = true;
+            join();
+            return peak;
+        }
+    }
+
+    private static void check(String name, long peak) {
+        System.out.println(name + ": peak live heap " + peak / 1024 + "K for a "
+                + JAR_SIZE / 1024 + "K jar");
+        if (peak > HEAP_LIMIT) {
+            throw new RuntimeException(name + ": peak live heap " + peak
+                    + " exceeds " + HEAP_LIMIT);
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        File jarFile = new File("packer-memory.jar");
+        createJar(jarFile);
+        OutputStream nullOut = new OutputStream() {
+            public void write(int b) {
+            }
+
+            public void write(byte[] b, int off, int len) {
+            }
+        };
+        try {
+            System.gc();
+            HeapSampler sampler = new HeapSampler();
+            sampler.start();
+            JarFile jf = new JarFile(jarFile);
+            try {
+                createPacker().pack(jf, nullOut);
+            } finally {
+                Utils.close(jf);
+            }
+            check("JarFile", sampler.finish());
+
+            System.gc();
+            sampler = new HeapSampler();
+            sampler.start();
+            JarInputStream jis = new JarInputStream(new FileInputStream(jarFile));
+            createPacker().pack(jis, nullOut);
+            check("JarInputStream", sampler.finish());
+        } finally {
+            jarFile.delete();
+        }
+    }
+}
@@ -0,0 +1,182 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+
+/*
+ * @test
+ * @summary check that the unpacker's heap usage is bounded by the largest
+ *          entry rather than the size of the segment
+ * @modules java.management
+ * @compile -XDignore.symbol.file Utils.java PackerMemoryTest.java UnpackerSegmentMemoryTest.java
+ * @run main/othervm/timeout=1200 -Xmx256m UnpackerSegmentMemoryTest
+ */
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Map;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.jar.JarOutputStream;
+import net.pack200.Pack200;
+
+public class UnpackerSegmentMemoryTest {
+
+    static final int CLASS_COUNT = 500;
+    // sipush/iadd pairs in the method of each class
+    static final int CLASS_OPERATIONS = 2000;
+    static final int RESOURCE_COUNT = 256;
+    static final int RESOURCE_SIZE = 256 * 1024;
+    // the whole jar goes into one segment, which is several times this size
+    // once its classes have been built
+    static final long HEAP_LIMIT = 32L * 1024 * 1024;
+
+    /*
+     * A class gen/C<i> with one method, run()I, that adds up a long run of
+     * constants. Class major version 50, so it needs no StackMapTable.
+     */
+    private static byte[] createClass(int i) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(0xCAFEBABE);
+        out.writeShort(0);
+        out.writeShort(50);
+        out.writeShort(8);
+        out.writeByte(1); out.writeUTF("gen/C" + i);              // #1
+        out.writeByte(7); out.writeShort(1);                      // #2
+        out.writeByte(1); out.writeUTF("java/lang/Object");       // #3
+        out.writeByte(7); out.writeShort(3);                      // #4
+        out.writeByte(1); out.writeUTF("run");                    // #5
+        out.writeByte(1); out.writeUTF("()I");                    // #6
+        out.writeByte(1); out.writeUTF("Code");                   // #7
+        out.writeShort(0x21); // public super
+        out.writeShort(2);
+        out.writeShort(4);
+        out.writeShort(0); // interfaces
+        out.writeShort(0); // fields
+        out.writeShort(1); // methods
+        out.writeShort(0x09); // public static
+        out.writeShort(5);
+        out.writeShort(6);
+        out.writeShort(1);
+        int codeLength = 1 + 4 * CLASS_OPERATIONS + 1;
+        out.writeShort(7);
+        out.writeInt(2 + 2 + 4 + codeLength + 2 + 2);
+        out.writeShort(2); // max_stack
+        out.writeShort(0); // max_locals
+        out.writeInt(codeLength);
+        out.writeByte(0x03); // iconst_0
+        for (int j = 0; j < CLASS_OPERATIONS; j++) {
+            out.writeByte(0x11); // sipush
+            out.writeShort((i * 31 + j) & 0x7fff);
+            out.writeByte(0x60); // iadd
+        }
+        out.writeByte(0xac); // ireturn
+        out.writeShort(0); // exception table
+        out.writeShort(0); // code attributes
+        out.writeShort(0); // class attributes
+        out.close();
+        return bytes.toByteArray();
+    }
+
+    private static void createJar(File jarFile) throws IOException {
+        byte[] contents = new byte[RESOURCE_SIZE];
+        JarOutputStream jos = null;
+        try {
+            jos = new JarOutputStream(new FileOutputStream(jarFile));
+            for (int i = 0; i < CLASS_COUNT; i++) {
+                jos.putNextEntry(new JarEntry("gen/C" + i + ".class"));
+                jos.write(createClass(i));
+                jos.closeEntry();
+            }
+            for (int i = 0; i < RESOURCE_COUNT; i++) {
+                for (int j = 0; j < contents.length; j++) {
+                    contents[j] = (byte) ('a' + (i + j / 64) % 26);
+                }
+                jos.putNextEntry(new JarEntry("data/" + i + ".txt"));
+                jos.write(contents);
+                jos.closeEntry();
+            }
+        } finally {
+            Utils.close(jos);
+        }
+    }
+
+    private static void pack(File jarFile, File packFile) throws IOException {
+        Pack200.Packer packer = Pack200.newPacker();
+        Map<String, String> p = packer.properties();
+        p.put(packer.EFFORT, "1");
+        // everything in one segment
+        p.put(packer.SEGMENT_LIMIT, "-1");
+        p.put(packer.DEFLATE_HINT, packer.FALSE);
+        p.put(packer.KEEP_FILE_ORDER, packer.TRUE);
+        JarFile jf = new JarFile(jarFile);
+        FileOutputStream fos = null;
+        try {
+            fos = new FileOutputStream(packFile);
+            packer.pack(jf, fos);
+        } finally {
+            Utils.close(fos);
+            Utils.close(jf);
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        File jarFile = new File("unpacker-segment-memory.jar");
+        File packFile = new File("unpacker-segment-memory" + Utils.PACK_FILE_EXT);
+        OutputStream nullOut = new OutputStream() {
+            public void write(int b) {
+            }
+
+            public void write(byte[] b, int off, int len) {
+            }
+        };
+        try {
+            createJar(jarFile);
+            pack(jarFile, packFile);
+            long jarSize = (long) CLASS_COUNT * createClass(0).length
+                    + (long) RESOURCE_COUNT * RESOURCE_SIZE;
+
+            System.gc();
+            PackerMemoryTest.HeapSampler sampler = new PackerMemoryTest.HeapSampler();
+            sampler.start();
+            JarOutputStream jos = new JarOutputStream(nullOut);
+            try {
+                Pack200.newUnpacker().unpack(packFile, jos);
+            } finally {
+                Utils.close(jos);
+            }
+            long peak = sampler.finish();
+            System.out.println("peak live heap " + peak / 1024 + "K for a "
+                    + jarSize / 1024 + "K segment");
+            if (peak > HEAP_LIMIT) {
+                throw new RuntimeException("peak live heap " + peak
+                        + " exceeds " + HEAP_LIMIT);
+            }
+        } finally {
+            jarFile.delete();
+            packFile.delete();
+        }
+    }
+}
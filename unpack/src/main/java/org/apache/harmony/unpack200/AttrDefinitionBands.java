@@ -18,22 +18,12 @@ package org.apache.harmony.unpack200;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.HashMap;
+import java.util.Map;
 
+import org.apache.harmony.unpack200.bytecode.CPUTF8;
 import org.apache.harmony.unpack200.codec.Codec;
 import org.apache.harmony.unpack200.common.Pack200Exception;
-import org.apache.harmony.unpack200.bytecode.AnnotationDefaultAttribute;
-import org.apache.harmony.unpack200.bytecode.CodeAttribute;
-import org.apache.harmony.unpack200.bytecode.ConstantValueAttribute;
-import org.apache.harmony.unpack200.bytecode.DeprecatedAttribute;
-import org.apache.harmony.unpack200.bytecode.EnclosingMethodAttribute;
-import org.apache.harmony.unpack200.bytecode.ExceptionsAttribute;
-import org.apache.harmony.unpack200.bytecode.InnerClassesAttribute;
-import org.apache.harmony.unpack200.bytecode.LineNumberTableAttribute;
-import org.apache.harmony.unpack200.bytecode.LocalVariableTableAttribute;
-import org.apache.harmony.unpack200.bytecode.LocalVariableTypeTableAttribute;
-import org.apache.harmony.unpack200.bytecode.MethodParametersAttribute;
-import org.apache.harmony.unpack200.bytecode.SignatureAttribute;
-import org.apache.harmony.unpack200.bytecode.SourceFileAttribute;
 
 /**
  * Attribute definition bands are the set of bands used to define extra
@@ -41,6 +31,20 @@ import org.apache.harmony.unpack200.bytecode.SourceFileAttribute;
  */
 class AttrDefinitionBands extends BandSet {
 
+    /**
+     * The names of the predefined attributes that are created while unpacking
+     * the segment
+     */
+    private static final String[] DEFAULT_ATTRIBUTE_NAMES = new String[] {
+            "AnnotationDefault", "Code", "ConstantValue", "Deprecated",
+            "EnclosingMethod", "Exceptions", "InnerClasses",
+            "LineNumberTable", "LocalVariableTable",
+            "LocalVariableTypeTable", "Signature", "SourceFile",
+            "RuntimeVisibleAnnotations", "RuntimeInvisibleAnnotations",
+            "RuntimeVisibleParameterAnnotations",
+            "RuntimeInvisibleParameterAnnotations", "MethodParameters",
+            "StackMapTable" };
+
     private int[] attributeDefinitionHeader;
 
     private String[] attributeDefinitionLayout;
@@ -51,6 +55,13 @@ class AttrDefinitionBands extends BandSet {
 
     private final String[] cpUTF8;
 
+    /**
+     * The attribute names for this segment (String to CPUTF8). These belong
+     * to the segment's constant pool, so they can't be shared with other
+     * segments that are being unpacked at the same time.
+     */
+    private final Map attributeNames = new HashMap();
+
     public AttrDefinitionBands(Segment segment) {
         super(segment);
         this.cpUTF8 = segment.getCpBands().getCpUTF8();
@@ -97,23 +108,24 @@ class AttrDefinitionBands extends BandSet {
     }
 
     private void setupDefaultAttributeNames() {
-        AnnotationDefaultAttribute.setAttributeName(segment.getCpBands().cpUTF8Value("AnnotationDefault")); //$NON-NLS-1$
-        CodeAttribute.setAttributeName(segment.getCpBands().cpUTF8Value("Code")); //$NON-NLS-1$
-        ConstantValueAttribute.setAttributeName(segment.getCpBands().cpUTF8Value("ConstantValue")); //$NON-NLS-1$
-        DeprecatedAttribute.setAttributeName(segment.getCpBands().cpUTF8Value("Deprecated")); //$NON-NLS-1$
-        EnclosingMethodAttribute.setAttributeName(segment.getCpBands().cpUTF8Value("EnclosingMethod")); //$NON-NLS-1$
-        ExceptionsAttribute.setAttributeName(segment.getCpBands().cpUTF8Value("Exceptions")); //$NON-NLS-1$
-        InnerClassesAttribute.setAttributeName(segment.getCpBands().cpUTF8Value("InnerClasses")); //$NON-NLS-1$
-        LineNumberTableAttribute.setAttributeName(segment.getCpBands().cpUTF8Value("LineNumberTable")); //$NON-NLS-1$
-        LocalVariableTableAttribute.setAttributeName(segment.getCpBands().cpUTF8Value("LocalVariableTable")); //$NON-NLS-1$
-        LocalVariableTypeTableAttribute.setAttributeName(segment.getCpBands().cpUTF8Value("LocalVariableTypeTable")); //$NON-NLS-1$
-        SignatureAttribute.setAttributeName(segment.getCpBands().cpUTF8Value("Signature")); //$NON-NLS-1$
-        SourceFileAttribute.setAttributeName(segment.getCpBands().cpUTF8Value("SourceFile")); //$NON-NLS-1$
-        MetadataBandGroup.setRvaAttributeName(segment.getCpBands().cpUTF8Value("RuntimeVisibleAnnotations"));
-        MetadataBandGroup.setRiaAttributeName(segment.getCpBands().cpUTF8Value("RuntimeInvisibleAnnotations"));
-        MetadataBandGroup.setRvpaAttributeName(segment.getCpBands().cpUTF8Value("RuntimeVisibleParameterAnnotations"));
-        MetadataBandGroup.setRipaAttributeName(segment.getCpBands().cpUTF8Value("RuntimeInvisibleParameterAnnotations"));
-	MethodParametersAttribute.setAttributeName(segment.getCpBands().cpUTF8Value("MethodParameters"));
+        CpBands cpBands = segment.getCpBands();
+        for (int i = 0; i < DEFAULT_ATTRIBUTE_NAMES.length; i++) {
+            String name = DEFAULT_ATTRIBUTE_NAMES[i];
+            attributeNames.put(name, cpBands.cpUTF8Value(name));
+        }
+    }
+
+    /**
+     * Returns the constant pool entry for the name of one of the predefined
+     * attributes, such as <code>Code</code> or <code>SourceFile</code>.
+     *
+     * @param name
+     *            the name of the attribute
+     * @return the CPUTF8 for the name, or <code>null</code> if the attribute
+     *         definition bands have not been read
+     */
+    public CPUTF8 getAttributeName(String name) {
+        return (CPUTF8) attributeNames.get(name);
     }
 
     public AttributeLayoutMap getAttributeDefinitionMap() {
@@ -0,0 +1,352 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.harmony.unpack200;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import org.apache.harmony.unpack200.codec.BHSDCodec;
+import org.apache.harmony.unpack200.codec.ByteSink;
+import org.apache.harmony.unpack200.codec.Codec;
+import org.apache.harmony.unpack200.codec.PopulationCodec;
+import org.apache.harmony.unpack200.codec.RunCodec;
+import org.apache.harmony.unpack200.common.Pack200Exception;
+
+/**
+ * Decodes the bands of a segment in two passes, so that their values can be
+ * decoded concurrently. While the segment is read, the bands whose values
+ * aren't needed to read the rest of it are only scanned for where each of
+ * their BHSD coded sub-bands ends (see
+ * {@link BHSDCodec#readInts(int, InputStream, ByteSink)}). The bytes of every
+ * sub-band are copied into one buffer, and their offset in it is recorded with
+ * the array the values are to be decoded into. The codecs given in
+ * band_headers, and the favoured values of population coded bands, are still
+ * read as each band is reached, so the rest of the segment is read from the
+ * right place. Once the segment has been read, the sub-bands are decoded
+ * concurrently, then the values of population and run coded bands are put
+ * together from them.
+ */
+class BandDecoder {
+
+    /**
+     * The fewest values in a band or sub-band for it to be decoded later
+     * rather than as it is read
+     */
+    static final int MIN_COUNT = 256;
+
+    // the bytes of the sub-bands to decode
+    private final ByteSink bytes = new ByteSink(8192);
+
+    private final List<SubBand> subBands = new ArrayList<SubBand>();
+
+    private final List<Runnable> afterDecoding = new ArrayList<Runnable>();
+
+    /**
+     * Reads the bytes of <code>n</code> values coded with a BHSD codec, to be
+     * decoded into <code>band</code>, starting at <code>band[offset]</code>,
+     * once the segment has been read.
+     *
+     * @param name
+     *            the name of the band (for errors)
+     * @param codec
+     *            the codec the values were encoded with
+     * @param in
+     *            the stream to read from, which must support mark and reset
+     * @param band
+     *            the array to decode into
+     * @param offset
+     *            the index of the first value to decode
+     * @param n
+     *            the number of values to decode
+     * @param last
+     *            the value before <code>band[offset]</code> (for delta
+     *            encodings)
+     * @return the number of values whose bytes are all zero
+     * @throws IOException
+     *             if the stream ends before the last value
+     */
+    int add(String name, BHSDCodec codec, InputStream in, int[] band,
+            int offset, int n, int last) throws IOException {
+        if (n <= 0) {
+            return 0;
+        }
+        int start = bytes.size();
+        int zeros = codec.readInts(n, in, bytes);
+        subBands.add(new SubBand(name, codec, start, bytes.size() - start,
+                band, offset, n, last));
+        return zeros;
+    }
+
+    /**
+     * Reads the bytes of <code>n</code> values coded with any codec, as
+     * {@link Codec#decodeInts(int, InputStream)} would decode them. The values
+     * of the BHSD coded sub-bands of a population or run coded band are
+     * decoded later, so the values in the array returned must not be used
+     * until the segment has been read.
+     *
+     * @param name
+     *            the name of the band (for errors)
+     * @param codec
+     *            the codec the values were encoded with
+     * @param n
+     *            the number of values to read
+     * @param in
+     *            the stream to read from, which must support mark and reset
+     * @return an array for the values
+     * @throws IOException
+     * @throws Pack200Exception
+     */
+    int[] read(String name, Codec codec, int n, InputStream in)
+            throws IOException, Pack200Exception {
+        if (n < MIN_COUNT) {
+            // not worth decoding later
+            return codec.decodeInts(n, in);
+        } else if (codec instanceof BHSDCodec) {
+            int[] band = new int[n];
+            add(name, (BHSDCodec) codec, in, band, 0, n, 0);
+            return band;
+        } else if (codec instanceof PopulationCodec) {
+            return readPopulation(name, (PopulationCodec) codec, n, in);
+        } else if (codec instanceof RunCodec) {
+            return readRun(name, (RunCodec) codec, n, in);
+        }
+        return codec.decodeInts(n, in);
+    }
+
+    /*
+     * Reads a population coded band as PopulationCodec.decodeInts does. The
+     * favoured values are read now, since the token codec can depend on them.
+     * The tokens that are 0 can be counted from the bytes that code them if
+     * the token codec is unsigned and not delta coded, which gives the number
+     * of unfavoured values that follow them.
+     */
+    private int[] readPopulation(String name, final PopulationCodec codec,
+            int n, InputStream in) throws IOException, Pack200Exception {
+        codec.readFavoured(n, in);
+        Codec tokenCodec = codec.getTokenCodec();
+        final int[] tokens;
+        int unfavouredCount = 0;
+        if (tokenCodec instanceof BHSDCodec
+                && !((BHSDCodec) tokenCodec).isSigned()
+                && !((BHSDCodec) tokenCodec).isDelta()) {
+            tokens = new int[n];
+            unfavouredCount = add(name, (BHSDCodec) tokenCodec, in, tokens, 0,
+                    n, 0);
+        } else {
+            tokens = tokenCodec.decodeInts(n, in);
+            for (int i = 0; i < n; i++) {
+                if (tokens[i] == 0) {
+                    unfavouredCount++;
+                }
+            }
+        }
+        final int[] unfavoured = readUnfavoured(name,
+                codec.getUnfavouredCodec(), unfavouredCount, in);
+        final int[] band = new int[n];
+        afterDecoding(new Runnable() {
+            public void run() {
+                int[] favoured = codec.getFavoured();
+                int u = 0;
+                for (int i = 0; i < band.length; i++) {
+                    int index = tokens[i];
+                    band[i] = index == 0 ? unfavoured[u++]
+                            : favoured[index - 1];
+                }
+            }
+        });
+        return band;
+    }
+
+    /*
+     * Reads the unfavoured values of a population coded band, which are
+     * decoded one at a time, each delta coded value from the one before it
+     * without bringing it back into the range of the codec. So that the values
+     * are the same, the deltas of a large band are decoded later and added up
+     * once they have been.
+     */
+    private int[] readUnfavoured(String name, Codec codec, int n,
+            InputStream in) throws IOException, Pack200Exception {
+        final int[] values = new int[n];
+        if (n < MIN_COUNT || !(codec instanceof BHSDCodec)) {
+            int last = 0;
+            for (int i = 0; i < n; i++) {
+                values[i] = last = codec.decode(in, last);
+            }
+        } else if (!((BHSDCodec) codec).isDelta()) {
+            add(name, (BHSDCodec) codec, in, values, 0, n, 0);
+        } else {
+            BHSDCodec bhsd = (BHSDCodec) codec;
+            add(name, new BHSDCodec(bhsd.getB(), bhsd.getH(), bhsd.getS()),
+                    in, values, 0, n, 0);
+            afterDecoding(new Runnable() {
+                public void run() {
+                    int last = 0;
+                    for (int i = 0; i < values.length; i++) {
+                        values[i] = last += values[i];
+                    }
+                }
+            });
+        }
+        return values;
+    }
+
+    /*
+     * Reads a run coded band as RunCodec.decodeInts does, each of its two
+     * parts with its own codec
+     */
+    private int[] readRun(String name, final RunCodec codec, final int n,
+            InputStream in) throws IOException, Pack200Exception {
+        final int k = codec.getK();
+        final int[] aValues = read(name, codec.getACodec(), k, in);
+        final int[] bValues = read(name, codec.getBCodec(), n - k, in);
+        final int[] band = new int[n];
+        afterDecoding(new Runnable() {
+            public void run() {
+                codec.normalise(aValues, bValues);
+                System.arraycopy(aValues, 0, band, 0, k);
+                System.arraycopy(bValues, 0, band, k, n - k);
+            }
+        });
+        return band;
+    }
+
+    /**
+     * Adds a task to run, in the order added, once all the sub-bands have been
+     * decoded, such as putting a population coded band together or splitting a
+     * band into the arrays for each of its elements.
+     *
+     * @param task
+     */
+    void afterDecoding(Runnable task) {
+        afterDecoding.add(task);
+    }
+
+    /**
+     * Decodes the sub-bands that have been read on the given pool, or on this
+     * thread if there is no pool, waits for them all, then runs the tasks
+     * added with {@link #afterDecoding(Runnable)}.
+     *
+     * @param pool
+     * @return the number of sub-bands decoded
+     * @throws IOException
+     * @throws Pack200Exception
+     */
+    int decode(ExecutorService pool) throws IOException, Pack200Exception {
+        final byte[] all = bytes.toByteArray();
+        int decoded = subBands.size();
+        if (pool == null) {
+            for (int i = 0; i < subBands.size(); i++) {
+                subBands.get(i).decode(all);
+            }
+        } else {
+            List<Future<Void>> pending = new ArrayList<Future<Void>>(
+                    subBands.size());
+            try {
+                for (int i = 0; i < subBands.size(); i++) {
+                    final SubBand subBand = subBands.get(i);
+                    pending.add(pool.submit(new Callable<Void>() {
+                        public Void call() throws Pack200Exception {
+                            subBand.decode(all);
+                            return null;
+                        }
+                    }));
+                }
+                for (int i = 0; i < pending.size(); i++) {
+                    waitFor(pending.get(i));
+                }
+            } finally {
+                for (int i = 0; i < pending.size(); i++) {
+                    pending.get(i).cancel(true);
+                }
+            }
+        }
+        subBands.clear();
+        bytes.reset();
+        for (int i = 0; i < afterDecoding.size(); i++) {
+            afterDecoding.get(i).run();
+        }
+        afterDecoding.clear();
+        return decoded;
+    }
+
+    private static void waitFor(Future<Void> subBand) throws IOException,
+            Pack200Exception {
+        try {
+            subBand.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new Pack200Exception("Interrupted while decoding bands", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof Pack200Exception) {
+                throw (Pack200Exception) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new Pack200Exception("Error decoding bands",
+                    (Exception) cause);
+        }
+    }
+
+    /*
+     * The values of a BHSD coded band, or part of one, and where their bytes
+     * are
+     */
+    private static class SubBand {
+
+        private final String name;
+        private final BHSDCodec codec;
+        private final int start;
+        private final int length;
+        private final int[] band;
+        private final int offset;
+        private final int n;
+        private final int last;
+
+        SubBand(String name, BHSDCodec codec, int start, int length,
+                int[] band, int offset, int n, int last) {
+            this.name = name;
+            this.codec = codec;
+            this.start = start;
+            this.length = length;
+            this.band = band;
+            this.offset = offset;
+            this.n = n;
+            this.last = last;
+        }
+
+        void decode(byte[] bytes) throws Pack200Exception {
+            ByteBuffer buffer = ByteBuffer.wrap(bytes, start, length);
+            if (codec.decodeInts(buffer, band, offset, n, last) != n
+                    || buffer.hasRemaining()) {
+                throw new Pack200Exception("Failed to decode band " + name
+                        + " with " + codec);
+            }
+        }
+    }
+}
@@ -92,9 +92,9 @@ abstract class BandSet {
             int count) throws IOException, Pack200Exception {
         int[] band;
         // Useful for debugging
-        if(count > 0) {
-            System.out.println("decoding " + name + " " + count);
-        }
+//        if(count > 0) {
+//            System.out.println("decoding " + name + " " + count);
+//        }
         Codec codecUsed = codec;
         if (codec.getB() == 1 || count == 0) {
             return codec.decodeInts(count, in);
@@ -120,10 +120,18 @@ abstract class BandSet {
             band = codec.decodeInts(count - 1, in, first);
         }
         // Useful for debugging -E options:
-        if(!codecUsed.equals(codec)) {
-            int bytes = codecUsed.lastBandLength;
-            System.out.println(count + " " + name + " encoded with " + codecUsed + " "  + bytes);
-        }
+//        if(!codecUsed.equals(codec)) {
+//            System.out.println(count + " " + name + " encoded with " + codecUsed);
+//        }
+        correctPopulation(codecUsed, band);
+        return band;
+    }
+
+    /*
+     * Brings the delta-coded values of a band coded with a population codec
+     * back into the range of the codec they were coded with
+     */
+    private void correctPopulation(Codec codecUsed, int[] band) {
         if (codecUsed instanceof PopulationCodec) {
             PopulationCodec popCodec = (PopulationCodec) codecUsed;
             int[] favoured = (int[]) popCodec.getFavoured().clone();
@@ -145,9 +153,140 @@ abstract class BandSet {
                 }
             }
         }
+    }
+
+    /**
+     * Decode a band as {@link #decodeBandInt(String, InputStream, BHSDCodec, int)}
+     * does, except that while the segment's bands are being decoded
+     * concurrently, a large band is only scanned for where each of its BHSD
+     * coded sub-bands ends (see {@link BandDecoder}). Its values are decoded
+     * into the array returned, along with those of other bands, once the
+     * segment has been read, so they must not be used before then.
+     *
+     * @param name
+     *            the name of the band (primarily for logging/debugging
+     *            purposes)
+     * @param in
+     *            the InputStream to decode from
+     * @param codec
+     *            the default Codec for this band
+     * @param count
+     *            the number of elements to read
+     * @return an array for the <code>int</code> values
+     * @throws IOException
+     *             if there is a problem reading from the underlying input
+     *             stream
+     * @throws Pack200Exception
+     *             if there is a problem decoding the value or that the value is
+     *             invalid
+     */
+    public int[] decodeBandIntDeferred(String name, InputStream in,
+            BHSDCodec codec, int count) throws IOException, Pack200Exception {
+        BandDecoder decoder = segment.getBandDecoder();
+        if (decoder == null || count < BandDecoder.MIN_COUNT
+                || !in.markSupported()) {
+            return decodeBandInt(name, in, codec, count);
+        }
+        if (codec.getB() == 1) {
+            return decoder.read(name, codec, count, in);
+        }
+        int first = codec.decodeInts(1, in)[0];
+        Codec codecUsed = null;
+        if (codec.isSigned() && first >= -256 && first <= -1) {
+            codecUsed = CodecEncoding.getCodec((-1 - first), header
+                    .getBandHeadersInputStream(), codec);
+        } else if (!codec.isSigned() && first >= codec.getL()
+                && first <= codec.getL() + 255) {
+            codecUsed = CodecEncoding.getCodec(first - codec.getL(), header
+                    .getBandHeadersInputStream(), codec);
+        }
+        if (codecUsed == null) {
+            // the first element is a value
+            int[] band = new int[count];
+            band[0] = first;
+            decoder.add(name, codec, in, band, 1, count - 1, first);
+            return band;
+        }
+        final int[] band = decoder.read(name, codecUsed, count, in);
+        if (codecUsed instanceof PopulationCodec) {
+            final Codec populationCodec = codecUsed;
+            decoder.afterDecoding(new Runnable() {
+                public void run() {
+                    correctPopulation(populationCodec, band);
+                }
+            });
+        }
         return band;
     }
 
+    /**
+     * Decode a band of <code>int[]</code> values as
+     * {@link #decodeBandIntDeferred(String, InputStream, BHSDCodec, int)}
+     * does, so the values in the arrays returned must not be used until the
+     * segment has been read.
+     *
+     * @param name
+     *            the name of the band (primarily for logging/debugging
+     *            purposes)
+     * @param in
+     *            the InputStream to decode from
+     * @param defaultCodec
+     *            the default codec for this band
+     * @param counts
+     *            the numbers of elements to read for each int array within the
+     *            array to be returned
+     * @return an array for the <code>int[]</code> values
+     * @throws IOException
+     *             if there is a problem reading from the underlying input
+     *             stream
+     * @throws Pack200Exception
+     *             if there is a problem decoding the value or that the value is
+     *             invalid
+     */
+    public int[][] decodeBandIntDeferred(String name, InputStream in,
+            BHSDCodec defaultCodec, final int[] counts) throws IOException,
+            Pack200Exception {
+        BandDecoder decoder = segment.getBandDecoder();
+        if (decoder == null) {
+            return decodeBandInt(name, in, defaultCodec, counts);
+        }
+        final int[][] result = new int[counts.length][];
+        int totalCount = 0;
+        for (int i = 0; i < counts.length; i++) {
+            result[i] = new int[counts[i]];
+            totalCount += counts[i];
+        }
+        final int[] oneDResult = decodeBandIntDeferred(name, in, defaultCodec,
+                totalCount);
+        decoder.afterDecoding(new Runnable() {
+            public void run() {
+                int index = 0;
+                for (int i = 0; i < result.length; i++) {
+                    System.arraycopy(oneDResult, index, result[i], 0,
+                            counts[i]);
+                    index += counts[i];
+                }
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Runs a task once the values of the bands decoded with
+     * <code>decodeBandIntDeferred</code> have been decoded, which is straight
+     * away unless the segment's bands are being decoded concurrently.
+     *
+     * @param task
+     */
+    protected void afterDecoding(Runnable task) {
+        BandDecoder decoder = segment.getBandDecoder();
+        if (decoder == null) {
+            task.run();
+        } else {
+            decoder.afterDecoding(task);
+        }
+    }
+
     /**
      * Decode a band and return an array of <code>int[]</code> values
      *
@@ -182,10 +321,8 @@ abstract class BandSet {
         for (int i = 0; i < result.length; i++) {
 	    try {
 		result[i] = new int[counts[i]];
-		for (int j = 0; j < result[i].length; j++) {
-		    result[i][j] = twoDResult[index];
-		    index++;
-		}
+		System.arraycopy(twoDResult, index, result[i], 0, counts[i]);
+		index += counts[i];
 	    } catch (RuntimeException e){
 		throw new RuntimeException("Problem decoding band: "
 			+ name + " default codec: " + defaultCodec, e);
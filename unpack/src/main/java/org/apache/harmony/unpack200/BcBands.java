@@ -29,6 +29,7 @@ import org.apache.harmony.unpack200.bytecode.Attribute;
 import org.apache.harmony.unpack200.bytecode.BCIRenumberedAttribute;
 import org.apache.harmony.unpack200.bytecode.ByteCode;
 import org.apache.harmony.unpack200.bytecode.CPClass;
+import org.apache.harmony.unpack200.bytecode.CPUTF8;
 import org.apache.harmony.unpack200.bytecode.CodeAttribute;
 import org.apache.harmony.unpack200.bytecode.ExceptionTableEntry;
 import org.apache.harmony.unpack200.bytecode.NewAttribute;
@@ -75,6 +76,13 @@ class BcBands extends BandSet {
     private int[] bcLoadableValueRef;
     private int[] bcIndyRef;
 
+    // Code attributes are built for one class at a time by unpackCode(int),
+    // reading the operand bands in order
+    private OperandManager operandManager;
+    private int unpackedClassCount;
+    private int codeIndex;
+    private int codeAttributeIndex;
+
     /**
      * @param segment
      */
@@ -311,7 +319,8 @@ class BcBands extends BandSet {
                 }
             }
         }
-        // other bytecode bands
+        // other bytecode bands, whose values are only needed once the
+        // segment has been read, apart from the counts
         bcCaseCount = decodeBandInt("bc_case_count", in, Codec.UNSIGNED5,
                 bcCaseCountCount);
         int bcCaseValueCount = 0;
@@ -324,7 +333,7 @@ class BcBands extends BandSet {
                 bcCaseValueCount += bcCaseCount[i];
             }
         }
-        bcCaseValue = decodeBandInt("bc_case_value", in, Codec.DELTA5,
+        bcCaseValue = decodeBandIntDeferred("bc_case_value", in, Codec.DELTA5,
                 bcCaseValueCount);
         // Every case value needs a label. We weren't able to count these
         // above, because we didn't know how many cases there were.
@@ -332,53 +341,70 @@ class BcBands extends BandSet {
         for (int index = 0; index < bcCaseCountCount; index++) {
             bcLabelCount += bcCaseCount[index];
         }
-        bcByte = decodeBandInt("bc_byte", in, Codec.BYTE1, bcByteCount);
-        bcShort = decodeBandInt("bc_short", in, Codec.DELTA5, bcShortCount);
-        bcLocal = decodeBandInt("bc_local", in, Codec.UNSIGNED5, bcLocalCount);
-        bcLabel = decodeBandInt("bc_label", in, Codec.BRANCH5, bcLabelCount);
-        bcIntRef = decodeBandInt("bc_intref", in, Codec.DELTA5, bcIntRefCount);
-        bcFloatRef = decodeBandInt("bc_floatref", in, Codec.DELTA5,
+        bcByte = decodeBandIntDeferred("bc_byte", in, Codec.BYTE1, bcByteCount);
+        bcShort = decodeBandIntDeferred("bc_short", in, Codec.DELTA5, bcShortCount);
+        bcLocal = decodeBandIntDeferred("bc_local", in, Codec.UNSIGNED5, bcLocalCount);
+        bcLabel = decodeBandIntDeferred("bc_label", in, Codec.BRANCH5, bcLabelCount);
+        bcIntRef = decodeBandIntDeferred("bc_intref", in, Codec.DELTA5, bcIntRefCount);
+        bcFloatRef = decodeBandIntDeferred("bc_floatref", in, Codec.DELTA5,
                 bcFloatRefCount);
-        bcLongRef = decodeBandInt("bc_longref", in, Codec.DELTA5,
+        bcLongRef = decodeBandIntDeferred("bc_longref", in, Codec.DELTA5,
                 bcLongRefCount);
-        bcDoubleRef = decodeBandInt("bc_doubleref", in, Codec.DELTA5,
+        bcDoubleRef = decodeBandIntDeferred("bc_doubleref", in, Codec.DELTA5,
                 bcDoubleRefCount);
-        bcStringRef = decodeBandInt("bc_stringref", in, Codec.DELTA5,
+        bcStringRef = decodeBandIntDeferred("bc_stringref", in, Codec.DELTA5,
                 bcStringRefCount);
-        bcClassRef = decodeBandInt("bc_classref", in, Codec.UNSIGNED5,
+        bcClassRef = decodeBandIntDeferred("bc_classref", in, Codec.UNSIGNED5,
                 bcClassRefCount);
-        bcFieldRef = decodeBandInt("bc_fieldref", in, Codec.DELTA5,
+        bcFieldRef = decodeBandIntDeferred("bc_fieldref", in, Codec.DELTA5,
                 bcFieldRefCount);
-        bcMethodRef = decodeBandInt("bc_methodref", in, Codec.UNSIGNED5,
+        bcMethodRef = decodeBandIntDeferred("bc_methodref", in, Codec.UNSIGNED5,
                 bcMethodRefCount);
-        bcIMethodRef = decodeBandInt("bc_imethodref", in, Codec.DELTA5,
+        bcIMethodRef = decodeBandIntDeferred("bc_imethodref", in, Codec.DELTA5,
                 bcIMethodRefCount);
-        bcThisField = decodeBandInt("bc_thisfield", in, Codec.UNSIGNED5,
+        bcThisField = decodeBandIntDeferred("bc_thisfield", in, Codec.UNSIGNED5,
                 bcThisFieldCount);
-        bcSuperField = decodeBandInt("bc_superfield", in, Codec.UNSIGNED5,
+        bcSuperField = decodeBandIntDeferred("bc_superfield", in, Codec.UNSIGNED5,
                 bcSuperFieldCount);
-        bcThisMethod = decodeBandInt("bc_thismethod", in, Codec.UNSIGNED5,
+        bcThisMethod = decodeBandIntDeferred("bc_thismethod", in, Codec.UNSIGNED5,
                 bcThisMethodCount);
-        bcSuperMethod = decodeBandInt("bc_supermethod", in, Codec.UNSIGNED5,
+        bcSuperMethod = decodeBandIntDeferred("bc_supermethod", in, Codec.UNSIGNED5,
                 bcSuperMethodCount);
-        bcInitRef = decodeBandInt("bc_initref", in, Codec.UNSIGNED5,
+        bcInitRef = decodeBandIntDeferred("bc_initref", in, Codec.UNSIGNED5,
                 bcInitRefCount);
-        bcEscRef = decodeBandInt("bc_escref", in, Codec.UNSIGNED5,
+        bcEscRef = decodeBandIntDeferred("bc_escref", in, Codec.UNSIGNED5,
                 bcEscRefCount);
-        bcEscRefSize = decodeBandInt("bc_escrefsize", in, Codec.UNSIGNED5,
+        bcEscRefSize = decodeBandIntDeferred("bc_escrefsize", in, Codec.UNSIGNED5,
                 bcEscRefCount);
         bcEscSize = decodeBandInt("bc_escsize", in, Codec.UNSIGNED5, bcEscCount);
-        bcEscByte = decodeBandInt("bc_escbyte", in, Codec.BYTE1, bcEscSize);
+        bcEscByte = decodeBandIntDeferred("bc_escbyte", in, Codec.BYTE1, bcEscSize);
 	
 	// When major version is 170 or higher.
 	bcLoadableValueRef =
-		 decodeBandInt("bc_Loadablevalueref", in, Codec.DELTA5,
+		 decodeBandIntDeferred("bc_Loadablevalueref", in, Codec.DELTA5,
 			 bcLoadableValueRefCount);
-	bcIndyRef = decodeBandInt("bc_indyref", in, Codec.DELTA5, bcInvokeDynamicCount);
+	bcIndyRef = decodeBandIntDeferred("bc_indyref", in, Codec.DELTA5, bcInvokeDynamicCount);
     }
 
     public void unpack() throws Pack200Exception {
-        int classCount = header.getClassCount();
+        unpackCode(header.getClassCount());
+    }
+
+    /**
+     * Builds the Code attributes for the methods of the classes before
+     * <code>classCount</code> that have not been built yet. The operands are
+     * read from the bands in class order, so this lets the segment build the
+     * code for each class just before writing it instead of holding the byte
+     * codes for every class at once.
+     *
+     * @param classCount
+     *            the number of classes that need their code attributes
+     * @throws Pack200Exception
+     */
+    void unpackCode(int classCount) throws Pack200Exception {
+        if (classCount <= unpackedClassCount) {
+            return;
+        }
         long[][] methodFlags = segment.getClassBands().getMethodFlags();
         int[] codeMaxNALocals = segment.getClassBands().getCodeMaxNALocals();
         int[] codeMaxStack = segment.getClassBands().getCodeMaxStack();
@@ -386,8 +412,11 @@ class BcBands extends BandSet {
                 .getMethodAttributes();
         String[][] methodDescr = segment.getClassBands().getMethodDescr();
 
-        AttributeLayoutMap attributeDefinitionMap = segment
-                .getAttrDefinitionBands().getAttributeDefinitionMap();
+        AttrDefinitionBands attrDefinitionBands = segment
+                .getAttrDefinitionBands();
+        AttributeLayoutMap attributeDefinitionMap = attrDefinitionBands
+                .getAttributeDefinitionMap();
+        CPUTF8 codeAttributeName = attrDefinitionBands.getAttributeName("Code");
 
         AttributeLayout abstractModifier = attributeDefinitionMap
                 .getAttributeLayout(AttributeLayout.ACC_ABSTRACT,
@@ -399,23 +428,24 @@ class BcBands extends BandSet {
                 .getAttributeLayout(AttributeLayout.ACC_STATIC,
                         AttributeLayout.CONTEXT_METHOD);
 
-        int[] wideByteCodeArray = new int[wideByteCodes.size()];
-        for (int index = 0; index < wideByteCodeArray.length; index++) {
-            wideByteCodeArray[index] = ((Integer) wideByteCodes.get(index))
-                    .intValue();
+        if (operandManager == null) {
+            int[] wideByteCodeArray = new int[wideByteCodes.size()];
+            for (int index = 0; index < wideByteCodeArray.length; index++) {
+                wideByteCodeArray[index] = ((Integer) wideByteCodes.get(index))
+                        .intValue();
+            }
+            operandManager = new OperandManager(bcCaseCount, bcCaseValue,
+                    bcByte, bcShort, bcLocal, bcLabel, bcIntRef, bcFloatRef,
+                    bcLongRef, bcDoubleRef, bcStringRef, bcClassRef,
+                    bcFieldRef, bcMethodRef, bcIMethodRef, bcThisField,
+                    bcSuperField, bcThisMethod, bcSuperMethod, bcInitRef,
+                    wideByteCodeArray, bcLoadableValueRef, bcIndyRef);
+            operandManager.setSegment(segment);
         }
-        OperandManager operandManager = new OperandManager(bcCaseCount,
-                bcCaseValue, bcByte, bcShort, bcLocal, bcLabel, bcIntRef,
-                bcFloatRef, bcLongRef, bcDoubleRef, bcStringRef, bcClassRef,
-                bcFieldRef, bcMethodRef, bcIMethodRef, bcThisField,
-                bcSuperField, bcThisMethod, bcSuperMethod, bcInitRef,
-                wideByteCodeArray, bcLoadableValueRef, bcIndyRef);
-        operandManager.setSegment(segment);
-
-        int i = 0;
+
+        int i = codeIndex;
         ArrayList orderedCodeAttributes = segment.getClassBands()
                 .getOrderedCodeAttributes();
-        int codeAttributeIndex = 0;
 
         // Exception table fields
         int[] handlerCount = segment.getClassBands().getCodeHandlerCount();
@@ -430,7 +460,7 @@ class BcBands extends BandSet {
         boolean allCodeHasFlags = segment.getSegmentHeader().getOptions().hasAllCodeFlags();
         boolean[] codeHasFlags = segment.getClassBands().getCodeHasAttributes();
 
-        for (int c = 0; c < classCount; c++) {
+        for (int c = unpackedClassCount; c < classCount; c++) {
             int numberOfMethods = methodFlags[c].length;
             for (int m = 0; m < numberOfMethods; m++) {
                 long methodFlag = methodFlags[c][m];
@@ -466,8 +496,9 @@ class BcBands extends BandSet {
                             exceptionTable.add(entry);
                         }
                     }
-                    CodeAttribute codeAttr = new CodeAttribute(maxStack,
-                            maxLocal, methodByteCodePacked[c][m], segment,
+                    CodeAttribute codeAttr = new CodeAttribute(
+                            codeAttributeName, maxStack, maxLocal,
+                            methodByteCodePacked[c][m], segment,
                             operandManager, exceptionTable);
                     ArrayList methodAttributesList = methodAttributes[c][m];
                     // Make sure we add the code attribute in the right place
@@ -483,12 +514,15 @@ class BcBands extends BandSet {
                     methodAttributesList.add(indexForCodeAttr, codeAttr);
                     codeAttr.renumber(codeAttr.byteCodeOffsets);
                     List currentAttributes;
+                    // The code attribute keeps its own attributes, so they
+                    // are dropped from the ordered list once they are used
                     if (allCodeHasFlags) {
-                        currentAttributes = (List) orderedCodeAttributes.get(i);
+                        currentAttributes = (List) orderedCodeAttributes.set(i,
+                                null);
                     } else {
                         if (codeHasFlags[i]) {
                             currentAttributes = (List) orderedCodeAttributes
-                                    .get(codeAttributeIndex);
+                                    .set(codeAttributeIndex, null);
                             codeAttributeIndex++;
                         } else {
                             currentAttributes = Collections.EMPTY_LIST;
@@ -508,6 +542,19 @@ class BcBands extends BandSet {
                 }
             }
         }
+        codeIndex = i;
+        unpackedClassCount = classCount;
+    }
+
+    /**
+     * Drops the packed byte codes of a class once its class file has been
+     * written.
+     *
+     * @param classNum
+     *            the index of the class
+     */
+    void releaseClass(int classNum) {
+        methodByteCodePacked[classNum] = null;
     }
 
     private boolean startsWithIf(int codePacked) {
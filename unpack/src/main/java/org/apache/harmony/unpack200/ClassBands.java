@@ -117,6 +117,8 @@ class ClassBands extends BandSet {
 
     private long[][] methodAccessFlags;
 
+    private final AttrDefinitionBands attrDefinitionBands;
+
     private final AttributeLayoutMap attrMap;
 
     private final CpBands cpBands;
@@ -142,8 +144,8 @@ class ClassBands extends BandSet {
      */
     public ClassBands(Segment segment) {
         super(segment);
-        this.attrMap = segment.getAttrDefinitionBands()
-                .getAttributeDefinitionMap();
+        this.attrDefinitionBands = segment.getAttrDefinitionBands();
+        this.attrMap = attrDefinitionBands.getAttributeDefinitionMap();
         this.cpBands = segment.getCpBands();
         this.classCount = header.getClassCount();
         this.options = header.getOptions();
@@ -236,7 +238,8 @@ class ClassBands extends BandSet {
             for (int j = 0; j < fieldFlags[i].length; j++) {
                 long flag = fieldFlags[i][j];
                 if (deprecatedLayout.matches(flag)) {
-                    fieldAttributes[i][j].add(new DeprecatedAttribute());
+                    fieldAttributes[i][j].add(new DeprecatedAttribute(
+                            attributeName("Deprecated")));
                 }
                 if (constantValueLayout.matches(flag)) {
                     // we've got a value to read
@@ -250,7 +253,8 @@ class ClassBands extends BandSet {
                     ClassFileEntry value = constantValueLayout.getValue(result,
                             type, cpBands.getConstantPool());
                     fieldAttributes[i][j]
-                            .add(new ConstantValueAttribute(value));
+                            .add(new ConstantValueAttribute(
+                                    attributeName("ConstantValue"), value));
                     constantValueIndex++;
                 }
                 if (signatureLayout.matches(flag)) {
@@ -261,7 +265,8 @@ class ClassBands extends BandSet {
                     String type = desc.substring(colon + 1);
                     CPUTF8 value = (CPUTF8) signatureLayout.getValue(result,
                             type, cpBands.getConstantPool());
-                    fieldAttributes[i][j].add(new SignatureAttribute(value));
+                    fieldAttributes[i][j].add(new SignatureAttribute(
+                            attributeName("Signature"), value));
                     signatureIndex++;
                 }
             }
@@ -391,7 +396,7 @@ class ClassBands extends BandSet {
                                 .cpClassValue(exceptions[k]);
                     }
                     methodAttributes[i][j].add(new ExceptionsAttribute(
-                            exceptionClasses));
+                            attributeName("Exceptions"), exceptionClasses));
                     methodExceptionsIndex++;
                 }
                 if (methodSignatureLayout.matches(flag)) {
@@ -407,11 +412,13 @@ class ClassBands extends BandSet {
                     CPUTF8 value = (CPUTF8) methodSignatureLayout.getValue(
                             result, type, cpBands.getConstantPool());
                     methodAttributes[i][j]
-                            .add(new SignatureAttribute(value));
+                            .add(new SignatureAttribute(
+                                    attributeName("Signature"), value));
                     methodSignatureIndex++;
                 }
                 if (deprecatedLayout.matches(flag)) {
-                    methodAttributes[i][j].add(new DeprecatedAttribute());
+                    methodAttributes[i][j].add(new DeprecatedAttribute(
+                            attributeName("Deprecated")));
                 }
             }
         }
@@ -460,6 +467,7 @@ class ClassBands extends BandSet {
 			    }
 			    methodAttributes[i][j].add(
 				new MethodParametersAttribute(
+				    attributeName("MethodParameters"),
 				    n,
 				    method_MethodParameters_name_RUN,
 				    method_MethodParameters_flag_FH
@@ -689,7 +697,8 @@ class ClassBands extends BandSet {
         for (int i = 0; i < classCount; i++) {
             long flag = classFlags[i];
             if (deprecatedLayout.matches(classFlags[i])) {
-                classAttributes[i].add(new DeprecatedAttribute());
+                classAttributes[i].add(new DeprecatedAttribute(
+                        attributeName("Deprecated")));
             }
             if (sourceFileLayout.matches(flag)) {
                 long result = classSourceFile[sourceFileIndex];
@@ -717,7 +726,8 @@ class ClassBands extends BandSet {
                     // Add .java to the end
                     value = cpBands.cpUTF8Value(className + ".java", true);
                 }
-                classAttributes[i].add(new SourceFileAttribute((CPUTF8)value));
+                classAttributes[i].add(new SourceFileAttribute(
+                        attributeName("SourceFile"), (CPUTF8) value));
                 sourceFileIndex++;
             }
             if (enclosingMethodLayout.matches(flag)) {
@@ -728,15 +738,16 @@ class ClassBands extends BandSet {
                     theMethod = cpBands
                             .cpNameAndTypeValue(enclosingMethodRDN[enclosingMethodIndex] - 1);
                 }
-                classAttributes[i].add(new EnclosingMethodAttribute(theClass,
-                        theMethod));
+                classAttributes[i].add(new EnclosingMethodAttribute(
+                        attributeName("EnclosingMethod"), theClass, theMethod));
                 enclosingMethodIndex++;
             }
             if (signatureLayout.matches(flag)) {
                 long result = classSignature[signatureIndex];
                 CPUTF8 value = (CPUTF8) signatureLayout.getValue(result, cpBands
                         .getConstantPool());
-                classAttributes[i].add(new SignatureAttribute(value));
+                classAttributes[i].add(new SignatureAttribute(
+                        attributeName("Signature"), value));
                 signatureIndex++;
             }
             if (innerClassLayout.matches(flag)) {
@@ -805,7 +816,7 @@ class ClassBands extends BandSet {
                 AttributeLayout.ATTRIBUTE_CODE, AttributeLayout.CONTEXT_METHOD);
 
         int codeCount = SegmentUtils.countMatches(methodFlags, layout);
-        int[] codeHeaders = decodeBandInt("code_headers", in, Codec.BYTE1,
+        final int[] codeHeaders = decodeBandInt("code_headers", in, Codec.BYTE1,
                 codeCount);
 
         boolean allCodeHasFlags = segment.getSegmentHeader().getOptions().hasAllCodeFlags();
@@ -821,10 +832,10 @@ class ClassBands extends BandSet {
                 }
             }
         }
-        int[] codeMaxStackSpecials = decodeBandInt("code_max_stack", in,
-                Codec.UNSIGNED5, codeSpecialHeader);
-        int[] codeMaxNALocalsSpecials = decodeBandInt("code_max_na_locals", in,
-                Codec.UNSIGNED5, codeSpecialHeader);
+        final int[] codeMaxStackSpecials = decodeBandIntDeferred(
+                "code_max_stack", in, Codec.UNSIGNED5, codeSpecialHeader);
+        final int[] codeMaxNALocalsSpecials = decodeBandIntDeferred(
+                "code_max_na_locals", in, Codec.UNSIGNED5, codeSpecialHeader);
         int[] codeHandlerCountSpecials = decodeBandInt("code_handler_count",
                 in, Codec.UNSIGNED5, codeSpecialHeader);
 
@@ -835,8 +846,7 @@ class ClassBands extends BandSet {
         for (int i = 0; i < codeCount; i++) {
             int codeHeader = 0xff & codeHeaders[i];
 	    if (codeHeader == 0) {
-                codeMaxStack[i] = codeMaxStackSpecials[special];
-                codeMaxNALocals[i] = codeMaxNALocalsSpecials[special];
+                // the max stack and locals are filled in below
                 codeHandlerCount[i] = codeHandlerCountSpecials[special];
                 special++;
             } else if (codeHeader <= 144) {
@@ -855,13 +865,25 @@ class ClassBands extends BandSet {
                 throw new IllegalStateException("Shouldn't get here either");
             }
         }
-        codeHandlerStartP = decodeBandInt("code_handler_start_P", in,
+        afterDecoding(new Runnable() {
+            public void run() {
+                int special = 0;
+                for (int i = 0; i < codeHeaders.length; i++) {
+                    if ((0xff & codeHeaders[i]) == 0) {
+                        codeMaxStack[i] = codeMaxStackSpecials[special];
+                        codeMaxNALocals[i] = codeMaxNALocalsSpecials[special];
+                        special++;
+                    }
+                }
+            }
+        });
+        codeHandlerStartP = decodeBandIntDeferred("code_handler_start_P", in,
                 Codec.BCI5, codeHandlerCount);
-        codeHandlerEndPO = decodeBandInt("code_handler_end_PO", in,
+        codeHandlerEndPO = decodeBandIntDeferred("code_handler_end_PO", in,
                 Codec.BRANCH5, codeHandlerCount);
-        codeHandlerCatchPO = decodeBandInt("code_handler_catch_PO", in,
+        codeHandlerCatchPO = decodeBandIntDeferred("code_handler_catch_PO", in,
                 Codec.BRANCH5, codeHandlerCount);
-        codeHandlerClassRCN = decodeBandInt(
+        codeHandlerClassRCN = decodeBandIntDeferred(
                 "code_handler_class_RCN", in, Codec.UNSIGNED5, codeHandlerCount);
 
         int codeFlagsCount = allCodeHasFlags ? codeCount : codeSpecialHeader;
@@ -1167,7 +1189,8 @@ class ClassBands extends BandSet {
 			fullFrameIndex++;
 		    }
 		}
-		entries[i] = new StackMapTableAttribute(frames);
+		entries[i] = new StackMapTableAttribute(
+			attributeName("StackMapTable"), frames);
 	    }
 	    
 	    int stackMapTableIndex = 0;
@@ -1277,6 +1300,7 @@ class ClassBands extends BandSet {
         for (int i = 0; i < codeFlagsCount; i++) {
             if (lineNumberTableLayout.matches(codeFlags[i])) {
                 LineNumberTableAttribute lnta = new LineNumberTableAttribute(
+                        attributeName("LineNumberTable"),
                         lineNumberTableN[lineNumberIndex],
                         lineNumberTableBciP[lineNumberIndex],
                         lineNumberTableLine[lineNumberIndex]);
@@ -1285,6 +1309,7 @@ class ClassBands extends BandSet {
             }
             if (localVariableTableLayout.matches(codeFlags[i])) {
                 LocalVariableTableAttribute lvta = new LocalVariableTableAttribute(
+                        attributeName("LocalVariableTable"),
                         localVariableTableN[lvtIndex],
                         localVariableTableBciP[lvtIndex],
                         localVariableTableSpanO[lvtIndex],
@@ -1296,6 +1321,7 @@ class ClassBands extends BandSet {
             }
             if (localVariableTypeTableLayout.matches(codeFlags[i])) {
                 LocalVariableTypeTableAttribute lvtta = new LocalVariableTypeTableAttribute(
+                        attributeName("LocalVariableTypeTable"),
                         localVariableTypeTableN[lvttIndex],
                         localVariableTypeTableBciP[lvttIndex],
                         localVariableTypeTableSpanO[lvttIndex],
@@ -1370,7 +1396,8 @@ class ClassBands extends BandSet {
             throws IOException, Pack200Exception {
         MetadataBandGroup[] mbg = new MetadataBandGroup[RxA.length];
         for (int i = 0; i < RxA.length; i++) {
-            mbg[i] = new MetadataBandGroup(RxA[i], cpBands);
+            mbg[i] = new MetadataBandGroup(RxA[i], cpBands,
+                    attrDefinitionBands);
             String rxa = RxA[i];
             if (rxa.indexOf('P') >= 0) {
                 mbg[i].param_NB = decodeBandInt(contextName + "_" + rxa
@@ -1586,6 +1613,13 @@ class ClassBands extends BandSet {
         return numBackwardsCalls;
     }
 
+    /*
+     * The name of a predefined attribute in this segment's constant pool
+     */
+    private CPUTF8 attributeName(String name) {
+        return attrDefinitionBands.getAttributeName(name);
+    }
+
     public ArrayList[] getClassAttributes() {
         return classAttributes;
     }
@@ -1776,6 +1810,19 @@ class ClassBands extends BandSet {
         return codeHandlerStartP;
     }
 
+    /**
+     * Drops the attributes of a class, its fields and its methods once its
+     * class file has been written.
+     *
+     * @param classNum
+     *            the index of the class
+     */
+    void releaseClass(int classNum) {
+        classAttributes[classNum] = null;
+        fieldAttributes[classNum] = null;
+        methodAttributes[classNum] = null;
+    }
+
     public IcTuple[][] getIcLocal() {
         return icLocal;
     }
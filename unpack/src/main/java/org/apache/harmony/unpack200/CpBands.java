@@ -21,6 +21,8 @@ import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import org.apache.harmony.unpack200.codec.Codec;
 import org.apache.harmony.unpack200.common.Pack200Exception;
@@ -90,21 +92,33 @@ class CpBands extends BandSet {
     private int[] cpInvokeDynamicSpec;
     private int[] cpInvokeDynamicDescr;
     
-    private final Map stringsToCPUTF8 = new HashMap();
-    private final Map stringsToCPStrings = new HashMap();
-    private final Map longsToCPLongs = new HashMap();
-    private final Map integersToCPIntegers = new HashMap();
-    private final Map floatsToCPFloats = new HashMap();
-    private final Map stringsToCPClass = new HashMap();
-    private final Map doublesToCPDoubles = new HashMap();
-    private final Map descriptorsToCPNameAndTypes = new HashMap();
-
-    private Map mapClass;
-    private Map mapDescriptor;
-    private Map mapUTF8;
+    // The entries are shared by every class in the segment, and class files
+    // may be built on several threads at once. An entry's global index only
+    // depends on its value, never on which class asked for it first, so the
+    // class files come out the same whatever order they are built in.
+    private final ConcurrentMap<String, CPUTF8> stringsToCPUTF8 =
+            new ConcurrentHashMap<String, CPUTF8>();
+    private final ConcurrentMap<String, CPString> stringsToCPStrings =
+            new ConcurrentHashMap<String, CPString>();
+    private final ConcurrentMap<Long, CPLong> longsToCPLongs =
+            new ConcurrentHashMap<Long, CPLong>();
+    private final ConcurrentMap<Integer, CPInteger> integersToCPIntegers =
+            new ConcurrentHashMap<Integer, CPInteger>();
+    private final ConcurrentMap<Float, CPFloat> floatsToCPFloats =
+            new ConcurrentHashMap<Float, CPFloat>();
+    private final ConcurrentMap<String, CPClass> stringsToCPClass =
+            new ConcurrentHashMap<String, CPClass>();
+    private final ConcurrentMap<Double, CPDouble> doublesToCPDoubles =
+            new ConcurrentHashMap<Double, CPDouble>();
+    private final ConcurrentMap<String, CPNameAndType> descriptorsToCPNameAndTypes =
+            new ConcurrentHashMap<String, CPNameAndType>();
+
+    private Map<String, Integer> mapClass;
+    private Map<String, Integer> mapDescriptor;
+    private Map<String, Integer> mapUTF8;
 
 // TODO: Not used
-    private Map mapSignature;
+    private Map<String, Integer> mapSignature;
 
     // All group
     private int intOffset;
@@ -221,7 +235,7 @@ class CpBands extends BandSet {
         int cpClassCount = header.getCpClassCount();
         cpClassInts = decodeBandInt("cp_Class", in, Codec.UDELTA5, cpClassCount);
         cpClass = new String[cpClassCount];
-        mapClass = new HashMap(cpClassCount);
+        mapClass = new HashMap<String, Integer>(cpClassCount);
         for (int i = 0; i < cpClassCount; i++) {
             cpClass[i] = cpUTF8[cpClassInts[i]];
             mapClass.put(cpClass[i], Integer.valueOf(i));
@@ -255,7 +269,7 @@ class CpBands extends BandSet {
         String[] cpDescriptorTypes = getReferences(cpDescriptorTypeInts,
                 cpSignature);
         cpDescriptor = new String[cpDescriptorCount];
-        mapDescriptor = new HashMap(cpDescriptorCount);
+        mapDescriptor = new HashMap<String, Integer>(cpDescriptorCount);
         for (int i = 0; i < cpDescriptorCount; i++) {
             cpDescriptor[i] = cpDescriptorNames[i] + ":" + cpDescriptorTypes[i]; //$NON-NLS-1$
             mapDescriptor.put(cpDescriptor[i], Integer.valueOf(i));
@@ -408,7 +422,7 @@ class CpBands extends BandSet {
                 Codec.DELTA5, cpSignatureCount);
         String[] cpSignatureForm = getReferences(cpSignatureInts, cpUTF8);
         cpSignature = new String[cpSignatureCount];
-        mapSignature = new HashMap();
+        mapSignature = new HashMap<String, Integer>();
         int lCount = 0;
         for (int i = 0; i < cpSignatureCount; i++) {
             String form = cpSignatureForm[i];
@@ -475,7 +489,7 @@ class CpBands extends BandSet {
             Pack200Exception {
         int cpUTF8Count = header.getCpUTF8Count();
         cpUTF8 = new String[cpUTF8Count];
-        mapUTF8 = new HashMap(cpUTF8Count+1);
+        mapUTF8 = new HashMap<String, Integer>(cpUTF8Count+1);
         cpUTF8[0] = ""; //$NON-NLS-1$
         mapUTF8.put("", Integer.valueOf(0));
         int[] prefix = decodeBandInt("cpUTF8Prefix", in, Codec.DELTA5,
@@ -526,15 +540,21 @@ class CpBands extends BandSet {
                 // surprised if it works first time w/o errors ...
                 cpUTF8[i] = lastString.substring(0, i > 1 ? prefix[i - 2] : 0)
                         + new String(bigSuffixData[bigSuffixCount++]);
-                mapUTF8.put(cpUTF8[i], Integer.valueOf(i));
+                putFirstUTF8Index(cpUTF8[i], i);
             } else {
                 cpUTF8[i] = lastString.substring(0, i > 1 ? prefix[i - 2] : 0)
                         + new String(data, charCount, suffix[i - 1]);
                 charCount += suffix[i - 1];
-                mapUTF8.put(cpUTF8[i], Integer.valueOf(i));
+                putFirstUTF8Index(cpUTF8[i], i);
             }
         }
     }
+
+    private void putFirstUTF8Index(String string, int index) {
+        if (!mapUTF8.containsKey(string)) {
+            mapUTF8.put(string, Integer.valueOf(index));
+        }
+    }
     
     private void parseCpMethodHandle(InputStream in) throws IOException, Pack200Exception {
 	int cpMethodHandleCount = header.getCpMethodHandleCount();
@@ -630,12 +650,9 @@ class CpBands extends BandSet {
 	if (index >= cpUTF8.length) throw new ArrayIndexOutOfBoundsException(
 		"Index: " + index + " Length: "+ cpUTF8.length);
         String string = cpUTF8[index];
-        CPUTF8 cputf8 = (CPUTF8) stringsToCPUTF8.get(string);
+        CPUTF8 cputf8 = stringsToCPUTF8.get(string);
         if (cputf8 == null) {
-            cputf8 = new CPUTF8(string, index);
-            stringsToCPUTF8.put(string, cputf8);
-        } else if(cputf8.getGlobalIndex() > index) {
-            cputf8.setGlobalIndex(index);
+            cputf8 = putUTF8(new CPUTF8(string, utf8GlobalIndex(string, index)));
         }
         return cputf8;
     }
@@ -644,66 +661,101 @@ class CpBands extends BandSet {
         return cpUTF8Value(string, true);
     }
 
+    /**
+     * Answers the CPUTF8 for a string that may not be in the segment's
+     * constant pool. A string that is in cp_Utf8 or cp_Signature always gets
+     * the entry for its index there, even if <code>searchForIndex</code> is
+     * false, so that the entry is the same whichever class creates it first.
+     */
     public CPUTF8 cpUTF8Value(String string, boolean searchForIndex) {
-        CPUTF8 cputf8 = (CPUTF8) stringsToCPUTF8.get(string);
+        CPUTF8 cputf8 = stringsToCPUTF8.get(string);
         if (cputf8 == null) {
-        	Integer index = null;
-        	if(searchForIndex) {
-            	index = (Integer)mapUTF8.get(string);
-            }
-            if(index != null) {
-            	return cpUTF8Value(index.intValue());
+            Integer index = mapUTF8.get(string);
+            if (index != null) {
+                return cpUTF8Value(index.intValue());
             }
-            if(searchForIndex) {
-                index = (Integer)mapSignature.get(string);
+            index = mapSignature.get(string);
+            if (index != null) {
+                return cpSignatureValue(index.intValue());
             }
-            if(index != null) {
-            	return cpSignatureValue(index.intValue());
-            }
-            cputf8 = new CPUTF8(string, -1);
-            stringsToCPUTF8.put(string, cputf8);
+            cputf8 = putUTF8(new CPUTF8(string, -1));
         }
         return cputf8;
     }
 
+    /*
+     * A string in cp_Utf8 sorts by its first index there, even when it is
+     * looked up as a signature
+     */
+    private int utf8GlobalIndex(String string, int globalIndex) {
+        Integer index = mapUTF8.get(string);
+        if (index != null && index.intValue() < globalIndex) {
+            return index.intValue();
+        }
+        return globalIndex;
+    }
+
+    /*
+     * Adds a new CPUTF8 to the cache, unless another thread has just added one
+     * for the same string, and answers the cached entry
+     */
+    private CPUTF8 putUTF8(CPUTF8 cputf8) {
+        CPUTF8 existing = stringsToCPUTF8.putIfAbsent(cputf8
+                .underlyingString(), cputf8);
+        return existing != null ? existing : cputf8;
+    }
+
     public CPString cpStringValue(int index) {
         String string = cpString[index];
         int utf8Index = cpStringInts[index];
         int globalIndex = stringOffset + index;
-        CPString cpString = (CPString) stringsToCPStrings.get(string);
+        CPString cpString = stringsToCPStrings.get(string);
         if (cpString == null) {
             cpString = new CPString(cpUTF8Value(utf8Index), globalIndex);
-            stringsToCPStrings.put(string, cpString);
+            CPString existing = stringsToCPStrings.putIfAbsent(
+                    string, cpString);
+            if (existing != null) {
+                cpString = existing;
+            }
         }
         return cpString;
     }
 
     public CPLong cpLongValue(int index) {
         Long l = Long.valueOf(cpLong[index]);
-        CPLong cpLong = (CPLong) longsToCPLongs.get(l);
+        CPLong cpLong = longsToCPLongs.get(l);
         if (cpLong == null) {
             cpLong = new CPLong(l, index + longOffset);
-            longsToCPLongs.put(l, cpLong);
+            CPLong existing = longsToCPLongs.putIfAbsent(l, cpLong);
+            if (existing != null) {
+                cpLong = existing;
+            }
         }
         return cpLong;
     }
 
     public CPInteger cpIntegerValue(int index) {
         Integer i = Integer.valueOf(cpInt[index]);
-        CPInteger cpInteger = (CPInteger) integersToCPIntegers.get(i);
+        CPInteger cpInteger = integersToCPIntegers.get(i);
         if (cpInteger == null) {
             cpInteger = new CPInteger(i, index + intOffset);
-            integersToCPIntegers.put(i, cpInteger);
+            CPInteger existing = integersToCPIntegers.putIfAbsent(i, cpInteger);
+            if (existing != null) {
+                cpInteger = existing;
+            }
         }
         return cpInteger;
     }
 
     public CPFloat cpFloatValue(int index) {
         Float f = Float.valueOf(cpFloat[index]);
-        CPFloat cpFloat = (CPFloat) floatsToCPFloats.get(f);
+        CPFloat cpFloat = floatsToCPFloats.get(f);
         if (cpFloat == null) {
             cpFloat = new CPFloat(f, index + floatOffset);
-            floatsToCPFloats.put(f, cpFloat);
+            CPFloat existing = floatsToCPFloats.putIfAbsent(f, cpFloat);
+            if (existing != null) {
+                cpFloat = existing;
+            }
         }
         return cpFloat;
     }
@@ -712,40 +764,49 @@ class CpBands extends BandSet {
         String string = cpClass[index];
         int utf8Index = cpClassInts[index];
         int globalIndex = classOffset + index;
-        CPClass cpString = (CPClass) stringsToCPClass.get(string);
+        CPClass cpString = stringsToCPClass.get(string);
         if (cpString == null) {
-            cpString = new CPClass(cpUTF8Value(utf8Index), globalIndex);
-            stringsToCPClass.put(string, cpString);
+            cpString = putClass(string, new CPClass(cpUTF8Value(utf8Index),
+                    globalIndex));
         }
         return cpString;
     }
 
     public CPClass cpClassValue(String string) {
-        CPClass cpString = (CPClass) stringsToCPClass.get(string);
+        CPClass cpString = stringsToCPClass.get(string);
         if (cpString == null) {
-        	Integer index = (Integer)mapClass.get(string);
+        	Integer index = mapClass.get(string);
         	if(index != null) {
         		return cpClassValue(index.intValue());
             }
-            cpString = new CPClass(cpUTF8Value(string, false), -1);
-            stringsToCPClass.put(string, cpString);
+            cpString = putClass(string, new CPClass(cpUTF8Value(string,
+                    false), -1));
         }
         return cpString;
     }
 
+    private CPClass putClass(String string, CPClass cpClass) {
+        CPClass existing = stringsToCPClass.putIfAbsent(string,
+                cpClass);
+        return existing != null ? existing : cpClass;
+    }
+
     public CPDouble cpDoubleValue(int index) {
         Double dbl = Double.valueOf(cpDouble[index]);
-        CPDouble cpDouble = (CPDouble) doublesToCPDoubles.get(dbl);
+        CPDouble cpDouble = doublesToCPDoubles.get(dbl);
         if (cpDouble == null) {
             cpDouble = new CPDouble(dbl, index + doubleOffset);
-            doublesToCPDoubles.put(dbl, cpDouble);
+            CPDouble existing = doublesToCPDoubles.putIfAbsent(dbl, cpDouble);
+            if (existing != null) {
+                cpDouble = existing;
+            }
         }
         return cpDouble;
     }
 
     public CPNameAndType cpNameAndTypeValue(int index) {
         String descriptor = cpDescriptor[index];
-        CPNameAndType cpNameAndType = (CPNameAndType) descriptorsToCPNameAndTypes
+        CPNameAndType cpNameAndType = descriptorsToCPNameAndTypes
                 .get(descriptor);
         if (cpNameAndType == null) {
             int nameIndex = cpDescriptorNameInts[index];
@@ -753,8 +814,8 @@ class CpBands extends BandSet {
 
             CPUTF8 name = cpUTF8Value(nameIndex);
             CPUTF8 descriptorU = cpSignatureValue(descriptorIndex);
-            cpNameAndType = new CPNameAndType(name, descriptorU, index + descrOffset);
-            descriptorsToCPNameAndTypes.put(descriptor, cpNameAndType);
+            cpNameAndType = putNameAndType(descriptor, new CPNameAndType(name,
+                    descriptorU, index + descrOffset));
         }
         return cpNameAndType;
     }
@@ -827,19 +888,19 @@ class CpBands extends BandSet {
 	    throw new ArrayIndexOutOfBoundsException(
 		    "Index: " + index + " Length: "+ cpSignature.length);
         String string = cpSignature[index];
-        CPUTF8 cpUTF8 = (CPUTF8) stringsToCPUTF8.get(string);
+        CPUTF8 cpUTF8 = stringsToCPUTF8.get(string);
         if(cpUTF8 == null) {
-            cpUTF8 = new CPUTF8(string, globalIndex);
-            stringsToCPUTF8.put(string, cpUTF8);
+            cpUTF8 = putUTF8(new CPUTF8(string, utf8GlobalIndex(string,
+                    globalIndex)));
         }
         return cpUTF8;
     }
 
     public CPNameAndType cpNameAndTypeValue(String descriptor) {
-        CPNameAndType cpNameAndType = (CPNameAndType) descriptorsToCPNameAndTypes
+        CPNameAndType cpNameAndType = descriptorsToCPNameAndTypes
             .get(descriptor);
         if (cpNameAndType == null) {
-        	Integer index = (Integer)mapDescriptor.get(descriptor);
+        	Integer index = mapDescriptor.get(descriptor);
         	if(index != null) {
         		return cpNameAndTypeValue(index.intValue());
             }
@@ -849,12 +910,19 @@ class CpBands extends BandSet {
 
             CPUTF8 name = cpUTF8Value(nameString, true);
             CPUTF8 descriptorU = cpUTF8Value(descriptorString, true);
-            cpNameAndType = new CPNameAndType(name, descriptorU, -1 + descrOffset);
-            descriptorsToCPNameAndTypes.put(descriptor, cpNameAndType);
+            cpNameAndType = putNameAndType(descriptor, new CPNameAndType(name,
+                    descriptorU, -1 + descrOffset));
         }
         return cpNameAndType;
     }
 
+    private CPNameAndType putNameAndType(String descriptor,
+            CPNameAndType cpNameAndType) {
+        CPNameAndType existing = descriptorsToCPNameAndTypes
+                .putIfAbsent(descriptor, cpNameAndType);
+        return existing != null ? existing : cpNameAndType;
+    }
+
     public int[] getCpDescriptorNameInts() {
         return cpDescriptorNameInts;
     }
@@ -16,9 +16,12 @@
  */
 package org.apache.harmony.unpack200;
 
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
 
+import org.apache.harmony.unpack200.codec.ByteBufferInputStream;
 import org.apache.harmony.unpack200.codec.Codec;
 import org.apache.harmony.unpack200.common.Pack200Exception;
 
@@ -26,13 +29,17 @@ import org.apache.harmony.unpack200.common.Pack200Exception;
  * Parses the file band headers (not including the actual bits themselves). At
  * the end of this parse call, the input stream will be positioned at the start
  * of the file_bits themselves, and there will be Sum(file_size) bits remaining
- * in the stream with BYTE1 compression. A decent implementation will probably
- * just stream the bytes out to the reconstituted Jar rather than caching them.
+ * in the stream with BYTE1 compression. The bits are either read as each file
+ * is written (see {@link #getFileBitsInputStream(int)}), or all at once by
+ * {@link #processFileBits()} when the segment is read ahead of being written.
  */
 class FileBands extends BandSet {
 
     private byte[][] fileBits;
 
+    // the bits of each file, when they are sliced out of a buffer
+    private ByteBuffer[] fileBuffers;
+
     private int[] fileModtime;
 
     private String[] fileName;
@@ -66,15 +73,21 @@ class FileBands extends BandSet {
                 numberOfFiles, cpUTF8);
         fileSize = parseFlags("file_size", in, numberOfFiles, Codec.UNSIGNED5,
                 options.hasFileSizeHi());
+        if (!options.hasFileSizeHi()) {
+            // sizes of 2GB or more are still unsigned
+            for (int i = 0; i < numberOfFiles; i++) {
+                fileSize[i] &= 0xFFFFFFFFL;
+            }
+        }
         if (options.hasFileModtime()) {
-            fileModtime = decodeBandInt("file_modtime", in, Codec.DELTA5,
-                    numberOfFiles);
+            fileModtime = decodeBandIntDeferred("file_modtime", in,
+                    Codec.DELTA5, numberOfFiles);
         } else {
             fileModtime = new int[numberOfFiles];
         }
         if (options.hasFileOptions()) {
-            fileOptions = decodeBandInt("file_options", in, Codec.UNSIGNED5,
-                    numberOfFiles);
+            fileOptions = decodeBandIntDeferred("file_options", in,
+                    Codec.UNSIGNED5, numberOfFiles);
         } else {
             fileOptions = new int[numberOfFiles];
         }
@@ -82,22 +95,93 @@ class FileBands extends BandSet {
         // later
     }
 
-    // TODO: stream the file bits directly somehow
+    /**
+     * Reads the bits of every file, for a segment that is read before it is
+     * written. The bits are sliced out of a ByteBufferInputStream, but have
+     * to be read into memory from any other stream, so no file may be 2GB or
+     * more.
+     *
+     * @throws IOException
+     * @throws Pack200Exception
+     *             if the stream ends before the end of the bits, or a file
+     *             is too large
+     */
     public void processFileBits() throws IOException, Pack200Exception {
         // now read in the bytes
         int numberOfFiles = header.getNumberOfFiles();
+        if (in instanceof ByteBufferInputStream) {
+            // slice the bytes out of the buffer, and only copy each file's
+            // out when it is written
+            fileBuffers = new ByteBuffer[numberOfFiles];
+            for (int i = 0; i < numberOfFiles; i++) {
+                fileBuffers[i] = ((ByteBufferInputStream) in)
+                        .slice(arraySize(i));
+            }
+            return;
+        }
         fileBits = new byte[numberOfFiles][];
         for (int i = 0; i < numberOfFiles; i++) {
-            int size = (int) fileSize[i];
-            // TODO This breaks if file_size > 2^32. Probably an array is
-            // not the right choice, and we should just serialize it here?
-            fileBits[i] = new byte[size];
-            int read = in.read(fileBits[i]);
-            if (size != 0 && read < size) {
-                throw new Pack200Exception("Expected to read " + size
-                        + " bytes but read " + read);
-            }
+            fileBits[i] = readFileBits(i);
+        }
+    }
+
+    /**
+     * Reads the bits of one file from the stream. The files must be read in
+     * order, and this must not be mixed with processFileBits().
+     *
+     * @param fileNum
+     *            the index of the file
+     * @return the contents of the file
+     * @throws IOException
+     *             if the stream ends before the end of the file
+     * @throws Pack200Exception
+     *             if the file is too large to read into memory
+     */
+    byte[] readFileBits(int fileNum) throws IOException, Pack200Exception {
+        byte[] bits = new byte[arraySize(fileNum)];
+        if (bits.length > 0) {
+            SegmentHeader.readFully(in, bits);
         }
+        return bits;
+    }
+
+    /**
+     * Answers a stream of the bits of one file, which must be read to the end
+     * before the next file's. Unless processFileBits() has been called, the
+     * files must be read in order, and the bits are read from the segment's
+     * stream as they are read from this one, so a file needn't fit in memory.
+     *
+     * @param fileNum
+     *            the index of the file
+     * @return a stream of the file's <code>getFileSize()[fileNum]</code>
+     *         bytes
+     * @throws IOException
+     * @throws Pack200Exception
+     */
+    InputStream getFileBitsInputStream(int fileNum) throws IOException,
+            Pack200Exception {
+        if (fileBits != null) {
+            return new ByteBufferInputStream(ByteBuffer.wrap(fileBits[fileNum]));
+        } else if (fileBuffers != null) {
+            return new ByteBufferInputStream(fileBuffers[fileNum].duplicate());
+        } else if (in instanceof ByteBufferInputStream
+                && fileSize[fileNum] <= Integer.MAX_VALUE) {
+            return new ByteBufferInputStream(((ByteBufferInputStream) in)
+                    .slice((int) fileSize[fileNum]));
+        }
+        return new FileBitsInputStream(in, fileSize[fileNum]);
+    }
+
+    /*
+     * The size of a file whose bits are to be held in one array or buffer
+     */
+    private int arraySize(int fileNum) throws Pack200Exception {
+        if (fileSize[fileNum] > Integer.MAX_VALUE) {
+            throw new Pack200Exception("File " + fileName[fileNum]
+                    + " is too large to read into memory ("
+                    + fileSize[fileNum] + " bytes)");
+        }
+        return (int) fileSize[fileNum];
     }
 
     public void unpack() {
@@ -105,9 +189,32 @@ class FileBands extends BandSet {
     }
 
     public byte[][] getFileBits() {
+        if (fileBits == null && fileBuffers != null) {
+            fileBits = new byte[fileBuffers.length][];
+            for (int i = 0; i < fileBuffers.length; i++) {
+                fileBits[i] = getFileBits(i);
+            }
+        }
         return fileBits;
     }
 
+    /**
+     * Answers the bits of one file, once processFileBits() has been called.
+     *
+     * @param fileNum
+     *            the index of the file
+     * @return the contents of the file
+     */
+    byte[] getFileBits(int fileNum) {
+        if (fileBits != null) {
+            return fileBits[fileNum];
+        }
+        ByteBuffer buffer = fileBuffers[fileNum].duplicate();
+        byte[] bits = new byte[buffer.remaining()];
+        buffer.get(bits);
+        return bits;
+    }
+
     public int[] getFileModtime() {
         return fileModtime;
     }
@@ -124,4 +231,57 @@ class FileBands extends BandSet {
         return fileSize;
     }
 
+    /**
+     * Reads up to the end of one file's bits from the segment's stream,
+     * without closing it.
+     */
+    private static class FileBitsInputStream extends FilterInputStream {
+
+        private long remaining;
+
+        FileBitsInputStream(InputStream in, long size) {
+            super(in);
+            remaining = size;
+        }
+
+        public int read() throws IOException {
+            if (remaining == 0) {
+                return -1;
+            }
+            int b = in.read();
+            if (b != -1) {
+                remaining--;
+            }
+            return b;
+        }
+
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (remaining == 0) {
+                return len == 0 ? 0 : -1;
+            }
+            int read = in.read(b, off, (int) Math.min(len, remaining));
+            if (read > 0) {
+                remaining -= read;
+            }
+            return read;
+        }
+
+        public long skip(long n) throws IOException {
+            long skipped = in.skip(Math.min(n, remaining));
+            remaining -= skipped;
+            return skipped;
+        }
+
+        public int available() throws IOException {
+            return (int) Math.min(in.available(), remaining);
+        }
+
+        public boolean markSupported() {
+            return false;
+        }
+
+        public void close() {
+        }
+    }
+
 }
@@ -303,15 +303,17 @@ class IcTuple {
         return true;
     }
 
-    private boolean hashcodeComputed;
+    private volatile boolean hashcodeComputed;
     private int cachedHashCode;
 
     private void generateHashCode() {
-        hashcodeComputed = true;
         cachedHashCode = 17;
         if(C != null) { cachedHashCode =+ C.hashCode(); }
         if(C2 != null) { cachedHashCode =+ C2.hashCode(); }
         if(N != null) { cachedHashCode =+ N.hashCode(); }
+        // set last: the hash is built up in steps, and other threads may be
+        // asking for it at the same time
+        hashcodeComputed = true;
     }
 
     public int hashCode() {
@@ -0,0 +1,112 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.harmony.unpack200;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+
+/**
+ * A JarWriter that writes each entry to a JarOutputStream, which deflates it
+ * on the calling thread.
+ */
+public class JarOutputStreamWriter implements JarWriter {
+
+    private final JarOutputStream out;
+
+    public JarOutputStreamWriter(JarOutputStream out) {
+        this.out = out;
+    }
+
+    public void write(JarEntry entry, byte[] contents) throws IOException {
+        if (entry.getMethod() == ZipEntry.STORED) {
+            // a stored entry's size and CRC go in its local header
+            CRC32 crc = new CRC32();
+            crc.update(contents);
+            entry.setSize(contents.length);
+            entry.setCrc(crc.getValue());
+        }
+        out.putNextEntry(entry);
+        out.write(contents);
+    }
+
+    public void write(JarEntry entry, InputStream contents, long size)
+            throws IOException {
+        if (entry.getMethod() == ZipEntry.STORED) {
+            StoredContents stored = new StoredContents(contents, size);
+            try {
+                entry.setSize(size);
+                entry.setCrc(stored.getCrc());
+                out.putNextEntry(entry);
+                writeContents(entry, stored.getInputStream(), size);
+            } finally {
+                stored.close();
+            }
+        } else {
+            // JarOutputStream writes the sizes and CRC after the data
+            out.putNextEntry(entry);
+            writeContents(entry, contents, size);
+        }
+    }
+
+    private void writeContents(JarEntry entry, InputStream in, long size)
+            throws IOException {
+        byte[] bytes = new byte[StoredContents.BUFFER_SIZE];
+        long remaining = size;
+        while (remaining > 0) {
+            int n = in.read(bytes, 0, (int) Math.min(bytes.length, remaining));
+            if (n == -1) {
+                throw new EOFException("Unexpected end of jar entry "
+                        + entry.getName());
+            }
+            out.write(bytes, 0, n);
+            remaining -= n;
+        }
+    }
+
+    public void copy(RawJarEntry entry) throws IOException {
+        // JarOutputStream deflates whatever it is given, so the entry has to
+        // be inflated first
+        out.putNextEntry(entry.toJarEntry());
+        InputStream in = entry.getInputStream();
+        try {
+            byte[] bytes = new byte[16384];
+            int bytesRead;
+            while ((bytesRead = in.read(bytes)) != -1) {
+                out.write(bytes, 0, bytesRead);
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    public void setComment(String comment) {
+        out.setComment(comment);
+    }
+
+    public void flush() throws IOException {
+        out.flush();
+    }
+
+    public void close() throws IOException {
+        out.close();
+    }
+}
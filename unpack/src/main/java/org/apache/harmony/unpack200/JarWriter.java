@@ -0,0 +1,93 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.harmony.unpack200;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.jar.JarEntry;
+
+/**
+ * Where unpacked entries are written. Entries are given in order, whole or as
+ * a stream; an entry's method is {@link java.util.zip.ZipEntry#DEFLATED} or
+ * {@link java.util.zip.ZipEntry#STORED}, and its name and time are written as
+ * given. The size and CRC of the entry are worked out from the contents.
+ *
+ * @see JarOutputStreamWriter
+ * @see ParallelJarWriter
+ */
+public interface JarWriter {
+
+    /**
+     * Writes an entry. The writer may keep <code>contents</code> until the
+     * entry has been written, so the caller must not change it.
+     *
+     * @param entry
+     *            the name, time and method of the entry
+     * @param contents
+     *            the uncompressed contents of the entry
+     * @throws IOException
+     */
+    public void write(JarEntry entry, byte[] contents) throws IOException;
+
+    /**
+     * Writes an entry whose contents are read from a stream in chunks, rather
+     * than given whole, so that they needn't fit in memory. Exactly
+     * <code>size</code> bytes are read, and the stream is not closed. Entries
+     * of 4GB or more are written with ZIP64 sizes.
+     *
+     * @param entry
+     *            the name, time and method of the entry
+     * @param contents
+     *            the stream to read the uncompressed contents of the entry
+     *            from
+     * @param size
+     *            the size of the contents
+     * @throws IOException
+     *             if the stream ends before <code>size</code> bytes have been
+     *             read
+     */
+    public void write(JarEntry entry, InputStream contents, long size)
+            throws IOException;
+
+    /**
+     * Copies an entry read from another jar. Where the writer can, the data,
+     * CRC and sizes of the entry are written as they are, without inflating
+     * and deflating it again.
+     *
+     * @param entry
+     *            the entry, whose data has not been read
+     * @throws IOException
+     */
+    public void copy(RawJarEntry entry) throws IOException;
+
+    public void setComment(String comment);
+
+    /**
+     * Writes out every entry given so far, and flushes the output.
+     *
+     * @throws IOException
+     */
+    public void flush() throws IOException;
+
+    /**
+     * Writes out every entry given so far and finishes the jar, then closes
+     * the output.
+     *
+     * @throws IOException
+     */
+    public void close() throws IOException;
+}
@@ -31,6 +31,9 @@ public class Main {
         boolean overrideDeflateHint = false;
         boolean deflateHint = false;
         String logFileName = null;
+        int threads = 1;
+        boolean pipelined = false;
+        boolean parallelSegments = false;
 
         for (int i = 0; i < args.length; i++) {
             if (args[i].equals("--help") || args[i].equals("-help")
@@ -53,6 +56,14 @@ public class Main {
             } else if(args[i].equals("-q") || args[i].equals("--quiet")) {
                 quiet = true;
                 verbose = false;
+            } else if(args[i].startsWith("-T")) {
+                threads = Integer.parseInt(args[i].substring(2));
+            } else if(args[i].startsWith("--threads=")) {
+                threads = Integer.parseInt(args[i].substring(10));
+            } else if(args[i].equals("--pipeline")) {
+                pipelined = true;
+            } else if(args[i].equals("--parallel-segments")) {
+                parallelSegments = true;
             } else if(args[i].startsWith("-l")) {
                 logFileName = args[i].substring(2);
             } else if(args[i].equals("-V") || args[i].equals("--version")) {
@@ -74,6 +85,9 @@ public class Main {
         archive.setRemovePackFile(removePackFile);
         archive.setVerbose(verbose);
         archive.setQuiet(quiet);
+        archive.setThreads(threads);
+        archive.setPipelined(pipelined);
+        archive.setParallelSegments(parallelSegments);
         if(overrideDeflateHint) {
             archive.setDeflateHint(deflateHint);
         }
@@ -97,6 +111,9 @@ public class Main {
         System.out.println("-v, --verbose              Print verbose output");
         System.out.println("-q, --quiet                Print no output");
         System.out.println("-l{F}, --log-file={F}      Print output to the log file {F}");
+        System.out.println("-T{N}, --threads={N}       Build class files with N threads, 0 for all CPUs (default N=1)");
+        System.out.println("--pipeline                 Read, process and write segments on separate threads");
+        System.out.println("--parallel-segments        Decode whole segments concurrently on the -T threads");
         System.out.println("-?, -h, --help             Show the help message");
         System.out.println("-V, --version              Show the program version number");
     }
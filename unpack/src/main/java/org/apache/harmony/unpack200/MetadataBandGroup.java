@@ -41,31 +41,13 @@ class MetadataBandGroup {
 
     private final String type;
     private final CpBands cpBands;
+    private final AttrDefinitionBands attrDefinitionBands;
 
-    private static CPUTF8 rvaUTF8;
-    private static CPUTF8 riaUTF8;
-    private static CPUTF8 rvpaUTF8;
-    private static CPUTF8 ripaUTF8;
-
-    public static void setRvaAttributeName(CPUTF8 cpUTF8Value) {
-        rvaUTF8 = cpUTF8Value;
-    }
-
-    public static void setRiaAttributeName(CPUTF8 cpUTF8Value) {
-        riaUTF8 = cpUTF8Value;
-    }
-
-    public static void setRvpaAttributeName(CPUTF8 cpUTF8Value) {
-        rvpaUTF8 = cpUTF8Value;
-    }
-
-    public static void setRipaAttributeName(CPUTF8 cpUTF8Value) {
-        ripaUTF8 = cpUTF8Value;
-    }
-
-    public MetadataBandGroup(String type, CpBands cpBands) {
+    public MetadataBandGroup(String type, CpBands cpBands,
+            AttrDefinitionBands attrDefinitionBands) {
         this.type = type;
         this.cpBands = cpBands;
+        this.attrDefinitionBands = attrDefinitionBands;
     }
 
     private List attributes;
@@ -156,6 +138,8 @@ class MetadataBandGroup {
             } else if(type.equals("AD")){
                 for (int i = 0; i < T.length; i++) {
                     attributes.add(new AnnotationDefaultAttribute(
+                            attrDefinitionBands
+                                    .getAttributeName("AnnotationDefault"),
                             new ElementValue(T[i], getNextValue(T[i]))));
                 }
             }
@@ -170,8 +154,10 @@ class MetadataBandGroup {
             annotations[i] = getAnnotation(types[i], pairCounts[i],
                     namesIterator);
         }
-        return new RuntimeVisibleorInvisibleAnnotationsAttribute(type
-                .equals("RVA") ? rvaUTF8 : riaUTF8, annotations);
+        return new RuntimeVisibleorInvisibleAnnotationsAttribute(
+                attrDefinitionBands.getAttributeName(type.equals("RVA")
+                        ? "RuntimeVisibleAnnotations"
+                        : "RuntimeInvisibleAnnotations"), annotations);
     }
 
     private Attribute getParameterAttribute(int numParameters,
@@ -188,7 +174,9 @@ class MetadataBandGroup {
             parameter_annotations[i] = new ParameterAnnotation(annotations);
         }
         return new RuntimeVisibleorInvisibleParameterAnnotationsAttribute(
-                type.equals("RVPA") ? rvpaUTF8 : ripaUTF8,
+                attrDefinitionBands.getAttributeName(type.equals("RVPA")
+                        ? "RuntimeVisibleParameterAnnotations"
+                        : "RuntimeInvisibleParameterAnnotations"),
                 parameter_annotations);
     }
 
@@ -16,11 +16,11 @@
  */
 package org.apache.harmony.unpack200;
 
-import java.io.BufferedInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.util.jar.JarOutputStream;
 import net.pack200.Pack200.Unpacker;
 import org.apache.harmony.unpack200.common.Pack200Adapter;
@@ -49,7 +49,7 @@ public class Pack200UnpackerAdapter extends Pack200Adapter implements Unpacker {
 					"Must specify both input and output streams");
 		completed(0);
 		try {
-            new UnPack200Archive(in, out).unpack();
+            unpack(new UnPack200Archive(in, out));
         } catch (Pack200Exception e) {
             throw new IOException("Failed to unpack Jar:" + String.valueOf(e));
         }
@@ -57,6 +57,45 @@ public class Pack200UnpackerAdapter extends Pack200Adapter implements Unpacker {
 		in.close();
 	}
 
+	/**
+	 * Unpacks the specified stream to a jar written on the specified output
+	 * stream. Rather than going through a JarOutputStream, the jar is written
+	 * by a {@link ParallelJarWriter}, which deflates entries on the
+	 * {@code unpack.threads} threads.
+	 *
+	 * @param in
+	 *            stream to uncompress.
+	 * @param out
+	 *            stream to write the jar to, which is closed afterwards.
+	 * @throws IOException
+	 *             if I/O exception occurs.
+	 */
+	public void unpack(InputStream in, OutputStream out) throws IOException {
+		if (in == null || out == null)
+			throw new NullPointerException(
+					"Must specify both input and output streams");
+		completed(0);
+		try {
+            unpack(new UnPack200Archive(in, out));
+        } catch (Pack200Exception e) {
+            throw new IOException("Failed to unpack Jar:" + String.valueOf(e));
+        }
+		completed(1);
+		in.close();
+	}
+
+    private void unpack(UnPack200Archive archive) throws IOException,
+            Pack200Exception {
+        String threads = properties().get(THREADS);
+        if (threads != null) {
+            archive.setThreads(Integer.parseInt(threads));
+        }
+        archive.setPipelined(TRUE.equals(properties().get(PIPELINE)));
+        archive.setParallelSegments(TRUE.equals(properties().get(
+                PARALLEL_SEGMENTS)));
+        archive.unpack();
+    }
+
 	/*
 	 * (non-Javadoc)
 	 *
@@ -68,11 +107,8 @@ public class Pack200UnpackerAdapter extends Pack200Adapter implements Unpacker {
 		if (file == null || out == null)
 			throw new NullPointerException(
 					"Must specify both input and output streams");
-		int size = (int) file.length();
-		int bufferSize = (size > 0 && size < DEFAULT_BUFFER_SIZE ? size
-				: DEFAULT_BUFFER_SIZE);
-		InputStream in = new BufferedInputStream(new FileInputStream(file),
-				bufferSize);
+		// unbuffered, so that UnPack200Archive maps the file into memory
+		InputStream in = new FileInputStream(file);
 		unpack(in, out);
 	}
 }
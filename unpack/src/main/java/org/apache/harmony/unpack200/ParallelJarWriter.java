@@ -0,0 +1,638 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.harmony.unpack200;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.jar.JarEntry;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+
+/**
+ * A JarWriter that writes the zip format itself, so that entries can be
+ * deflated on a pool of threads. Each entry is deflated, and its CRC worked
+ * out, before anything is written for it; its local header then has the real
+ * sizes and CRC, and no data descriptor is needed. Entries are written in the
+ * order they are given, with up to <code>window</code> of them being deflated
+ * at once. Without a pool, each entry is deflated on the calling thread.
+ *
+ * Entries given as a stream are written once the entries before them have
+ * been written. A deflated one is deflated in chunks on the calling thread,
+ * and its CRC and sizes follow its data in a data descriptor, as
+ * JarOutputStream writes them. A stored one has its CRC worked out first
+ * (see {@link StoredContents}).
+ *
+ * The jar has the same entries, with the same names, times, methods and
+ * contents, as one written by a JarOutputStream. The central directory uses
+ * ZIP64 records when there are more than 65535 entries or it starts beyond
+ * 4GB, and entries of 4GB or more have ZIP64 sizes. Times before 1980 are
+ * written as 1980-01-01.
+ *
+ * Entries copied from another jar are not deflated at all: their data, CRC
+ * and sizes are written as they were read, once the entries before them have
+ * been written.
+ */
+public class ParallelJarWriter implements JarWriter {
+
+    private static final int LOCAL_HEADER = 0x04034b50;
+    private static final int CENTRAL_HEADER = 0x02014b50;
+    private static final int ZIP64_END = 0x06064b50;
+    private static final int ZIP64_LOCATOR = 0x07064b50;
+    private static final int END = 0x06054b50;
+    private static final int DATA_DESCRIPTOR = 0x08074b50;
+
+    private static final int LOCAL_HEADER_SIZE = 30;
+    private static final int CENTRAL_HEADER_SIZE = 46;
+    private static final int ZIP64_EXTRA_HEADER_SIZE = 4;
+    private static final int DATA_DESCRIPTOR_SIZE = 16;
+    private static final int ZIP64_DATA_DESCRIPTOR_SIZE = 24;
+    private static final int ZIP64_END_SIZE = 56;
+    private static final int ZIP64_LOCATOR_SIZE = 20;
+    private static final int END_SIZE = 22;
+
+    private static final long ZIP64_MAGIC = 0xFFFFFFFFL;
+    private static final int ZIP64_MAGIC_COUNT = 0xFFFF;
+
+    // general purpose flags: names are UTF-8, and the CRC and sizes follow
+    // the data
+    private static final int UTF8_FLAG = 0x800;
+    private static final int DATA_DESCRIPTOR_FLAG = 0x8;
+
+    // the extra field JarOutputStream puts on the first entry of a jar
+    private static final int JAR_MAGIC = 0xCAFE;
+
+    private final OutputStream out;
+    private final ExecutorService pool;
+    private final int window;
+
+    private final LinkedList<Future<Entry>> pending =
+            new LinkedList<Future<Entry>>();
+    private final List<Entry> written = new ArrayList<Entry>();
+    private final ConcurrentLinkedQueue<Deflater> deflaters =
+            new ConcurrentLinkedQueue<Deflater>();
+    private final Calendar calendar = Calendar.getInstance();
+
+    private byte[] header = new byte[256];
+    private byte[] comment = new byte[0];
+    private long offset;
+    private boolean firstEntry = true;
+
+    /**
+     * Creates a writer that deflates each entry on the calling thread.
+     *
+     * @param out
+     *            the stream the jar is written to
+     */
+    public ParallelJarWriter(OutputStream out) {
+        this(out, null, 1);
+    }
+
+    /**
+     * Creates a writer that deflates entries on the given pool.
+     *
+     * @param out
+     *            the stream the jar is written to
+     * @param pool
+     *            the pool to deflate entries on, or null to deflate them on
+     *            the calling thread
+     * @param window
+     *            the most entries that may be being deflated at once
+     */
+    public ParallelJarWriter(OutputStream out, ExecutorService pool, int window) {
+        this.out = out;
+        this.pool = pool;
+        this.window = Math.max(window, 1);
+    }
+
+    public void write(JarEntry entry, byte[] contents) throws IOException {
+        Entry zipEntry = new Entry(entry.getName().getBytes("UTF-8"),
+                extra(entry.getExtra()), entry.getMethod(),
+                dosTime(entry.getTime()));
+        if (pool == null) {
+            zipEntry.compress(contents);
+            writeEntry(zipEntry);
+            return;
+        }
+        pending.add(pool.submit(new Compressor(zipEntry, contents)));
+        while (pending.size() > window) {
+            writeNext();
+        }
+    }
+
+    public void write(JarEntry entry, InputStream contents, long size)
+            throws IOException {
+        while (!pending.isEmpty()) {
+            writeNext();
+        }
+        Entry zipEntry = new Entry(entry.getName().getBytes("UTF-8"),
+                extra(entry.getExtra()), entry.getMethod(),
+                dosTime(entry.getTime()));
+        zipEntry.size = size;
+        if (zipEntry.method == ZipEntry.STORED) {
+            StoredContents stored = new StoredContents(contents, size);
+            try {
+                zipEntry.crc = stored.getCrc();
+                zipEntry.compressedSize = size;
+                writeLocalHeader(zipEntry);
+                InputStream in = stored.getInputStream();
+                byte[] buffer = new byte[StoredContents.BUFFER_SIZE];
+                long remaining = size;
+                while (remaining > 0) {
+                    int n = read(in, buffer, remaining, entry);
+                    out.write(buffer, 0, n);
+                    remaining -= n;
+                }
+            } finally {
+                stored.close();
+            }
+            offset += size;
+        } else {
+            zipEntry.dataDescriptor = true;
+            writeLocalHeader(zipEntry);
+            deflate(zipEntry, contents, entry);
+            offset += zipEntry.compressedSize;
+            writeDataDescriptor(zipEntry);
+        }
+        written.add(zipEntry);
+    }
+
+    /*
+     * Deflates the contents of an entry in chunks as they are read, writing
+     * them out, and works out its CRC and compressed size
+     */
+    private void deflate(Entry zipEntry, InputStream in, JarEntry entry)
+            throws IOException {
+        CRC32 checksum = new CRC32();
+        byte[] buffer = new byte[StoredContents.BUFFER_SIZE];
+        byte[] deflated = new byte[StoredContents.BUFFER_SIZE];
+        long compressedSize = 0;
+        Deflater deflater = deflater();
+        try {
+            long remaining = zipEntry.size;
+            while (remaining > 0) {
+                int n = read(in, buffer, remaining, entry);
+                checksum.update(buffer, 0, n);
+                deflater.setInput(buffer, 0, n);
+                while (!deflater.needsInput()) {
+                    int length = deflater.deflate(deflated);
+                    out.write(deflated, 0, length);
+                    compressedSize += length;
+                }
+                remaining -= n;
+            }
+            deflater.finish();
+            while (!deflater.finished()) {
+                int length = deflater.deflate(deflated);
+                out.write(deflated, 0, length);
+                compressedSize += length;
+            }
+        } finally {
+            deflater.reset();
+            deflaters.add(deflater);
+        }
+        zipEntry.crc = checksum.getValue();
+        zipEntry.compressedSize = compressedSize;
+    }
+
+    private static int read(InputStream in, byte[] buffer, long remaining,
+            JarEntry entry) throws IOException {
+        int n = in.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+        if (n == -1) {
+            throw new EOFException("Unexpected end of jar entry "
+                    + entry.getName());
+        }
+        return n;
+    }
+
+    public void copy(RawJarEntry entry) throws IOException {
+        if (entry.getSize() >= ZIP64_MAGIC
+                || entry.getCompressedSize() >= ZIP64_MAGIC) {
+            throw new ZipException("Entry too large to copy: "
+                    + entry.getName());
+        }
+        while (!pending.isEmpty()) {
+            writeNext();
+        }
+        Entry zipEntry = new Entry(entry.getName().getBytes("UTF-8"),
+                extra(entry.getExtra()), entry.getMethod(), entry
+                        .getDosTime());
+        zipEntry.crc = entry.getCrc();
+        zipEntry.size = entry.getSize();
+        zipEntry.compressedSize = entry.getCompressedSize();
+        writeLocalHeader(zipEntry);
+
+        InputStream data = entry.getRawInputStream();
+        byte[] buffer = new byte[16384];
+        long remaining = entry.getCompressedSize();
+        while (remaining > 0) {
+            int n = data.read(buffer, 0, (int) Math.min(buffer.length,
+                    remaining));
+            if (n == -1) {
+                throw new EOFException("Unexpected end of jar entry "
+                        + entry.getName());
+            }
+            out.write(buffer, 0, n);
+            remaining -= n;
+        }
+        offset += entry.getCompressedSize();
+        written.add(zipEntry);
+    }
+
+    public void setComment(String comment) {
+        try {
+            this.comment = comment == null ? new byte[0] : comment
+                    .getBytes("UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new Error(e);
+        }
+    }
+
+    public void flush() throws IOException {
+        while (!pending.isEmpty()) {
+            writeNext();
+        }
+        out.flush();
+    }
+
+    public void close() throws IOException {
+        try {
+            while (!pending.isEmpty()) {
+                writeNext();
+            }
+            writeCentralDirectory();
+            out.flush();
+        } finally {
+            for (int i = 0; i < pending.size(); i++) {
+                pending.get(i).cancel(false);
+            }
+            Deflater deflater;
+            while ((deflater = deflaters.poll()) != null) {
+                deflater.end();
+            }
+            out.close();
+        }
+    }
+
+    private void writeNext() throws IOException {
+        Future<Entry> compressed = pending.removeFirst();
+        try {
+            writeEntry(compressed.get());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException(
+                    "Interrupted while deflating jar entries");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IOException("Error deflating jar entry", cause);
+        }
+    }
+
+    private void writeEntry(Entry entry) throws IOException {
+        writeLocalHeader(entry);
+        out.write(entry.data, 0, (int) entry.compressedSize);
+        offset += entry.compressedSize;
+        // the contents are no longer needed, only the central directory entry
+        entry.data = null;
+        written.add(entry);
+    }
+
+    private void writeLocalHeader(Entry entry) throws IOException {
+        // the sizes of an entry with a data descriptor aren't known yet
+        boolean zip64 = !entry.dataDescriptor && entry.isZip64();
+        int extraLength = entry.extra.length
+                + (zip64 ? ZIP64_EXTRA_HEADER_SIZE + 16 : 0);
+        int length = LOCAL_HEADER_SIZE + entry.name.length + extraLength;
+        byte[] bytes = header(length);
+        int i = putInt(bytes, 0, LOCAL_HEADER);
+        i = putShort(bytes, i, zip64 ? 45 : entry.version());
+        i = putShort(bytes, i, entry.dataDescriptor ? UTF8_FLAG
+                | DATA_DESCRIPTOR_FLAG : UTF8_FLAG);
+        i = putShort(bytes, i, entry.method);
+        i = putInt(bytes, i, entry.time);
+        if (entry.dataDescriptor) {
+            i = putInt(bytes, i, 0);
+            i = putInt(bytes, i, 0);
+            i = putInt(bytes, i, 0);
+        } else {
+            i = putInt(bytes, i, (int) entry.crc);
+            i = putInt(bytes, i, (int) (zip64 ? ZIP64_MAGIC
+                    : entry.compressedSize));
+            i = putInt(bytes, i, (int) (zip64 ? ZIP64_MAGIC : entry.size));
+        }
+        i = putShort(bytes, i, entry.name.length);
+        i = putShort(bytes, i, extraLength);
+        i = put(bytes, i, entry.name);
+        if (zip64) {
+            i = putShort(bytes, i, 1); // ZIP64 extended information
+            i = putShort(bytes, i, 16);
+            i = putLong(bytes, i, entry.size);
+            i = putLong(bytes, i, entry.compressedSize);
+        }
+        put(bytes, i, entry.extra);
+        entry.offset = offset;
+        write(bytes, length);
+    }
+
+    private void writeDataDescriptor(Entry entry) throws IOException {
+        boolean zip64 = entry.isZip64();
+        int length = zip64 ? ZIP64_DATA_DESCRIPTOR_SIZE : DATA_DESCRIPTOR_SIZE;
+        byte[] bytes = header(length);
+        int i = putInt(bytes, 0, DATA_DESCRIPTOR);
+        i = putInt(bytes, i, (int) entry.crc);
+        if (zip64) {
+            i = putLong(bytes, i, entry.compressedSize);
+            putLong(bytes, i, entry.size);
+        } else {
+            i = putInt(bytes, i, (int) entry.compressedSize);
+            putInt(bytes, i, (int) entry.size);
+        }
+        write(bytes, length);
+    }
+
+    private void writeCentralDirectory() throws IOException {
+        long centralOffset = offset;
+        for (int e = 0; e < written.size(); e++) {
+            Entry entry = written.get(e);
+            boolean zip64Sizes = entry.isZip64();
+            boolean zip64Offset = entry.offset >= ZIP64_MAGIC;
+            boolean zip64 = zip64Sizes || zip64Offset;
+            int zip64Length = (zip64Sizes ? 16 : 0) + (zip64Offset ? 8 : 0);
+            int extraLength = entry.extra.length
+                    + (zip64 ? ZIP64_EXTRA_HEADER_SIZE + zip64Length : 0);
+            int length = CENTRAL_HEADER_SIZE + entry.name.length + extraLength;
+            int version = zip64 ? 45 : entry.version();
+            byte[] bytes = header(length);
+            int i = putInt(bytes, 0, CENTRAL_HEADER);
+            i = putShort(bytes, i, version); // made by
+            i = putShort(bytes, i, version); // needed to extract
+            i = putShort(bytes, i, entry.dataDescriptor ? UTF8_FLAG
+                    | DATA_DESCRIPTOR_FLAG : UTF8_FLAG);
+            i = putShort(bytes, i, entry.method);
+            i = putInt(bytes, i, entry.time);
+            i = putInt(bytes, i, (int) entry.crc);
+            i = putInt(bytes, i, (int) (zip64Sizes ? ZIP64_MAGIC
+                    : entry.compressedSize));
+            i = putInt(bytes, i, (int) (zip64Sizes ? ZIP64_MAGIC : entry.size));
+            i = putShort(bytes, i, entry.name.length);
+            i = putShort(bytes, i, extraLength);
+            i = putShort(bytes, i, 0); // comment length
+            i = putShort(bytes, i, 0); // disk number
+            i = putShort(bytes, i, 0); // internal attributes
+            i = putInt(bytes, i, 0); // external attributes
+            i = putInt(bytes, i, (int) (zip64Offset ? ZIP64_MAGIC
+                    : entry.offset));
+            i = put(bytes, i, entry.name);
+            if (zip64) {
+                i = putShort(bytes, i, 1); // ZIP64 extended information
+                i = putShort(bytes, i, zip64Length);
+                if (zip64Sizes) {
+                    i = putLong(bytes, i, entry.size);
+                    i = putLong(bytes, i, entry.compressedSize);
+                }
+                if (zip64Offset) {
+                    i = putLong(bytes, i, entry.offset);
+                }
+            }
+            put(bytes, i, entry.extra);
+            write(bytes, length);
+        }
+        long centralSize = offset - centralOffset;
+        int count = written.size();
+
+        boolean zip64 = count >= ZIP64_MAGIC_COUNT
+                || centralOffset >= ZIP64_MAGIC || centralSize >= ZIP64_MAGIC;
+        if (zip64) {
+            long zip64EndOffset = offset;
+            byte[] bytes = header(ZIP64_END_SIZE + ZIP64_LOCATOR_SIZE);
+            int i = putInt(bytes, 0, ZIP64_END);
+            i = putLong(bytes, i, ZIP64_END_SIZE - 12);
+            i = putShort(bytes, i, 45); // made by
+            i = putShort(bytes, i, 45); // needed to extract
+            i = putInt(bytes, i, 0); // this disk
+            i = putInt(bytes, i, 0); // disk with the central directory
+            i = putLong(bytes, i, count);
+            i = putLong(bytes, i, count);
+            i = putLong(bytes, i, centralSize);
+            i = putLong(bytes, i, centralOffset);
+            i = putInt(bytes, i, ZIP64_LOCATOR);
+            i = putInt(bytes, i, 0); // disk with the ZIP64 end record
+            i = putLong(bytes, i, zip64EndOffset);
+            putInt(bytes, i, 1); // number of disks
+            write(bytes, ZIP64_END_SIZE + ZIP64_LOCATOR_SIZE);
+        }
+        byte[] bytes = header(END_SIZE + comment.length);
+        int i = putInt(bytes, 0, END);
+        i = putShort(bytes, i, 0); // this disk
+        i = putShort(bytes, i, 0); // disk with the central directory
+        i = putShort(bytes, i, Math.min(count, ZIP64_MAGIC_COUNT));
+        i = putShort(bytes, i, Math.min(count, ZIP64_MAGIC_COUNT));
+        i = putInt(bytes, i, (int) Math.min(centralSize, ZIP64_MAGIC));
+        i = putInt(bytes, i, (int) Math.min(centralOffset, ZIP64_MAGIC));
+        i = putShort(bytes, i, comment.length);
+        put(bytes, i, comment);
+        write(bytes, END_SIZE + comment.length);
+    }
+
+    private byte[] header(int length) {
+        if (header.length < length) {
+            header = new byte[length];
+        }
+        return header;
+    }
+
+    private void write(byte[] bytes, int length) throws IOException {
+        out.write(bytes, 0, length);
+        offset += length;
+    }
+
+    private static int putShort(byte[] bytes, int i, int value) {
+        bytes[i] = (byte) value;
+        bytes[i + 1] = (byte) (value >>> 8);
+        return i + 2;
+    }
+
+    private static int putInt(byte[] bytes, int i, int value) {
+        putShort(bytes, i, value);
+        return putShort(bytes, i + 2, value >>> 16);
+    }
+
+    private static int putLong(byte[] bytes, int i, long value) {
+        putInt(bytes, i, (int) value);
+        return putInt(bytes, i + 4, (int) (value >>> 32));
+    }
+
+    private static int put(byte[] bytes, int i, byte[] value) {
+        System.arraycopy(value, 0, bytes, i, value.length);
+        return i + value.length;
+    }
+
+    private byte[] extra(byte[] extra) {
+        if (firstEntry) {
+            firstEntry = false;
+            return withJarMagic(extra);
+        }
+        return extra;
+    }
+
+    private static byte[] withJarMagic(byte[] extra) {
+        if (extra == null) {
+            return new byte[] { (byte) JAR_MAGIC, (byte) (JAR_MAGIC >>> 8), 0, 0 };
+        }
+        for (int i = 0; i + 4 <= extra.length;) {
+            int id = (extra[i] & 0xFF) | (extra[i + 1] & 0xFF) << 8;
+            if (id == JAR_MAGIC) {
+                return extra;
+            }
+            i += 4 + ((extra[i + 2] & 0xFF) | (extra[i + 3] & 0xFF) << 8);
+        }
+        byte[] withMagic = new byte[extra.length + 4];
+        withMagic[0] = (byte) JAR_MAGIC;
+        withMagic[1] = (byte) (JAR_MAGIC >>> 8);
+        System.arraycopy(extra, 0, withMagic, 4, extra.length);
+        return withMagic;
+    }
+
+    /*
+     * The MS-DOS date and time of a Java time, in the default time zone, as
+     * ZipEntry writes it
+     */
+    private int dosTime(long time) {
+        calendar.setTimeInMillis(time);
+        int year = calendar.get(Calendar.YEAR);
+        if (year < 1980) {
+            return (1 << 21) | (1 << 16);
+        }
+        return (year - 1980) << 25
+                | (calendar.get(Calendar.MONTH) + 1) << 21
+                | calendar.get(Calendar.DAY_OF_MONTH) << 16
+                | calendar.get(Calendar.HOUR_OF_DAY) << 11
+                | calendar.get(Calendar.MINUTE) << 5
+                | calendar.get(Calendar.SECOND) >> 1;
+    }
+
+    private Deflater deflater() {
+        Deflater deflater = deflaters.poll();
+        if (deflater == null) {
+            deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        }
+        return deflater;
+    }
+
+    /**
+     * An entry, and once it has been compressed, its CRC, sizes and data
+     */
+    private class Entry {
+
+        private final byte[] name;
+        private final byte[] extra;
+        private final int method;
+        private final int time;
+        private long crc;
+        private long size;
+        private long compressedSize;
+        private byte[] data;
+        private long offset;
+        // whether the CRC and sizes follow the data
+        private boolean dataDescriptor;
+
+        Entry(byte[] name, byte[] extra, int method, int time) {
+            this.name = name;
+            this.extra = extra == null ? new byte[0] : extra;
+            this.method = method == ZipEntry.STORED ? ZipEntry.STORED
+                    : ZipEntry.DEFLATED;
+            this.time = time;
+        }
+
+        int version() {
+            return method == ZipEntry.STORED ? 10 : 20;
+        }
+
+        boolean isZip64() {
+            return size >= ZIP64_MAGIC || compressedSize >= ZIP64_MAGIC;
+        }
+
+        void compress(byte[] contents) {
+            CRC32 checksum = new CRC32();
+            checksum.update(contents);
+            crc = checksum.getValue();
+            size = contents.length;
+            if (method == ZipEntry.STORED) {
+                data = contents;
+                compressedSize = contents.length;
+                return;
+            }
+            Deflater deflater = deflater();
+            try {
+                deflater.setInput(contents);
+                deflater.finish();
+                byte[] buffer = new byte[contents.length / 2 + 64];
+                int length = 0;
+                while (!deflater.finished()) {
+                    if (length == buffer.length) {
+                        buffer = Arrays.copyOf(buffer, buffer.length * 2);
+                    }
+                    length += deflater.deflate(buffer, length, buffer.length
+                            - length);
+                }
+                data = buffer;
+                compressedSize = length;
+            } finally {
+                deflater.reset();
+                deflaters.add(deflater);
+            }
+        }
+    }
+
+    private class Compressor implements Callable<Entry> {
+
+        private final Entry entry;
+        private final byte[] contents;
+
+        Compressor(Entry entry, byte[] contents) {
+            this.entry = entry;
+            this.contents = contents;
+        }
+
+        public Entry call() {
+            entry.compress(contents);
+            return entry;
+        }
+    }
+}
@@ -0,0 +1,149 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.harmony.unpack200;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Calendar;
+import java.util.jar.JarEntry;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+import java.util.zip.ZipEntry;
+
+/**
+ * An entry read by a {@link RawJarReader}: its name, method, time, CRC and
+ * sizes as they are in the jar, and its data as it is stored there. The data
+ * can only be read until the next entry is read.
+ */
+public class RawJarEntry {
+
+    private final String name;
+    private final byte[] extra;
+    private final int method;
+    private final int dosTime;
+    private final long crc;
+    private final long size;
+    private final long compressedSize;
+    private final InputStream data;
+
+    RawJarEntry(String name, byte[] extra, int method, int dosTime, long crc,
+            long size, long compressedSize, InputStream data) {
+        this.name = name;
+        this.extra = extra;
+        this.method = method;
+        this.dosTime = dosTime;
+        this.crc = crc;
+        this.size = size;
+        this.compressedSize = compressedSize;
+        this.data = data;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return the extra field of the local header, without any ZIP64 sizes,
+     *         or null if there is none
+     */
+    public byte[] getExtra() {
+        return extra;
+    }
+
+    public int getMethod() {
+        return method;
+    }
+
+    public long getTime() {
+        return javaTime(dosTime);
+    }
+
+    int getDosTime() {
+        return dosTime;
+    }
+
+    public long getCrc() {
+        return crc;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    public long getCompressedSize() {
+        return compressedSize;
+    }
+
+    /**
+     * @return the data of the entry as it is stored in the jar, which is
+     *         deflated if the entry is
+     */
+    public InputStream getRawInputStream() {
+        return data;
+    }
+
+    /**
+     * @return the uncompressed contents of the entry
+     */
+    public InputStream getInputStream() {
+        if (method == ZipEntry.STORED) {
+            return data;
+        }
+        return new InflaterInputStream(data, new Inflater(true)) {
+            public void close() throws IOException {
+                inf.end();
+            }
+        };
+    }
+
+    /**
+     * Creates a JarEntry with the name, method, time and extra field of this
+     * entry, for writing its contents to a JarOutputStream. A stored entry
+     * also has its size and CRC, which JarOutputStream needs before the
+     * contents are written.
+     *
+     * @return a new JarEntry
+     */
+    public JarEntry toJarEntry() {
+        JarEntry entry = new JarEntry(name);
+        entry.setMethod(method);
+        entry.setTime(getTime());
+        if (extra != null) {
+            entry.setExtra(extra);
+        }
+        if (method == ZipEntry.STORED) {
+            entry.setSize(size);
+            entry.setCompressedSize(size);
+            entry.setCrc(crc);
+        }
+        return entry;
+    }
+
+    /*
+     * The Java time of an MS-DOS date and time, in the default time zone, as
+     * ZipEntry reads it
+     */
+    private static long javaTime(int dosTime) {
+        Calendar calendar = Calendar.getInstance();
+        calendar.clear();
+        calendar.set(((dosTime >> 25) & 0x7F) + 1980,
+                ((dosTime >> 21) & 0x0F) - 1, (dosTime >> 16) & 0x1F,
+                (dosTime >> 11) & 0x1F, (dosTime >> 5) & 0x3F,
+                (dosTime << 1) & 0x3E);
+        return calendar.getTimeInMillis();
+    }
+}
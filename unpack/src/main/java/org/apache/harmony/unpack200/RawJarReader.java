@@ -0,0 +1,327 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.harmony.unpack200;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PushbackInputStream;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+
+/**
+ * Reads the entries of a jar from its local headers, in the order they are
+ * stored, without inflating them. Each entry's data can be copied to another
+ * jar as it is, with the CRC and sizes from its local header (see
+ * {@link JarWriter#copy(RawJarEntry)}).
+ *
+ * An entry with a data descriptor has no sizes in its local header, so it is
+ * inflated to find where its data ends, and its data is held until the next
+ * entry is read. Entries are read until the central directory is reached.
+ */
+public class RawJarReader {
+
+    private static final int LOCAL_HEADER = 0x04034b50;
+    private static final int CENTRAL_HEADER = 0x02014b50;
+    private static final int END = 0x06054b50;
+    private static final int DATA_DESCRIPTOR = 0x08074b50;
+
+    private static final int LOCAL_HEADER_SIZE = 30;
+    private static final long ZIP64_MAGIC = 0xFFFFFFFFL;
+    private static final int ZIP64_EXTRA = 0x0001;
+
+    // general purpose flags
+    private static final int ENCRYPTED_FLAG = 0x1;
+    private static final int DESCRIPTOR_FLAG = 0x8;
+
+    private static final int BUFFER_SIZE = 8192;
+
+    private final PushbackInputStream in;
+    private final byte[] header = new byte[LOCAL_HEADER_SIZE];
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+
+    private Inflater inflater;
+    private EntryInputStream current;
+    private boolean finished;
+
+    public RawJarReader(InputStream in) {
+        this.in = new PushbackInputStream(in, BUFFER_SIZE);
+    }
+
+    /**
+     * Reads the local header of the next entry. Any data of the previous
+     * entry that has not been read is skipped.
+     *
+     * @return the next entry, or null if there are no more
+     * @throws IOException
+     *             if the jar cannot be read, or an entry is encrypted or
+     *             compressed with a method other than deflate
+     */
+    public RawJarEntry getNextEntry() throws IOException {
+        if (current != null) {
+            current.skipRemaining();
+            current = null;
+        }
+        if (finished) {
+            return null;
+        }
+        int read = readFully(header, 0, 4, false);
+        if (read == 0) {
+            finished = true;
+            return null;
+        }
+        if (read < 4) {
+            throw new EOFException("Unexpected end of jar");
+        }
+        int signature = getInt(header, 0);
+        if (signature == CENTRAL_HEADER || signature == END) {
+            finished = true;
+            return null;
+        }
+        if (signature != LOCAL_HEADER) {
+            throw new ZipException("Invalid local header signature: 0x"
+                    + Integer.toHexString(signature));
+        }
+        readFully(header, 4, LOCAL_HEADER_SIZE - 4, true);
+        int flags = getShort(header, 6);
+        int method = getShort(header, 8);
+        int dosTime = getInt(header, 10);
+        long crc = getInt(header, 14) & 0xFFFFFFFFL;
+        long compressedSize = getInt(header, 18) & 0xFFFFFFFFL;
+        long size = getInt(header, 22) & 0xFFFFFFFFL;
+        byte[] nameBytes = new byte[getShort(header, 26)];
+        byte[] extra = new byte[getShort(header, 28)];
+        readFully(nameBytes, 0, nameBytes.length, true);
+        readFully(extra, 0, extra.length, true);
+        String name = new String(nameBytes, "UTF-8");
+
+        if ((flags & ENCRYPTED_FLAG) != 0) {
+            throw new ZipException("Encrypted jar entry not supported: "
+                    + name);
+        }
+        if (method != ZipEntry.STORED && method != ZipEntry.DEFLATED) {
+            throw new ZipException("Invalid compression method " + method
+                    + " for " + name);
+        }
+
+        // ZIP64 sizes, which are only there for the sizes that do not fit
+        boolean zip64 = false;
+        for (int i = 0; i + 4 <= extra.length;) {
+            int id = getShort(extra, i);
+            int length = getShort(extra, i + 2);
+            if (id == ZIP64_EXTRA) {
+                zip64 = true;
+                int j = i + 4;
+                if (size == ZIP64_MAGIC && j + 8 <= i + 4 + length) {
+                    size = getLong(extra, j);
+                    j += 8;
+                }
+                if (compressedSize == ZIP64_MAGIC && j + 8 <= i + 4 + length) {
+                    compressedSize = getLong(extra, j);
+                }
+                extra = remove(extra, i, 4 + length);
+                continue;
+            }
+            i += 4 + length;
+        }
+
+        InputStream data;
+        if ((flags & DESCRIPTOR_FLAG) != 0) {
+            if (method == ZipEntry.STORED) {
+                throw new ZipException(
+                        "Only deflated entries can have a data descriptor: "
+                                + name);
+            }
+            byte[] deflated = readDeflated(name);
+            compressedSize = deflated.length;
+            size = inflater.getBytesWritten();
+            inflater.reset();
+            crc = readDescriptor(zip64);
+            data = new ByteArrayInputStream(deflated);
+        } else {
+            data = in;
+        }
+        current = new EntryInputStream(data, compressedSize);
+        return new RawJarEntry(name, extra.length == 0 ? null : extra, method,
+                dosTime, crc, size, compressedSize, current);
+    }
+
+    /**
+     * Closes the jar being read.
+     *
+     * @throws IOException
+     */
+    public void close() throws IOException {
+        if (inflater != null) {
+            inflater.end();
+        }
+        in.close();
+    }
+
+    /*
+     * Reads the deflated data of an entry, inflating it to find where it ends
+     */
+    private byte[] readDeflated(String name) throws IOException {
+        if (inflater == null) {
+            inflater = new Inflater(true);
+        }
+        ByteArrayOutputStream deflated = new ByteArrayOutputStream();
+        byte[] inflated = new byte[BUFFER_SIZE];
+        try {
+            while (!inflater.finished()) {
+                int n = in.read(buffer);
+                if (n == -1) {
+                    throw new EOFException("Unexpected end of jar entry "
+                            + name);
+                }
+                inflater.setInput(buffer, 0, n);
+                while (!inflater.finished() && !inflater.needsInput()) {
+                    if (inflater.inflate(inflated) == 0
+                            && inflater.needsDictionary()) {
+                        throw new ZipException("Invalid deflated data for "
+                                + name);
+                    }
+                }
+                int remaining = inflater.getRemaining();
+                deflated.write(buffer, 0, n - remaining);
+                if (remaining > 0) {
+                    in.unread(buffer, n - remaining, remaining);
+                }
+            }
+        } catch (DataFormatException e) {
+            throw new ZipException("Invalid deflated data for " + name + ": "
+                    + e.getMessage());
+        }
+        return deflated.toByteArray();
+    }
+
+    /*
+     * Reads the data descriptor after an entry, which may or may not start
+     * with a signature, and returns the CRC from it
+     */
+    private long readDescriptor(boolean zip64) throws IOException {
+        readFully(header, 0, 4, true);
+        if (getInt(header, 0) == DATA_DESCRIPTOR) {
+            readFully(header, 0, 4, true);
+        }
+        long crc = getInt(header, 0) & 0xFFFFFFFFL;
+        // the sizes are already known from inflating the data
+        readFully(header, 0, zip64 ? 16 : 8, true);
+        return crc;
+    }
+
+    private int readFully(byte[] bytes, int offset, int length,
+            boolean required) throws IOException {
+        int read = 0;
+        while (read < length) {
+            int n = in.read(bytes, offset + read, length - read);
+            if (n == -1) {
+                if (required) {
+                    throw new EOFException("Unexpected end of jar");
+                }
+                break;
+            }
+            read += n;
+        }
+        return read;
+    }
+
+    private static byte[] remove(byte[] bytes, int offset, int length) {
+        length = Math.min(length, bytes.length - offset);
+        byte[] removed = new byte[bytes.length - length];
+        System.arraycopy(bytes, 0, removed, 0, offset);
+        System.arraycopy(bytes, offset + length, removed, offset,
+                removed.length - offset);
+        return removed;
+    }
+
+    private static int getShort(byte[] bytes, int i) {
+        return (bytes[i] & 0xFF) | (bytes[i + 1] & 0xFF) << 8;
+    }
+
+    private static int getInt(byte[] bytes, int i) {
+        return getShort(bytes, i) | getShort(bytes, i + 2) << 16;
+    }
+
+    private static long getLong(byte[] bytes, int i) {
+        return (getInt(bytes, i) & 0xFFFFFFFFL)
+                | (long) getInt(bytes, i + 4) << 32;
+    }
+
+    /**
+     * The data of one entry. Closing it does not close the jar.
+     */
+    private static class EntryInputStream extends InputStream {
+
+        private final InputStream in;
+        private long remaining;
+
+        EntryInputStream(InputStream in, long length) {
+            this.in = in;
+            this.remaining = length;
+        }
+
+        public int read() throws IOException {
+            if (remaining == 0) {
+                return -1;
+            }
+            int b = in.read();
+            if (b == -1) {
+                throw new EOFException("Unexpected end of jar entry");
+            }
+            remaining--;
+            return b;
+        }
+
+        public int read(byte[] bytes, int offset, int length)
+                throws IOException {
+            if (remaining == 0) {
+                return -1;
+            }
+            int n = in.read(bytes, offset, (int) Math.min(length, remaining));
+            if (n == -1) {
+                throw new EOFException("Unexpected end of jar entry");
+            }
+            remaining -= n;
+            return n;
+        }
+
+        public int available() throws IOException {
+            return (int) Math.min(in.available(), remaining);
+        }
+
+        void skipRemaining() throws IOException {
+            while (remaining > 0) {
+                long n = in.skip(remaining);
+                if (n <= 0) {
+                    if (in.read() == -1) {
+                        throw new EOFException("Unexpected end of jar entry");
+                    }
+                    n = 1;
+                }
+                remaining -= n;
+            }
+        }
+
+        public void close() {
+        }
+    }
+}
@@ -17,24 +17,29 @@
 package org.apache.harmony.unpack200;
 
 import java.io.BufferedInputStream;
-import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.PrintWriter;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Set;
 import java.util.TimeZone;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 import java.util.jar.JarEntry;
 import java.util.jar.JarOutputStream;
-import java.util.zip.CRC32;
 import java.util.zip.GZIPInputStream;
 import java.util.zip.ZipEntry;
 
+import org.apache.harmony.unpack200.codec.ByteBufferInputStream;
 import org.apache.harmony.unpack200.codec.Codec;
 import org.apache.harmony.unpack200.common.Pack200Exception;
 import org.apache.harmony.unpack200.bytecode.Attribute;
@@ -79,6 +84,10 @@ public class Segment {
 
     public static final int LOG_LEVEL_QUIET = 0;
 
+    // resource files at least this large are copied to the jar in chunks,
+    // rather than given to it whole
+    private static final int STREAMED_FILE_SIZE = 1 << 20;
+
     private SegmentHeader header;
 
     private CpBands cpBands;
@@ -109,8 +118,32 @@ public class Segment {
 
     private boolean[] fileIsClass;
 
+    // true if each class file is built, and each file's bits are read, just
+    // before it is written rather than all at once when the segment is
+    // processed
+    private boolean streaming;
+
+    // builds class files while earlier ones are being written, or null to
+    // build each one on the unpacking thread
+    private ExecutorService classFilePool;
+
+    // the most class files that may be in progress on the pool at once
+    private int classFileWindow;
+
     private InputStream internalBuffer;
 
+    // decodes the larger bands that aren't needed to read the rest of the
+    // segment on the class file pool once they have all been scanned, or null
+    // to decode each band as it is read
+    private BandDecoder bandDecoder;
+
+    // the time spent in each stage of unpacking, in nanoseconds
+    private long readTime;
+
+    private long processTime;
+
+    private long writeTime;
+
     private ClassFile buildClassFile(int classNum) throws Pack200Exception {
         ClassFile classFile = new ClassFile();
         int[] major = classBands.getClassVersionMajor();
@@ -162,8 +195,9 @@ public class Segment {
                 } else {
                     fileName = fullName.substring(beginSimpleClassName) + ".java";
                 }
-                sourceFileAttribute = new SourceFileAttribute(cpBands
-                        .cpUTF8Value(fileName, false));
+                sourceFileAttribute = new SourceFileAttribute(
+                        attrDefinitionBands.getAttributeName("SourceFile"),
+                        cpBands.cpUTF8Value(fileName, false));
                 classFile.attributes = new Attribute[] { (Attribute) cp
                         .add(sourceFileAttribute) };
             } else {
@@ -244,7 +278,7 @@ public class Segment {
         IcTuple[] ic_local = getClassBands().getIcLocal()[classNum];
         boolean ic_local_sent = ic_local != null;
         InnerClassesAttribute innerClassesAttribute = new InnerClassesAttribute(
-                "InnerClasses");
+                attrDefinitionBands.getAttributeName("InnerClasses"));
         IcTuple[] ic_relevant = getIcBands().getRelevantIcTuples(fullName, cp);
         List ic_stored = computeIcStored(ic_local, ic_relevant);
 	for (Object ic_stored1 : ic_stored) {
@@ -379,6 +413,9 @@ public class Segment {
     private void readSegment(InputStream in) throws IOException,
             Pack200Exception {
         log(LOG_LEVEL_VERBOSE, "-------");
+        if (classFilePool != null) {
+            bandDecoder = new BandDecoder();
+        }
         cpBands = new CpBands(this);
         cpBands.read(in);
         attrDefinitionBands = new AttrDefinitionBands(this);
@@ -391,8 +428,16 @@ public class Segment {
         bcBands.read(in);
         fileBands = new FileBands(this);
         fileBands.read(in);
+        if (bandDecoder != null) {
+            int decoded = bandDecoder.decode(classFilePool);
+            log(LOG_LEVEL_VERBOSE, "Decoded " + decoded
+                    + " sub-bands concurrently");
+            bandDecoder = null;
+        }
 
-        fileBands.processFileBits();
+        if (!streaming) {
+            fileBands.processFileBits();
+        }
     }
 
    /**
@@ -412,7 +457,9 @@ public class Segment {
         attrDefinitionBands.unpack();
         icBands.unpack();
         classBands.unpack();
-        bcBands.unpack();
+        if (!streaming) {
+            bcBands.unpack();
+        }
         fileBands.unpack();
 
         int classNum = 0;
@@ -421,12 +468,13 @@ public class Segment {
         int[] fileOptions = fileBands.getFileOptions();
         SegmentOptions options = header.getOptions();
 
-        classFilesContents = new byte[numberOfFiles][];
+        if (!streaming) {
+            classFilesContents = new byte[numberOfFiles][];
+        }
         fileDeflate = new boolean[numberOfFiles];
         fileIsClass = new boolean[numberOfFiles];
 
-        ByteArrayOutputStream bos = new ByteArrayOutputStream();
-        DataOutputStream dos = new DataOutputStream(bos);
+        ClassFileQueue classFiles = streaming ? null : new ClassFileQueue();
 
         for (int i = 0; i < numberOfFiles; i++) {
             String name = fileName[i];
@@ -447,21 +495,123 @@ public class Segment {
             fileIsClass[i] = isClass;
 
             if (isClass) {
-                ClassFile classFile = buildClassFile(classNum);
-                classFile.write(dos);
-                dos.flush();
+                if (!streaming) {
+                    classFilesContents[classNum] = classFiles.next();
+                }
+                classNum++;
+            }
+        }
+    }
+
+    /**
+     * Builds a class file and returns its bytes. Once the class file has been
+     * written the attributes and byte codes it was built from are released, so
+     * each class can only be written once.
+     *
+     * @param classNum
+     *            the index of the class
+     * @param bos
+     *            the buffer under <code>dos</code>, which is reset afterwards
+     * @param dos
+     *            the stream to write the class file to
+     * @return the bytes of the class file
+     * @throws IOException
+     * @throws Pack200Exception
+     */
+    private byte[] writeClassFile(int classNum, ByteArrayOutputStream bos,
+            DataOutputStream dos) throws IOException, Pack200Exception {
+        ClassFile classFile = buildClassFile(classNum);
+        classFile.write(dos);
+        dos.flush();
+
+        byte[] contents = bos.toByteArray();
+        bos.reset();
+
+        classBands.releaseClass(classNum);
+        bcBands.releaseClass(classNum);
+        return contents;
+    }
 
-                classFilesContents[classNum] = bos.toByteArray();
-                bos.reset();
+    /**
+     * Answers the segment's class files in order. The byte codes of each class
+     * are unpacked on the calling thread, since their operands are read from
+     * the bands in class order. With a pool, the class files themselves are
+     * built and written on it, up to the window ahead of the one being taken,
+     * and are taken in the same order so the jar is the same as when they are
+     * built one at a time.
+     */
+    private class ClassFileQueue {
+
+        private final int classCount = header.getClassCount();
+        private final LinkedList<Future<byte[]>> pending =
+                new LinkedList<Future<byte[]>>();
+        private int submitted;
+        private int taken;
+        private ByteArrayOutputStream bos;
+        private DataOutputStream dos;
+
+        ClassFileQueue() {
+            if (classFilePool == null) {
+                bos = new ByteArrayOutputStream();
+                dos = new DataOutputStream(bos);
+            }
+        }
 
-                classNum++;
+        byte[] next() throws IOException, Pack200Exception {
+            if (classFilePool == null) {
+                bcBands.unpackCode(taken + 1);
+                return writeClassFile(taken++, bos, dos);
+            }
+            while (submitted < classCount && pending.size() < classFileWindow) {
+                bcBands.unpackCode(submitted + 1);
+                pending.add(classFilePool.submit(new ClassFileWriter(submitted)));
+                submitted++;
+            }
+            Future<byte[]> classFile = pending.removeFirst();
+            try {
+                return classFile.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new Pack200Exception(
+                        "Interrupted while building class file " + taken, e);
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof IOException) {
+                    throw (IOException) cause;
+                } else if (cause instanceof Pack200Exception) {
+                    throw (Pack200Exception) cause;
+                } else if (cause instanceof RuntimeException) {
+                    throw (RuntimeException) cause;
+                } else if (cause instanceof Error) {
+                    throw (Error) cause;
+                }
+                throw new Pack200Exception("Error building class file "
+                        + taken, (Exception) cause);
+            } finally {
+                taken++;
             }
         }
     }
 
+    private class ClassFileWriter implements Callable<byte[]> {
+
+        private final int classNum;
+
+        ClassFileWriter(int classNum) {
+            this.classNum = classNum;
+        }
+
+        public byte[] call() throws IOException, Pack200Exception {
+            ByteArrayOutputStream bos = new ByteArrayOutputStream();
+            return writeClassFile(classNum, bos, new DataOutputStream(bos));
+        }
+    }
+
     /**
      * Unpacks a packed stream (either .pack. or .pack.gz) into a corresponding
-     * JarOuputStream.
+     * JarOuputStream. Each entry is built and written in turn, so only one
+     * class file (or resource) is held in memory at a time, rather than the
+     * whole segment.
      *
      * @throws Pack200Exception
      *             if there is a problem unpacking
@@ -470,6 +620,21 @@ public class Segment {
      */
     public void unpack(InputStream in, JarOutputStream out) throws IOException,
             Pack200Exception {
+        unpack(in, new JarOutputStreamWriter(out));
+    }
+
+    /**
+     * Unpacks a packed stream (either .pack. or .pack.gz), writing its entries
+     * to a JarWriter in turn.
+     *
+     * @throws Pack200Exception
+     *             if there is a problem unpacking
+     * @throws IOException
+     *             if there is a problem with I/O during unpacking
+     */
+    public void unpack(InputStream in, JarWriter out) throws IOException,
+            Pack200Exception {
+        streaming = true;
         unpackRead(in);
         unpackProcess();
         unpackWrite(out);
@@ -479,6 +644,7 @@ public class Segment {
      * Package-private accessors for unpacking stages
      */
     void unpackRead(InputStream in) throws IOException, Pack200Exception {
+        long start = System.nanoTime();
         if (!in.markSupported())
             in = new BufferedInputStream(in);
 
@@ -488,26 +654,60 @@ public class Segment {
         int size = (int)header.getArchiveSize() - header.getArchiveSizeOffset();
 
         if (doPreRead && header.getArchiveSize() != 0) {
-            byte[] data = new byte[size];
-            in.read(data);
-            internalBuffer = new BufferedInputStream(new ByteArrayInputStream(data));
+            if (in instanceof ByteBufferInputStream) {
+                // a mapped pack file, so the segment is sliced out of it
+                internalBuffer = new ByteBufferInputStream(
+                        ((ByteBufferInputStream) in).slice(size));
+            } else {
+                byte[] data = new byte[size];
+                SegmentHeader.readFully(in, data);
+                internalBuffer = new ByteBufferInputStream(ByteBuffer
+                        .wrap(data));
+            }
         } else {
+            if (doPreRead) {
+                log(LOG_LEVEL_VERBOSE,
+                        "No archive_size given, so decoding the segment's bands as it is read");
+            }
             readSegment(in);
         }
+        readTime += System.nanoTime() - start;
     }
 
     void unpackProcess() throws IOException, Pack200Exception {
+        long start = System.nanoTime();
         if(internalBuffer != null) {
             readSegment(internalBuffer);
         }
         parseSegment();
+        processTime += System.nanoTime() - start;
     }
 
-    void unpackWrite(JarOutputStream out) throws IOException, Pack200Exception {
+    void unpackWrite(JarWriter out) throws IOException, Pack200Exception {
+        long start = System.nanoTime();
         writeJar(out);
+        // the log stream belongs to the caller, and may be System.out
         if(logStream != null) {
-            logStream.close();
+            logStream.flush();
         }
+        writeTime += System.nanoTime() - start;
+    }
+
+    /*
+     * The time spent in each stage, in nanoseconds. When streaming, the class
+     * files are built and the file bits read while the segment is written, so
+     * that time is counted as writing.
+     */
+    long getReadTime() {
+        return readTime;
+    }
+
+    long getProcessTime() {
+        return processTime;
+    }
+
+    long getWriteTime() {
+        return writeTime;
     }
     
     /**
@@ -526,10 +726,26 @@ public class Segment {
      */
     public void writeJar(JarOutputStream out) throws IOException,
             Pack200Exception {
+        writeJar(new JarOutputStreamWriter(out));
+    }
+
+    /**
+     * Writes the segment's entries to a JarWriter, without closing it.
+     *
+     * @param out
+     *            the JarWriter to write the entries to
+     * @throws IOException
+     *             if an error occurs while reading or writing to the streams
+     * @throws Pack200Exception
+     *             if an error occurs while processing data
+     */
+    public void writeJar(JarWriter out) throws IOException,
+            Pack200Exception {
         String[] fileName = fileBands.getFileName();
         int[] fileModtime = fileBands.getFileModtime();
         long[] fileSize = fileBands.getFileSize();
-        byte[][] fileBits = fileBands.getFileBits();
+
+        ClassFileQueue classFiles = streaming ? new ClassFileQueue() : null;
 
         // now write the files out
         int classNum = 0;
@@ -548,32 +764,26 @@ public class Segment {
             boolean deflate = fileDeflate[i];
 
             JarEntry entry = new JarEntry(name);
-            if (deflate) {
-                entry.setMethod(ZipEntry.DEFLATED);
-            } else {
-                entry.setMethod(ZipEntry.STORED);
-                CRC32 crc = new CRC32();
-                if(fileIsClass[i]) {
-                    crc.update(classFilesContents[classNum]);
-                    entry.setSize(classFilesContents[classNum].length);
-                } else {
-                    crc.update(fileBits[i]);
-                    entry.setSize(fileSize[i]);
-                }
-                entry.setCrc(crc.getValue());
-            }
+            entry.setMethod(deflate ? ZipEntry.DEFLATED : ZipEntry.STORED);
             // On Windows at least, need to correct for timezone
             entry.setTime(modtime - TimeZone.getDefault().getRawOffset());
-            out.putNextEntry(entry);
 
-            // write to output stream
             if (fileIsClass[i]) {
-                entry.setSize(classFilesContents[classNum].length);
-                out.write(classFilesContents[classNum]);
+                byte[] contents;
+                if (streaming) {
+                    contents = classFiles.next();
+                } else {
+                    contents = classFilesContents[classNum];
+                }
                 classNum++;
+                out.write(entry, contents);
+            } else if (fileSize[i] >= STREAMED_FILE_SIZE) {
+                out.write(entry, fileBands.getFileBitsInputStream(i),
+                        fileSize[i]);
+            } else if (streaming) {
+                out.write(entry, fileBands.readFileBits(i));
             } else {
-                entry.setSize(fileSize[i]);
-                out.write(fileBits[i]);
+                out.write(entry, fileBands.getFileBits(i));
             }
         }
     }
@@ -590,6 +800,26 @@ public class Segment {
         doPreRead = value;
     }
 
+    /**
+     * Builds the class files on the given pool, with up to
+     * <code>window</code> of them in progress at once.
+     *
+     * @param pool
+     * @param window
+     */
+    void setClassFilePool(ExecutorService pool, int window) {
+        classFilePool = pool;
+        classFileWindow = window;
+    }
+
+    /**
+     * Answers the decoder for bands whose values are decoded once the segment
+     * has been read, or null if each band is decoded as it is read.
+     */
+    BandDecoder getBandDecoder() {
+        return bandDecoder;
+    }
+
     AttrDefinitionBands getAttrDefinitionBands() {
         return attrDefinitionBands;
     }
@@ -614,6 +844,12 @@ public class Segment {
         this.logStream = new PrintWriter(logStream);
     }
 
+    void flushLog() {
+        if (logStream != null) {
+            logStream.flush();
+        }
+    }
+
     public void log(int logLevel, String message) {
         if (this.logLevel >= logLevel) {
             logStream.println(message);
@@ -18,6 +18,7 @@ package org.apache.harmony.unpack200;
 
 import java.io.ByteArrayInputStream;
 import java.io.EOFException;
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 
@@ -102,10 +103,15 @@ class SegmentHeader {
         return archiveSizeOffset;
     }
 
+    // the number of bytes of the header after archive_size, which are
+    // counted in it
     private int archiveSizeOffset;
 
-    public void read(InputStream in) throws IOException, Pack200Exception,
+    public void read(InputStream input) throws IOException, Pack200Exception,
             Error {
+        // counts the bytes of the header, which are not all counted in
+        // archive_size
+        CountingInputStream in = new CountingInputStream(input);
 
         int word[] = decodeScalar("archive_magic_word", in, Codec.BYTE1,
                 magic.length);
@@ -130,7 +136,7 @@ class SegmentHeader {
             setBandHeadersData(bandHeaders);
         }
 
-        archiveSizeOffset = archiveSizeOffset - in.available();
+        archiveSizeOffset = (int) (in.getCount() - archiveSizeOffset);
     }
 
     public void unpack() {
@@ -332,12 +338,12 @@ class SegmentHeader {
         return options;
     }
 
-    private void parseArchiveFileCounts(InputStream in) throws IOException,
+    private void parseArchiveFileCounts(CountingInputStream in) throws IOException,
             Pack200Exception {
         if (options.hasArchiveFileCounts()) {
             setArchiveSize((long)decodeScalar("archive_size_hi", in, Codec.UNSIGNED5) << 32
                     | decodeScalar("archive_size_lo", in, Codec.UNSIGNED5));
-            archiveSizeOffset = in.available();
+            archiveSizeOffset = (int) in.getCount();
             setSegmentsRemaining(decodeScalar("archive_next_count", in,
                     Codec.UNSIGNED5));
             setArchiveModtime(decodeScalar("archive_modtime", in,
@@ -501,7 +507,7 @@ class SegmentHeader {
      *             if a problem occurs with an unexpected value or unsupported
      *             codec
      */
-    private void readFully(InputStream in, byte[] data) throws IOException,
+    static void readFully(InputStream in, byte[] data) throws IOException,
             Pack200Exception {
         int total = in.read(data);
         if (total == -1)
@@ -518,4 +524,54 @@ class SegmentHeader {
     public int getBandHeadersSize() {
         return bandHeadersSize;
     }
+
+    /**
+     * Counts the bytes read through it, allowing for mark and reset.
+     */
+    private static class CountingInputStream extends FilterInputStream {
+
+        private long count;
+
+        private long mark;
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        long getCount() {
+            return count;
+        }
+
+        public int read() throws IOException {
+            int b = in.read();
+            if (b != -1) {
+                count++;
+            }
+            return b;
+        }
+
+        public int read(byte[] b, int off, int len) throws IOException {
+            int read = in.read(b, off, len);
+            if (read > 0) {
+                count += read;
+            }
+            return read;
+        }
+
+        public long skip(long n) throws IOException {
+            long skipped = in.skip(n);
+            count += skipped;
+            return skipped;
+        }
+
+        public synchronized void mark(int readlimit) {
+            in.mark(readlimit);
+            mark = count;
+        }
+
+        public synchronized void reset() throws IOException {
+            in.reset();
+            count = mark;
+        }
+    }
 }
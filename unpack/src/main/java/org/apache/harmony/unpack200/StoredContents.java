@@ -0,0 +1,148 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.harmony.unpack200;
+
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.util.zip.CRC32;
+
+import org.apache.harmony.unpack200.codec.ByteBufferInputStream;
+
+/**
+ * The contents of a stored entry that is written from a stream. A stored
+ * entry's local header has its CRC, so its contents have to be read twice.
+ * The contents of a ByteBufferInputStream are read from a duplicate of its
+ * buffer first, and those of other streams are read into memory. Only
+ * contents too big for an array, 2GB or more, are copied to a temporary file
+ * as their CRC is worked out, and read back from there; the file is deleted
+ * when the entry has been written, or if copying it fails.
+ */
+class StoredContents {
+
+    static final int BUFFER_SIZE = 65536;
+
+    /**
+     * The size of the largest contents that are read into memory rather than
+     * copied to a temporary file.
+     */
+    static final long MAX_ARRAY_SIZE = Integer.MAX_VALUE - 8;
+
+    private final InputStream in;
+
+    private final long crc;
+
+    private File spool;
+
+    /**
+     * Works out the CRC of the next <code>size</code> bytes of a stream.
+     *
+     * @param contents
+     * @param size
+     * @throws IOException
+     *             if the stream ends before <code>size</code> bytes
+     */
+    StoredContents(InputStream contents, long size) throws IOException {
+        CRC32 checksum = new CRC32();
+        if (contents instanceof ByteBufferInputStream) {
+            ByteBuffer buffer = ((ByteBufferInputStream) contents).getBuffer()
+                    .duplicate();
+            if (buffer.remaining() < size) {
+                throw new EOFException("Expected " + size
+                        + " bytes but only " + buffer.remaining() + " remain");
+            }
+            ((Buffer) buffer).limit(buffer.position() + (int) size);
+            checksum.update(buffer);
+            in = contents;
+        } else if (size <= MAX_ARRAY_SIZE) {
+            byte[] bytes = new byte[(int) size];
+            int read = 0;
+            while (read < bytes.length) {
+                int n = contents.read(bytes, read, bytes.length - read);
+                if (n == -1) {
+                    throw new EOFException("Expected " + size
+                            + " bytes but read " + read);
+                }
+                read += n;
+            }
+            checksum.update(bytes);
+            in = new ByteArrayInputStream(bytes);
+        } else {
+            spool = File.createTempFile("unpack200", ".tmp");
+            spool.deleteOnExit();
+            InputStream spooled = null;
+            try {
+                OutputStream out = new FileOutputStream(spool);
+                try {
+                    byte[] bytes = new byte[BUFFER_SIZE];
+                    long remaining = size;
+                    while (remaining > 0) {
+                        int n = contents.read(bytes, 0, (int) Math.min(
+                                bytes.length, remaining));
+                        if (n == -1) {
+                            throw new EOFException("Expected " + size
+                                    + " bytes but read " + (size - remaining));
+                        }
+                        checksum.update(bytes, 0, n);
+                        out.write(bytes, 0, n);
+                        remaining -= n;
+                    }
+                } finally {
+                    out.close();
+                }
+                spooled = new FileInputStream(spool);
+            } finally {
+                if (spooled == null) {
+                    spool.delete();
+                }
+            }
+            in = spooled;
+        }
+        crc = checksum.getValue();
+    }
+
+    long getCrc() {
+        return crc;
+    }
+
+    /**
+     * Answers the stream to read the contents from once the CRC is known.
+     */
+    InputStream getInputStream() {
+        return in;
+    }
+
+    /**
+     * Removes the temporary file the contents were copied to, if any.
+     */
+    void close() {
+        if (spool != null) {
+            try {
+                in.close();
+            } catch (IOException e) {
+            }
+            spool.delete();
+        }
+    }
+}
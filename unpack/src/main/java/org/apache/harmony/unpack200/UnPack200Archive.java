@@ -25,11 +25,20 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.util.jar.JarEntry;
-import java.util.jar.JarInputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 import java.util.jar.JarOutputStream;
 import java.util.zip.GZIPInputStream;
 
+import org.apache.harmony.unpack200.codec.ByteBufferInputStream;
 import org.apache.harmony.unpack200.common.Pack200Exception;
 
 /**
@@ -37,12 +46,32 @@ import org.apache.harmony.unpack200.common.Pack200Exception;
  * either two file names, a pack file and an output file name or an input stream
  * and an output streams. Then <code>unpack()</code> is called, to unpack the
  * pack200 archive.
+ *
+ * The entries are written by a {@link JarWriter}. Given a JarOutputStream, each
+ * entry is written to it and deflated on the unpacking thread. Given a file
+ * name or a plain OutputStream, the jar is written by a
+ * {@link ParallelJarWriter}, which deflates entries on the same threads as the
+ * class files are built on (see {@link #setThreads(int)}).
+ *
+ * A pack file given by name or as a FileInputStream is mapped into memory,
+ * unless it is to be removed once unpacked (see
+ * {@link #setRemovePackFile(boolean)}).
+ *
+ * Each segment is read, processed and written in turn, unless the archive is
+ * pipelined (see {@link #setPipelined(boolean)}) or its segments are unpacked
+ * in parallel (see {@link #setParallelSegments(boolean)}). The time spent in
+ * each of these stages is answered once the archive is unpacked, and logged
+ * when verbose and either of these is set.
  */
 public class UnPack200Archive {
 
     private InputStream inputStream;
 
-    private final JarOutputStream outputStream;
+    private JarWriter jarWriter;
+
+    // the stream for a ParallelJarWriter, which is created when unpacking
+    // starts and the number of threads is known
+    private OutputStream outputStream;
 
     private boolean removePackFile;
 
@@ -58,6 +87,33 @@ public class UnPack200Archive {
 
     private String outputFileName;
 
+    private int threads = 1;
+
+    // the most segments that have been read but not yet written, when
+    // pipelined
+    private static final int PIPELINE_DEPTH = 2;
+
+    // the size of the buffers a .pack.gz is inflated through
+    private static final int INFLATE_BUFFER_SIZE = 65536;
+
+    private boolean pipelined;
+
+    private boolean parallelSegments;
+
+    // the segments unpacked so far, the time spent in each stage of
+    // unpacking them, in nanoseconds, and the last one, to log to
+    private int segments;
+
+    private long readTime;
+
+    private long processTime;
+
+    private long writeTime;
+
+    private long elapsedTime;
+
+    private Segment lastSegment;
+
     /**
      * Creates an Archive with the given input and output file names.
      *
@@ -72,7 +128,7 @@ public class UnPack200Archive {
         this.inputFileName = inputFile;
         this.outputFileName = outputFile;
         inputStream = new FileInputStream(inputFile);
-        outputStream = new JarOutputStream(new BufferedOutputStream(new FileOutputStream(outputFile)));
+        outputStream = new BufferedOutputStream(new FileOutputStream(outputFile));
     }
 
     /**
@@ -86,10 +142,40 @@ public class UnPack200Archive {
      */
     public UnPack200Archive(InputStream inputStream, JarOutputStream outputStream)
             throws IOException {
+        this(inputStream, new JarOutputStreamWriter(outputStream));
+    }
+
+    /**
+     * Creates an Archive that writes a jar to a plain output stream with a
+     * {@link ParallelJarWriter}. Note: If you use this method then calling
+     * {@link #setRemovePackFile(boolean)} will have no effect.
+     *
+     * @param inputStream
+     * @param outputStream
+     *            the stream the jar is written to; should be buffered
+     * @throws IOException
+     */
+    public UnPack200Archive(InputStream inputStream, OutputStream outputStream)
+            throws IOException {
         this.inputStream = inputStream;
         this.outputStream = outputStream;
     }
 
+    /**
+     * Creates an Archive that writes its entries to a JarWriter. Note: If you
+     * use this method then calling {@link #setRemovePackFile(boolean)} will
+     * have no effect.
+     *
+     * @param inputStream
+     * @param jarWriter
+     * @throws IOException
+     */
+    public UnPack200Archive(InputStream inputStream, JarWriter jarWriter)
+            throws IOException {
+        this.inputStream = inputStream;
+        this.jarWriter = jarWriter;
+    }
+
     /**
      * Unpacks the UnPack200Archive from the input file to the output file
      *
@@ -97,8 +183,24 @@ public class UnPack200Archive {
      * @throws IOException
      */
     public void unpack() throws Pack200Exception, IOException {
-        outputStream.setComment("PACK200");
+        int threads = this.threads;
+        if (threads == 0) {
+            threads = Runtime.getRuntime().availableProcessors();
+        }
+        ForkJoinPool pool = null;
+        if (threads > 1) {
+            pool = new ForkJoinPool(threads);
+        }
+        JarWriter out = jarWriter;
+        if (out == null) {
+            out = new ParallelJarWriter(outputStream, pool, threads * 2);
+        }
+        out.setComment("PACK200");
+        long start = System.nanoTime();
         try {
+            if (inputStream instanceof FileInputStream && !removePackFile) {
+                inputStream = map((FileInputStream) inputStream);
+            }
             if (!inputStream.markSupported()) {
                 inputStream = new BufferedInputStream(inputStream);
                 if (!inputStream.markSupported())
@@ -108,7 +210,7 @@ public class UnPack200Archive {
             if (((inputStream.read() & 0xFF) | (inputStream.read() & 0xFF) << 8) == GZIPInputStream.GZIP_MAGIC) {
                 inputStream.reset();
                 inputStream = new BufferedInputStream(new GZIPInputStream(
-                        inputStream));
+                        inputStream, INFLATE_BUFFER_SIZE), INFLATE_BUFFER_SIZE);
             } else {
                 inputStream.reset();
             }
@@ -127,42 +229,22 @@ public class UnPack200Archive {
             }
             inputStream.reset();
             if (compressedWithE0) { // The original Jar was not packed, so just
-                // copy it across
-                JarInputStream jarInputStream = new JarInputStream(inputStream);
-                JarEntry jarEntry;
-                while ((jarEntry = jarInputStream.getNextJarEntry()) != null) {
-                    outputStream.putNextEntry(jarEntry);
-                    byte[] bytes = new byte[16384];
-                    int bytesRead = jarInputStream.read(bytes);
-                    while (bytesRead != -1) {
-                        outputStream.write(bytes, 0, bytesRead);
-                        bytesRead = jarInputStream.read(bytes);
-                    }
-                    outputStream.closeEntry();
+                // copy its entries across, manifest included, as they are
+                RawJarReader reader = new RawJarReader(inputStream);
+                RawJarEntry entry;
+                while ((entry = reader.getNextEntry()) != null) {
+                    out.copy(entry);
                 }
+            } else if (pipelined || parallelSegments) {
+                unpackPipelined(out, pool, threads);
             } else {
                 int i = 0;
                 while (available(inputStream)) {
                     i++;
-                    Segment segment = new Segment();
-                    segment.setLogLevel(logLevel);
-                    segment
-                            .setLogStream(logFile != null ? (OutputStream) logFile
-                                    : (OutputStream) System.out);
-                    segment.setPreRead(false);
-
-                    if (i == 1) {
-                        segment.log(Segment.LOG_LEVEL_VERBOSE,
-                                "Unpacking from " + inputFileName + " to "
-                                        + outputFileName);
-                    }
-                    segment.log(Segment.LOG_LEVEL_VERBOSE, "Reading segment "
-                            + i);
-                    if (overrideDeflateHint) {
-                        segment.overrideDeflateHint(deflateHint);
-                    }
-                    segment.unpack(inputStream, outputStream);
-                    outputStream.flush();
+                    Segment segment = createSegment(i, pool, threads);
+                    segment.unpack(inputStream, out);
+                    out.flush();
+                    segmentUnpacked(segment);
 
                     if (inputStream instanceof FileInputStream) {
                         inputFileName = ((FileInputStream) inputStream).getFD()
@@ -170,13 +252,20 @@ public class UnPack200Archive {
                     }
                 }
             }
+            elapsedTime = System.nanoTime() - start;
+            if (pipelined || parallelSegments) {
+                logTimings();
+            }
         } finally {
+            if (pool != null) {
+                pool.shutdownNow();
+            }
             try {
                 inputStream.close();
             } catch (Exception e) {
             }
             try {
-                outputStream.close();
+                out.close();
             } catch (Exception e) {
             }
             if (logFile != null) {
@@ -198,6 +287,159 @@ public class UnPack200Archive {
         }
     }
 
+    /*
+     * Maps the rest of a pack file into memory, so that its bands are decoded
+     * straight from the mapping and its segments and files are sliced out of
+     * it rather than copied. Files too large to map in one go are read as a
+     * stream.
+     */
+    private static InputStream map(FileInputStream in) throws IOException {
+        FileChannel channel = in.getChannel();
+        long position = channel.position();
+        long size = channel.size() - position;
+        if (size <= 0 || size > Integer.MAX_VALUE) {
+            return in;
+        }
+        ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY,
+                position, size);
+        // the mapping stays valid once the file is closed
+        in.close();
+        return new ByteBufferInputStream(buffer);
+    }
+
+    private Segment createSegment(int number, ForkJoinPool pool, int threads) {
+        Segment segment = new Segment();
+        segment.setLogLevel(logLevel);
+        segment.setLogStream(logFile != null ? (OutputStream) logFile
+                : (OutputStream) System.out);
+        segment.setPreRead(false);
+
+        if (number == 1) {
+            segment.log(Segment.LOG_LEVEL_VERBOSE, "Unpacking from "
+                    + inputFileName + " to " + outputFileName);
+        }
+        segment.log(Segment.LOG_LEVEL_VERBOSE, "Reading segment " + number);
+        if (overrideDeflateHint) {
+            segment.overrideDeflateHint(deflateHint);
+        }
+        if (pool != null) {
+            segment.setClassFilePool(pool, threads * 2);
+        }
+        lastSegment = segment;
+        return segment;
+    }
+
+    /*
+     * Reads each segment on this thread while the one before it is processed
+     * (its class files built) on a second thread, and the one before that is
+     * written on a third. Each segment is read whole rather than streamed, so
+     * at most PIPELINE_DEPTH segments that have been read wait to be written
+     * before the next one is read.
+     *
+     * With parallel segments, each segment that gives its archive_size is
+     * only copied on this thread, and its bands are decoded as it is
+     * processed, on one of the threads. The segments are still written in
+     * order, and up to twice as many as there are threads wait to be written.
+     */
+    private void unpackPipelined(final JarWriter out, ForkJoinPool pool,
+            int threads) throws IOException, Pack200Exception {
+        ExecutorService processor;
+        int depth;
+        if (parallelSegments) {
+            processor = Executors.newFixedThreadPool(threads);
+            depth = threads * 2;
+        } else {
+            processor = Executors.newSingleThreadExecutor();
+            depth = PIPELINE_DEPTH;
+        }
+        ExecutorService writer = Executors.newSingleThreadExecutor();
+        LinkedList<Future<Void>> pending = new LinkedList<Future<Void>>();
+        LinkedList<Segment> pendingSegments = new LinkedList<Segment>();
+        try {
+            int i = 0;
+            while (available(inputStream)) {
+                i++;
+                final Segment segment = createSegment(i, pool, threads);
+                segment.setPreRead(parallelSegments);
+                segment.unpackRead(inputStream);
+                if (inputStream instanceof FileInputStream) {
+                    inputFileName = ((FileInputStream) inputStream).getFD()
+                            .toString();
+                }
+                Callable<Void> process = new Callable<Void>() {
+                    public Void call() throws IOException, Pack200Exception {
+                        segment.unpackProcess();
+                        return null;
+                    }
+                };
+                final Future<Void> processed = processor.submit(process);
+                pending.add(writer.submit(new Callable<Void>() {
+                    public Void call() throws IOException, Pack200Exception {
+                        waitFor(processed);
+                        segment.unpackWrite(out);
+                        out.flush();
+                        return null;
+                    }
+                }));
+                pendingSegments.add(segment);
+                while (pending.size() > depth) {
+                    waitFor(pending.removeFirst());
+                    segmentUnpacked(pendingSegments.removeFirst());
+                }
+            }
+            while (!pending.isEmpty()) {
+                waitFor(pending.removeFirst());
+                segmentUnpacked(pendingSegments.removeFirst());
+            }
+        } finally {
+            for (Iterator<Future<Void>> iterator = pending.iterator(); iterator
+                    .hasNext();) {
+                iterator.next().cancel(true);
+            }
+            processor.shutdownNow();
+            writer.shutdownNow();
+        }
+    }
+
+    private static void waitFor(Future<Void> future) throws IOException,
+            Pack200Exception {
+        try {
+            future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new Pack200Exception("Interrupted while unpacking", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof Pack200Exception) {
+                throw (Pack200Exception) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new Pack200Exception("Error unpacking", (Exception) cause);
+        }
+    }
+
+    private void segmentUnpacked(Segment segment) {
+        segments++;
+        readTime += segment.getReadTime();
+        processTime += segment.getProcessTime();
+        writeTime += segment.getWriteTime();
+    }
+
+    private void logTimings() {
+        if (lastSegment != null) {
+            lastSegment.log(Segment.LOG_LEVEL_VERBOSE, "Unpacked " + segments
+                    + " segments in " + elapsedTime / 1000000 + "ms: reading "
+                    + readTime / 1000000 + "ms, processing " + processTime
+                    / 1000000 + "ms, writing " + writeTime / 1000000 + "ms");
+            lastSegment.flushLog();
+        }
+    }
+
     private boolean available(InputStream inputStream) throws IOException {
         inputStream.mark(1);
         int check = inputStream.read();
@@ -231,6 +473,82 @@ public class UnPack200Archive {
         }
     }
 
+    /**
+     * Sets the number of threads used to build the class files of each
+     * segment. The unpacked jar is the same whatever the number of threads;
+     * 1 (the default) builds them serially and 0 uses one thread per
+     * available processor.
+     *
+     * @param threads
+     */
+    public void setThreads(int threads) {
+        if (threads < 0) {
+            throw new IllegalArgumentException("Bad argument: -T " + threads
+                    + " ? number of threads should be 0 or more");
+        }
+        this.threads = threads;
+    }
+
+    /**
+     * If pipelined is set to true, each segment is read while the one before
+     * it is processed and the one before that is written, each on its own
+     * thread. Segments are then read whole before they are processed rather
+     * than streamed, so up to three are held in memory at once. The unpacked
+     * jar is the same either way.
+     *
+     * @param pipelined
+     */
+    public void setPipelined(boolean pipelined) {
+        this.pipelined = pipelined;
+    }
+
+    /**
+     * If parallelSegments is set to true, whole segments are decoded and
+     * processed concurrently, on as many threads as are set with
+     * {@link #setThreads(int)}, and written in order. Only the segments whose
+     * headers give their archive_size can be sliced from the input without
+     * decoding their bands, so the bands of the others are decoded in turn
+     * as they are read. Up to twice as many segments as there are threads are
+     * held in memory at once. The unpacked jar is the same either way.
+     *
+     * @param parallelSegments
+     */
+    public void setParallelSegments(boolean parallelSegments) {
+        this.parallelSegments = parallelSegments;
+    }
+
+    /**
+     * Answers the time spent reading segments, in nanoseconds. When not
+     * pipelined, the file bits are read as the segments are written, and that
+     * time is counted as writing.
+     */
+    public long getReadTime() {
+        return readTime;
+    }
+
+    /**
+     * Answers the time spent processing segments, in nanoseconds. When not
+     * pipelined, the class files are built as the segments are written, and
+     * that time is counted as writing.
+     */
+    public long getProcessTime() {
+        return processTime;
+    }
+
+    /**
+     * Answers the time spent writing segments, in nanoseconds.
+     */
+    public long getWriteTime() {
+        return writeTime;
+    }
+
+    /**
+     * Answers the time taken to unpack the archive, in nanoseconds.
+     */
+    public long getElapsedTime() {
+        return elapsedTime;
+    }
+
     public void setLogFile(String logFileName) throws FileNotFoundException {
         this.logFile = new FileOutputStream(logFileName);
     }
@@ -28,19 +28,31 @@ import org.apache.harmony.unpack200.bytecode.forms.ByteCodeForm;
  */
 public class ByteCode extends ClassFileEntry {
 
+    /**
+     * ByteCodes without operands hold nothing specific to the method they are
+     * in, so one instance of each is shared by every segment being unpacked.
+     * They are created up front so that no locking is needed to share them
+     * between threads.
+     */
+    private static final ByteCode[] noArgByteCodes = new ByteCode[256];
+
+    static {
+        for (int opcode = 0; opcode < noArgByteCodes.length; opcode++) {
+            ByteCodeForm form = ByteCodeForm.get(opcode);
+            if (form != null && form.hasNoOperand()) {
+                noArgByteCodes[opcode] = new ByteCode(opcode);
+            }
+        }
+    }
+
     public static ByteCode getByteCode(int opcode) {
         int byteOpcode = 0xFF & opcode;
         if(ByteCodeForm.get(byteOpcode).hasNoOperand()) {
-            if(null == noArgByteCodes[byteOpcode]) {
-                noArgByteCodes[byteOpcode] = new ByteCode(byteOpcode);
-            }
             return noArgByteCodes[byteOpcode];
         }
         return new ByteCode(byteOpcode);
     }
 
-    private static ByteCode[] noArgByteCodes = new ByteCode[255];
-
     private final ByteCodeForm byteCodeForm;
 
     private ClassFileEntry[] nested;
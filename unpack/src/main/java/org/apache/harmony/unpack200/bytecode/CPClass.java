@@ -64,12 +64,12 @@ public class CPClass extends CPLoadableValue {
         return new ClassFileEntry[] { utf8, };
     }
 
-    private boolean hashcodeComputed;
+    private volatile boolean hashcodeComputed;
     private int cachedHashCode;
 
     private void generateHashCode() {
-        hashcodeComputed = true;
         cachedHashCode = utf8.hashCode();
+        hashcodeComputed = true;
     }
 
     public int hashCode() {
@@ -84,6 +84,10 @@ public class CPClass extends CPLoadableValue {
         index = pool.indexOf(utf8);
     }
 
+    protected ConstantPoolEntry copyForPool() {
+        return new CPClass(utf8, globalIndex);
+    }
+
     public String toString() {
         return "Class: " + getName();
     }
@@ -47,6 +47,10 @@ public class CPFieldRef extends CPAnyMemberRef {
         classNameIndex = pool.indexOf(className);
     }
 
+    protected ConstantPoolEntry copyForPool() {
+        return new CPFieldRef(className, nameAndType, globalIndex);
+    }
+
     protected void writeBody(DataOutputStream dos) throws IOException {
         dos.writeShort(classNameIndex);
         dos.writeShort(nameAndTypeIndex);
@@ -56,11 +60,10 @@ public class CPFieldRef extends CPAnyMemberRef {
         return "FieldRef: " + className + "#" + nameAndType;
     }
 
-    private boolean hashcodeComputed;
+    private volatile boolean hashcodeComputed;
     private int cachedHashCode;
 
     private void generateHashCode() {
-        hashcodeComputed = true;
         final int PRIME = 31;
         int result = 1;
         result = PRIME * result
@@ -68,6 +71,7 @@ public class CPFieldRef extends CPAnyMemberRef {
         result = PRIME * result
                 + ((nameAndType == null) ? 0 : nameAndType.hashCode());
         cachedHashCode = result;
+        hashcodeComputed = true;
     }
 
     public int hashCode() {
@@ -33,16 +33,20 @@ public class CPInterfaceMethodRef extends CPRef {
         return nameAndType.invokeInterfaceCount();
     }
 
-    private boolean hashcodeComputed;
+    protected ConstantPoolEntry copyForPool() {
+        return new CPInterfaceMethodRef(className, nameAndType, globalIndex);
+    }
+
+    private volatile boolean hashcodeComputed;
     private int cachedHashCode;
 
     private void generateHashCode() {
-        hashcodeComputed = true;
         final int PRIME = 31;
         int result = 1;
         result = PRIME * result + className.hashCode();
         result = PRIME * result + nameAndType.hashCode();
         cachedHashCode = result;
+        hashcodeComputed = true;
     }
 
     public int hashCode() {
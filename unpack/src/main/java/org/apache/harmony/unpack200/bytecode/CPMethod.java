@@ -31,16 +31,16 @@ public class CPMethod extends CPMember {
         return "Method: " + name + "(" + descriptor + ")";
     }
 
-    private boolean hashcodeComputed;
+    private volatile boolean hashcodeComputed;
     private int cachedHashCode;
 
     private void generateHashCode() {
-        hashcodeComputed = true;
         final int PRIME = 31;
         int result = 1;
         result = PRIME * result + name.hashCode();
         result = PRIME * result + descriptor.hashCode();
         cachedHashCode = result;
+        hashcodeComputed = true;
     }
 
     public int hashCode() {
@@ -29,17 +29,21 @@ public class CPMethodRef extends CPRef {
         return new ClassFileEntry[] { className, nameAndType };
     }
 
+    protected ConstantPoolEntry copyForPool() {
+        return new CPMethodRef(className, nameAndType, globalIndex);
+    }
+
 
-    private boolean hashcodeComputed;
+    private volatile boolean hashcodeComputed;
     private int cachedHashCode;
 
     private void generateHashCode() {
-        hashcodeComputed = true;
         final int PRIME = 31;
         int result = 1;
         result = PRIME * result + className.hashCode();
         result = PRIME * result + nameAndType.hashCode();
         cachedHashCode = result;
+        hashcodeComputed = true;
     }
 
     public int hashCode() {
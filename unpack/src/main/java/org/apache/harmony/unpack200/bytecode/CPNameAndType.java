@@ -62,6 +62,10 @@ public class CPNameAndType extends ConstantPoolEntry {
         nameIndex = pool.indexOf(name);
     }
 
+    protected ConstantPoolEntry copyForPool() {
+        return new CPNameAndType(name, descriptor, globalIndex);
+    }
+
     /*
      * field_info { u2 access_flags; u2 name_index; u2 descriptor_index; u2
      * attributes_count; attribute_info attributes[attributes_count]; }
@@ -76,16 +80,16 @@ public class CPNameAndType extends ConstantPoolEntry {
         return "NameAndType: " + name + "(" + descriptor + ")";
     }
 
-    private boolean hashcodeComputed;
+    private volatile boolean hashcodeComputed;
     private int cachedHashCode;
 
     private void generateHashCode() {
-        hashcodeComputed = true;
         final int PRIME = 31;
         int result = 1;
         result = PRIME * result + descriptor.hashCode();
         result = PRIME * result + name.hashCode();
         cachedHashCode = result;
+        hashcodeComputed = true;
     }
 
     public int hashCode() {
@@ -50,19 +50,23 @@ public class CPString extends CPConstant {
         nameIndex = pool.indexOf(name);
     }
 
+    protected ConstantPoolEntry copyForPool() {
+        return new CPString(name, globalIndex);
+    }
+
     protected ClassFileEntry[] getNestedClassFileEntries() {
         return new ClassFileEntry[] { name };
     }
 
-    private boolean hashcodeComputed;
+    private volatile boolean hashcodeComputed;
     private int cachedHashCode;
 
     private void generateHashCode() {
-        hashcodeComputed = true;
         final int PRIME = 31;
         int result = 1;
         result = PRIME * result + name.hashCode();
         cachedHashCode = result;
+        hashcodeComputed = true;
     }
 
     public int hashCode() {
@@ -57,13 +57,13 @@ public class CPUTF8 extends ConstantPoolEntry {
         return utf8.equals(other.utf8);
     }
 
-    private boolean hashcodeComputed;
+    private volatile boolean hashcodeComputed;
     private int cachedHashCode;
 
     private void generateHashCode() {
-        hashcodeComputed = true;
         final int PRIME = 31;
         cachedHashCode = PRIME + utf8.hashCode();
+        hashcodeComputed = true;
     }
 
     public int hashCode() {
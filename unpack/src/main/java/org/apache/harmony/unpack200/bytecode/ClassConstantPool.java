@@ -50,7 +50,7 @@ public class ClassConstantPool {
         }
         if (entry instanceof ConstantPoolEntry) {
             if (entriesContainsSet.add(entry)) {
-                entries.add(entry);
+                entries.add(((ConstantPoolEntry) entry).copyForPool());
             }
         } else {
             if (othersContainsSet.add(entry)) {
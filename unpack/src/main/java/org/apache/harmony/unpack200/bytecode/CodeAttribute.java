@@ -34,11 +34,11 @@ public class CodeAttribute extends BCIRenumberedAttribute {
     public List exceptionTable; // of ExceptionTableEntry
     public int maxLocals;
     public int maxStack;
-    private static CPUTF8 ATTRIBUTE_NAME;
 
-    public CodeAttribute(int maxStack, int maxLocals, byte codePacked[],
+    public CodeAttribute(CPUTF8 attributeName,
+            int maxStack, int maxLocals, byte codePacked[],
             Segment segment, OperandManager operandManager, List exceptionTable) {
-        super(ATTRIBUTE_NAME);
+        super(attributeName);
         this.maxLocals = maxLocals;
         this.maxStack = maxStack;
         this.codeLength = 0;
@@ -48,8 +48,11 @@ public class CodeAttribute extends BCIRenumberedAttribute {
         for (int i = 0; i < codePacked.length; i++) {
             ByteCode byteCode = ByteCode.getByteCode(codePacked[i] & 0xff);
             // Setting the offset must happen before extracting operands
-            // because label bytecodes need to know their offsets.
-            byteCode.setByteCodeIndex(byteCodeIndex);
+            // because label bytecodes need to know their offsets. Bytecodes
+            // without operands are shared, and don't need it.
+            if (!byteCode.getByteCodeForm().hasNoOperand()) {
+                byteCode.setByteCodeIndex(byteCodeIndex);
+            }
             byteCodeIndex++;
             byteCode.extractOperands(operandManager, segment, codeLength);
             byteCodes.add(byteCode);
@@ -185,8 +188,4 @@ public class CodeAttribute extends BCIRenumberedAttribute {
             entry.renumber(byteCodeOffsets);
         }
     }
-
-    public static void setAttributeName(CPUTF8 attributeName) {
-        CodeAttribute.ATTRIBUTE_NAME = attributeName;
-    }
 }
\ No newline at end of file
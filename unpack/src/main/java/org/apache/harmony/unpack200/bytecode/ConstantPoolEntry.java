@@ -85,4 +85,16 @@ public abstract class ConstantPoolEntry extends ClassFileEntry {
     public int getGlobalIndex() {
         return globalIndex;
     }
+
+    /**
+     * Answers the entry to put in a class file's constant pool for this one.
+     * Entries are shared between the class files of a segment, which may be
+     * built at the same time, so an entry that remembers indexes into the
+     * pool when it is resolved answers a copy of itself.
+     *
+     * @return an equal entry that belongs to one constant pool
+     */
+    protected ConstantPoolEntry copyForPool() {
+        return this;
+    }
 }
@@ -28,13 +28,7 @@ public class ConstantValueAttribute extends Attribute {
 
     private final ClassFileEntry entry;
 
-    private static CPUTF8 attributeName;
-
-    public static void setAttributeName(CPUTF8 cpUTF8Value) {
-        attributeName = cpUTF8Value;
-    }
-
-    public ConstantValueAttribute(ClassFileEntry entry) {
+    public ConstantValueAttribute(CPUTF8 attributeName, ClassFileEntry entry) {
         super(attributeName);
         if (entry == null) {
             throw new NullPointerException();
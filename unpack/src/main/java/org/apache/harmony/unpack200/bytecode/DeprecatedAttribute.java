@@ -24,13 +24,7 @@ import java.io.IOException;
  */
 public class DeprecatedAttribute extends Attribute {
 
-    private static CPUTF8 attributeName;
-
-    public static void setAttributeName(CPUTF8 cpUTF8Value) {
-        attributeName = cpUTF8Value;
-    }
-
-    public DeprecatedAttribute() {
+    public DeprecatedAttribute(CPUTF8 attributeName) {
         super(attributeName);
     }
 
@@ -28,13 +28,9 @@ public class EnclosingMethodAttribute extends Attribute {
     private int method_index;
     private final CPClass cpClass;
     private final CPNameAndType method;
-    private static CPUTF8 attributeName;
 
-    public static void setAttributeName(CPUTF8 cpUTF8Value) {
-        attributeName = cpUTF8Value;
-    }
-
-    public EnclosingMethodAttribute(CPClass cpClass, CPNameAndType method) {
+    public EnclosingMethodAttribute(CPUTF8 attributeName,
+            CPClass cpClass, CPNameAndType method) {
         super(attributeName);
         this.cpClass = cpClass;
         this.method = method;
@@ -25,8 +25,6 @@ import java.util.Arrays;
  */
 public class ExceptionsAttribute extends Attribute {
 
-    private static CPUTF8 attributeName;
-
     private static int hashCode(Object[] array) {
         final int prime = 31;
         if (array == null)
@@ -43,7 +41,7 @@ public class ExceptionsAttribute extends Attribute {
 
     private final CPClass[] exceptions;
 
-    public ExceptionsAttribute(CPClass[] exceptions) {
+    public ExceptionsAttribute(CPUTF8 attributeName, CPClass[] exceptions) {
         super(attributeName);
         this.exceptions = exceptions;
     }
@@ -107,8 +105,4 @@ public class ExceptionsAttribute extends Attribute {
         }
     }
 
-    public static void setAttributeName(CPUTF8 cpUTF8Value) {
-        attributeName = cpUTF8Value;
-    }
-
 }
\ No newline at end of file
@@ -26,12 +26,6 @@ import java.util.List;
  */
 public class InnerClassesAttribute extends Attribute {
 
-    private static CPUTF8 attributeName;
-
-    public static void setAttributeName(CPUTF8 cpUTF8Value) {
-        attributeName = cpUTF8Value;
-    }
-
     private static class InnerClassesEntry {
 
         CPClass inner_class_info;
@@ -94,7 +88,7 @@ public class InnerClassesAttribute extends Attribute {
     private final List innerClasses = new ArrayList();
     private final List nestedClassFileEntries = new ArrayList();
 
-    public InnerClassesAttribute(String name) {
+    public InnerClassesAttribute(CPUTF8 attributeName) {
         super(attributeName);
         nestedClassFileEntries.add(getAttributeName());
     }
@@ -27,13 +27,9 @@ public class LineNumberTableAttribute extends BCIRenumberedAttribute {
     private final int line_number_table_length;
     private final int[] start_pcs;
     private final int[] line_numbers;
-    private static CPUTF8 attributeName;
 
-    public static void setAttributeName(CPUTF8 cpUTF8Value) {
-        attributeName = cpUTF8Value;
-    }
-
-    public LineNumberTableAttribute(int line_number_table_length,
+    public LineNumberTableAttribute(CPUTF8 attributeName,
+            int line_number_table_length,
             int[] start_pcs, int[] line_numbers) {
         super(attributeName);
         this.line_number_table_length = line_number_table_length;
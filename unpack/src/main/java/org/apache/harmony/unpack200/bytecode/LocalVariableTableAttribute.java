@@ -37,13 +37,9 @@ public class LocalVariableTableAttribute extends BCIRenumberedAttribute {
     private final CPUTF8[] names;
     private final CPUTF8[] descriptors;
     private int codeLength;
-    private static CPUTF8 attributeName;
 
-    public static void setAttributeName(CPUTF8 cpUTF8Value) {
-        attributeName = cpUTF8Value;
-    }
-
-    public LocalVariableTableAttribute(int local_variable_table_length,
+    public LocalVariableTableAttribute(CPUTF8 attributeName,
+            int local_variable_table_length,
             int[] start_pcs, int[] lengths, CPUTF8[] names,
             CPUTF8[] descriptors, int[] indexes) {
         super(attributeName);
@@ -37,13 +37,8 @@ public class LocalVariableTypeTableAttribute extends BCIRenumberedAttribute {
     private final CPUTF8[] names;
     private final CPUTF8[] signatures;
     private int codeLength;
-    private static CPUTF8 attributeName;
 
-    public static void setAttributeName(CPUTF8 cpUTF8Value) {
-        attributeName = cpUTF8Value;
-    }
-
-    public LocalVariableTypeTableAttribute(
+    public LocalVariableTypeTableAttribute(CPUTF8 attributeName,
             int local_variable_type_table_length, int[] start_pcs,
             int[] lengths, CPUTF8[] names, CPUTF8[] signatures, int[] indexes) {
         super(attributeName);
@@ -25,22 +25,18 @@ import java.util.Arrays;
  */
 public class MethodParametersAttribute extends Attribute {
     
-    private static CPUTF8 ATTRIBUTE_NAME; // u2
-
-    public static void setAttributeName(CPUTF8 cpUTF8Value) {
-	ATTRIBUTE_NAME = cpUTF8Value;
-    }
     private final int attribute_length; // u4
     private final int parameters_count; // u1
     private final CPUTF8[] name; 
     private final int[] name_index; // [u2]
     private final int[] access_flags; // [u2]
 
-    public MethodParametersAttribute(int parameters_count, 
+    public MethodParametersAttribute(CPUTF8 attributeName,
+				    int parameters_count, 
 				    CPUTF8 [] name, 
 				    int [] access_flags)
     {
-	super(ATTRIBUTE_NAME);
+	super(attributeName);
 	this.attribute_length = 1 /*parameters_count*/ + name.length * 4; // name_index and access_flags item pairs
 	this.parameters_count = parameters_count;
 	this.name = name;
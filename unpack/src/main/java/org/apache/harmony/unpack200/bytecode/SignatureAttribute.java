@@ -27,14 +27,8 @@ public class SignatureAttribute extends Attribute {
     private int signature_index;
     private final CPUTF8 signature;
 
-    private static CPUTF8 ATTRIBUTE_NAME;
-
-    public static void setAttributeName(CPUTF8 cpUTF8Value) {
-        ATTRIBUTE_NAME = cpUTF8Value;
-    }
-
-    public SignatureAttribute(CPUTF8 value) {
-        super(ATTRIBUTE_NAME);
+    public SignatureAttribute(CPUTF8 attributeName, CPUTF8 value) {
+        super(attributeName);
         this.signature = value;
     }
 
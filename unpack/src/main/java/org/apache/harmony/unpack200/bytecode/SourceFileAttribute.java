@@ -26,13 +26,8 @@ public class SourceFileAttribute extends Attribute {
 
     private final CPUTF8 name;
     private int nameIndex;
-    private static CPUTF8 attributeName;
 
-    public static void setAttributeName(CPUTF8 cpUTF8Value) {
-        attributeName = cpUTF8Value;
-    }
-
-    public SourceFileAttribute(CPUTF8 name) {
+    public SourceFileAttribute(CPUTF8 attributeName, CPUTF8 name) {
         super(attributeName);
         this.name = name;
     }
@@ -24,15 +24,11 @@ import java.io.IOException;
  */
 public class StackMapTableAttribute extends Attribute {
     
-    private static CPUTF8 ATTRIBUTE_NAME; // u2
-
-    public static void setAttributeName(CPUTF8 cpUTF8Value) {
-	ATTRIBUTE_NAME = cpUTF8Value;
-    }
     private final StackMapFrame[] entries;
 
-    public StackMapTableAttribute(StackMapFrame [] entries ) {
-	super(ATTRIBUTE_NAME);
+    public StackMapTableAttribute(CPUTF8 attributeName,
+	    StackMapFrame [] entries ) {
+	super(attributeName);
 	this.entries = entries;
     }
 
@@ -19,8 +19,8 @@ package org.apache.harmony.unpack200.codec;
 import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
-import java.util.ArrayList;
-import java.util.List;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
 import org.apache.harmony.unpack200.common.Pack200Exception;
 
 /**
@@ -117,6 +117,31 @@ public final class BHSDCodec extends Codec {
      */
     private final long[] powers;
 
+    /**
+     * Values less than thresholds[n - 1] are encoded in n bytes or less
+     */
+    private final long[] thresholds;
+
+    /**
+     * log2(h) if h is a power of two, otherwise -1
+     */
+    private final int hShift;
+
+    /**
+     * Bytes below this value are a whole encoded value on their own
+     */
+    private final int singleByteLimit;
+
+    /**
+     * The decoded value (before applying any delta) of each single byte value
+     */
+    private final int[] singleByteValues;
+
+    /**
+     * Decode bands from a stream in windows of up to this many bytes
+     */
+    private static final int WINDOW_SIZE = 8192;
+
     /**
      * Constructs an unsigned, non-delta Codec with the given B and H values.
      *
@@ -198,6 +223,18 @@ public final class BHSDCodec extends Codec {
         for(int c = 0; c < b; c++) {
             powers[c] = (long)Math.pow(h, c);
         }
+        thresholds = new long[b - 1];
+        long threshold = 0;
+        for (int n = 0; n < b - 1; n++) {
+            threshold += l * powers[n];
+            thresholds[n] = threshold;
+        }
+        hShift = Integer.bitCount(h) == 1 ? Integer.numberOfTrailingZeros(h) : -1;
+        singleByteLimit = b == 1 ? 256 : l;
+        singleByteValues = new int[singleByteLimit];
+        for (int x = 0; x < singleByteLimit; x++) {
+            singleByteValues[x] = (int) toSigned(x);
+        }
     }
 
     /**
@@ -226,7 +263,6 @@ public final class BHSDCodec extends Codec {
 
         do {
             x = in.read();
-            lastBandLength ++;
             z += x * powers[n];
             n++;
         } while (x >= l && n < b);
@@ -235,14 +271,7 @@ public final class BHSDCodec extends Codec {
             throw new EOFException("End of stream reached whilst decoding");
         }
         
-        if (isSigned()) {
-            int u = ((1 << s) - 1);
-            if ((z & u) == u) {
-                z = z >>> s ^ -1L;
-            } else {
-                z = z - (z >>> s);
-            }
-        }
+        z = toSigned(z);
         // This algorithm does the same thing, but is probably slower. Leaving
         // in for now for readability
         // if(isSigned()) {
@@ -265,8 +294,28 @@ public final class BHSDCodec extends Codec {
         return (int)z;
     }
 
+    /*
+     * Maps the unsigned number read from the bytes to the value it represents
+     */
+    private long toSigned(long z) {
+        if (isSigned()) {
+            int u = ((1 << s) - 1);
+            if ((z & u) == u) {
+                z = z >>> s ^ -1L;
+            } else {
+                z = z - (z >>> s);
+            }
+        }
+        return z;
+    }
+
     public int[] decodeInts(int n, InputStream in) throws IOException,
             Pack200Exception {
+        if (n > 0 && in.markSupported()) {
+            int[] band = new int[n];
+            decodeInts(in, band, 0, n, 0);
+            return band;
+        }
         int[] band = super.decodeInts(n, in);
         if (isDelta()) {
             for (int i = 0; i < band.length; i++) {
@@ -283,6 +332,12 @@ public final class BHSDCodec extends Codec {
 
     public int[] decodeInts(int n, InputStream in, int firstValue)
             throws IOException, Pack200Exception {
+        if (n > 0 && in.markSupported()) {
+            int[] band = new int[n + 1];
+            band[0] = wrap(firstValue);
+            decodeInts(in, band, 1, n, firstValue);
+            return band;
+        }
         int[] band =  super.decodeInts(n, in, firstValue);
         if (isDelta()) {
             for (int i = 0; i < band.length; i++) {
@@ -297,6 +352,258 @@ public final class BHSDCodec extends Codec {
         return band;
     }
 
+    /*
+     * Decodes n values from a stream that supports mark and reset. A window of
+     * bytes is read ahead and decoded in bulk, then the stream is reset and
+     * moved on past the bytes that were used. The values in a
+     * ByteBufferInputStream are decoded straight from its buffer.
+     */
+    private void decodeInts(InputStream in, int[] band, int offset, int n,
+            int last) throws IOException {
+        if (in instanceof ByteBufferInputStream) {
+            if (decodeInts(((ByteBufferInputStream) in).getBuffer(), band,
+                    offset, n, last) != n) {
+                throw new EOFException("End of stream reached whilst decoding");
+            }
+            return;
+        }
+        byte[] window = new byte[(int) Math.min((long) n * b, WINDOW_SIZE)];
+        int decoded = 0;
+        while (decoded < n) {
+            int size = (int) Math.min((long) (n - decoded) * b, window.length);
+            in.mark(size);
+            int read = 0;
+            while (read < size) {
+                int r = in.read(window, read, size - read);
+                if (r < 0) {
+                    break;
+                }
+                read += r;
+            }
+            ByteBuffer buffer = ByteBuffer.wrap(window, 0, read);
+            int count = decodeInts(buffer, band, offset + decoded, n - decoded,
+                    last);
+            in.reset();
+            int used = buffer.position();
+            while (used > 0) {
+                long skipped = in.skip(used);
+                if (skipped <= 0) {
+                    throw new EOFException("End of stream reached whilst decoding");
+                }
+                used -= skipped;
+            }
+            if (count == 0) {
+                throw new EOFException("End of stream reached whilst decoding");
+            }
+            decoded += count;
+            last = band[offset + decoded - 1];
+        }
+    }
+
+    /**
+     * Reads the bytes that encode <code>n</code> values from a stream that
+     * supports mark and reset, and appends them to <code>sink</code> without
+     * decoding them. Only the byte that ends each value (one less than L, or
+     * the Bth) is looked for, which is much quicker than decoding the values,
+     * and the bytes can be decoded later with
+     * {@link #decodeInts(ByteBuffer, int[], int, int, int)}.
+     *
+     * @param n
+     *            the number of values to read
+     * @param in
+     *            the stream to read from, which must support mark and reset
+     * @param sink
+     *            the ByteSink to append the bytes of the values to
+     * @return the number of values whose bytes are all zero, which are the
+     *         values that are 0 if the codec is unsigned and not delta coded
+     * @throws IOException
+     *             if the stream ends before the last value
+     */
+    public int readInts(int n, InputStream in, ByteSink sink)
+            throws IOException {
+        if (n <= 0) {
+            return 0;
+        }
+        byte[] window = new byte[(int) Math.min((long) n * b, WINDOW_SIZE)];
+        int found = 0;
+        int zeros = 0;
+        while (found < n) {
+            int size = (int) Math.min((long) (n - found) * b, window.length);
+            in.mark(size);
+            int read = 0;
+            while (read < size) {
+                int r = in.read(window, read, size - read);
+                if (r < 0) {
+                    break;
+                }
+                read += r;
+            }
+            // pos is after the last complete value
+            int pos = 0;
+            while (found < n) {
+                int end = pos;
+                int x = 0;
+                boolean zero = true;
+                while (end < read && end - pos < b) {
+                    x = window[end++] & 0xFF;
+                    zero &= x == 0;
+                    if (x < l) {
+                        break;
+                    }
+                }
+                if (end == pos || (x >= l && end - pos < b)) {
+                    break; // the value runs past the end of the window
+                }
+                if (zero) {
+                    zeros++;
+                }
+                pos = end;
+                found++;
+            }
+            in.reset();
+            if (pos == 0) {
+                throw new EOFException("End of stream reached whilst reading");
+            }
+            int used = pos;
+            while (used > 0) {
+                long skipped = in.skip(used);
+                if (skipped <= 0) {
+                    throw new EOFException("End of stream reached whilst reading");
+                }
+                used -= skipped;
+            }
+            sink.write(window, 0, pos);
+        }
+        return zeros;
+    }
+
+    /**
+     * Decodes up to <code>n</code> values from the remaining bytes in the
+     * buffer into <code>band</code>, starting at <code>band[offset]</code>.
+     * Sign and delta decoding is done as each value is read, and delta values
+     * are brought back into the range of the codec. Decoding stops early if a
+     * value runs past the limit of the buffer. The position of the buffer is
+     * left after the last value that was decoded.
+     *
+     * @param buffer
+     *            the bytes to decode
+     * @param band
+     *            the array to decode into
+     * @param offset
+     *            the index in <code>band</code> of the first value to decode
+     * @param n
+     *            the number of values to decode
+     * @param last
+     *            the value before <code>band[offset]</code> (for delta
+     *            encodings)
+     * @return the number of values decoded
+     */
+    public int decodeInts(ByteBuffer buffer, int[] band, int offset, int n,
+            int last) {
+        byte[] bytes;
+        int start;
+        int end;
+        int base; // index in bytes of position 0 in the buffer
+        int position = buffer.position();
+        if (buffer.hasArray()) {
+            bytes = buffer.array();
+            base = buffer.arrayOffset();
+            start = base + position;
+            end = base + buffer.limit();
+        } else {
+            bytes = new byte[(int) Math.min(buffer.remaining(), (long) n * b)];
+            buffer.get(bytes);
+            base = -position;
+            start = 0;
+            end = bytes.length;
+        }
+        int[] singleByteValues = this.singleByteValues;
+        int singleByteLimit = this.singleByteLimit;
+        int i = 0;
+        int pos = start;
+        if (!isDelta()) {
+            while (i < n && pos < end) {
+                int x = bytes[pos] & 0xFF;
+                if (x < singleByteLimit) {
+                    band[offset + i++] = singleByteValues[x];
+                    pos++;
+                } else {
+                    long z = decodeMultiByte(bytes, pos, end);
+                    if (z < 0) {
+                        break; // the value runs past the end of the buffer
+                    }
+                    band[offset + i++] = (int) toSigned(z & 0xFFFFFFFFFFL);
+                    pos += (int) (z >>> 40);
+                }
+            }
+        } else {
+            boolean wrap = cardinality < 4294967296L;
+            long previous = last;
+            while (i < n && pos < end) {
+                int x = bytes[pos] & 0xFF;
+                long value;
+                if (x < singleByteLimit) {
+                    value = previous + singleByteValues[x];
+                    pos++;
+                } else {
+                    long z = decodeMultiByte(bytes, pos, end);
+                    if (z < 0) {
+                        break;
+                    }
+                    value = previous + toSigned(z & 0xFFFFFFFFFFL);
+                    pos += (int) (z >>> 40);
+                }
+                if (wrap) {
+                    while (value > largest) {
+                        value -= cardinality;
+                    }
+                    while (value < smallest) {
+                        value += cardinality;
+                    }
+                }
+                band[offset + i++] = (int) value;
+                previous = (int) value;
+            }
+        }
+        start = pos;
+        // start is the position after the last complete value
+        ((Buffer) buffer).position(start - base);
+        return i;
+    }
+
+    /*
+     * Reads the unsigned number whose first byte is at bytes[pos], returning
+     * it in the low 40 bits with the number of bytes it took up in the bits
+     * above, or -1 if it runs past end.
+     */
+    private long decodeMultiByte(byte[] bytes, int pos, int end) {
+        long z = 0;
+        int k = 0;
+        while (k < b) {
+            if (pos + k == end) {
+                return -1;
+            }
+            int x = bytes[pos + k] & 0xFF;
+            z += x * powers[k++];
+            if (x < l) {
+                break;
+            }
+        }
+        return z | (long) k << 40;
+    }
+
+    private int wrap(int value) {
+        if (isDelta()) {
+            while (value > largest) {
+                value -= cardinality;
+            }
+            while (value < smallest) {
+                value += cardinality;
+            }
+        }
+        return value;
+    }
+
     // private long cast32(long u) {
     // u = (long) ((long) ((u + Math.pow(2, 31)) % Math.pow(2, 32)) -
     // Math.pow(2, 31));
@@ -315,6 +622,68 @@ public final class BHSDCodec extends Codec {
     }
 
     public byte[] encode(int value, int last) throws Pack200Exception {
+        ByteSink sink = new ByteSink(b);
+        encode(value, last, sink);
+        return sink.toByteArray();
+    }
+
+    public void encode(int value, int last, ByteSink sink)
+            throws Pack200Exception {
+        long z = toUnsigned(value, last);
+        for (int n = 0; n < b; n++) {
+            long byteN;
+            if (z < l) {
+                byteN = z;
+            } else {
+                byteN = hShift >= 0 ? z & (h - 1) : z % h;
+                while (byteN < l) {
+                    byteN += h;
+                }
+            }
+            sink.write((int) byteN);
+            if (byteN < l) {
+                break;
+            }
+            z -= byteN;
+            z = hShift >= 0 ? z >>> hShift : z / h;
+        }
+    }
+
+    public int encodedSize(int[] ints) throws Pack200Exception {
+        int size = 0;
+        int last = 0;
+        for (int i = 0; i < ints.length; i++) {
+            size += encodedSize(toUnsigned(ints[i], last));
+            last = ints[i];
+        }
+        return size;
+    }
+
+    /**
+     * Returns the number of bytes that <code>encode(value, last)</code> would
+     * produce
+     */
+    public int encodedSize(int value, int last) throws Pack200Exception {
+        return encodedSize(toUnsigned(value, last));
+    }
+
+    /*
+     * Returns the number of bytes that the unsigned value z is encoded as
+     */
+    private int encodedSize(long z) {
+        for (int n = 0; n < thresholds.length; n++) {
+            if (z < thresholds[n]) {
+                return n + 1;
+            }
+        }
+        return b;
+    }
+
+    /*
+     * Maps a value (or its difference from the last value for a delta codec)
+     * to the unsigned number that is written out as bytes
+     */
+    private long toUnsigned(int value, int last) throws Pack200Exception {
         if(!encodes(value)) {
             throw new Pack200Exception("The codec " + toString()
                   + " does not encode the value " + value);
@@ -352,30 +721,7 @@ public final class BHSDCodec extends Codec {
         if (z < 0) {
             throw new Pack200Exception("unable to encode");
         }
-
-        List byteList = new ArrayList();
-        for (int n = 0; n < b; n++) {
-            long byteN;
-            if (z < l) {
-                byteN = z;
-            } else {
-                byteN = z % h;
-                while (byteN < l) {
-                    byteN += h;
-                }
-            }
-            byteList.add(Byte.valueOf((byte) byteN));
-            if (byteN < l) {
-                break;
-            }
-            z -= byteN;
-            z /= h;
-        }
-        byte[] bytes = new byte[byteList.size()];
-        for (int i = 0; i < bytes.length; i++) {
-            bytes[i] = ((Byte) byteList.get(i)).byteValue();
-        }
-        return bytes;
+        return z;
     }
 
     public byte[] encode(int value) throws Pack200Exception {
@@ -0,0 +1,119 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.harmony.unpack200.codec;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.InvalidMarkException;
+
+/**
+ * An InputStream that reads from a ByteBuffer, such as a memory-mapped pack
+ * file. Codecs decode bands straight from the buffer (see
+ * {@link #getBuffer()}), and parts of it can be sliced out without copying
+ * them (see {@link #slice(int)}).
+ */
+public final class ByteBufferInputStream extends InputStream {
+
+    private final ByteBuffer buffer;
+
+    /**
+     * Creates a stream that reads from the buffer's position to its limit.
+     *
+     * @param buffer
+     */
+    public ByteBufferInputStream(ByteBuffer buffer) {
+        this.buffer = buffer;
+    }
+
+    /**
+     * Answers the buffer read from, whose position is the position of this
+     * stream. Reading from the buffer moves the stream on.
+     */
+    public ByteBuffer getBuffer() {
+        return buffer;
+    }
+
+    /**
+     * Answers the next <code>n</code> bytes as a buffer of their own, which
+     * shares its contents with this stream's, and moves this stream on past
+     * them.
+     *
+     * @param n
+     *            the number of bytes to slice out
+     * @return the bytes sliced out
+     * @throws EOFException
+     *             if fewer than <code>n</code> bytes remain
+     */
+    public ByteBuffer slice(int n) throws EOFException {
+        if (n < 0 || n > buffer.remaining()) {
+            throw new EOFException("Expected " + n + " bytes but only "
+                    + buffer.remaining() + " remain");
+        }
+        ByteBuffer slice = buffer.slice();
+        ((Buffer) slice).limit(n);
+        ((Buffer) buffer).position(buffer.position() + n);
+        return slice;
+    }
+
+    public int read() {
+        return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+    }
+
+    public int read(byte[] b, int off, int len) {
+        if (len == 0) {
+            return 0;
+        }
+        if (!buffer.hasRemaining()) {
+            return -1;
+        }
+        int n = Math.min(len, buffer.remaining());
+        buffer.get(b, off, n);
+        return n;
+    }
+
+    public long skip(long n) {
+        if (n <= 0) {
+            return 0;
+        }
+        int skipped = (int) Math.min(n, buffer.remaining());
+        ((Buffer) buffer).position(buffer.position() + skipped);
+        return skipped;
+    }
+
+    public int available() {
+        return buffer.remaining();
+    }
+
+    public boolean markSupported() {
+        return true;
+    }
+
+    public synchronized void mark(int readlimit) {
+        ((Buffer) buffer).mark();
+    }
+
+    public synchronized void reset() throws IOException {
+        try {
+            ((Buffer) buffer).reset();
+        } catch (InvalidMarkException e) {
+            throw new IOException("Resetting to invalid mark");
+        }
+    }
+}
@@ -0,0 +1,145 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.harmony.unpack200.codec;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * ByteSink is a growable byte buffer that Codecs can encode into without
+ * allocating an array for each value. It is similar to
+ * <code>java.io.ByteArrayOutputStream</code>, but is not synchronized, and can
+ * be reset and reused for each band.
+ */
+public final class ByteSink extends OutputStream {
+
+    private byte[] bytes;
+    private int size;
+
+    /**
+     * Constructs a new ByteSink with an initial capacity of 256 bytes.
+     */
+    public ByteSink() {
+        this(256);
+    }
+
+    /**
+     * Constructs a new ByteSink with the specified initial capacity.
+     *
+     * @param capacity
+     *            the initial capacity in bytes
+     */
+    public ByteSink(int capacity) {
+        if (capacity < 0) {
+            throw new IllegalArgumentException("Negative capacity: " + capacity);
+        }
+        bytes = new byte[capacity];
+    }
+
+    /**
+     * Appends one byte.
+     *
+     * @param b
+     *            the byte to append (only the low eight bits are used)
+     */
+    public void write(int b) {
+        if (size == bytes.length) {
+            grow(size + 1);
+        }
+        bytes[size++] = (byte) b;
+    }
+
+    /**
+     * Appends <code>len</code> bytes from <code>b</code>, starting at
+     * <code>off</code>.
+     */
+    public void write(byte[] b, int off, int len) {
+        if (off < 0 || len < 0 || off > b.length - len) {
+            throw new IndexOutOfBoundsException();
+        }
+        ensureCapacity(size + len);
+        System.arraycopy(b, off, bytes, size, len);
+        size += len;
+    }
+
+    /**
+     * Appends all the bytes from <code>b</code>.
+     */
+    public void write(byte[] b) {
+        write(b, 0, b.length);
+    }
+
+    /**
+     * Makes sure that at least <code>capacity</code> bytes can be held
+     * without growing the buffer again.
+     *
+     * @param capacity
+     *            the number of bytes required
+     */
+    public void ensureCapacity(int capacity) {
+        if (capacity > bytes.length) {
+            grow(capacity);
+        }
+    }
+
+    private void grow(int capacity) {
+        int newCapacity = bytes.length + (bytes.length >> 1) + 16;
+        if (newCapacity < capacity || newCapacity < 0) {
+            newCapacity = capacity;
+        }
+        bytes = Arrays.copyOf(bytes, newCapacity);
+    }
+
+    /**
+     * Returns the number of bytes written since the sink was created or last
+     * reset.
+     *
+     * @return the number of bytes in the sink
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Discards the contents of the sink, keeping the buffer for reuse.
+     */
+    public void reset() {
+        size = 0;
+    }
+
+    /**
+     * Returns a copy of the contents of the sink.
+     *
+     * @return the bytes written to the sink
+     */
+    public byte[] toByteArray() {
+        return Arrays.copyOf(bytes, size);
+    }
+
+    /**
+     * Writes the contents of the sink to the given OutputStream.
+     *
+     * @param out
+     *            the stream to write to
+     * @throws IOException
+     *             if the stream throws an IOException
+     */
+    public void writeTo(OutputStream out) throws IOException {
+        out.write(bytes, 0, size);
+    }
+}
@@ -86,8 +86,6 @@ public abstract class Codec {
      */
     public static final BHSDCodec UNSIGNED5 = new BHSDCodec(5, 64);
 
-    public int lastBandLength;
-
     /**
      * Decode a sequence of bytes from the given input stream, returning the
      * value as a long. Note that this method can only be applied for non-delta
@@ -182,7 +180,6 @@ public abstract class Codec {
      */
     public int[] decodeInts(int n, InputStream in) throws IOException,
             Pack200Exception {
-        lastBandLength = 0;
         int result[] = new int[n];
         int last = 0;
         for (int i = 0; i < n; i++) {
@@ -222,6 +219,22 @@ public abstract class Codec {
         return result;
     }
 
+    /**
+     * Encode a single value into the given ByteSink.
+     *
+     * @param value
+     *            the value to encode
+     * @param last
+     *            the previous value encoded (for delta encodings)
+     * @param sink
+     *            the ByteSink to append the encoded bytes to
+     * @throws Pack200Exception
+     */
+    public void encode(int value, int last, ByteSink sink)
+            throws Pack200Exception {
+        sink.write(encode(value, last));
+    }
+
     /**
      * Encode a sequence of integers into a byte array
      *
@@ -232,18 +245,64 @@ public abstract class Codec {
      *             if there is a problem encoding any of the values
      */
     public byte[] encode(int[] ints) throws Pack200Exception {
-        int total = 0;
-        byte[][] bytes = new byte[ints.length][];
-        for (int i = 0; i < ints.length; i++) {
-            bytes[i] = encode(ints[i], i > 0 ? ints[i-1] : 0);
-            total += bytes[i].length;
-        }
-        byte[] encoded = new byte[total];
-        int index = 0;
-        for (int i = 0; i < bytes.length; i++) {
-            System.arraycopy(bytes[i], 0, encoded, index, bytes[i].length);
-            index += bytes[i].length;
+        ByteSink sink = new ByteSink(ints.length);
+        encode(ints, 0, ints.length, sink);
+        return sink.toByteArray();
+    }
+
+    /**
+     * Encode a sequence of integers into the given ByteSink
+     *
+     * @param ints
+     *            the values to encode
+     * @param sink
+     *            the ByteSink to append the encoded bytes to
+     * @throws Pack200Exception
+     *             if there is a problem encoding any of the values
+     */
+    public void encode(int[] ints, ByteSink sink) throws Pack200Exception {
+        encode(ints, 0, ints.length, sink);
+    }
+
+    /**
+     * Encode the integers from <code>from</code> (inclusive) to
+     * <code>to</code> (exclusive) as a sequence into the given ByteSink. The
+     * first of them is encoded as the start of a band, i.e. a delta encoding
+     * starts from zero.
+     *
+     * @param ints
+     *            the values to encode
+     * @param from
+     *            the index of the first value to encode
+     * @param to
+     *            the index after the last value to encode
+     * @param sink
+     *            the ByteSink to append the encoded bytes to
+     * @throws Pack200Exception
+     *             if there is a problem encoding any of the values
+     */
+    public void encode(int[] ints, int from, int to, ByteSink sink)
+            throws Pack200Exception {
+        int last = 0;
+        for (int i = from; i < to; i++) {
+            encode(ints[i], last, sink);
+            last = ints[i];
         }
-        return encoded;
+    }
+
+    /**
+     * Returns the number of bytes that <code>encode(ints)</code> would
+     * produce.
+     *
+     * @param ints
+     *            the values to encode
+     * @return the length of the encoded sequence in bytes
+     * @throws Pack200Exception
+     *             if there is a problem encoding any of the values
+     */
+    public int encodedSize(int[] ints) throws Pack200Exception {
+        ByteSink sink = new ByteSink(ints.length);
+        encode(ints, 0, ints.length, sink);
+        return sink.size();
     }
 }
@@ -95,7 +95,7 @@ public class CodecEncoding {
             new BHSDCodec(4, 240, 1, 1), new BHSDCodec(4, 248, 0, 1),
             new BHSDCodec(4, 248, 1, 1) };
 
-    private static Map canonicalCodecsToSpecifiers;
+    private static volatile Map canonicalCodecsToSpecifiers;
 
 
     /**
@@ -64,10 +64,39 @@ public class PopulationCodec extends Codec {
 
     public int[] decodeInts(int n, InputStream in) throws IOException,
             Pack200Exception {
-        lastBandLength = 0;
+        readFavoured(n, in);
+        int result[];
+        // read favorites
+        result = tokenCodec.decodeInts(n, in);
+        // read unfavorites
+        int last = 0;
+        for (int i = 0; i < n; i++) {
+            int index = result[i];
+            if (index == 0) {
+                result[i] = last = unfavouredCodec.decode(in, last);
+            } else {
+                result[i] = favoured[index - 1];
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Reads the table of favoured values at the start of a band of
+     * <code>n</code> values, and works out the token codec from it if it
+     * wasn't given. The tokens and unfavoured values follow in the stream.
+     *
+     * @param n
+     *            the number of values in the band
+     * @param in
+     *            the stream to read from
+     * @throws IOException
+     * @throws Pack200Exception
+     */
+    public void readFavoured(int n, InputStream in) throws IOException,
+            Pack200Exception {
         favoured = new int[n]; // there must be <= n values, but probably a lot
         // less
-        int result[];
         // read table of favorites first
         int smallest = Integer.MAX_VALUE, absoluteSmallest;
         int last = 0;
@@ -89,44 +118,10 @@ public class PopulationCodec extends Codec {
             }
             last = value;
         }
-        lastBandLength += k;
         // if tokenCodec needs to be derived from the T, L and K values
         if (tokenCodec == null) {
-            if (k < 256) {
-                tokenCodec = Codec.BYTE1;
-            } else {
-                // if k >= 256, b >= 2
-                int b = 1;
-                BHSDCodec codec = null;
-                while (++b < 5) {
-                    codec = new BHSDCodec(b, 256 - l, 0);
-                    if (codec.encodes(k)) {
-                        tokenCodec = codec;
-                        break;
-                    }
-                }
-                if (tokenCodec == null) {
-                    throw new Pack200Exception(
-                            "Cannot calculate token codec from " + k + " and "
-                                    + l);
-                }
-            }
+            tokenCodec = deriveTokenCodec(k);
         }
-        // read favorites
-        lastBandLength += n;
-        result = tokenCodec.decodeInts(n, in);
-        // read unfavorites
-        last = 0;
-        for (int i = 0; i < n; i++) {
-            int index = result[i];
-            if (index == 0) {
-                lastBandLength++;
-                result[i] = last = unfavouredCodec.decode(in, last);
-            } else {
-                result[i] = favoured[index - 1];
-            }
-        }
-        return result;
     }
 
     public int[] getFavoured() {
@@ -152,17 +147,70 @@ public class PopulationCodec extends Codec {
     }
 
     public byte[] encode(int[] favoured, int[] tokens, int[] unfavoured) throws Pack200Exception {
-        int[] favoured2 = new int[favoured.length + 1];
-        System.arraycopy(favoured, 0, favoured2, 0, favoured.length);
-        favoured2[favoured2.length - 1] = favoured[favoured.length - 1]; // repeat last value;
-        byte[] favouredEncoded = favouredCodec.encode(favoured2);
-        byte[] tokensEncoded = tokenCodec.encode(tokens);
-        byte[] unfavouredEncoded = unfavouredCodec.encode(unfavoured);
-        byte[] band = new byte[favouredEncoded.length + tokensEncoded.length + unfavouredEncoded.length];
-        System.arraycopy(favouredEncoded, 0, band, 0, favouredEncoded.length);
-        System.arraycopy(tokensEncoded, 0, band, favouredEncoded.length, tokensEncoded.length);
-        System.arraycopy(unfavouredEncoded, 0, band, favouredEncoded.length + tokensEncoded.length, unfavouredEncoded.length);
-        return band;
+        ByteSink sink = new ByteSink(favoured.length + tokens.length + unfavoured.length + 1);
+        encode(favoured, tokens, unfavoured, sink);
+        return sink.toByteArray();
+    }
+
+    /**
+     * Encode a band that has been split into favoured values, tokens and
+     * unfavoured values into the given ByteSink
+     *
+     * @param favoured
+     *            the favoured values (the last one is repeated when encoded)
+     * @param tokens
+     *            the index of each value in the favoured values (from 1), or
+     *            0 for unfavoured values
+     * @param unfavoured
+     *            the unfavoured values
+     * @param sink
+     *            the ByteSink to append the encoded bytes to
+     * @throws Pack200Exception
+     */
+    public void encode(int[] favoured, int[] tokens, int[] unfavoured,
+            ByteSink sink) throws Pack200Exception {
+        int last = favoured[favoured.length - 1];
+        favouredCodec.encode(favoured, sink);
+        favouredCodec.encode(last, last, sink); // repeat last value
+        getTokenCodec(favoured.length - 1).encode(tokens, sink);
+        unfavouredCodec.encode(unfavoured, sink);
+    }
+
+    /**
+     * Returns the number of bytes that
+     * <code>encode(favoured, tokens, unfavoured)</code> would produce
+     */
+    public int encodedSize(int[] favoured, int[] tokens, int[] unfavoured)
+            throws Pack200Exception {
+        int last = favoured[favoured.length - 1];
+        return favouredCodec.encodedSize(favoured)
+                + favouredCodec.encode(last, last).length
+                + getTokenCodec(favoured.length - 1).encodedSize(tokens)
+                + unfavouredCodec.encodedSize(unfavoured);
+    }
+
+    private Codec getTokenCodec(int k) throws Pack200Exception {
+        return tokenCodec != null ? tokenCodec : deriveTokenCodec(k);
+    }
+
+    /*
+     * Work out the token codec from the index of the last favoured value (as
+     * counted by decodeInts) and the L value given in the band's specifier
+     */
+    private Codec deriveTokenCodec(int k) throws Pack200Exception {
+        if (k < 256) {
+            return Codec.BYTE1;
+        }
+        // if k >= 256, b >= 2
+        int b = 1;
+        while (++b < 5) {
+            BHSDCodec codec = new BHSDCodec(b, 256 - l, 0);
+            if (codec.encodes(k)) {
+                return codec;
+            }
+        }
+        throw new Pack200Exception("Cannot calculate token codec from " + k
+                + " and " + l);
     }
 
     public Codec getTokenCodec() {
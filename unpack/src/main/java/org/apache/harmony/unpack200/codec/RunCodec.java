@@ -83,15 +83,27 @@ public class RunCodec extends Codec {
             Pack200Exception {
         int[] band = new int[n];
         int[] aValues = aCodec.decodeInts(k, in);
-        normalise(aValues, aCodec);
         int[] bValues = bCodec.decodeInts(n - k, in);
-        normalise(bValues, bCodec);
+        normalise(aValues, bValues);
         System.arraycopy(aValues, 0, band, 0, k);
         System.arraycopy(bValues, 0, band, k, n - k);
-        lastBandLength = aCodec.lastBandLength + bCodec.lastBandLength;
         return band;
     }
 
+    /**
+     * Brings the values decoded with each of the nested codecs back into the
+     * range of the codec they were coded with, where they were delta coded
+     *
+     * @param aValues
+     *            the K values decoded with the first codec
+     * @param bValues
+     *            the values decoded with the second codec
+     */
+    public void normalise(int[] aValues, int[] bValues) {
+        normalise(aValues, aCodec);
+        normalise(bValues, bCodec);
+    }
+
     private void normalise(int[] band, Codec codecUsed) {
         if (codecUsed instanceof BHSDCodec) {
             BHSDCodec bhsd = (BHSDCodec) codecUsed;
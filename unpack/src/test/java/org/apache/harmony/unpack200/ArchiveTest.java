@@ -17,6 +17,8 @@
 package org.apache.harmony.unpack200;
 
 import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
 import java.io.File;
@@ -26,10 +28,12 @@ import java.io.FileReader;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.util.Arrays;
 import java.util.Enumeration;
 import java.util.jar.JarEntry;
 import java.util.jar.JarFile;
 import java.util.jar.JarOutputStream;
+import java.util.zip.GZIPInputStream;
 import java.util.zip.ZipEntry;
 
 import junit.framework.TestCase;
@@ -250,6 +254,169 @@ public class ArchiveTest extends TestCase {
         
     }
 
+    // Test that a pipelined archive unpacks each segment as it would have
+    // been unpacked in turn
+    public void testPipelined() throws Exception {
+        ByteArrayOutputStream packed = new ByteArrayOutputStream();
+        String[] names = new String[] { "sql.pack.gz", "pack200.pack.gz",
+                "annotations.pack.gz" };
+        for (int i = 0; i < names.length; i++) {
+            in = new GZIPInputStream(UnPack200Archive.class
+                    .getResourceAsStream("/org/apache/harmony/pack200/tests/"
+                            + names[i]));
+            byte[] bytes = new byte[8192];
+            int read = in.read(bytes);
+            while (read > 0) {
+                packed.write(bytes, 0, read);
+                read = in.read(bytes);
+            }
+            in.close();
+        }
+        file = File.createTempFile("pipelined", ".log");
+        file.deleteOnExit();
+        int[] threads = new int[] { 1, 4 };
+        for (int i = 0; i < threads.length; i++) {
+            ByteArrayOutputStream expected = new ByteArrayOutputStream();
+            UnPack200Archive archive = new UnPack200Archive(
+                    new ByteArrayInputStream(packed.toByteArray()), expected);
+            archive.setThreads(threads[i]);
+            archive.unpack();
+
+            ByteArrayOutputStream actual = new ByteArrayOutputStream();
+            archive = new UnPack200Archive(new ByteArrayInputStream(packed
+                    .toByteArray()), actual);
+            archive.setThreads(threads[i]);
+            archive.setPipelined(true);
+            archive.setLogFile(file.getPath());
+            archive.setVerbose(true);
+            archive.unpack();
+            assertTrue(archive.getReadTime() > 0);
+            assertTrue(archive.getProcessTime() > 0);
+            assertTrue(archive.getWriteTime() > 0);
+            assertTrue(archive.getElapsedTime() >= archive.getReadTime());
+            assertTrue("Pipelined jar differs with " + threads[i]
+                    + " threads", Arrays.equals(expected.toByteArray(), actual
+                    .toByteArray()));
+
+            BufferedReader reader = new BufferedReader(new FileReader(file));
+            String timings = null;
+            String line = reader.readLine();
+            while (line != null) {
+                if (line.startsWith("Unpacked ")) {
+                    timings = line;
+                }
+                line = reader.readLine();
+            }
+            reader.close();
+            assertNotNull(timings);
+            assertTrue(timings, timings.startsWith("Unpacked 3 segments"));
+        }
+    }
+
+    // Test that segments unpacked in parallel are written as they would have
+    // been unpacked in turn
+    public void testParallelSegments() throws Exception {
+        ByteArrayOutputStream packed = new ByteArrayOutputStream();
+        String[] names = new String[] { "sql.pack.gz", "pack200.pack.gz",
+                "annotations.pack.gz", "jndi-e1.pack.gz" };
+        for (int i = 0; i < names.length; i++) {
+            in = new GZIPInputStream(UnPack200Archive.class
+                    .getResourceAsStream("/org/apache/harmony/pack200/tests/"
+                            + names[i]));
+            byte[] bytes = new byte[8192];
+            int read = in.read(bytes);
+            while (read > 0) {
+                packed.write(bytes, 0, read);
+                read = in.read(bytes);
+            }
+            in.close();
+        }
+        file = File.createTempFile("parallel", ".jar");
+        file.deleteOnExit();
+
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        UnPack200Archive archive = new UnPack200Archive(
+                new ByteArrayInputStream(packed.toByteArray()), expected);
+        archive.unpack();
+        int[] threads = new int[] { 1, 4 };
+        for (int i = 0; i < threads.length; i++) {
+            ByteArrayOutputStream actual = new ByteArrayOutputStream();
+            archive = new UnPack200Archive(new ByteArrayInputStream(packed
+                    .toByteArray()), actual);
+            archive.setThreads(threads[i]);
+            archive.setParallelSegments(true);
+            archive.unpack();
+            assertTrue("Parallel segments differ with " + threads[i]
+                    + " threads", Arrays.equals(expected.toByteArray(), actual
+                    .toByteArray()));
+        }
+    }
+
+    // Test that a pack file given by name, which is mapped into memory,
+    // unpacks as it would from a stream
+    public void testMappedFile() throws Exception {
+        ByteArrayOutputStream packed = new ByteArrayOutputStream();
+        String[] names = new String[] { "sql.pack.gz", "pack200.pack.gz",
+                "annotations.pack.gz", "jndi-e1.pack.gz" };
+        for (int i = 0; i < names.length; i++) {
+            in = new GZIPInputStream(UnPack200Archive.class
+                    .getResourceAsStream("/org/apache/harmony/pack200/tests/"
+                            + names[i]));
+            byte[] bytes = new byte[8192];
+            int read = in.read(bytes);
+            while (read > 0) {
+                packed.write(bytes, 0, read);
+                read = in.read(bytes);
+            }
+            in.close();
+        }
+        File packFile = File.createTempFile("mapped", ".pack");
+        packFile.deleteOnExit();
+        FileOutputStream packOut = new FileOutputStream(packFile);
+        packOut.write(packed.toByteArray());
+        packOut.close();
+        File gzFile = new File(UnPack200Archive.class.getResource(
+                "/org/apache/harmony/pack200/tests/sql.pack.gz").toURI());
+        file = File.createTempFile("mapped", ".jar");
+        file.deleteOnExit();
+
+        File[] inputs = new File[] { packFile, gzFile };
+        int[] threads = new int[] { 1, 4 };
+        for (int i = 0; i < inputs.length; i++) {
+            ByteArrayOutputStream expected = new ByteArrayOutputStream();
+            UnPack200Archive archive = new UnPack200Archive(
+                    new BufferedInputStream(new FileInputStream(inputs[i])),
+                    expected);
+            archive.unpack();
+            for (int t = 0; t < threads.length; t++) {
+                archive = new UnPack200Archive(inputs[i].getPath(), file
+                        .getPath());
+                archive.setThreads(threads[t]);
+                archive.setParallelSegments(threads[t] > 1);
+                archive.unpack();
+                assertTrue("Mapped " + inputs[i].getName() + " differs with "
+                        + threads[t] + " threads", Arrays.equals(expected
+                        .toByteArray(), readFile(file)));
+            }
+        }
+    }
+
+    private byte[] readFile(File file) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        InputStream input = new FileInputStream(file);
+        try {
+            byte[] buffer = new byte[8192];
+            int read = input.read(buffer);
+            while (read > 0) {
+                bytes.write(buffer, 0, read);
+                read = input.read(buffer);
+            }
+        } finally {
+            input.close();
+        }
+        return bytes.toByteArray();
+    }
+
     protected void tearDown() throws Exception {
         super.tearDown();
         if (in != null) {
@@ -16,14 +16,22 @@
  */
 package org.apache.harmony.unpack200;
 
+import java.io.BufferedInputStream;
 import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import junit.framework.TestCase;
 
 import org.apache.harmony.unpack200.codec.BHSDCodec;
 import org.apache.harmony.unpack200.codec.Codec;
+import org.apache.harmony.unpack200.codec.CodecEncoding;
+import org.apache.harmony.unpack200.codec.PopulationCodec;
 import org.apache.harmony.unpack200.common.Pack200Exception;
 import org.apache.harmony.unpack200.BandSet;
 import org.apache.harmony.unpack200.Segment;
@@ -59,6 +67,236 @@ public class BandSetTest extends TestCase {
         }
     }
 
+    public void testDecodeBandIntDeferred() throws IOException,
+            Pack200Exception {
+        BHSDCodec[] codecs = new BHSDCodec[] { Codec.BYTE1, Codec.UNSIGNED5,
+                Codec.BCI5, Codec.BRANCH5, Codec.DELTA5, Codec.UDELTA5 };
+        int[] counts = new int[] { 3, BandDecoder.MIN_COUNT, 5000 };
+        Random random = new Random(23);
+        for (int c = 0; c < codecs.length; c++) {
+            for (int n = 0; n < counts.length; n++) {
+                int[] values = new int[counts[n]];
+                // the first value mustn't look like a codec escape
+                values[0] = 5;
+                for (int i = 1; i < values.length; i++) {
+                    values[i] = codecs[c] == Codec.BYTE1 ? random.nextInt(256)
+                            : random.nextInt(codecs[c].isSigned() ? 40000
+                                    : 50000)
+                                    - (codecs[c].isSigned() ? 20000 : 0);
+                }
+                assertDeferred("Wrong values decoded with " + codecs[c],
+                        codecs[c], new byte[0], codecs[c].encode(values),
+                        values, null);
+            }
+        }
+    }
+
+    public void testDecodeBandIntDeferredWithBandHeaders() throws IOException,
+            Pack200Exception {
+        Random random = new Random(23);
+        int[] values = new int[3000];
+        for (int i = 0; i < values.length; i++) {
+            // small delta codecs only encode values that aren't negative
+            values[i] = random.nextInt(40000);
+        }
+        // escape to canonical codec 22, (5,16,2), from UNSIGNED5
+        ByteArrayOutputStream band = new ByteArrayOutputStream();
+        band.write(Codec.UNSIGNED5.encode(Codec.UNSIGNED5.getL() + 22));
+        band.write(CodecEncoding.getCanonicalCodec(22).encode(values));
+        assertDeferred("Wrong values decoded with (5,16,2)", Codec.UNSIGNED5,
+                new byte[0], band.toByteArray(), values, null);
+
+        // escape to an arbitrary (3,100,1,1) codec given in band_headers
+        BHSDCodec codec = new BHSDCodec(3, 100, 1, 1);
+        band = new ByteArrayOutputStream();
+        band.write(Codec.UNSIGNED5.encode(Codec.UNSIGNED5.getL() + 116));
+        band.write(codec.encode(values));
+        assertDeferred("Wrong values decoded with " + codec, Codec.UNSIGNED5,
+                new byte[] { 2 * 1 + 8 * 2 + 1, 99 }, band.toByteArray(),
+                values, null);
+    }
+
+    public void testDecodeBandIntDeferredPopulation() throws IOException,
+            Pack200Exception {
+        Random random = new Random(23);
+        int[] favoured = new int[] { 10, 20, 30, 40, 50, 60, 70, 80, 90, 100 };
+        int[] values = populationValues(favoured, 3000, 0, 60000, random);
+
+        // the favoured and unfavoured values are coded with the default
+        // codec, and the tokens with BYTE1 (141 + 1 + 2 + 4 * 1)
+        ByteArrayOutputStream band = new ByteArrayOutputStream();
+        band.write(Codec.UNSIGNED5.encode(Codec.UNSIGNED5.getL() + 148));
+        band.write(encodePopulation(new PopulationCodec(Codec.UNSIGNED5, 4,
+                Codec.UNSIGNED5), favoured, values));
+        assertDeferred("Wrong values decoded with default codecs",
+                Codec.UNSIGNED5, new byte[0], band.toByteArray(), values, null);
+
+        // band_headers give BYTE1 for the favoured values, (2,256) for the
+        // tokens, whose zeros are two bytes long, and the delta coded
+        // (2,256,0,1) for the unfavoured values
+        band = new ByteArrayOutputStream();
+        band.write(Codec.UNSIGNED5.encode(Codec.UNSIGNED5.getL() + 141));
+        band.write(encodePopulation(new PopulationCodec(CodecEncoding
+                .getCanonicalCodec(1), CodecEncoding.getCanonicalCodec(5),
+                CodecEncoding.getCanonicalCodec(7)), favoured, values));
+        assertDeferred("Wrong values decoded with codecs from band_headers",
+                Codec.UNSIGNED5, new byte[] { 1, 5, 7 }, band.toByteArray(),
+                values, null);
+    }
+
+    public void testDecodeBandIntDeferredRun() throws IOException,
+            Pack200Exception {
+        Random random = new Random(23);
+        int[] favoured = new int[] { 100, 200, 300, 400, 500 };
+        // 320 values coded with the default codec, then a population coded
+        // band with the default codec for its favoured and unfavoured values
+        int[] aValues = new int[320];
+        for (int i = 0; i < aValues.length; i++) {
+            aValues[i] = random.nextInt(40000) - 20000;
+        }
+        int[] bValues = populationValues(favoured, 3000, -20000, 40000,
+                random);
+        int[] values = new int[aValues.length + bValues.length];
+        System.arraycopy(aValues, 0, values, 0, aValues.length);
+        System.arraycopy(bValues, 0, values, aValues.length, bValues.length);
+
+        // 117 + KX 1 + KB given + ADef, with KB 19 and B 148 in band_headers
+        ByteArrayOutputStream band = new ByteArrayOutputStream();
+        band.write(Codec.DELTA5.encode(-1 - 130, 0));
+        band.write(Codec.DELTA5.encode(aValues));
+        band.write(encodePopulation(new PopulationCodec(Codec.DELTA5, 4,
+                Codec.DELTA5), favoured, bValues));
+        ExecutorService pool = Executors.newFixedThreadPool(2);
+        try {
+            assertDeferred("Wrong values decoded with a run codec",
+                    Codec.DELTA5, new byte[] { 19, (byte) 148 },
+                    band.toByteArray(), values, pool);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    public void testDecodeBandIntDeferred2D() throws IOException,
+            Pack200Exception {
+        BandDecoder decoder = new BandDecoder();
+        BandSet deferredSet = bandSet(new ByteArrayInputStream(new byte[0]),
+                decoder);
+        int[] counts = new int[] { 100, 0, 300, 1 };
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        for (int i = 0; i < 401; i++) {
+            bytes.write(Codec.UNSIGNED5.encode(i));
+        }
+        int[][] band = deferredSet.decodeBandIntDeferred("Test Band",
+                new BufferedInputStream(new ByteArrayInputStream(bytes
+                        .toByteArray())), Codec.UNSIGNED5, counts);
+        decoder.decode(null);
+        int value = 0;
+        for (int i = 0; i < counts.length; i++) {
+            assertEquals(counts[i], band[i].length);
+            for (int j = 0; j < counts[i]; j++) {
+                assertEquals(value++, band[i][j]);
+            }
+        }
+    }
+
+    /*
+     * Checks that a band is decoded to the same values, from the same bytes of
+     * it and of band_headers, whether or not it is deferred
+     */
+    private void assertDeferred(String message, BHSDCodec codec,
+            byte[] bandHeaders, byte[] band, int[] values, ExecutorService pool)
+            throws IOException, Pack200Exception {
+        byte[] bytes = Arrays.copyOf(band, band.length + 1);
+        bytes[band.length] = 99;
+
+        InputStream headers = new ByteArrayInputStream(bandHeaders);
+        InputStream in = new BufferedInputStream(new ByteArrayInputStream(
+                bytes));
+        int[] serial = bandSet(headers, null).decodeBandInt("Test Band", in,
+                codec, values.length);
+        assertEquals("Read past the band", 99, in.read());
+        assertEquals("Band headers left", -1, headers.read());
+        assertTrue(message, Arrays.equals(values, serial));
+
+        BandDecoder decoder = new BandDecoder();
+        headers = new ByteArrayInputStream(bandHeaders);
+        in = new BufferedInputStream(new ByteArrayInputStream(bytes));
+        int[] deferred = bandSet(headers, decoder).decodeBandIntDeferred(
+                "Test Band", in, codec, values.length);
+        assertEquals("Read past the band", 99, in.read());
+        assertEquals("Band headers left", -1, headers.read());
+        int subBands = decoder.decode(pool);
+        if (values.length >= BandDecoder.MIN_COUNT) {
+            assertTrue("Nothing deferred", subBands > 0);
+        }
+        assertTrue(message, Arrays.equals(values, deferred));
+    }
+
+    /*
+     * A BandSet that reads band_headers from the given stream, and defers
+     * decoding to the given BandDecoder
+     */
+    private BandSet bandSet(final InputStream bandHeaders,
+            final BandDecoder decoder) {
+        return new BandSet(new MockSegment() {
+
+            public SegmentHeader getSegmentHeader() {
+                return new SegmentHeader(this) {
+
+                    public InputStream getBandHeadersInputStream() {
+                        return bandHeaders;
+                    }
+                };
+            }
+
+            BandDecoder getBandDecoder() {
+                return decoder;
+            }
+        }) {
+
+            public void read(InputStream inputStream) throws IOException,
+                    Pack200Exception {
+            }
+
+            public void unpack() throws IOException, Pack200Exception {
+            }
+
+        };
+    }
+
+    /*
+     * A band where about half the values are favoured ones
+     */
+    private int[] populationValues(int[] favoured, int n, int smallest,
+            int range, Random random) {
+        int[] values = new int[n];
+        for (int i = 0; i < n; i++) {
+            values[i] = random.nextBoolean() ? favoured[random
+                    .nextInt(favoured.length)] : smallest
+                    + random.nextInt(range);
+        }
+        return values;
+    }
+
+    private byte[] encodePopulation(PopulationCodec codec, int[] favoured,
+            int[] values) throws Pack200Exception {
+        int[] tokens = new int[values.length];
+        int[] unfavoured = new int[values.length];
+        int unfavouredCount = 0;
+        for (int i = 0; i < values.length; i++) {
+            for (int f = 0; f < favoured.length; f++) {
+                if (favoured[f] == values[i]) {
+                    tokens[i] = f + 1;
+                }
+            }
+            if (tokens[i] == 0) {
+                unfavoured[unfavouredCount++] = values[i];
+            }
+        }
+        return codec.encode(favoured, tokens, Arrays.copyOf(unfavoured,
+                unfavouredCount));
+    }
+
     public void testParseFlags1() {
 
     }
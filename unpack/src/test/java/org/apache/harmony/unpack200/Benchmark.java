@@ -0,0 +1,213 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.harmony.unpack200;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.net.URL;
+import java.util.Arrays;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * The harness the benchmarks of the packer and unpacker run in. Benchmarks
+ * are not run as part of the unit tests; run one with:
+ *
+ * <pre>
+ * java &lt;package&gt;.&lt;name&gt;Benchmark [iterations] [arguments...]
+ * </pre>
+ *
+ * Each operation timed is run once and its result checked, then run
+ * <code>iterations</code> times to warm up, then timed over another
+ * <code>iterations</code> runs. Benchmarks that read jars or archives take
+ * them from the system property <code>benchmark.jars</code> or
+ * <code>benchmark.archives</code> (separated by the path separator), or else
+ * use test resources.
+ */
+public abstract class Benchmark {
+
+    /**
+     * A piece of work to time, whose result can be checked against another
+     * way of doing the same work.
+     */
+    protected interface Operation {
+        Object run() throws Exception;
+    }
+
+    private String[] args;
+
+    private int iterations;
+
+    /**
+     * Runs a benchmark with the arguments given on the command line.
+     *
+     * @param benchmark
+     * @param args
+     *            the number of iterations, then the benchmark's own arguments
+     * @param defaultIterations
+     *            the number of iterations if none are given
+     * @throws Exception
+     */
+    protected static void run(Benchmark benchmark, String[] args,
+            int defaultIterations) throws Exception {
+        benchmark.args = args;
+        benchmark.iterations = args.length > 0 ? Integer.parseInt(args[0])
+                : defaultIterations;
+        benchmark.run();
+    }
+
+    protected abstract void run() throws Exception;
+
+    /**
+     * Answers an argument of the benchmark, where argument 1 is the first
+     * after the number of iterations.
+     */
+    protected int intArg(int index, int defaultValue) {
+        return args.length > index ? Integer.parseInt(args[index])
+                : defaultValue;
+    }
+
+    /**
+     * Answers the numbers of threads to run with, which are the arguments
+     * from <code>index</code> on, or 1, 2, 4 and the number of processors if
+     * there are none.
+     */
+    protected int[] threads(int index) {
+        if (args.length <= index) {
+            return new int[] { 1, 2, 4,
+                    Runtime.getRuntime().availableProcessors() };
+        }
+        int[] threads = new int[args.length - index];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = Integer.parseInt(args[index + i]);
+        }
+        return threads;
+    }
+
+    /**
+     * Answers the files named in a system property, or the given test
+     * resources if it is not set.
+     *
+     * @param property
+     *            the system property
+     * @param resources
+     *            the test resources, or null to answer null if the property
+     *            is not set
+     */
+    protected File[] files(String property, String[] resources)
+            throws Exception {
+        String list = System.getProperty(property);
+        if (list != null) {
+            String[] names = list.split(File.pathSeparator);
+            File[] files = new File[names.length];
+            for (int i = 0; i < names.length; i++) {
+                files[i] = new File(names[i]);
+            }
+            return files;
+        }
+        if (resources == null) {
+            return null;
+        }
+        File[] files = new File[resources.length];
+        for (int i = 0; i < resources.length; i++) {
+            URL url = Benchmark.class.getResource(resources[i]);
+            if (url == null) {
+                throw new IllegalStateException(resources[i] + " not found");
+            }
+            files[i] = new File(url.toURI());
+        }
+        return files;
+    }
+
+    /**
+     * Answers the contents of a file, decompressed if its name ends in .gz,
+     * so that the time to read it isn't part of what is measured.
+     */
+    protected static byte[] read(File file) throws Exception {
+        InputStream in = new FileInputStream(file);
+        if (file.getName().endsWith(".gz")) {
+            in = new GZIPInputStream(in);
+        }
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int n;
+            while ((n = in.read(buffer)) != -1) {
+                bytes.write(buffer, 0, n);
+            }
+            return bytes.toByteArray();
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Times an operation, and prints the time per run after
+     * <code>label</code>.
+     *
+     * @see #time(String, long, Operation, Object)
+     */
+    protected Object time(String label, Operation operation, Object expected)
+            throws Exception {
+        return time(label, 0, operation, expected);
+    }
+
+    /**
+     * Times an operation, and prints the time per run after
+     * <code>label</code>, with the size of the result if it is a byte[].
+     *
+     * @param label
+     * @param bytes
+     *            the size of the input of each run, to print the throughput,
+     *            or 0
+     * @param operation
+     * @param expected
+     *            what the operation should answer, or null not to check it
+     * @return the result of the first run
+     * @throws IllegalStateException
+     *             if the first run doesn't answer <code>expected</code>
+     */
+    protected Object time(String label, long bytes, Operation operation,
+            Object expected) throws Exception {
+        Object result = operation.run();
+        if (expected != null
+                && !Arrays.deepEquals(new Object[] { expected },
+                        new Object[] { result })) {
+            throw new IllegalStateException("Unexpected result for " + label);
+        }
+        for (int n = 0; n < iterations; n++) {
+            operation.run();
+        }
+        long start = System.nanoTime();
+        for (int n = 0; n < iterations; n++) {
+            operation.run();
+        }
+        long elapsed = System.nanoTime() - start;
+        StringBuffer line = new StringBuffer(label);
+        line.append(" ms/op=").append(elapsed / 1e6 / iterations);
+        if (bytes > 0) {
+            line.append(" MB/s=").append(
+                    bytes * (double) iterations / (elapsed / 1e9) / 1e6);
+        }
+        if (result instanceof byte[]) {
+            line.append(" size=").append(((byte[]) result).length);
+        }
+        System.out.println(line);
+        return result;
+    }
+}
@@ -42,8 +42,8 @@ public class CodeAttributeTest extends TestCase {
         public MockCodeAttribute(int maxStack, int maxLocals,
                 byte[] codePacked, Segment segment,
                 OperandManager operandManager, List exceptionTable) {
-            super(maxStack, maxLocals, codePacked, segment, operandManager,
-                    exceptionTable);
+            super(new CPUTF8("Code"), maxStack, maxLocals, codePacked,
+                    segment, operandManager, exceptionTable);
         }
 
         public int getLength() {
@@ -151,8 +151,8 @@ public class CodeAttributeTest extends TestCase {
                 new ArrayList());
         assertEquals(29, attribute.getLength());
 
-        attribute.attributes.add(new LocalVariableTableAttribute(0, null, null,
-                null, null, null));
+        attribute.attributes.add(new LocalVariableTableAttribute(new CPUTF8(
+                "LocalVariableTable"), 0, null, null, null, null, null));
         assertEquals(37, attribute.getLength());
     }
 
@@ -161,7 +161,8 @@ public class CodeAttributeTest extends TestCase {
         operandManager.setSegment(segment);
         operandManager.setCurrentClass("java/lang/Foo");
 
-        CodeAttribute attribute = new CodeAttribute(3, // maxStack
+        CodeAttribute attribute = new CodeAttribute(new CPUTF8("Code"),
+                3, // maxStack
                 2, // maxLocals
                 mixedByteArray, // codePacked
                 segment, // segment
@@ -184,7 +185,8 @@ public class CodeAttributeTest extends TestCase {
         operandManager.setSegment(segment);
         operandManager.setCurrentClass("java/lang/Foo");
 
-        CodeAttribute attribute = new CodeAttribute(4, // maxStack
+        CodeAttribute attribute = new CodeAttribute(new CPUTF8("Code"),
+                4, // maxStack
                 3, // maxLocals
                 singleByteArray, // codePacked
                 segment, // segment
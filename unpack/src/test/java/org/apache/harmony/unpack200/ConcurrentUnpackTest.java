@@ -0,0 +1,145 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.harmony.unpack200;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.jar.JarOutputStream;
+
+import junit.framework.TestCase;
+
+import org.apache.harmony.unpack200.common.Pack200Exception;
+
+/**
+ * Tests that archives unpacked at the same time on different threads, or with
+ * their class files built on several threads, come out the same as when they
+ * are unpacked one at a time.
+ */
+public class ConcurrentUnpackTest extends TestCase {
+
+    private static final String[] ARCHIVES = new String[] {
+            "/org/apache/harmony/pack200/tests/sql.pack.gz",
+            "/org/apache/harmony/pack200/tests/jndi-e1.pack.gz",
+            "/org/apache/harmony/pack200/tests/pack200.pack.gz" };
+
+    private static final int THREADS = 16;
+
+    private static final int ROUNDS = 3;
+
+    public void testConcurrentUnpack() throws Exception {
+        final byte[][] packed = new byte[ARCHIVES.length][];
+        final byte[][] expected = new byte[ARCHIVES.length][];
+        for (int i = 0; i < ARCHIVES.length; i++) {
+            packed[i] = readResource(ARCHIVES[i]);
+            expected[i] = unpack(packed[i]);
+        }
+
+        final CyclicBarrier barrier = new CyclicBarrier(THREADS);
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        try {
+            List futures = new ArrayList();
+            for (int t = 0; t < THREADS; t++) {
+                final int first = t;
+                futures.add(executor.submit(new Callable() {
+                    public Object call() throws Exception {
+                        barrier.await();
+                        for (int round = 0; round < ROUNDS; round++) {
+                            int archive = (first + round) % ARCHIVES.length;
+                            byte[] unpacked = unpack(packed[archive]);
+                            if (!Arrays.equals(expected[archive], unpacked)) {
+                                return ARCHIVES[archive];
+                            }
+                        }
+                        return null;
+                    }
+                }));
+            }
+            for (int i = 0; i < futures.size(); i++) {
+                Object different = ((Future) futures.get(i)).get();
+                assertNull("Unpacked " + different
+                        + " differently when other threads were unpacking",
+                        different);
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    public void testParallelClassFiles() throws Exception {
+        int[] threads = new int[] { 2, 3, 8, 0 };
+        for (int i = 0; i < ARCHIVES.length; i++) {
+            byte[] packed = readResource(ARCHIVES[i]);
+            byte[] expected = unpack(packed);
+            for (int t = 0; t < threads.length; t++) {
+                assertTrue("Unpacked " + ARCHIVES[i] + " differently with "
+                        + threads[t] + " threads", Arrays.equals(expected,
+                        unpack(packed, threads[t])));
+            }
+        }
+    }
+
+    public void testSetThreads() throws Exception {
+        UnPack200Archive archive = new UnPack200Archive(
+                new ByteArrayInputStream(new byte[0]), new JarOutputStream(
+                        new ByteArrayOutputStream()));
+        try {
+            archive.setThreads(-1);
+            fail("Should have thrown an IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            // pass
+        }
+    }
+
+    private byte[] unpack(byte[] packed) throws IOException, Pack200Exception {
+        return unpack(packed, 1);
+    }
+
+    private byte[] unpack(byte[] packed, int threads) throws IOException,
+            Pack200Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        UnPack200Archive archive = new UnPack200Archive(
+                new ByteArrayInputStream(packed), new JarOutputStream(bytes));
+        archive.setThreads(threads);
+        archive.unpack();
+        return bytes.toByteArray();
+    }
+
+    private byte[] readResource(String name) throws IOException {
+        InputStream in = UnPack200Archive.class.getResourceAsStream(name);
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int n;
+            while ((n = in.read(buffer)) != -1) {
+                bytes.write(buffer, 0, n);
+            }
+            return bytes.toByteArray();
+        } finally {
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,258 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.harmony.unpack200;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.jar.JarInputStream;
+import java.util.jar.JarOutputStream;
+import java.util.zip.ZipEntry;
+
+import junit.framework.TestCase;
+
+import org.apache.harmony.unpack200.codec.ByteBufferInputStream;
+
+/**
+ * Tests for org.apache.harmony.unpack200.ParallelJarWriter.
+ */
+public class ParallelJarWriterTest extends TestCase {
+
+    private static final String[] NAMES = new String[] { "a/Stored.txt",
+            "a/Deflated.class", "b/\u00e9t\u00e9.txt", "b/empty", "c/random" };
+
+    private static final long TIME = 1234567890000L;
+
+    private File file;
+
+    protected void tearDown() throws Exception {
+        super.tearDown();
+        if (file != null) {
+            file.delete();
+        }
+    }
+
+    public void testSameEntriesAsJarOutputStream() throws Exception {
+        byte[][] contents = contents();
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        JarWriter writer = new JarOutputStreamWriter(new JarOutputStream(
+                expected));
+        write(writer, contents);
+
+        ByteArrayOutputStream serial = new ByteArrayOutputStream();
+        write(new ParallelJarWriter(serial), contents);
+        assertSameEntries(expected.toByteArray(), serial.toByteArray());
+
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        try {
+            ByteArrayOutputStream parallel = new ByteArrayOutputStream();
+            write(new ParallelJarWriter(parallel, pool, 2), contents);
+            assertSameEntries(expected.toByteArray(), parallel.toByteArray());
+            // deflated the same way, one entry at a time or several
+            assertTrue(Arrays.equals(serial.toByteArray(), parallel
+                    .toByteArray()));
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    public void testCentralDirectory() throws Exception {
+        byte[][] contents = contents();
+        file = File.createTempFile("parallel", ".jar");
+        write(new ParallelJarWriter(new BufferedOutputStream(
+                new FileOutputStream(file))), contents);
+        JarFile jarFile = new JarFile(file);
+        try {
+            assertEquals("PACK200", jarFile.getComment());
+            Enumeration entries = jarFile.entries();
+            for (int i = 0; i < NAMES.length; i++) {
+                JarEntry entry = (JarEntry) entries.nextElement();
+                assertEquals(NAMES[i], entry.getName());
+                assertEquals(i % 2 == 0 ? ZipEntry.STORED : ZipEntry.DEFLATED,
+                        entry.getMethod());
+                assertEquals(TIME, entry.getTime());
+                assertEquals(contents[i].length, entry.getSize());
+                assertTrue(Arrays.equals(contents[i], read(jarFile
+                        .getInputStream(entry))));
+            }
+            assertFalse(entries.hasMoreElements());
+        } finally {
+            jarFile.close();
+        }
+    }
+
+    public void testZip64EntryCount() throws Exception {
+        int count = 70000;
+        file = File.createTempFile("parallel", ".jar");
+        ParallelJarWriter writer = new ParallelJarWriter(
+                new BufferedOutputStream(new FileOutputStream(file)));
+        for (int i = 0; i < count; i++) {
+            JarEntry entry = new JarEntry("e" + i);
+            entry.setMethod(ZipEntry.STORED);
+            entry.setTime(TIME);
+            writer.write(entry, new byte[] { (byte) i });
+        }
+        writer.close();
+        JarFile jarFile = new JarFile(file);
+        try {
+            assertEquals(count, jarFile.size());
+            JarEntry last = jarFile.getJarEntry("e" + (count - 1));
+            assertEquals((byte) (count - 1), read(jarFile.getInputStream(last))[0]);
+        } finally {
+            jarFile.close();
+        }
+    }
+
+    public void testWriteStream() throws Exception {
+        byte[][] contents = contents();
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        write(new JarOutputStreamWriter(new JarOutputStream(expected)),
+                contents);
+
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        try {
+            for (int buffered = 0; buffered < 2; buffered++) {
+                ByteArrayOutputStream actual = new ByteArrayOutputStream();
+                writeStream(new JarOutputStreamWriter(new JarOutputStream(
+                        actual)), contents, buffered == 1);
+                assertSameEntries(expected.toByteArray(), actual.toByteArray());
+
+                actual = new ByteArrayOutputStream();
+                writeStream(new ParallelJarWriter(actual), contents,
+                        buffered == 1);
+                assertSameEntries(expected.toByteArray(), actual.toByteArray());
+
+                if (file != null) {
+                    file.delete();
+                }
+                file = File.createTempFile("parallel", ".jar");
+                writeStream(new ParallelJarWriter(new BufferedOutputStream(
+                        new FileOutputStream(file)), pool, 2), contents,
+                        buffered == 1);
+                JarFile jarFile = new JarFile(file);
+                try {
+                    for (int i = 0; i < NAMES.length; i++) {
+                        JarEntry entry = jarFile.getJarEntry(NAMES[i]);
+                        assertEquals(contents[i].length, entry.getSize());
+                        assertTrue(NAMES[i], Arrays.equals(contents[i],
+                                read(jarFile.getInputStream(entry))));
+                    }
+                } finally {
+                    jarFile.close();
+                }
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /*
+     * Writes the entries from one stream of all the contents, some of them
+     * given whole, so that each must be read to exactly its end
+     */
+    private void writeStream(JarWriter writer, byte[][] contents,
+            boolean buffered) throws IOException {
+        ByteArrayOutputStream all = new ByteArrayOutputStream();
+        for (int i = 0; i < contents.length; i++) {
+            all.write(contents[i]);
+        }
+        InputStream in = buffered ? (InputStream) new ByteBufferInputStream(
+                ByteBuffer.wrap(all.toByteArray())) : new ByteArrayInputStream(
+                all.toByteArray());
+        writer.setComment("PACK200");
+        for (int i = 0; i < NAMES.length; i++) {
+            JarEntry entry = new JarEntry(NAMES[i]);
+            entry.setMethod(i % 2 == 0 ? ZipEntry.STORED : ZipEntry.DEFLATED);
+            entry.setTime(TIME);
+            if (i % 3 == 1) {
+                byte[] bytes = new byte[contents[i].length];
+                assertEquals(bytes.length, in.read(bytes));
+                writer.write(entry, bytes);
+            } else {
+                writer.write(entry, in, contents[i].length);
+            }
+        }
+        assertEquals(-1, in.read());
+        writer.close();
+    }
+
+    private void write(JarWriter writer, byte[][] contents) throws IOException {
+        writer.setComment("PACK200");
+        for (int i = 0; i < NAMES.length; i++) {
+            JarEntry entry = new JarEntry(NAMES[i]);
+            entry.setMethod(i % 2 == 0 ? ZipEntry.STORED : ZipEntry.DEFLATED);
+            entry.setTime(TIME);
+            writer.write(entry, contents[i]);
+        }
+        writer.close();
+    }
+
+    private byte[][] contents() {
+        byte[][] contents = new byte[NAMES.length][];
+        Random random = new Random(1);
+        for (int i = 0; i < NAMES.length; i++) {
+            // large enough for the deflate buffer to grow, and incompressible
+            // for the last
+            contents[i] = new byte[i == 3 ? 0 : 100000 * i + 10];
+            for (int j = 0; j < contents[i].length; j++) {
+                contents[i][j] = (byte) (i == 4 ? random.nextInt() : j % 17);
+            }
+        }
+        return contents;
+    }
+
+    private void assertSameEntries(byte[] expected, byte[] actual)
+            throws IOException {
+        JarInputStream expectedJar = new JarInputStream(
+                new ByteArrayInputStream(expected));
+        JarInputStream actualJar = new JarInputStream(new ByteArrayInputStream(
+                actual));
+        JarEntry expectedEntry;
+        while ((expectedEntry = expectedJar.getNextJarEntry()) != null) {
+            JarEntry actualEntry = actualJar.getNextJarEntry();
+            assertNotNull("Missing " + expectedEntry.getName(), actualEntry);
+            assertEquals(expectedEntry.getName(), actualEntry.getName());
+            assertEquals(expectedEntry.getMethod(), actualEntry.getMethod());
+            assertEquals(expectedEntry.getTime(), actualEntry.getTime());
+            assertTrue(expectedEntry.getName(), Arrays.equals(
+                    read(expectedJar), read(actualJar)));
+        }
+        assertNull(actualJar.getNextJarEntry());
+    }
+
+    private byte[] read(InputStream in) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int n;
+        while ((n = in.read(buffer)) != -1) {
+            bytes.write(buffer, 0, n);
+        }
+        return bytes.toByteArray();
+    }
+}
@@ -0,0 +1,72 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.harmony.unpack200;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.util.jar.JarOutputStream;
+
+/**
+ * Throughput benchmark for building the class files of each segment with
+ * different numbers of threads, which must all give the same jar (see
+ * {@link Benchmark}):
+ *
+ * <pre>
+ * java org.apache.harmony.unpack200.ParallelUnpackBenchmark [iterations] [threads...]
+ * </pre>
+ *
+ * The archives unpacked are the sql and pack200 test resources, or those in
+ * <code>benchmark.archives</code>. Archives are decompressed before they are
+ * timed, so the times are for unpacking alone.
+ */
+public class ParallelUnpackBenchmark extends Benchmark {
+
+    public static void main(String[] args) throws Exception {
+        run(new ParallelUnpackBenchmark(), args, 20);
+    }
+
+    protected void run() throws Exception {
+        int[] threads = threads(1);
+        File[] archives = files("benchmark.archives", new String[] {
+                "/org/apache/harmony/pack200/tests/sql.pack.gz",
+                "/org/apache/harmony/pack200/tests/pack200.pack.gz" });
+        for (int i = 0; i < archives.length; i++) {
+            final byte[] packed = read(archives[i]);
+            Object expected = null;
+            for (int t = 0; t < threads.length; t++) {
+                final int n = threads[t];
+                expected = time(archives[i].getName() + " threads=" + n,
+                        packed.length, new Operation() {
+                            public Object run() throws Exception {
+                                return unpack(packed, n);
+                            }
+                        }, expected);
+            }
+        }
+    }
+
+    private static byte[] unpack(byte[] packed, int threads) throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        UnPack200Archive archive = new UnPack200Archive(
+                new ByteArrayInputStream(packed), new JarOutputStream(bytes));
+        archive.setQuiet(true);
+        archive.setThreads(threads);
+        archive.unpack();
+        return bytes.toByteArray();
+    }
+}
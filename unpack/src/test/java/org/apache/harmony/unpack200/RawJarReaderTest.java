@@ -0,0 +1,213 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.harmony.unpack200;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.jar.Attributes;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.jar.JarInputStream;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests for org.apache.harmony.unpack200.RawJarReader and copying the entries
+ * it reads.
+ */
+public class RawJarReaderTest extends TestCase {
+
+    private static final String[] NAMES = new String[] { "a/Deflated.class",
+            "a/Stored.txt", "b/empty", "b/Large.class" };
+
+    private File file;
+
+    protected void tearDown() throws Exception {
+        super.tearDown();
+        if (file != null) {
+            file.delete();
+        }
+    }
+
+    // JarOutputStream writes deflated entries with data descriptors
+    public void testCopyWithDataDescriptors() throws Exception {
+        byte[] source = jarOutputStreamJar();
+        file = File.createTempFile("raw", ".jar");
+        copy(source, new ParallelJarWriter(new FileOutputStream(file)));
+
+        JarFile copied = new JarFile(file);
+        JarFile original = original(source);
+        try {
+            assertEquals("PACK200", copied.getComment());
+            assertNotNull(copied.getManifest());
+            assertEquals("1.0", copied.getManifest().getMainAttributes()
+                    .getValue(Attributes.Name.MANIFEST_VERSION));
+            Enumeration entries = copied.entries();
+            Enumeration originalEntries = original.entries();
+            while (originalEntries.hasMoreElements()) {
+                JarEntry expected = (JarEntry) originalEntries.nextElement();
+                JarEntry actual = (JarEntry) entries.nextElement();
+                assertEquals(expected.getName(), actual.getName());
+                assertEquals(expected.getMethod(), actual.getMethod());
+                assertEquals(expected.getCrc(), actual.getCrc());
+                assertEquals(expected.getSize(), actual.getSize());
+                // not deflated again
+                assertEquals(expected.getCompressedSize(), actual
+                        .getCompressedSize());
+                assertEquals(expected.getTime(), actual.getTime());
+                assertTrue(actual.getName(), Arrays.equals(read(original
+                        .getInputStream(expected)), read(copied
+                        .getInputStream(actual))));
+            }
+            assertFalse(entries.hasMoreElements());
+        } finally {
+            copied.close();
+            original.close();
+        }
+    }
+
+    // ParallelJarWriter writes the sizes in the local headers
+    public void testCopyIsUnchanged() throws Exception {
+        ByteArrayOutputStream source = new ByteArrayOutputStream();
+        ParallelJarWriter writer = new ParallelJarWriter(source);
+        writer.setComment("PACK200");
+        for (int i = 0; i < NAMES.length; i++) {
+            writer.write(entry(i), contents(i));
+        }
+        writer.close();
+
+        ByteArrayOutputStream copy = new ByteArrayOutputStream();
+        copy(source.toByteArray(), new ParallelJarWriter(copy));
+        assertTrue(Arrays.equals(source.toByteArray(), copy.toByteArray()));
+    }
+
+    public void testCopyToJarOutputStream() throws Exception {
+        ByteArrayOutputStream copy = new ByteArrayOutputStream();
+        copy(jarOutputStreamJar(), new JarOutputStreamWriter(
+                new JarOutputStream(copy)));
+
+        JarInputStream in = new JarInputStream(new ByteArrayInputStream(copy
+                .toByteArray()));
+        assertNotNull(in.getManifest());
+        for (int i = 0; i < NAMES.length; i++) {
+            JarEntry entry = in.getNextJarEntry();
+            assertEquals(NAMES[i], entry.getName());
+            assertEquals(entry(i).getMethod(), entry.getMethod());
+            assertTrue(NAMES[i], Arrays.equals(contents(i), read(in)));
+        }
+        assertNull(in.getNextJarEntry());
+    }
+
+    public void testEntriesNotRead() throws Exception {
+        RawJarReader reader = new RawJarReader(new ByteArrayInputStream(
+                jarOutputStreamJar()));
+        RawJarEntry entry = reader.getNextEntry();
+        assertEquals(JarFile.MANIFEST_NAME, entry.getName());
+        for (int i = 0; i < NAMES.length; i++) {
+            entry = reader.getNextEntry();
+            assertEquals(NAMES[i], entry.getName());
+            assertEquals(contents(i).length, entry.getSize());
+            CRC32 crc = new CRC32();
+            crc.update(contents(i));
+            assertEquals(crc.getValue(), entry.getCrc());
+        }
+        assertNull(reader.getNextEntry());
+        assertNull(reader.getNextEntry());
+    }
+
+    public void testNotAJar() throws Exception {
+        RawJarReader reader = new RawJarReader(new ByteArrayInputStream(
+                "Not a jar".getBytes("US-ASCII")));
+        try {
+            reader.getNextEntry();
+            fail("Should have thrown a ZipException");
+        } catch (ZipException e) {
+            // pass
+        }
+    }
+
+    private void copy(byte[] jar, JarWriter writer) throws IOException {
+        RawJarReader reader = new RawJarReader(new ByteArrayInputStream(jar));
+        writer.setComment("PACK200");
+        RawJarEntry entry;
+        while ((entry = reader.getNextEntry()) != null) {
+            writer.copy(entry);
+        }
+        reader.close();
+        writer.close();
+    }
+
+    private byte[] jarOutputStreamJar() throws IOException {
+        Manifest manifest = new Manifest();
+        manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION,
+                "1.0");
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        JarWriter writer = new JarOutputStreamWriter(new JarOutputStream(
+                bytes, manifest));
+        for (int i = 0; i < NAMES.length; i++) {
+            writer.write(entry(i), contents(i));
+        }
+        writer.close();
+        return bytes.toByteArray();
+    }
+
+    private JarFile original(byte[] jar) throws IOException {
+        File originalFile = File.createTempFile("original", ".jar");
+        originalFile.deleteOnExit();
+        FileOutputStream out = new FileOutputStream(originalFile);
+        out.write(jar);
+        out.close();
+        return new JarFile(originalFile);
+    }
+
+    private JarEntry entry(int i) {
+        JarEntry entry = new JarEntry(NAMES[i]);
+        entry.setMethod(i == 1 ? ZipEntry.STORED : ZipEntry.DEFLATED);
+        entry.setTime(1234567890000L + i * 2000);
+        return entry;
+    }
+
+    private byte[] contents(int i) {
+        // the last is larger than the reader's buffer
+        byte[] contents = new byte[i == 2 ? 0 : i == 3 ? 100000 : 1000 + i];
+        for (int j = 0; j < contents.length; j++) {
+            contents[j] = (byte) (j * j % 251);
+        }
+        return contents;
+    }
+
+    private byte[] read(InputStream in) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int n;
+        while ((n = in.read(buffer)) != -1) {
+            bytes.write(buffer, 0, n);
+        }
+        return bytes.toByteArray();
+    }
+}
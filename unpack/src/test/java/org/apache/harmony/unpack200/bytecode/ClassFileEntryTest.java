@@ -48,12 +48,13 @@ public class ClassFileEntryTest extends TestCase {
     }
 
     public void testSourceAttribute() {
-        SourceFileAttribute sfa1 = new SourceFileAttribute(new CPUTF8(
-                new String("Thing.java"), 1)); //$NON-NLS-1$
-        SourceFileAttribute sfa2 = new SourceFileAttribute(new CPUTF8(
-                new String("Thing.java"), 1)); //$NON-NLS-1$
-        SourceFileAttribute sfa3 = new SourceFileAttribute(new CPUTF8(
-                new String("OtherThing.java"), 2)); //$NON-NLS-1$
+        CPUTF8 attributeName = new CPUTF8("SourceFile"); //$NON-NLS-1$
+        SourceFileAttribute sfa1 = new SourceFileAttribute(attributeName,
+                new CPUTF8(new String("Thing.java"), 1)); //$NON-NLS-1$
+        SourceFileAttribute sfa2 = new SourceFileAttribute(attributeName,
+                new CPUTF8(new String("Thing.java"), 1)); //$NON-NLS-1$
+        SourceFileAttribute sfa3 = new SourceFileAttribute(attributeName,
+                new CPUTF8(new String("OtherThing.java"), 2)); //$NON-NLS-1$
         checkEquality(sfa1, sfa2, "Thing.java", sfa3); //$NON-NLS-1$
     }
 